@@ -0,0 +1,119 @@
+package com.jh.websocketclient.adapter;
+
+import android.content.Context;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.support.v7.widget.LinearLayoutManager;
+import android.support.v7.widget.RecyclerView;
+import android.util.Log;
+import android.view.ContextThemeWrapper;
+import android.view.View;
+
+import com.jh.websocketclient.R;
+import com.jh.websocketclient.modle.ChatMessage;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * 聊天列表在 1万、10万、100万条历史下每条消息的绑定和追加开销，要真实的 View 和 RecyclerView，只能在设备上跑
+ * <p>
+ * 运行: ./gradlew connectedAndroidTest
+ * -Pandroid.testInstrumentationRunnerArguments.class=com.jh.websocketclient.adapter.ChatAdapterBenchmarkTest
+ * <p>
+ * 结果打在 logcat 的 ChatAdapterBenchmark 标签下：
+ * bind 是随机位置 onBindViewHolder 的平均耗时；insert 是 addMessage 加上滚到底部后一次 measure/layout，
+ * 也就是收到一条消息时主线程上的开销。
+ */
+@RunWith(AndroidJUnit4.class)
+public class ChatAdapterBenchmarkTest {
+
+    private static final String TAG = "ChatAdapterBenchmark";
+
+    private static final int[] HISTORIES = {10000, 100000, 1000000};
+    private static final int BINDS = 20000;
+    private static final int INSERTS = 1000;
+    private static final int WIDTH = 1080;
+    private static final int HEIGHT = 1920;
+
+    private static final String[] CONTENTS = {"好的", "收到，明天下午开会", "在吗？",
+            "今天下午三点在三楼会议室开会，记得带上上周的周报和下周的排期，有问题提前在群里说",
+            "build 已经提交了，麻烦 review 一下，没问题的话今晚发 release"};
+
+    @Test
+    public void bindAndInsertCostByHistorySize() {
+        final Context context = new ContextThemeWrapper(InstrumentationRegistry.getTargetContext(), R.style.AppTheme);
+        for (final int history : HISTORIES) {
+            InstrumentationRegistry.getInstrumentation().runOnMainSync(new Runnable() {
+                @Override
+                public void run() {
+                    measure(context, history);
+                }
+            });
+        }
+    }
+
+    private static ChatMessage message(Random random, int index) {
+        int flags = random.nextBoolean() ? ChatMessage.FLAG_ME_SEND : 0;
+        if (random.nextBoolean()) {
+            flags |= ChatMessage.FLAG_READ;
+        }
+        return new ChatMessage(1000000L + index, CONTENTS[random.nextInt(CONTENTS.length)],
+                1540000000000L + index * 1500L, flags);
+    }
+
+    private static void layout(RecyclerView recyclerView) {
+        recyclerView.measure(View.MeasureSpec.makeMeasureSpec(WIDTH, View.MeasureSpec.EXACTLY),
+                View.MeasureSpec.makeMeasureSpec(HEIGHT, View.MeasureSpec.EXACTLY));
+        recyclerView.layout(0, 0, WIDTH, HEIGHT);
+    }
+
+    private void measure(Context context, int history) {
+        Random random = new Random(history);
+        List<ChatMessage> messages = new ArrayList<>(history + INSERTS);
+        for (int i = 0; i < history; i++) {
+            messages.add(message(random, i));
+        }
+        Adapter_ChatMessage adapter = new Adapter_ChatMessage(context, messages);
+        RecyclerView recyclerView = new RecyclerView(context);
+        recyclerView.setLayoutManager(new LinearLayoutManager(context));
+        recyclerView.setAdapter(adapter);
+        recyclerView.scrollToPosition(history - 1);
+        layout(recyclerView);
+        assertTrue(recyclerView.getChildCount() > 0);
+
+        // 每种布局一个 ViewHolder，反复绑定随机位置的消息
+        Adapter_ChatMessage.ViewHolder send = adapter.createViewHolder(recyclerView, Adapter_ChatMessage.TYPE_SEND);
+        Adapter_ChatMessage.ViewHolder receive = adapter.createViewHolder(recyclerView,
+                Adapter_ChatMessage.TYPE_RECEIVE);
+        for (int i = 0; i < BINDS; i++) {// 预热
+            int position = random.nextInt(history);
+            adapter.bindViewHolder(adapter.getItemViewType(position) == Adapter_ChatMessage.TYPE_SEND ? send : receive,
+                    position);
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < BINDS; i++) {
+            int position = random.nextInt(history);
+            adapter.bindViewHolder(adapter.getItemViewType(position) == Adapter_ChatMessage.TYPE_SEND ? send : receive,
+                    position);
+        }
+        long bindNanos = (System.nanoTime() - start) / BINDS;
+
+        start = System.nanoTime();
+        for (int i = 0; i < INSERTS; i++) {
+            adapter.addMessage(message(random, history + i));
+            recyclerView.scrollToPosition(adapter.getItemCount() - 1);
+            layout(recyclerView);
+        }
+        long insertNanos = (System.nanoTime() - start) / INSERTS;
+        assertEquals(history + INSERTS, adapter.getItemCount());
+
+        Log.i(TAG, String.format("history=%d bind=%dns insert=%dns", history, bindNanos, insertNanos));
+    }
+}
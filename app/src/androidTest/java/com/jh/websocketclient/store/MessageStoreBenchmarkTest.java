@@ -0,0 +1,127 @@
+package com.jh.websocketclient.store;
+
+import android.content.Context;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import com.jh.websocketclient.modle.ChatMessage;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+/**
+ * 100万条消息的写入吞吐量和分页加载耗时，SQLite 只能在设备上跑，不放在 benchmark 模块里
+ * <p>
+ * 运行: ./gradlew connectedAndroidTest
+ * -Pandroid.testInstrumentationRunnerArguments.class=com.jh.websocketclient.store.MessageStoreBenchmarkTest
+ * <p>
+ * 结果打在 logcat 的 MessageStoreBenchmark 标签下。页的耗时从提交查询算到主线程回调，和列表看到的一样。
+ * 用单独的数据库文件，不影响应用里的聊天记录，跑完删除。
+ */
+@RunWith(AndroidJUnit4.class)
+public class MessageStoreBenchmarkTest {
+
+    private static final String TAG = "MessageStoreBenchmark";
+    private static final String DB_NAME = "chat_benchmark.db";
+
+    private static final int ROWS = 1000000;
+    private static final int CHUNK = 10000;// 每写这么多条等一次落库，待写队列不会无限增长
+    private static final int PAGE_SIZE = 50;
+    private static final int PAGE_LOADS = 200;
+
+    private static final String[] CONTENTS = {"好的", "收到，明天下午开会", "在吗？",
+            "今天下午三点在三楼会议室开会，记得带上上周的周报和下周的排期，有问题提前在群里说",
+            "build 已经提交了，麻烦 review 一下，没问题的话今晚发 release"};
+
+    private Context context;
+    private MessageStore store;
+
+    @Before
+    public void setUp() {
+        context = InstrumentationRegistry.getTargetContext();
+        context.deleteDatabase(DB_NAME);
+        store = new MessageStore(context, DB_NAME);
+    }
+
+    @After
+    public void tearDown() throws InterruptedException {
+        store.close();
+        context.deleteDatabase(DB_NAME);
+    }
+
+    @Test
+    public void insertAndPageAtOneMillionMessages() throws InterruptedException {
+        Random random = new Random(1);
+        long start = System.nanoTime();
+        for (int i = 0; i < ROWS; i++) {
+            int flags = (i & 1) == 0 ? ChatMessage.FLAG_ME_SEND | ChatMessage.FLAG_READ : 0;
+            store.insert(new ChatMessage(1000000L + i, CONTENTS[random.nextInt(CONTENTS.length)],
+                    1540000000000L + i * 1500L, flags));
+            if ((i + 1) % CHUNK == 0) {
+                loadBefore(Long.MAX_VALUE, 1);// 同一个线程上排在写入后面，返回时已经落库
+            }
+        }
+        long insertNanos = System.nanoTime() - start;
+        Log.i(TAG, String.format("insert %d rows: %d ms, %d rows/s", ROWS, insertNanos / 1000000,
+                ROWS * 1000000000L / insertNanos));
+
+        List<ChatMessage> latest = loadBefore(Long.MAX_VALUE, PAGE_SIZE);
+        assertEquals(PAGE_SIZE, latest.size());
+        assertEquals(ROWS, latest.get(PAGE_SIZE - 1).getSeq());
+
+        // 最新一页（打开聊天）和随机位置往上翻一页（翻历史）
+        long[] latestNanos = new long[PAGE_LOADS];
+        long[] historyNanos = new long[PAGE_LOADS];
+        for (int i = 0; i < PAGE_LOADS; i++) {
+            long begin = System.nanoTime();
+            loadBefore(Long.MAX_VALUE, PAGE_SIZE);
+            latestNanos[i] = System.nanoTime() - begin;
+
+            long beforeSeq = PAGE_SIZE + 1 + random.nextInt(ROWS - PAGE_SIZE);
+            begin = System.nanoTime();
+            List<ChatMessage> page = loadBefore(beforeSeq, PAGE_SIZE);
+            historyNanos[i] = System.nanoTime() - begin;
+            assertEquals(PAGE_SIZE, page.size());
+            assertEquals(beforeSeq - 1, page.get(PAGE_SIZE - 1).getSeq());
+        }
+        Log.i(TAG, "latest page " + percentiles(latestNanos));
+        Log.i(TAG, "history page " + percentiles(historyNanos));
+    }
+
+    /**
+     * 在测试线程上等主线程的回调
+     */
+    private List<ChatMessage> loadBefore(long beforeSeq, int limit) throws InterruptedException {
+        final CountDownLatch loaded = new CountDownLatch(1);
+        final AtomicReference<List<ChatMessage>> result = new AtomicReference<>();
+        store.loadBefore(beforeSeq, limit, new MessageStore.OnPageLoadedListener() {
+            @Override
+            public void onPageLoaded(List<ChatMessage> messages) {
+                result.set(messages);
+                loaded.countDown();
+            }
+        });
+        assertTrue(loaded.await(1, TimeUnit.MINUTES));
+        return result.get();
+    }
+
+    private static String percentiles(long[] nanos) {
+        long[] sorted = nanos.clone();
+        Arrays.sort(sorted);
+        return String.format("p50=%dus p90=%dus p99=%dus max=%dus", sorted[sorted.length / 2] / 1000,
+                sorted[sorted.length * 9 / 10] / 1000, sorted[sorted.length * 99 / 100] / 1000,
+                sorted[sorted.length - 1] / 1000);
+    }
+}
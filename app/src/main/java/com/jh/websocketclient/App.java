@@ -2,6 +2,8 @@ package com.jh.websocketclient;
 
 import android.app.Application;
 
+import com.jh.websocketclient.util.ClientLog;
+import com.jh.websocketclient.websocket.MyWebSocketClient;
 import com.orhanobut.logger.AndroidLogAdapter;
 import com.orhanobut.logger.FormatStrategy;
 import com.orhanobut.logger.Logger;
@@ -9,6 +11,10 @@ import com.orhanobut.logger.PrettyFormatStrategy;
 
 public class App extends Application {
 
+    private static final int LOG_BUFFER_SIZE = 1024;// 等待写出的日志条数上限，满了丢弃
+    private static final int LOG_MAX_ARG_LENGTH = 256;// 单个参数最多输出的字符数，消息内容不整条打出
+    private static final int TRACE_SAMPLE_INTERVAL_DEBUG = 1;// 调试包每条收到的消息都跟踪，release 包用默认的抽样
+
     @Override
     public void onCreate() {
         super.onCreate();
@@ -16,6 +22,10 @@ public class App extends Application {
         // 统一logger日志打印
         initLogger();
 
+        if (BuildConfig.DEBUG) {
+            MyWebSocketClient.getTracer().setSampleInterval(TRACE_SAMPLE_INTERVAL_DEBUG);
+        }
+
     }
 
     private void initLogger() {
@@ -29,8 +39,16 @@ public class App extends Application {
         Logger.addLogAdapter(new AndroidLogAdapter(formatStrategy) {
             @Override
             public boolean isLoggable(int priority, String tag) {
-                return true;
+                // release 包只输出警告和错误
+                return BuildConfig.DEBUG || priority >= ClientLog.WARN;
             }
         });
+        // 收发链路的日志在 ws-log 线程上格式化后交给 Logger
+        ClientLog.install(new ClientLog.Sink() {
+            @Override
+            public void write(int level, String tag, String message, Throwable error) {
+                Logger.log(level, tag, message, error);
+            }
+        }, BuildConfig.DEBUG ? ClientLog.DEBUG : ClientLog.WARN, LOG_BUFFER_SIZE, LOG_MAX_ARG_LENGTH);
     }
 }
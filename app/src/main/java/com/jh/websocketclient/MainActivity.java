@@ -2,12 +2,10 @@ package com.jh.websocketclient;
 
 import android.annotation.TargetApi;
 import android.app.AppOpsManager;
-import android.content.BroadcastReceiver;
 import android.content.ComponentName;
 import android.content.Context;
 import android.content.DialogInterface;
 import android.content.Intent;
-import android.content.IntentFilter;
 import android.content.ServiceConnection;
 import android.content.pm.ApplicationInfo;
 import android.net.Uri;
@@ -17,23 +15,34 @@ import android.os.IBinder;
 import android.provider.Settings;
 import android.support.v7.app.AlertDialog;
 import android.support.v7.app.AppCompatActivity;
+import android.support.v7.widget.LinearLayoutManager;
+import android.support.v7.widget.RecyclerView;
 import android.text.Editable;
 import android.text.TextWatcher;
 import android.util.Log;
 import android.view.View;
 import android.widget.Button;
 import android.widget.EditText;
-import android.widget.ListView;
+import android.widget.TextView;
 
 import com.jh.websocketclient.adapter.Adapter_ChatMessage;
+import com.jh.websocketclient.event.ConnectionStateEvent;
+import com.jh.websocketclient.event.MessageAckEvent;
+import com.jh.websocketclient.event.SocketEventBus;
 import com.jh.websocketclient.service.WebSocketService;
 import com.jh.websocketclient.modle.ChatMessage;
+import com.jh.websocketclient.store.MessageStore;
 import com.jh.websocketclient.util.Util;
+import com.jh.websocketclient.websocket.MessageDispatcher;
 import com.jh.websocketclient.websocket.MyWebSocketClient;
 
+import org.greenrobot.eventbus.Subscribe;
+import org.greenrobot.eventbus.ThreadMode;
+
 import java.lang.reflect.Field;
 import java.lang.reflect.Method;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 /**
@@ -50,13 +59,23 @@ public class MainActivity extends AppCompatActivity implements View.OnClickListe
     private WebSocketService jWebSClientService;
 
     private EditText et_content;
-    private ListView listView;
+    private RecyclerView recyclerView;
     private Button btn_send;
+    private TextView tv_state;
+
+    private static final int PAGE_SIZE = 50;// 每次从本地加载的消息数
+    private static final int MAX_WINDOW = 200;// 内存中最多保留的消息数
 
-    private List<ChatMessage> chatMessageList = new ArrayList<>();//消息列表
+    private List<ChatMessage> chatMessageList = new ArrayList<>();//消息列表（本地记录的一个窗口）
     private Adapter_ChatMessage adapter_chatMessage;
-    // 广播
-    private ChatMessageReceiver chatMessageReceiver;
+    private LinearLayoutManager layoutManager;
+
+    private MessageStore messageStore;
+    private boolean historyLoaded;// 最新一页是否已经加载
+    private List<ChatMessage> pendingBeforeLoad = new ArrayList<>();// 最新一页加载完之前收到的消息
+    private boolean hasOlder;// 窗口之前还有更早的消息
+    private boolean hasNewer;// 窗口之后还有更新的消息（向上翻页时裁掉了）
+    private boolean loadingPage;
 
     private ServiceConnection serviceConnection = new ServiceConnection() {
         @Override
@@ -74,19 +93,17 @@ public class MainActivity extends AppCompatActivity implements View.OnClickListe
         }
     };
 
-    private class ChatMessageReceiver extends BroadcastReceiver {
+    // 一帧内收到的消息一次性插入列表
+    private MessageDispatcher.OnMessagesListener onMessagesListener = new MessageDispatcher.OnMessagesListener() {
         @Override
-        public void onReceive(Context context, Intent intent) {
-            String message = intent.getStringExtra("message");
-            ChatMessage chatMessage = new ChatMessage();
-            chatMessage.setContent(message);
-            chatMessage.setIsMeSend(0);
-            chatMessage.setIsRead(1);
-            chatMessage.setTime(System.currentTimeMillis() + "");
-            chatMessageList.add(chatMessage);
-            initChatMsgListView();
+        public void onMessages(List<ChatMessage> messages) {
+            if (!historyLoaded) {
+                pendingBeforeLoad.addAll(messages);
+                return;
+            }
+            appendLatest(messages);
         }
-    }
+    };
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -95,21 +112,40 @@ public class MainActivity extends AppCompatActivity implements View.OnClickListe
         setContentView(R.layout.activity_main);
 
         mContext = MainActivity.this;
+        messageStore = MessageStore.getInstance(mContext);
         // 启动服务
         startJWebSClientService();
         // 绑定服务
         bindService();
-        // 注册广播
-        doRegisterReceiver();
         // 检测通知是否开启
         checkNotification(mContext);
         findViewById();
         initView();
+        // 监听收到的消息，再加载本地最新一页
+        MyWebSocketClient.getDispatcher().setListener(onMessagesListener);
+        loadLatestPage();
+        // 监听连接状态
+        SocketEventBus.get().register(this);
+    }
+
+    @Override
+    protected void onResume() {
+        super.onResume();
+        // 聊天界面在前台时消息直接显示在列表里，不再发通知
+        MyWebSocketClient.setForeground(mContext, true);
+    }
+
+    @Override
+    protected void onPause() {
+        super.onPause();
+        MyWebSocketClient.setForeground(mContext, false);
     }
 
     @Override
     protected void onDestroy() {
         super.onDestroy();
+        MyWebSocketClient.getDispatcher().setListener(null);
+        SocketEventBus.get().unregister(this);
         unbindService(serviceConnection);
     }
 
@@ -129,24 +165,17 @@ public class MainActivity extends AppCompatActivity implements View.OnClickListe
         startService(intent);
     }
 
-    /**
-     * 动态注册广播
-     */
-    private void doRegisterReceiver() {
-        chatMessageReceiver = new ChatMessageReceiver();
-        IntentFilter filter = new IntentFilter("com.xch.servicecallback.content");
-        registerReceiver(chatMessageReceiver, filter);
-    }
-
 
     private void findViewById() {
-        listView = findViewById(R.id.chatmsg_listView);
+        recyclerView = findViewById(R.id.chatmsg_listView);
         btn_send = findViewById(R.id.btn_send);
         et_content = findViewById(R.id.et_content);
+        tv_state = findViewById(R.id.jmui_group_num_tv);
         btn_send.setOnClickListener(this);
     }
 
     private void initView() {
+        initChatMsgListView();
         // 监听输入框的变化
         et_content.addTextChangedListener(new TextWatcher() {
             @Override
@@ -180,20 +209,24 @@ public class MainActivity extends AppCompatActivity implements View.OnClickListe
                     return;
                 }
 
-                if (client != null && client.isOpen()) {
-                    jWebSClientService.sendMsg(content);
-
-                    // 暂时将发送的消息加入消息列表，实际以发送成功为准（也就是服务器返回你发的消息时）
-                    ChatMessage chatMessage = new ChatMessage();
-                    chatMessage.setContent(content);
-                    chatMessage.setIsMeSend(1);
-                    chatMessage.setIsRead(1);
-                    chatMessage.setTime(System.currentTimeMillis() + "");
-                    chatMessageList.add(chatMessage);
-                    initChatMsgListView();
+                if (jWebSClientService == null) {
+                    Util.showToast(mContext, "服务未启动，请稍等哟");
+                    return;
+                }
+                // 断线时消息进入发送队列，连上后自动补发
+                ChatMessage chatMessage = ChatMessage.sent(content, System.currentTimeMillis());
+                if (jWebSClientService.sendMsg(chatMessage)) {
+                    // 先显示为未读，服务器确认（或返回你发的消息）后由 onMessageAcked 标记为已读
+                    messageStore.insert(chatMessage);
+                    if (hasNewer) {
+                        // 正在看历史消息，回到最新一页
+                        loadLatestPage();
+                    } else {
+                        appendLatest(Collections.singletonList(chatMessage));
+                    }
                     et_content.setText("");
                 } else {
-                    Util.showToast(mContext, "连接已断开，请稍等或重启App哟");
+                    Util.showToast(mContext, "待发送的消息太多，请稍后再试哟");
                 }
                 break;
             default:
@@ -201,10 +234,186 @@ public class MainActivity extends AppCompatActivity implements View.OnClickListe
         }
     }
 
+    /**
+     * 消息列表只初始化一次，之后的消息增量插入
+     */
     private void initChatMsgListView() {
+        layoutManager = new LinearLayoutManager(mContext);
+        layoutManager.setStackFromEnd(true);
+        recyclerView.setLayoutManager(layoutManager);
+        recyclerView.setHasFixedSize(true);
+        // 发送和接收两种布局分别缓存
+        recyclerView.getRecycledViewPool().setMaxRecycledViews(Adapter_ChatMessage.TYPE_SEND, 20);
+        recyclerView.getRecycledViewPool().setMaxRecycledViews(Adapter_ChatMessage.TYPE_RECEIVE, 20);
         adapter_chatMessage = new Adapter_ChatMessage(mContext, chatMessageList);
-        listView.setAdapter(adapter_chatMessage);
-        listView.setSelection(chatMessageList.size());
+        recyclerView.setAdapter(adapter_chatMessage);
+        // 滑到顶部加载更早的消息，滑到底部加载被裁掉的新消息
+        recyclerView.addOnScrollListener(new RecyclerView.OnScrollListener() {
+            @Override
+            public void onScrolled(RecyclerView recyclerView, int dx, int dy) {
+                if (loadingPage || !historyLoaded) {
+                    return;
+                }
+                if (dy < 0 && hasOlder && layoutManager.findFirstVisibleItemPosition() <= 2) {
+                    loadOlderPage();
+                } else if (dy > 0 && hasNewer
+                        && layoutManager.findLastVisibleItemPosition() >= adapter_chatMessage.getItemCount() - 3) {
+                    loadNewerPage();
+                }
+            }
+        });
+    }
+
+    private void loadLatestPage() {
+        loadingPage = true;
+        messageStore.loadLatest(PAGE_SIZE, new MessageStore.OnPageLoadedListener() {
+            @Override
+            public void onPageLoaded(List<ChatMessage> messages) {
+                loadingPage = false;
+                historyLoaded = true;
+                hasOlder = messages.size() == PAGE_SIZE;
+                hasNewer = false;
+                adapter_chatMessage.setMessages(messages);
+                List<ChatMessage> pending = pendingBeforeLoad;
+                pendingBeforeLoad = new ArrayList<>();
+                appendLatest(pending);
+                recyclerView.scrollToPosition(adapter_chatMessage.getItemCount() - 1);
+            }
+        });
+    }
+
+    private void loadOlderPage() {
+        if (chatMessageList.isEmpty()) {
+            return;
+        }
+        loadingPage = true;
+        messageStore.loadBefore(chatMessageList.get(0).getSeq(), PAGE_SIZE, new MessageStore.OnPageLoadedListener() {
+            @Override
+            public void onPageLoaded(List<ChatMessage> messages) {
+                loadingPage = false;
+                hasOlder = messages.size() == PAGE_SIZE;
+                adapter_chatMessage.prependMessages(messages);
+                int overflow = chatMessageList.size() - MAX_WINDOW;
+                if (overflow > 0) {
+                    adapter_chatMessage.removeLast(overflow);
+                    hasNewer = true;
+                }
+            }
+        });
+    }
+
+    private void loadNewerPage() {
+        if (chatMessageList.isEmpty()) {
+            return;
+        }
+        loadingPage = true;
+        messageStore.loadAfter(lastSeqInWindow(), PAGE_SIZE, new MessageStore.OnPageLoadedListener() {
+            @Override
+            public void onPageLoaded(List<ChatMessage> messages) {
+                loadingPage = false;
+                hasNewer = messages.size() == PAGE_SIZE;
+                adapter_chatMessage.addMessages(messages);
+                trimOldest();
+            }
+        });
+    }
+
+    /**
+     * 追加最新的消息，窗口超过上限时裁掉最旧的
+     * <p>
+     * 收到的消息在分发线程上分配序号后还要等一帧才到这里，其间自己发送的消息序号更大、已经先加进窗口，
+     * 所以序号比窗口末尾小的消息按序号插到对应位置；窗口里已有同一序号的（刚加载的页里已包含）跳过
+     */
+    private void appendLatest(List<ChatMessage> messages) {
+        if (hasNewer || messages.isEmpty()) {
+            return;// 正在看历史消息，新消息已在本地，滑到底部时再加载
+        }
+        List<ChatMessage> tail = new ArrayList<>(messages.size());
+        for (ChatMessage message : messages) {
+            long lastSeq = tail.isEmpty() ? lastSeqInWindow() : tail.get(tail.size() - 1).getSeq();
+            if (message.getSeq() > lastSeq) {
+                tail.add(message);
+                continue;
+            }
+            adapter_chatMessage.addMessages(tail);
+            tail.clear();
+            insertBySeq(message);
+        }
+        adapter_chatMessage.addMessages(tail);
+        trimOldest();
+        recyclerView.scrollToPosition(adapter_chatMessage.getItemCount() - 1);
+    }
+
+    private void insertBySeq(ChatMessage message) {
+        int low = 0;
+        int high = chatMessageList.size() - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            long seq = chatMessageList.get(mid).getSeq();
+            if (seq < message.getSeq()) {
+                low = mid + 1;
+            } else if (seq > message.getSeq()) {
+                high = mid - 1;
+            } else {
+                return;// 已在窗口里
+            }
+        }
+        if (low == 0 && hasOlder) {
+            return;// 比窗口里最旧的还早，向上翻页时从本地加载
+        }
+        adapter_chatMessage.insertMessage(low, message);
+    }
+
+    private void trimOldest() {
+        int overflow = chatMessageList.size() - MAX_WINDOW;
+        if (overflow > 0) {
+            adapter_chatMessage.removeFirst(overflow);
+            hasOlder = true;
+        }
+    }
+
+    private long lastSeqInWindow() {
+        return chatMessageList.isEmpty() ? 0 : chatMessageList.get(chatMessageList.size() - 1).getSeq();
+    }
+
+    /**
+     * 自己发送的消息收到服务端确认，只刷新这一条的已读状态
+     */
+    @Subscribe(threadMode = ThreadMode.MAIN)
+    public void onMessageAcked(MessageAckEvent event) {
+        for (int i = chatMessageList.size() - 1; i >= 0; i--) {
+            ChatMessage message = chatMessageList.get(i);
+            if (message.getId() == event.id) {
+                if (!message.isRead()) {
+                    List<ChatMessage> newList = new ArrayList<>(chatMessageList);
+                    newList.set(i, message.withFlags(message.getFlags() | ChatMessage.FLAG_READ));
+                    adapter_chatMessage.submitList(newList);
+                }
+                return;
+            }
+        }
+    }
+
+    /**
+     * 连接状态变化（粘性事件，注册时会立即收到当前状态）
+     */
+    @Subscribe(threadMode = ThreadMode.MAIN, sticky = true)
+    public void onConnectionStateChanged(ConnectionStateEvent event) {
+        switch (event.state) {
+            case CONNECTING:
+                tv_state.setText("（连接中）");
+                break;
+            case OPEN:
+                tv_state.setText("");
+                break;
+            case WAITING_RECONNECT:
+            case CIRCUIT_OPEN:
+                tv_state.setText("（等待重连）");
+                break;
+            default:
+                tv_state.setText("（已断开）");
+                break;
+        }
     }
 
 
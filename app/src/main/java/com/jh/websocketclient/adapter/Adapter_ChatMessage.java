@@ -2,128 +2,263 @@ package com.jh.websocketclient.adapter;
 
 import android.content.Context;
 import android.graphics.Color;
+import android.support.annotation.NonNull;
+import android.support.v7.util.DiffUtil;
+import android.support.v7.widget.RecyclerView;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
-import android.widget.BaseAdapter;
 import android.widget.TextView;
 
 
 import com.jh.websocketclient.R;
 import com.jh.websocketclient.modle.ChatMessage;
 
-import java.text.SimpleDateFormat;
-import java.util.Date;
+import java.util.ArrayList;
 import java.util.List;
 
-public class Adapter_ChatMessage extends BaseAdapter {
+/**
+ * 聊天列表适配器
+ * <p>
+ * 适配器只创建一次，新消息通过 addMessage/addMessages 增量插入，
+ * 已读状态等变化通过 submitList 做差分，只刷新发生变化的条目。
+ */
+public class Adapter_ChatMessage extends RecyclerView.Adapter<Adapter_ChatMessage.ViewHolder> {
+
+    public static final int TYPE_SEND = 0;// 自己发送
+    public static final int TYPE_RECEIVE = 1;// 对方发送
+
+    // 局部刷新标记：只更新已读状态
+    private static final Object PAYLOAD_READ_STATE = new Object();
 
     List<ChatMessage> mChatMessageList;
     LayoutInflater inflater;
     Context context;
+    private final int unreadColor;
 
     public Adapter_ChatMessage(Context context, List<ChatMessage> list) {
         this.mChatMessageList = list;
         this.context = context;
         inflater = LayoutInflater.from(context);
-    }
-
-    @Override
-    public int getViewTypeCount() {
-        return 2;
+        unreadColor = context.getResources().getColor(R.color.jmui_jpush_blue);
     }
 
     @Override
     public int getItemViewType(int position) {
-        if (mChatMessageList.get(position).getIsMeSend() == 1)
-            return 0;// 返回的数据位角标
+        if (mChatMessageList.get(position).isMeSend())
+            return TYPE_SEND;
         else
-            return 1;
+            return TYPE_RECEIVE;
     }
 
     @Override
-    public int getCount() {
+    public int getItemCount() {
         return mChatMessageList.size();
     }
 
+    public ChatMessage getItem(int position) {
+        return mChatMessageList.get(position);
+    }
 
-    @Override
-    public Object getItem(int i) {
-        return mChatMessageList.get(i);
+    /**
+     * 追加一条消息
+     *
+     * @param chatMessage
+     */
+    public void addMessage(ChatMessage chatMessage) {
+        mChatMessageList.add(chatMessage);
+        notifyItemInserted(mChatMessageList.size() - 1);
     }
 
-    @Override
-    public long getItemId(int i) {
-        return i;
+    /**
+     * 批量追加消息，只触发一次范围插入
+     *
+     * @param chatMessages
+     */
+    public void addMessages(List<ChatMessage> chatMessages) {
+        if (chatMessages == null || chatMessages.isEmpty()) {
+            return;
+        }
+        int start = mChatMessageList.size();
+        mChatMessageList.addAll(chatMessages);
+        notifyItemRangeInserted(start, chatMessages.size());
     }
 
-    @Override
-    public View getView(int i, View view, ViewGroup viewGroup) {
-        ChatMessage mChatMessage = mChatMessageList.get(i);
-        String content = mChatMessage.getContent();
-        String time = formatTime(mChatMessage.getTime());
-        int isMeSend = mChatMessage.getIsMeSend();
-        int isRead = mChatMessage.getIsRead();////是否已读（0未读 1已读）
-        final ViewHolder holder;
-        if (view == null) {
-            holder = new ViewHolder();
-            if (isMeSend == 0) {//对方发送
-                view = inflater.inflate(R.layout.item_chat_receive_text, viewGroup, false);
-                holder.tv_content = view.findViewById(R.id.tv_content);
-                holder.tv_sendtime = view.findViewById(R.id.tv_sendtime);
-                holder.tv_display_name = view.findViewById(R.id.tv_display_name);
-            } else {
-                view = inflater.inflate(R.layout.item_chat_send_text, viewGroup, false);
-                holder.tv_content = view.findViewById(R.id.tv_content);
-                holder.tv_sendtime = view.findViewById(R.id.tv_sendtime);
-                holder.tv_isRead = view.findViewById(R.id.tv_isRead);
-            }
+    /**
+     * 在 position 处插入一条消息（比窗口末尾序号小、晚到的消息）
+     */
+    public void insertMessage(int position, ChatMessage chatMessage) {
+        mChatMessageList.add(position, chatMessage);
+        notifyItemInserted(position);
+    }
 
-            view.setTag(holder);
-        } else {
-            holder = (ViewHolder) view.getTag();
+    /**
+     * 在顶部插入更早的消息（向上翻页）
+     *
+     * @param chatMessages
+     */
+    public void prependMessages(List<ChatMessage> chatMessages) {
+        if (chatMessages == null || chatMessages.isEmpty()) {
+            return;
         }
+        mChatMessageList.addAll(0, chatMessages);
+        notifyItemRangeInserted(0, chatMessages.size());
+    }
 
+    /**
+     * 移除最旧的 count 条，控制内存中的消息数量
+     */
+    public void removeFirst(int count) {
+        count = Math.min(count, mChatMessageList.size());
+        if (count <= 0) {
+            return;
+        }
+        mChatMessageList.subList(0, count).clear();
+        notifyItemRangeRemoved(0, count);
+    }
 
-        holder.tv_sendtime.setText(time);
-        holder.tv_content.setVisibility(View.VISIBLE);
-        holder.tv_content.setText(content);
+    /**
+     * 移除最新的 count 条
+     */
+    public void removeLast(int count) {
+        int size = mChatMessageList.size();
+        count = Math.min(count, size);
+        if (count <= 0) {
+            return;
+        }
+        mChatMessageList.subList(size - count, size).clear();
+        notifyItemRangeRemoved(size - count, count);
+    }
 
+    /**
+     * 整体替换（回到最新一页时使用）
+     */
+    public void setMessages(List<ChatMessage> chatMessages) {
+        mChatMessageList.clear();
+        mChatMessageList.addAll(chatMessages);
+        notifyDataSetChanged();
+    }
 
-        //如果是自己发送才显示未读已读
-        if (isMeSend == 1) {
-            if (isRead == 0) {
-                holder.tv_isRead.setText("未读");
-                holder.tv_isRead.setTextColor(context.getResources().getColor(R.color.jmui_jpush_blue));
-            } else if (isRead == 1) {
-                holder.tv_isRead.setText("已读");
-                holder.tv_isRead.setTextColor(Color.GRAY);
-            } else {
-                holder.tv_isRead.setText("");
-            }
-        } else {
+    /**
+     * 用新的列表替换当前数据，差分后只刷新变化的条目（如已读状态）
+     * 状态变化的消息请传入新的对象，原地修改的对象无法被差分出来
+     *
+     * @param newList
+     */
+    public void submitList(List<ChatMessage> newList) {
+        List<ChatMessage> snapshot = new ArrayList<>(newList);
+        DiffUtil.DiffResult result = DiffUtil.calculateDiff(new ChatMessageDiffCallback(mChatMessageList, snapshot));
+        mChatMessageList.clear();
+        mChatMessageList.addAll(snapshot);
+        result.dispatchUpdatesTo(this);
+    }
+
+    @NonNull
+    @Override
+    public ViewHolder onCreateViewHolder(@NonNull ViewGroup viewGroup, int viewType) {
+        View view;
+        ViewHolder holder;
+        if (viewType == TYPE_RECEIVE) {//对方发送
+            view = inflater.inflate(R.layout.item_chat_receive_text, viewGroup, false);
+            holder = new ViewHolder(view);
+            holder.tv_display_name = view.findViewById(R.id.tv_display_name);
             holder.tv_display_name.setVisibility(View.VISIBLE);
             holder.tv_display_name.setText("服务器");
+        } else {
+            view = inflater.inflate(R.layout.item_chat_send_text, viewGroup, false);
+            holder = new ViewHolder(view);
+            holder.tv_isRead = view.findViewById(R.id.tv_isRead);
         }
+        holder.tv_content = view.findViewById(R.id.tv_content);
+        holder.tv_sendtime = view.findViewById(R.id.tv_sendtime);
+        holder.tv_content.setVisibility(View.VISIBLE);
+        return holder;
+    }
 
-        return view;
+    @Override
+    public void onBindViewHolder(@NonNull ViewHolder holder, int position, @NonNull List<Object> payloads) {
+        if (payloads.contains(PAYLOAD_READ_STATE) && holder.tv_isRead != null) {
+            bindReadState(holder, mChatMessageList.get(position).isRead());
+        } else {
+            onBindViewHolder(holder, position);
+        }
     }
 
-    class ViewHolder {
-        private TextView tv_content, tv_sendtime, tv_display_name, tv_isRead;
+    @Override
+    public void onBindViewHolder(@NonNull ViewHolder holder, int position) {
+        ChatMessage mChatMessage = mChatMessageList.get(position);
+        holder.tv_sendtime.setText(mChatMessage.getFormattedTime());
+        holder.tv_content.setText(mChatMessage.getContent());
+
+        //如果是自己发送才显示未读已读
+        if (holder.tv_isRead != null) {
+            bindReadState(holder, mChatMessage.isRead());
+        }
     }
 
+    /**
+     * 是否已读
+     */
+    private void bindReadState(ViewHolder holder, boolean isRead) {
+        if (isRead) {
+            holder.tv_isRead.setText("已读");
+            holder.tv_isRead.setTextColor(Color.GRAY);
+        } else {
+            holder.tv_isRead.setText("未读");
+            holder.tv_isRead.setTextColor(unreadColor);
+        }
+    }
+
+    static class ViewHolder extends RecyclerView.ViewHolder {
+        private TextView tv_content, tv_sendtime, tv_display_name, tv_isRead;
+
+        ViewHolder(View itemView) {
+            super(itemView);
+        }
+    }
 
     /**
-     * 将毫秒数转为日期格式
-     *
-     * @param timeMillis
-     * @return
+     * 消息列表差分：同一条消息比较已读状态
      */
-    private String formatTime(String timeMillis) {
-        long timeMillisl = Long.parseLong(timeMillis);
-        SimpleDateFormat simpleDateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
-        Date date = new Date(timeMillisl);
-        return simpleDateFormat.format(date);
+    private static class ChatMessageDiffCallback extends DiffUtil.Callback {
+
+        private final List<ChatMessage> oldList;
+        private final List<ChatMessage> newList;
+
+        ChatMessageDiffCallback(List<ChatMessage> oldList, List<ChatMessage> newList) {
+            // 旧列表随后会被清空，这里保留一份快照
+            this.oldList = new ArrayList<>(oldList);
+            this.newList = newList;
+        }
+
+        @Override
+        public int getOldListSize() {
+            return oldList.size();
+        }
+
+        @Override
+        public int getNewListSize() {
+            return newList.size();
+        }
+
+        @Override
+        public boolean areItemsTheSame(int oldItemPosition, int newItemPosition) {
+            ChatMessage oldItem = oldList.get(oldItemPosition);
+            ChatMessage newItem = newList.get(newItemPosition);
+            if (oldItem == newItem) {
+                return true;
+            }
+            return oldItem.getId() == newItem.getId();
+        }
+
+        @Override
+        public boolean areContentsTheSame(int oldItemPosition, int newItemPosition) {
+            return oldList.get(oldItemPosition).getFlags() == newList.get(newItemPosition).getFlags();
+        }
+
+        @Override
+        public Object getChangePayload(int oldItemPosition, int newItemPosition) {
+            return PAYLOAD_READ_STATE;
+        }
     }
 }
@@ -0,0 +1,129 @@
+package com.jh.websocketclient.binary;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 二进制消息通道
+ * <p>
+ * 收：读线程直接回调监听者，每个监听者拿到同一块数据的只读视图，不拷贝。
+ * 数据只在回调期间有效（分片消息的拼接缓冲区会被下一条消息复用），需要保留时由监听者自己拷贝。
+ * <p>
+ * 发：obtainBuffer 从池里取缓冲区，写入数据并 flip 之后调用 send，发送完成后缓冲区自动还回池里。
+ * 二进制消息不进持久化的发送队列，连接断开时直接返回false，排队途中断开的消息被丢弃。
+ */
+public class BinaryChannel {
+
+    public interface OnBinaryMessageListener {
+        /**
+         * 读线程回调，不要在这里做耗时操作
+         *
+         * @param payload 只读，只在回调期间有效
+         */
+        void onBinaryMessage(ByteBuffer payload);
+    }
+
+    public interface Sender {
+        boolean isOpen();
+
+        /**
+         * 可以异步发送
+         *
+         * @param onComplete 写出或丢弃后调用，之后不能再访问 bytes
+         */
+        void send(ByteBuffer bytes, Runnable onComplete);
+    }
+
+    private final Sender sender;
+    private final BufferPool pool;
+    private final CopyOnWriteArrayList<OnBinaryMessageListener> listeners = new CopyOnWriteArrayList<>();
+
+    private final AtomicLong receivedCount = new AtomicLong();
+    private final AtomicLong receivedBytes = new AtomicLong();
+    private final AtomicLong sentCount = new AtomicLong();
+    private final AtomicLong sentBytes = new AtomicLong();
+
+    public BinaryChannel(Sender sender, BufferPool pool) {
+        this.sender = sender;
+        this.pool = pool;
+    }
+
+    public void addListener(OnBinaryMessageListener listener) {
+        listeners.addIfAbsent(listener);
+    }
+
+    public void removeListener(OnBinaryMessageListener listener) {
+        listeners.remove(listener);
+    }
+
+    public boolean hasListener() {
+        return !listeners.isEmpty();
+    }
+
+    /**
+     * 读线程：把收到的消息交给所有监听者
+     */
+    public void dispatch(ByteBuffer payload) {
+        receivedCount.incrementAndGet();
+        receivedBytes.addAndGet(payload.remaining());
+        for (OnBinaryMessageListener listener : listeners) {
+            // 每个监听者一个独立的 position/limit，底层数据是同一份
+            listener.onBinaryMessage(payload.asReadOnlyBuffer());
+        }
+    }
+
+    /**
+     * 取一块发送缓冲区，position=0，limit=size
+     */
+    public ByteBuffer obtainBuffer(int size) {
+        return pool.acquire(size);
+    }
+
+    /**
+     * 发送 buffer 中 position 到 limit 之间的数据，无论成功与否 buffer 都会还回池里，调用后不能再使用 buffer
+     *
+     * @return 连接不可用或发送途中断开时返回false
+     */
+    public boolean send(final ByteBuffer buffer) {
+        if (!sender.isOpen()) {
+            pool.release(buffer);
+            return false;
+        }
+        final int size = buffer.remaining();
+        try {
+            sender.send(buffer, new Runnable() {
+                @Override
+                public void run() {
+                    pool.release(buffer);
+                }
+            });
+        } catch (RuntimeException e) {
+            pool.release(buffer);
+            return false;// WebsocketNotConnectedException：发送途中断开
+        }
+        sentCount.incrementAndGet();
+        sentBytes.addAndGet(size);
+        return true;
+    }
+
+    public BufferPool getPool() {
+        return pool;
+    }
+
+    public long getReceivedCount() {
+        return receivedCount.get();
+    }
+
+    public long getReceivedBytes() {
+        return receivedBytes.get();
+    }
+
+    public long getSentCount() {
+        return sentCount.get();
+    }
+
+    public long getSentBytes() {
+        return sentBytes.get();
+    }
+}
@@ -0,0 +1,99 @@
+package com.jh.websocketclient.binary;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 发送二进制消息用的缓冲区池
+ * <p>
+ * 按2的幂分档（minSize ~ maxSize），每档最多缓存 maxPerClass 个；超过 maxSize 的直接分配，用完不回收。
+ * 帧编码时库会把数据拷贝进新的帧缓冲区，所以 send 返回后缓冲区就可以还回来。
+ */
+public class BufferPool {
+
+    private final int minShift;
+    private final int maxShift;
+    private final int maxPerClass;
+    private final List<ArrayDeque<ByteBuffer>> classes;
+
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+
+    /**
+     * @param minSize     最小一档的大小，向上取2的幂
+     * @param maxSize     最大一档的大小，向上取2的幂
+     * @param maxPerClass 每档最多缓存的缓冲区数
+     */
+    public BufferPool(int minSize, int maxSize, int maxPerClass) {
+        if (minSize <= 0 || maxSize < minSize || maxSize > (1 << 30) || maxPerClass < 0) {
+            throw new IllegalArgumentException("invalid pool size");
+        }
+        this.minShift = shiftOf(minSize);
+        this.maxShift = shiftOf(maxSize);
+        this.maxPerClass = maxPerClass;
+        this.classes = new ArrayList<>(maxShift - minShift + 1);
+        for (int shift = minShift; shift <= maxShift; shift++) {
+            classes.add(new ArrayDeque<ByteBuffer>());
+        }
+    }
+
+    /**
+     * @return position=0，limit=size 的缓冲区，容量可能大于 size
+     */
+    public ByteBuffer acquire(int size) {
+        int shift = Math.max(minShift, shiftOf(size));
+        if (shift > maxShift) {
+            missCount.incrementAndGet();
+            return ByteBuffer.allocate(size);
+        }
+        ArrayDeque<ByteBuffer> pool = classes.get(shift - minShift);
+        ByteBuffer buffer;
+        synchronized (pool) {
+            buffer = pool.pollFirst();
+        }
+        if (buffer == null) {
+            missCount.incrementAndGet();
+            buffer = ByteBuffer.allocate(1 << shift);
+        } else {
+            hitCount.incrementAndGet();
+        }
+        buffer.clear();
+        buffer.limit(size);
+        return buffer;
+    }
+
+    /**
+     * 还回缓冲区，之后调用者不能再使用它
+     */
+    public void release(ByteBuffer buffer) {
+        int capacity = buffer.capacity();
+        if (buffer.isReadOnly() || Integer.bitCount(capacity) != 1) {
+            return;// 不是池里分配的
+        }
+        int shift = shiftOf(capacity);
+        if (shift < minShift || shift > maxShift) {
+            return;
+        }
+        ArrayDeque<ByteBuffer> pool = classes.get(shift - minShift);
+        synchronized (pool) {
+            if (pool.size() < maxPerClass) {
+                pool.addLast(buffer);
+            }
+        }
+    }
+
+    private static int shiftOf(int size) {
+        return size <= 1 ? 0 : 32 - Integer.numberOfLeadingZeros(size - 1);
+    }
+
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    public long getMissCount() {
+        return missCount.get();
+    }
+}
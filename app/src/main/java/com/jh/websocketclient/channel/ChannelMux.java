@@ -0,0 +1,340 @@
+package com.jh.websocketclient.channel;
+
+import android.util.Log;
+
+import com.jh.websocketclient.codec.BinaryCodec;
+import com.jh.websocketclient.codec.Envelope;
+import com.jh.websocketclient.queue.TrafficClass;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 在一个 WebSocket 连接上复用多个逻辑频道
+ * <p>
+ * 1. 订阅：open 时发 SUBSCRIBE，close 时发 UNSUBSCRIBE，重连后 onConnected 重新订阅所有打开的频道；
+ * 2. 流控：每个频道每个方向有独立的字节额度。SUBSCRIBE 带上给服务器的初始额度，
+ * 我们每处理完半个窗口的数据就发 CREDIT 追加额度；服务器同样用 CREDIT 给我们追加，额度用完的频道暂停发送，
+ * 不影响其他频道；
+ * 3. 调度：有数据且有额度的频道按差额轮转（deficit round robin）发送，每轮每个频道最多发 quantum 字节，
+ * 大量数据的频道不会饿死其他频道。发出的消息带上频道的 TrafficClass 交给 Transport（OutboundScheduler）
+ * 按类别调度，Transport 不可写（调度器里排队的已经够多）时暂停。
+ * <p>
+ * 控制消息（订阅、额度）不占额度，排在数据前面，按 CONTROL 发送。发送在单独的线程上，消息回调在连接的读线程上。
+ */
+public class ChannelMux {
+
+    private static final String TAG = "ChannelMux";
+
+    private static final long WRITE_RETRY_MILLIS = 5;// Transport 不可写时隔多久再试
+
+    public interface Transport {
+        boolean isOpen();
+
+        /**
+         * 写缓冲区还有空间，false 时稍后重试
+         */
+        boolean isWritable();
+
+        void send(Envelope envelope, TrafficClass trafficClass);
+    }
+
+    private final Transport transport;
+    private final long initialWindow;
+    private final long quantum;
+    private final long maxQueuedBytes;
+
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor();
+
+    // 以下加锁访问
+    private final Map<String, LogicalChannel> channels = new LinkedHashMap<>();
+    private final ArrayDeque<Envelope> control = new ArrayDeque<>();
+    private final ArrayDeque<LogicalChannel> activeChannels = new ArrayDeque<>();
+    private boolean connected;
+    private boolean drainScheduled;
+
+    /**
+     * @param initialWindow  每个频道每个方向的初始额度（字节）
+     * @param quantum        轮转调度每轮每个频道的字节数
+     * @param maxQueuedBytes 每个频道本地最多排队的字节数
+     */
+    public ChannelMux(Transport transport, long initialWindow, long quantum, long maxQueuedBytes) {
+        if (initialWindow <= 0 || quantum <= 0 || maxQueuedBytes <= 0) {
+            throw new IllegalArgumentException("invalid mux config");
+        }
+        this.transport = transport;
+        this.initialWindow = initialWindow;
+        this.quantum = quantum;
+        this.maxQueuedBytes = maxQueuedBytes;
+    }
+
+    /**
+     * 打开并订阅一个交互类的频道
+     */
+    public LogicalChannel open(String name, LogicalChannel.OnChannelMessageListener listener) {
+        return open(name, TrafficClass.INTERACTIVE, listener);
+    }
+
+    /**
+     * 打开并订阅一个频道，未连接时在 onConnected 时订阅
+     *
+     * @param trafficClass 这个频道发出的数据的优先级类别
+     */
+    public LogicalChannel open(String name, TrafficClass trafficClass, LogicalChannel.OnChannelMessageListener listener) {
+        synchronized (this) {
+            if (channels.containsKey(name)) {
+                throw new IllegalStateException("channel already open: " + name);
+            }
+            LogicalChannel channel = new LogicalChannel(this, name, trafficClass, listener);
+            channel.sendWindow = initialWindow;
+            channels.put(name, channel);
+            if (connected) {
+                control.addLast(subscribe(name));
+            }
+            scheduleDrain(0);
+            return channel;
+        }
+    }
+
+    public synchronized LogicalChannel getChannel(String name) {
+        return channels.get(name);
+    }
+
+    public synchronized List<LogicalChannel> getChannels() {
+        return new ArrayList<>(channels.values());
+    }
+
+    boolean offer(LogicalChannel channel, Envelope envelope) {
+        int bytes = cost(envelope);
+        synchronized (this) {
+            if (channel.closed || bytes > initialWindow || channel.queuedBytes + bytes > maxQueuedBytes) {
+                return false;
+            }
+            channel.queue.addLast(envelope);
+            channel.queueSizes.addLast(bytes);
+            channel.queuedBytes += bytes;
+            activate(channel);
+            return true;
+        }
+    }
+
+    synchronized void close(LogicalChannel channel) {
+        if (channel.closed) {
+            return;
+        }
+        channel.closed = true;
+        channels.remove(channel.getName());
+        activeChannels.remove(channel);
+        channel.active = false;
+        channel.queue.clear();
+        channel.queueSizes.clear();
+        channel.queuedBytes = 0;
+        if (connected) {
+            control.addLast(new Envelope(Envelope.TYPE_UNSUBSCRIBE, channel.getName(), 0, 0, null, 0, null));
+            scheduleDrain(0);
+        }
+    }
+
+    /**
+     * 连接建立：额度重新开始，重新订阅所有频道，断线期间排队的消息接着发
+     */
+    public synchronized void onConnected() {
+        connected = true;
+        control.clear();
+        activeChannels.clear();
+        for (LogicalChannel channel : channels.values()) {
+            channel.sendWindow = initialWindow;
+            channel.receivedSinceCredit = 0;
+            channel.active = false;
+            control.addLast(subscribe(channel.getName()));
+            activate(channel);
+        }
+        scheduleDrain(0);
+    }
+
+    public synchronized void onDisconnected() {
+        connected = false;
+        control.clear();
+    }
+
+    /**
+     * 读线程调用
+     *
+     * @return false 表示不属于任何频道（默认聊天流），由调用者处理
+     */
+    public boolean onEnvelope(Envelope envelope) {
+        String name = envelope.getChannel();
+        if (name == null) {
+            return false;
+        }
+        LogicalChannel channel;
+        synchronized (this) {
+            channel = channels.get(name);
+            if (channel == null) {
+                return true;// 已退订，丢弃路上的消息
+            }
+            if (envelope.getType() == Envelope.TYPE_CREDIT) {
+                channel.sendWindow += envelope.getSeq();
+                activate(channel);
+                return true;
+            }
+            if (envelope.getType() != Envelope.TYPE_CHAT) {
+                return true;
+            }
+            channel.receivedCount++;
+        }
+        try {
+            channel.listener.onChannelMessage(channel, envelope);
+        } catch (RuntimeException e) {
+            Log.e(TAG, "listener of " + name + " failed", e);
+        }
+        synchronized (this) {
+            // 处理完才算消费，累计到半个窗口后一次性追加
+            channel.receivedSinceCredit += cost(envelope);
+            if (!channel.closed && connected && channel.receivedSinceCredit >= initialWindow / 2) {
+                control.addLast(new Envelope(Envelope.TYPE_CREDIT, name, 0, channel.receivedSinceCredit, null, 0, null));
+                channel.receivedSinceCredit = 0;
+                scheduleDrain(0);
+            }
+        }
+        return true;
+    }
+
+    private Envelope subscribe(String name) {
+        return new Envelope(Envelope.TYPE_SUBSCRIBE, name, 0, initialWindow, null, 0, null);
+    }
+
+    /**
+     * 有数据、有额度的频道放进调度队列
+     */
+    private void activate(LogicalChannel channel) {
+        if (channel.active || channel.closed || channel.queue.isEmpty()) {
+            return;
+        }
+        if (channel.sendWindow < channel.queueSizes.peekFirst()) {
+            return;// 等服务器追加额度
+        }
+        channel.active = true;
+        channel.inTurn = false;
+        channel.deficit = 0;
+        activeChannels.addLast(channel);
+        scheduleDrain(0);
+    }
+
+    private void scheduleDrain(long delayMillis) {
+        if (drainScheduled) {
+            return;
+        }
+        drainScheduled = true;
+        executor.schedule(drainRunnable, delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private final Runnable drainRunnable = new Runnable() {
+        @Override
+        public void run() {
+            synchronized (ChannelMux.this) {
+                drainScheduled = false;
+                if (!connected) {
+                    return;// onConnected 时重新调度
+                }
+            }
+            drain();
+        }
+    };
+
+    /**
+     * 发送线程：先发控制消息，再按轮转发数据，直到没有可发的或 Transport 不可写
+     */
+    private void drain() {
+        while (true) {
+            if (!transport.isOpen()) {
+                return;
+            }
+            if (!transport.isWritable()) {
+                synchronized (this) {
+                    scheduleDrain(WRITE_RETRY_MILLIS);
+                }
+                return;
+            }
+            Envelope next;
+            LogicalChannel from = null;
+            int bytes = 0;
+            synchronized (this) {
+                next = control.pollFirst();
+                if (next == null) {
+                    from = nextChannel();
+                    if (from == null) {
+                        return;
+                    }
+                    next = from.queue.pollFirst();
+                    bytes = from.queueSizes.pollFirst();
+                    from.queuedBytes -= bytes;
+                    from.sendWindow -= bytes;
+                    from.deficit -= bytes;
+                    from.sentCount++;
+                }
+            }
+            try {
+                transport.send(next, from == null ? TrafficClass.CONTROL : from.getTrafficClass());
+            } catch (RuntimeException e) {
+                // 发送途中断开，数据消息放回队首，重连后再发
+                Log.w(TAG, "send interrupted: " + e);
+                if (from != null) {
+                    synchronized (this) {
+                        if (!from.closed) {
+                            from.queue.addFirst(next);
+                            from.queueSizes.addFirst(bytes);
+                            from.queuedBytes += bytes;
+                            from.sendWindow += bytes;
+                            from.sentCount--;
+                        }
+                    }
+                }
+                return;
+            }
+        }
+    }
+
+    /**
+     * 差额轮转：频道轮到时补一个 quantum，本轮额度够就连续发，不够发下一条时移到队尾等下一轮
+     */
+    private LogicalChannel nextChannel() {
+        while (!activeChannels.isEmpty()) {
+            LogicalChannel channel = activeChannels.peekFirst();
+            if (channel.queue.isEmpty() || channel.sendWindow < channel.queueSizes.peekFirst()) {
+                // 发完了或额度用完，等 offer / CREDIT 再放回来
+                activeChannels.pollFirst();
+                channel.active = false;
+                if (!channel.queue.isEmpty()) {
+                    channel.blockedCount++;
+                }
+                continue;
+            }
+            if (!channel.inTurn) {
+                channel.inTurn = true;
+                channel.deficit += quantum;
+            }
+            if (channel.deficit >= channel.queueSizes.peekFirst()) {
+                return channel;
+            }
+            // 比本轮剩余额度大的消息留到下一轮，额度累积
+            channel.inTurn = false;
+            activeChannels.addLast(activeChannels.pollFirst());
+        }
+        return null;
+    }
+
+    private static int cost(Envelope envelope) {
+        return envelope.getContent() == null ? 0 : BinaryCodec.utf8Length(envelope.getContent());
+    }
+
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+}
@@ -0,0 +1,109 @@
+package com.jh.websocketclient.channel;
+
+import com.jh.websocketclient.codec.Envelope;
+import com.jh.websocketclient.queue.TrafficClass;
+
+import java.util.ArrayDeque;
+
+/**
+ * 连接上的一个逻辑频道（聊天室、在线状态、通知等）
+ * <p>
+ * 由 ChannelMux.open 创建，send 只是排队，实际发送由 ChannelMux 按轮转调度；
+ * 状态都由 ChannelMux 加锁访问。
+ */
+public class LogicalChannel {
+
+    public interface OnChannelMessageListener {
+        /**
+         * 在连接的读线程回调，返回后才给服务器追加发送额度
+         */
+        void onChannelMessage(LogicalChannel channel, Envelope envelope);
+    }
+
+    private final ChannelMux mux;
+    private final String name;
+    private final TrafficClass trafficClass;
+    final OnChannelMessageListener listener;
+
+    // 以下由 ChannelMux 加锁访问
+    final ArrayDeque<Envelope> queue = new ArrayDeque<>();
+    final ArrayDeque<Integer> queueSizes = new ArrayDeque<>();
+    long queuedBytes;
+    long sendWindow;// 服务器允许我们继续发送的字节数
+    long deficit;// 轮转调度中本轮还能发送的字节数
+    boolean inTurn;// 正在轮到这个频道
+    long receivedSinceCredit;// 上次追加额度后收到的字节数
+    boolean active;// 在调度队列中
+    boolean closed;
+
+    long sentCount;
+    long receivedCount;
+    long blockedCount;// 因为没有发送额度而暂停的次数
+
+    LogicalChannel(ChannelMux mux, String name, TrafficClass trafficClass, OnChannelMessageListener listener) {
+        this.mux = mux;
+        this.name = name;
+        this.trafficClass = trafficClass;
+        this.listener = listener;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public TrafficClass getTrafficClass() {
+        return trafficClass;
+    }
+
+    /**
+     * 任意线程调用
+     *
+     * @return 频道已关闭、本地排队超过上限或单条超过初始额度时返回false
+     */
+    public boolean send(String content) {
+        return mux.offer(this, new Envelope(Envelope.TYPE_CHAT, name, 0, 0, null, System.currentTimeMillis(), content));
+    }
+
+    /**
+     * 退订并丢弃还没发出的消息
+     */
+    public void close() {
+        mux.close(this);
+    }
+
+    public boolean isClosed() {
+        synchronized (mux) {
+            return closed;
+        }
+    }
+
+    public long getQueuedBytes() {
+        synchronized (mux) {
+            return queuedBytes;
+        }
+    }
+
+    public long getSendWindow() {
+        synchronized (mux) {
+            return sendWindow;
+        }
+    }
+
+    public long getSentCount() {
+        synchronized (mux) {
+            return sentCount;
+        }
+    }
+
+    public long getReceivedCount() {
+        synchronized (mux) {
+            return receivedCount;
+        }
+    }
+
+    public long getBlockedCount() {
+        synchronized (mux) {
+            return blockedCount;
+        }
+    }
+}
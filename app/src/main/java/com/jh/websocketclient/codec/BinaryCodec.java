@@ -0,0 +1,340 @@
+package com.jh.websocketclient.codec;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+/**
+ * 紧凑二进制编码
+ * <p>
+ * 格式：2字节头（0xC5 + 版本号），后面是若干字段，每个字段 = tag(varint) + 值。
+ * tag = 字段号 << 3 | 类型，类型 0 为 varint，2 为长度(varint) + 字节，和 protobuf 的 wire format 相同，
+ * 所以 1/5（定长64/32位）也能识别并跳过。解码时跳过不认识的字段，以后加字段不影响旧客户端。
+ * <p>
+ * 字段号：1 type, 2 id, 3 seq, 4 sender, 5 time, 6 content, 7 channel, 8 part, 9 parts。
+ */
+public class BinaryCodec implements MessageCodec {
+
+    public static final String PROTOCOL = "chat.bin.v1";
+
+    static final byte MAGIC = (byte) 0xC5;
+    static final byte VERSION = 1;
+
+    private static final int WIRE_VARINT = 0;
+    private static final int WIRE_FIXED64 = 1;
+    private static final int WIRE_BYTES = 2;
+    private static final int WIRE_FIXED32 = 5;
+
+    private static final int FIELD_TYPE = 1;
+    private static final int FIELD_ID = 2;
+    private static final int FIELD_SEQ = 3;
+    private static final int FIELD_SENDER = 4;
+    private static final int FIELD_TIME = 5;
+    private static final int FIELD_CONTENT = 6;
+    private static final int FIELD_CHANNEL = 7;
+    private static final int FIELD_PART = 8;
+    private static final int FIELD_PARTS = 9;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final BinaryCodec INSTANCE = new BinaryCodec();
+
+    public static BinaryCodec getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * payload 是否以信封头开始（不改变 position）
+     */
+    public static boolean isEnvelope(ByteBuffer payload) {
+        int p = payload.position();
+        return payload.limit() - p >= 2 && payload.get(p) == MAGIC && payload.get(p + 1) == VERSION;
+    }
+
+    @Override
+    public String getProtocol() {
+        return PROTOCOL;
+    }
+
+    @Override
+    public boolean isBinary() {
+        return true;
+    }
+
+    @Override
+    public byte[] encode(Envelope envelope) {
+        String sender = envelope.getSender();
+        String content = envelope.getContent();
+        String channel = envelope.getChannel();
+        int senderLength = sender == null ? 0 : utf8Length(sender);
+        int contentLength = content == null ? 0 : utf8Length(content);
+        int channelLength = channel == null ? 0 : utf8Length(channel);
+
+        // 先算出准确长度，一次分配
+        int size = 2;
+        if (envelope.getType() != 0) {
+            size += 1 + varintSize(envelope.getType() & 0xffffffffL);
+        }
+        if (envelope.getId() != 0) {
+            size += 1 + varintSize(envelope.getId());
+        }
+        if (envelope.getSeq() != 0) {
+            size += 1 + varintSize(envelope.getSeq());
+        }
+        if (sender != null) {
+            size += 1 + varintSize(senderLength) + senderLength;
+        }
+        if (envelope.getTime() != 0) {
+            size += 1 + varintSize(envelope.getTime());
+        }
+        if (content != null) {
+            size += 1 + varintSize(contentLength) + contentLength;
+        }
+        if (channel != null) {
+            size += 1 + varintSize(channelLength) + channelLength;
+        }
+        if (envelope.getPart() != 0) {
+            size += 1 + varintSize(envelope.getPart());
+        }
+        if (envelope.getParts() != 0) {
+            size += 1 + varintSize(envelope.getParts());
+        }
+
+        byte[] out = new byte[size];
+        out[0] = MAGIC;
+        out[1] = VERSION;
+        int pos = 2;
+        if (envelope.getType() != 0) {
+            out[pos++] = (byte) (FIELD_TYPE << 3 | WIRE_VARINT);
+            pos = writeVarint(out, pos, envelope.getType() & 0xffffffffL);
+        }
+        if (envelope.getId() != 0) {
+            out[pos++] = (byte) (FIELD_ID << 3 | WIRE_VARINT);
+            pos = writeVarint(out, pos, envelope.getId());
+        }
+        if (envelope.getSeq() != 0) {
+            out[pos++] = (byte) (FIELD_SEQ << 3 | WIRE_VARINT);
+            pos = writeVarint(out, pos, envelope.getSeq());
+        }
+        if (sender != null) {
+            out[pos++] = (byte) (FIELD_SENDER << 3 | WIRE_BYTES);
+            pos = writeVarint(out, pos, senderLength);
+            pos = writeUtf8(out, pos, sender);
+        }
+        if (envelope.getTime() != 0) {
+            out[pos++] = (byte) (FIELD_TIME << 3 | WIRE_VARINT);
+            pos = writeVarint(out, pos, envelope.getTime());
+        }
+        if (content != null) {
+            out[pos++] = (byte) (FIELD_CONTENT << 3 | WIRE_BYTES);
+            pos = writeVarint(out, pos, contentLength);
+            pos = writeUtf8(out, pos, content);
+        }
+        if (channel != null) {
+            out[pos++] = (byte) (FIELD_CHANNEL << 3 | WIRE_BYTES);
+            pos = writeVarint(out, pos, channelLength);
+            pos = writeUtf8(out, pos, channel);
+        }
+        if (envelope.getPart() != 0) {
+            out[pos++] = (byte) (FIELD_PART << 3 | WIRE_VARINT);
+            pos = writeVarint(out, pos, envelope.getPart());
+        }
+        if (envelope.getParts() != 0) {
+            out[pos++] = (byte) (FIELD_PARTS << 3 | WIRE_VARINT);
+            writeVarint(out, pos, envelope.getParts());
+        }
+        return out;
+    }
+
+    @Override
+    public Envelope decode(ByteBuffer payload) throws CodecException {
+        if (!isEnvelope(payload)) {
+            throw new CodecException("not an envelope");
+        }
+        Reader in = new Reader(payload);
+        in.pos += 2;
+
+        int type = 0;
+        long id = 0;
+        long seq = 0;
+        String sender = null;
+        long time = 0;
+        String content = null;
+        String channel = null;
+        int part = 0;
+        int parts = 0;
+        while (in.pos < in.limit) {
+            long tag = in.readVarint();
+            int field = (int) (tag >>> 3);
+            int wireType = (int) (tag & 7);
+            switch (wireType) {
+                case WIRE_VARINT: {
+                    long value = in.readVarint();
+                    if (field == FIELD_TYPE) {
+                        type = (int) value;
+                    } else if (field == FIELD_ID) {
+                        id = value;
+                    } else if (field == FIELD_SEQ) {
+                        seq = value;
+                    } else if (field == FIELD_TIME) {
+                        time = value;
+                    } else if (field == FIELD_PART) {
+                        part = (int) value;
+                    } else if (field == FIELD_PARTS) {
+                        parts = (int) value;
+                    }
+                    break;
+                }
+                case WIRE_BYTES: {
+                    int length = in.readLength();
+                    if (field == FIELD_SENDER) {
+                        sender = in.readString(length);
+                    } else if (field == FIELD_CONTENT) {
+                        content = in.readString(length);
+                    } else if (field == FIELD_CHANNEL) {
+                        channel = in.readString(length);
+                    } else {
+                        in.skip(length);
+                    }
+                    break;
+                }
+                case WIRE_FIXED64:
+                    in.skip(8);
+                    break;
+                case WIRE_FIXED32:
+                    in.skip(4);
+                    break;
+                default:
+                    throw new CodecException("unknown wire type " + wireType);
+            }
+        }
+        return new Envelope(type, channel, id, seq, sender, time, content, part, parts);
+    }
+
+    static int varintSize(long value) {
+        int size = 1;
+        while ((value & ~0x7FL) != 0) {
+            value >>>= 7;
+            size++;
+        }
+        return size;
+    }
+
+    private static int writeVarint(byte[] out, int pos, long value) {
+        while ((value & ~0x7FL) != 0) {
+            out[pos++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out[pos++] = (byte) value;
+        return pos;
+    }
+
+    /**
+     * String 编码成 UTF-8 后的字节数，不实际编码
+     */
+    public static int utf8Length(String s) {
+        int length = s.length();
+        int bytes = length;
+        for (int i = 0; i < length; i++) {
+            char c = s.charAt(i);
+            if (c >= 0x80) {
+                if (c < 0x800) {
+                    bytes++;
+                } else if (!Character.isSurrogate(c)) {
+                    bytes += 2;
+                } else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(s.charAt(i + 1))) {
+                    bytes += 2;// 4字节，占两个char
+                    i++;
+                }
+                // 孤立的代理项和 String.getBytes 一样写成 '?'，1字节
+            }
+        }
+        return bytes;
+    }
+
+    private static int writeUtf8(byte[] out, int pos, String s) {
+        int length = s.length();
+        for (int i = 0; i < length; i++) {
+            char c = s.charAt(i);
+            if (c < 0x80) {
+                out[pos++] = (byte) c;
+            } else if (c < 0x800) {
+                out[pos++] = (byte) (0xC0 | c >> 6);
+                out[pos++] = (byte) (0x80 | c & 0x3F);
+            } else if (!Character.isSurrogate(c)) {
+                out[pos++] = (byte) (0xE0 | c >> 12);
+                out[pos++] = (byte) (0x80 | c >> 6 & 0x3F);
+                out[pos++] = (byte) (0x80 | c & 0x3F);
+            } else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(s.charAt(i + 1))) {
+                int cp = Character.toCodePoint(c, s.charAt(++i));
+                out[pos++] = (byte) (0xF0 | cp >> 18);
+                out[pos++] = (byte) (0x80 | cp >> 12 & 0x3F);
+                out[pos++] = (byte) (0x80 | cp >> 6 & 0x3F);
+                out[pos++] = (byte) (0x80 | cp & 0x3F);
+            } else {
+                out[pos++] = '?';
+            }
+        }
+        return pos;
+    }
+
+    /**
+     * 在 payload 上按绝对位置读，不改变它的 position
+     */
+    private static final class Reader {
+        private final ByteBuffer buffer;
+        private final int limit;
+        private int pos;
+
+        Reader(ByteBuffer buffer) {
+            this.buffer = buffer;
+            this.pos = buffer.position();
+            this.limit = buffer.limit();
+        }
+
+        long readVarint() throws CodecException {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                if (pos >= limit) {
+                    throw new CodecException("truncated varint");
+                }
+                byte b = buffer.get(pos++);
+                value |= (long) (b & 0x7F) << shift;
+                if (b >= 0) {
+                    return value;
+                }
+            }
+            throw new CodecException("malformed varint");
+        }
+
+        int readLength() throws CodecException {
+            long length = readVarint();
+            if (length < 0 || length > limit - pos) {
+                throw new CodecException("field length " + length + " exceeds payload");
+            }
+            return (int) length;
+        }
+
+        void skip(int count) throws CodecException {
+            if (count > limit - pos) {
+                throw new CodecException("truncated field");
+            }
+            pos += count;
+        }
+
+        String readString(int length) {
+            String s;
+            if (buffer.hasArray()) {
+                // 直接从底层数组解码，不复制（只读视图拿不到数组，走下面的复制）
+                s = new String(buffer.array(), buffer.arrayOffset() + pos, length, UTF_8);
+            } else {
+                byte[] bytes = new byte[length];
+                ByteBuffer view = buffer.duplicate();
+                view.position(pos);
+                view.get(bytes);
+                s = new String(bytes, UTF_8);
+            }
+            pos += length;
+            return s;
+        }
+    }
+}
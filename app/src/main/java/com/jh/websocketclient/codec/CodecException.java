@@ -0,0 +1,13 @@
+package com.jh.websocketclient.codec;
+
+/**
+ * 消息格式错误
+ */
+public class CodecException extends Exception {
+
+    private static final long serialVersionUID = 1L;
+
+    public CodecException(String message) {
+        super(message);
+    }
+}
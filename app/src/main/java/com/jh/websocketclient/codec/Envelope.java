@@ -0,0 +1,136 @@
+package com.jh.websocketclient.codec;
+
+/**
+ * 线上传输的消息信封
+ * <p>
+ * 默认值（0 / null）的字段编码时省略。
+ */
+public class Envelope {
+
+    public static final int TYPE_CHAT = 1;// 聊天消息
+    public static final int TYPE_SUBSCRIBE = 2;// 订阅频道，seq 是给对方的初始发送额度（字节）
+    public static final int TYPE_UNSUBSCRIBE = 3;// 退订频道
+    public static final int TYPE_CREDIT = 4;// 频道流控，seq 是追加给对方的发送额度（字节）
+    public static final int TYPE_ACK = 5;// 服务端确认收到，id 是被确认的消息id，seq 是服务端分配的序号
+    public static final int TYPE_SYNC = 6;// 重连后请求补齐，seq 是本端已应用到的序号
+    public static final int TYPE_SYNC_DONE = 7;// 服务端补齐结束，seq 是服务端当前最新的序号
+
+    private final int type;
+    private final String channel;// 逻辑频道，null 表示默认的聊天流
+    private final long id;// 发送方生成的消息id，重发时不变
+    private final long seq;// 服务端分配的序号，0表示没有
+    private final String sender;
+    private final long time;// 发送时间，毫秒
+    private final String content;
+    private final int part;// 分块序号，从0开始
+    private final int parts;// 分块总数，0表示没有分块
+
+    public Envelope(int type, String channel, long id, long seq, String sender, long time, String content) {
+        this(type, channel, id, seq, sender, time, content, 0, 0);
+    }
+
+    public Envelope(int type, String channel, long id, long seq, String sender, long time, String content,
+                    int part, int parts) {
+        this.type = type;
+        this.channel = channel;
+        this.id = id;
+        this.seq = seq;
+        this.sender = sender;
+        this.time = time;
+        this.content = content;
+        this.part = part;
+        this.parts = parts;
+    }
+
+    public static Envelope chat(long id, long time, String content) {
+        return new Envelope(TYPE_CHAT, null, id, 0, null, time, content);
+    }
+
+    public static Envelope ack(long id, long seq) {
+        return new Envelope(TYPE_ACK, null, id, seq, null, 0, null);
+    }
+
+    public static Envelope sync(long cursor) {
+        return new Envelope(TYPE_SYNC, null, 0, cursor, null, 0, null);
+    }
+
+    /**
+     * 大消息拆开发送时的一块，其他字段不变
+     */
+    public Envelope chunk(int part, int parts, String content) {
+        return new Envelope(type, channel, id, seq, sender, time, content, part, parts);
+    }
+
+    /**
+     * 分块拼接完成后的完整消息
+     */
+    public Envelope withContent(String content) {
+        return new Envelope(type, channel, id, seq, sender, time, content);
+    }
+
+    public boolean isChunk() {
+        return parts > 0;
+    }
+
+    public int getType() {
+        return type;
+    }
+
+    public String getChannel() {
+        return channel;
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    public long getSeq() {
+        return seq;
+    }
+
+    public String getSender() {
+        return sender;
+    }
+
+    public long getTime() {
+        return time;
+    }
+
+    public String getContent() {
+        return content;
+    }
+
+    public int getPart() {
+        return part;
+    }
+
+    public int getParts() {
+        return parts;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof Envelope)) {
+            return false;
+        }
+        Envelope other = (Envelope) o;
+        return type == other.type && id == other.id && part == other.part && parts == other.parts && seq == other.seq && time == other.time
+                && (channel == null ? other.channel == null : channel.equals(other.channel))
+                && (sender == null ? other.sender == null : sender.equals(other.sender))
+                && (content == null ? other.content == null : content.equals(other.content));
+    }
+
+    @Override
+    public int hashCode() {
+        return (int) (id ^ (id >>> 32)) * 31 + type;
+    }
+
+    @Override
+    public String toString() {
+        return "Envelope{type=" + type + ", channel=" + channel + ", id=" + id + ", seq=" + seq + ", sender=" + sender
+                + ", time=" + time + ", content=" + content + (parts > 0 ? ", part=" + part + "/" + parts : "") + '}';
+    }
+}
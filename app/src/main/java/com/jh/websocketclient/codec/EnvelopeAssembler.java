@@ -0,0 +1,82 @@
+package com.jh.websocketclient.codec;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * 把分块发送的大消息拼回完整消息
+ * <p>
+ * 分块按顺序到达（同一个连接上不会乱序），以频道 + 消息id区分；
+ * 中途断线或超出上限的消息整条丢弃。只在读线程中使用，非线程安全。
+ */
+public class EnvelopeAssembler {
+
+    private final int maxPending;// 最多同时拼接的消息数
+    private final long maxChars;// 每条拼接后最大的字符数
+
+    private final Map<String, StringBuilder> pending = new HashMap<>();
+    private long droppedCount;
+
+    public EnvelopeAssembler(int maxPending, long maxChars) {
+        this.maxPending = maxPending;
+        this.maxChars = maxChars;
+    }
+
+    /**
+     * @return 不是分块的消息原样返回；最后一块返回拼好的完整消息；其他情况返回null
+     */
+    public Envelope offer(Envelope envelope) {
+        if (!envelope.isChunk()) {
+            return envelope;
+        }
+        String key = envelope.getChannel() + '#' + envelope.getId();
+        String content = envelope.getContent() == null ? "" : envelope.getContent();
+        StringBuilder builder;
+        if (envelope.getPart() == 0) {
+            if (pending.size() >= maxPending && !pending.containsKey(key)) {
+                evictOne();
+            }
+            int capacity = (int) Math.min(maxChars, (long) content.length() * envelope.getParts());
+            builder = new StringBuilder(Math.max(16, capacity));
+            pending.put(key, builder);
+        } else {
+            builder = pending.get(key);
+            if (builder == null) {
+                return null;// 前面的块丢了（断线重连之前发的）
+            }
+        }
+        if (builder.length() + content.length() > maxChars) {
+            pending.remove(key);
+            droppedCount++;
+            return null;
+        }
+        builder.append(content);
+        if (envelope.getPart() < envelope.getParts() - 1) {
+            return null;
+        }
+        pending.remove(key);
+        return envelope.withContent(builder.toString());
+    }
+
+    /**
+     * 断线后调用，没拼完的消息不会再有后续的块
+     */
+    public void reset() {
+        droppedCount += pending.size();
+        pending.clear();
+    }
+
+    private void evictOne() {
+        Iterator<String> iterator = pending.keySet().iterator();
+        if (iterator.hasNext()) {
+            iterator.next();
+            iterator.remove();
+            droppedCount++;
+        }
+    }
+
+    public long getDroppedCount() {
+        return droppedCount;
+    }
+}
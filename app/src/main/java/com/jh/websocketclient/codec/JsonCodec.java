@@ -0,0 +1,474 @@
+package com.jh.websocketclient.codec;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+/**
+ * JSON 文本编码，兼容不支持二进制子协议的服务器
+ * <p>
+ * {"type":1,"ch":"..","id":..,"seq":..,"from":"..","time":..,"content":"..","part":..,"parts":..}
+ * <p>
+ * 只处理信封这一层的扁平对象：手写扫描，不建中间对象树，不认识的字段（包括嵌套的对象/数组）直接跳过。
+ */
+public class JsonCodec implements MessageCodec {
+
+    public static final String PROTOCOL = "chat.json.v1";
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final JsonCodec INSTANCE = new JsonCodec();
+
+    private static final ThreadLocal<StringBuilder> BUILDER = new ThreadLocal<StringBuilder>() {
+        @Override
+        protected StringBuilder initialValue() {
+            return new StringBuilder(256);
+        }
+    };
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    public static JsonCodec getInstance() {
+        return INSTANCE;
+    }
+
+    @Override
+    public String getProtocol() {
+        return PROTOCOL;
+    }
+
+    @Override
+    public boolean isBinary() {
+        return false;
+    }
+
+    @Override
+    public byte[] encode(Envelope envelope) {
+        return encodeToString(envelope).getBytes(UTF_8);
+    }
+
+    public String encodeToString(Envelope envelope) {
+        StringBuilder sb = BUILDER.get();
+        sb.setLength(0);
+        sb.append('{');
+        boolean first = true;
+        if (envelope.getType() != 0) {
+            first = appendKey(sb, "type", first);
+            sb.append(envelope.getType());
+        }
+        if (envelope.getChannel() != null) {
+            first = appendKey(sb, "ch", first);
+            appendString(sb, envelope.getChannel());
+        }
+        if (envelope.getId() != 0) {
+            first = appendKey(sb, "id", first);
+            sb.append(envelope.getId());
+        }
+        if (envelope.getSeq() != 0) {
+            first = appendKey(sb, "seq", first);
+            sb.append(envelope.getSeq());
+        }
+        if (envelope.getSender() != null) {
+            first = appendKey(sb, "from", first);
+            appendString(sb, envelope.getSender());
+        }
+        if (envelope.getTime() != 0) {
+            first = appendKey(sb, "time", first);
+            sb.append(envelope.getTime());
+        }
+        if (envelope.getContent() != null) {
+            first = appendKey(sb, "content", first);
+            appendString(sb, envelope.getContent());
+        }
+        if (envelope.getParts() != 0) {
+            first = appendKey(sb, "part", first);
+            sb.append(envelope.getPart());
+            appendKey(sb, "parts", first);
+            sb.append(envelope.getParts());
+        }
+        sb.append('}');
+        String s = sb.toString();
+        if (sb.capacity() > 64 * 1024) {
+            BUILDER.remove();// 不长期占着大消息用过的缓冲
+        }
+        return s;
+    }
+
+    @Override
+    public Envelope decode(ByteBuffer payload) throws CodecException {
+        ByteBuffer view = payload.duplicate();
+        return decode(UTF_8.decode(view));
+    }
+
+    /**
+     * 文本帧由库解码成 String 交给 onMessage，直接在上面解析，避免再转一次字节
+     */
+    public Envelope decode(CharSequence json) throws CodecException {
+        Parser p = new Parser(json);
+        p.skipWhitespace();
+        p.expect('{');
+        int type = 0;
+        long id = 0;
+        long seq = 0;
+        String sender = null;
+        long time = 0;
+        String content = null;
+        String channel = null;
+        int part = 0;
+        int parts = 0;
+
+        p.skipWhitespace();
+        if (p.peek() == '}') {
+            p.pos++;
+            return new Envelope(type, channel, id, seq, sender, time, content, part, parts);
+        }
+        while (true) {
+            p.skipWhitespace();
+            int key = p.readKey();
+            p.skipWhitespace();
+            p.expect(':');
+            p.skipWhitespace();
+            switch (key) {
+                case Parser.KEY_TYPE:
+                    type = (int) p.readLong();
+                    break;
+                case Parser.KEY_ID:
+                    id = p.readLong();
+                    break;
+                case Parser.KEY_SEQ:
+                    seq = p.readLong();
+                    break;
+                case Parser.KEY_FROM:
+                    sender = p.readStringOrNull();
+                    break;
+                case Parser.KEY_TIME:
+                    time = p.readLong();
+                    break;
+                case Parser.KEY_CONTENT:
+                    content = p.readStringOrNull();
+                    break;
+                case Parser.KEY_CHANNEL:
+                    channel = p.readStringOrNull();
+                    break;
+                case Parser.KEY_PART:
+                    part = (int) p.readLong();
+                    break;
+                case Parser.KEY_PARTS:
+                    parts = (int) p.readLong();
+                    break;
+                default:
+                    p.skipValue();
+                    break;
+            }
+            p.skipWhitespace();
+            char c = p.next();
+            if (c == '}') {
+                return new Envelope(type, channel, id, seq, sender, time, content, part, parts);
+            }
+            if (c != ',') {
+                throw new CodecException("expected ',' or '}' at " + (p.pos - 1));
+            }
+        }
+    }
+
+    private static boolean appendKey(StringBuilder sb, String key, boolean first) {
+        if (!first) {
+            sb.append(',');
+        }
+        sb.append('"').append(key).append("\":");
+        return false;
+    }
+
+    private static void appendString(StringBuilder sb, String s) {
+        sb.append('"');
+        int length = s.length();
+        int start = 0;
+        for (int i = 0; i < length; i++) {
+            char c = s.charAt(i);
+            if (c >= 0x20 && c != '"' && c != '\\' && c != '\u2028' && c != '\u2029') {
+                // U+2028/2029 在 JSON 里合法，但部分 JavaScript 解析器当成换行，一并转义
+                continue;
+            }
+            sb.append(s, start, i);
+            start = i + 1;
+            switch (c) {
+                case '"':
+                    sb.append("\\\"");
+                    break;
+                case '\\':
+                    sb.append("\\\\");
+                    break;
+                case '\n':
+                    sb.append("\\n");
+                    break;
+                case '\r':
+                    sb.append("\\r");
+                    break;
+                case '\t':
+                    sb.append("\\t");
+                    break;
+                default:
+                    sb.append("\\u").append(HEX[c >> 12 & 0xF]).append(HEX[c >> 8 & 0xF])
+                            .append(HEX[c >> 4 & 0xF]).append(HEX[c & 0xF]);
+                    break;
+            }
+        }
+        sb.append(s, start, length).append('"');
+    }
+
+    private static final class Parser {
+        static final int KEY_UNKNOWN = 0;
+        static final int KEY_TYPE = 1;
+        static final int KEY_ID = 2;
+        static final int KEY_SEQ = 3;
+        static final int KEY_FROM = 4;
+        static final int KEY_TIME = 5;
+        static final int KEY_CONTENT = 6;
+        static final int KEY_CHANNEL = 7;
+        static final int KEY_PART = 8;
+        static final int KEY_PARTS = 9;
+
+        private static final String[] KEYS = {null, "type", "id", "seq", "from", "time", "content", "ch", "part", "parts"};
+
+        private final CharSequence s;
+        private final int length;
+        int pos;
+
+        Parser(CharSequence s) {
+            this.s = s;
+            this.length = s.length();
+        }
+
+        char peek() throws CodecException {
+            if (pos >= length) {
+                throw new CodecException("unexpected end of json");
+            }
+            return s.charAt(pos);
+        }
+
+        char next() throws CodecException {
+            char c = peek();
+            pos++;
+            return c;
+        }
+
+        void expect(char expected) throws CodecException {
+            if (next() != expected) {
+                throw new CodecException("expected '" + expected + "' at " + (pos - 1));
+            }
+        }
+
+        void skipWhitespace() {
+            while (pos < length) {
+                char c = s.charAt(pos);
+                if (c != ' ' && c != '\n' && c != '\r' && c != '\t') {
+                    return;
+                }
+                pos++;
+            }
+        }
+
+        /**
+         * 读一个 key 并直接和已知字段比较，不生成 String；带转义的 key 按未知字段处理
+         */
+        int readKey() throws CodecException {
+            expect('"');
+            int start = pos;
+            while (true) {
+                char c = next();
+                if (c == '"') {
+                    break;
+                }
+                if (c == '\\') {
+                    next();
+                    skipStringBody();
+                    return KEY_UNKNOWN;
+                }
+            }
+            int keyLength = pos - 1 - start;
+            for (int k = 1; k < KEYS.length; k++) {
+                String key = KEYS[k];
+                if (key.length() == keyLength && regionMatches(start, key)) {
+                    return k;
+                }
+            }
+            return KEY_UNKNOWN;
+        }
+
+        private boolean regionMatches(int start, String key) {
+            for (int i = 0; i < key.length(); i++) {
+                if (s.charAt(start + i) != key.charAt(i)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        long readLong() throws CodecException {
+            if (peek() == 'n') {
+                readLiteral("null");
+                return 0;
+            }
+            boolean negative = false;
+            if (peek() == '-') {
+                negative = true;
+                pos++;
+            }
+            int start = pos;
+            long value = 0;
+            while (pos < length) {
+                char c = s.charAt(pos);
+                if (c < '0' || c > '9') {
+                    break;
+                }
+                value = value * 10 + (c - '0');
+                pos++;
+            }
+            if (pos == start) {
+                throw new CodecException("expected number at " + pos);
+            }
+            if (pos < length) {
+                char c = s.charAt(pos);
+                if (c == '.' || c == 'e' || c == 'E') {
+                    throw new CodecException("expected integer at " + start);
+                }
+            }
+            return negative ? -value : value;
+        }
+
+        String readStringOrNull() throws CodecException {
+            if (peek() == 'n') {
+                readLiteral("null");
+                return null;
+            }
+            expect('"');
+            // 快速路径：没有转义时直接截取
+            int start = pos;
+            while (pos < length) {
+                char c = s.charAt(pos);
+                if (c == '"') {
+                    String value = s.subSequence(start, pos).toString();
+                    pos++;
+                    return value;
+                }
+                if (c == '\\') {
+                    break;
+                }
+                pos++;
+            }
+            StringBuilder sb = new StringBuilder(pos - start + 16);
+            sb.append(s, start, pos);
+            while (true) {
+                char c = next();
+                if (c == '"') {
+                    return sb.toString();
+                }
+                if (c != '\\') {
+                    sb.append(c);
+                    continue;
+                }
+                c = next();
+                switch (c) {
+                    case '"':
+                    case '\\':
+                    case '/':
+                        sb.append(c);
+                        break;
+                    case 'b':
+                        sb.append('\b');
+                        break;
+                    case 'f':
+                        sb.append('\f');
+                        break;
+                    case 'n':
+                        sb.append('\n');
+                        break;
+                    case 'r':
+                        sb.append('\r');
+                        break;
+                    case 't':
+                        sb.append('\t');
+                        break;
+                    case 'u':
+                        sb.append(readHex4());
+                        break;
+                    default:
+                        throw new CodecException("bad escape '\\" + c + "' at " + (pos - 2));
+                }
+            }
+        }
+
+        private char readHex4() throws CodecException {
+            int value = 0;
+            for (int i = 0; i < 4; i++) {
+                char c = next();
+                int digit = Character.digit(c, 16);
+                if (digit < 0) {
+                    throw new CodecException("bad unicode escape at " + (pos - 1));
+                }
+                value = value << 4 | digit;
+            }
+            return (char) value;
+        }
+
+        private void readLiteral(String literal) throws CodecException {
+            for (int i = 0; i < literal.length(); i++) {
+                if (next() != literal.charAt(i)) {
+                    throw new CodecException("expected " + literal + " at " + (pos - 1 - i));
+                }
+            }
+        }
+
+        /**
+         * 跳过开头引号之后的字符串内容，停在结束引号之后
+         */
+        private void skipStringBody() throws CodecException {
+            while (true) {
+                char c = next();
+                if (c == '"') {
+                    return;
+                }
+                if (c == '\\') {
+                    next();
+                }
+            }
+        }
+
+        /**
+         * 跳过任意值，嵌套的对象/数组按括号深度跳过
+         */
+        void skipValue() throws CodecException {
+            int depth = 0;
+            do {
+                char c = next();
+                switch (c) {
+                    case '"':
+                        skipStringBody();
+                        break;
+                    case '{':
+                    case '[':
+                        depth++;
+                        break;
+                    case '}':
+                    case ']':
+                        depth--;
+                        if (depth < 0) {
+                            throw new CodecException("unbalanced json at " + (pos - 1));
+                        }
+                        break;
+                    default:
+                        if (depth == 0) {
+                            // 数字、true/false/null：读到分隔符为止
+                            while (pos < length) {
+                                char d = s.charAt(pos);
+                                if (d == ',' || d == '}' || d == ']' || d == ' ' || d == '\n' || d == '\r' || d == '\t') {
+                                    break;
+                                }
+                                pos++;
+                            }
+                        }
+                        break;
+                }
+            } while (depth > 0);
+        }
+    }
+}
@@ -0,0 +1,28 @@
+package com.jh.websocketclient.codec;
+
+import java.nio.ByteBuffer;
+
+/**
+ * 消息编解码
+ * <p>
+ * 实现需要线程安全：发送线程编码，读线程解码。
+ */
+public interface MessageCodec {
+
+    /**
+     * 握手时用的子协议名（Sec-WebSocket-Protocol）
+     */
+    String getProtocol();
+
+    /**
+     * true: 编码结果按二进制帧发送；false: 按文本帧发送（UTF-8）
+     */
+    boolean isBinary();
+
+    byte[] encode(Envelope envelope);
+
+    /**
+     * 解码 payload 中 position 到 limit 之间的数据，不改变 payload 的 position
+     */
+    Envelope decode(ByteBuffer payload) throws CodecException;
+}
@@ -0,0 +1,12 @@
+package com.jh.websocketclient.event;
+
+/**
+ * 长连接状态
+ */
+public enum ConnectionState {
+    CLOSED,// 已断开
+    CONNECTING,// 连接中
+    OPEN,// 已连接
+    WAITING_RECONNECT,// 等待下一次重连
+    CIRCUIT_OPEN// 连续失败次数过多，暂停重连一段时间
+}
@@ -0,0 +1,13 @@
+package com.jh.websocketclient.event;
+
+/**
+ * 连接状态变化，粘性事件：后注册的订阅者也能立即拿到当前状态
+ */
+public class ConnectionStateEvent {
+
+    public final ConnectionState state;
+
+    public ConnectionStateEvent(ConnectionState state) {
+        this.state = state;
+    }
+}
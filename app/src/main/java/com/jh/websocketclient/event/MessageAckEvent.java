@@ -0,0 +1,15 @@
+package com.jh.websocketclient.event;
+
+/**
+ * 自己发送的消息收到服务端确认
+ */
+public class MessageAckEvent {
+
+    public final long id;// 消息id
+    public final long seq;// 服务端分配的序号，没有时为0
+
+    public MessageAckEvent(long id, long seq) {
+        this.id = id;
+        this.seq = seq;
+    }
+}
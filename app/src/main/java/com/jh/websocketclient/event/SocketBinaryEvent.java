@@ -0,0 +1,15 @@
+package com.jh.websocketclient.event;
+
+import java.nio.ByteBuffer;
+
+/**
+ * 收到二进制消息
+ */
+public class SocketBinaryEvent {
+
+    public final ByteBuffer bytes;
+
+    public SocketBinaryEvent(ByteBuffer bytes) {
+        this.bytes = bytes;
+    }
+}
@@ -0,0 +1,17 @@
+package com.jh.websocketclient.event;
+
+/**
+ * 长链接关闭
+ */
+public class SocketCloseEvent {
+
+    public final int code;
+    public final String reason;
+    public final boolean remote;// 是否由服务器关闭
+
+    public SocketCloseEvent(int code, String reason, boolean remote) {
+        this.code = code;
+        this.reason = reason;
+        this.remote = remote;
+    }
+}
@@ -0,0 +1,13 @@
+package com.jh.websocketclient.event;
+
+/**
+ * 链接发生错误
+ */
+public class SocketErrorEvent {
+
+    public final Exception exception;
+
+    public SocketErrorEvent(Exception exception) {
+        this.exception = exception;
+    }
+}
@@ -0,0 +1,41 @@
+package com.jh.websocketclient.event;
+
+import org.greenrobot.eventbus.EventBus;
+
+/**
+ * 长连接事件总线（进程内，代替系统广播）
+ * <p>
+ * 单独的 EventBus 实例：关闭事件继承查找和无订阅者日志，减少每条消息的开销。
+ * 订阅者通过 @Subscribe(threadMode = ...) 自行选择回调线程。
+ */
+public class SocketEventBus {
+
+    private static final EventBus BUS = EventBus.builder()
+            .eventInheritance(false)
+            .logNoSubscriberMessages(false)
+            .sendNoSubscriberEvent(false)
+            .build();
+
+    private SocketEventBus() {
+    }
+
+    public static EventBus get() {
+        return BUS;
+    }
+
+    /**
+     * 没有订阅者时直接返回，避免为每条消息创建事件对象
+     */
+    public static boolean hasSubscriber(Class<?> eventClass) {
+        return BUS.hasSubscriberForEvent(eventClass);
+    }
+
+    public static void postState(ConnectionState state) {
+        BUS.postSticky(new ConnectionStateEvent(state));
+    }
+
+    public static ConnectionState currentState() {
+        ConnectionStateEvent event = BUS.getStickyEvent(ConnectionStateEvent.class);
+        return event == null ? ConnectionState.CLOSED : event.state;
+    }
+}
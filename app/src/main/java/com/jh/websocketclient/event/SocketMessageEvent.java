@@ -0,0 +1,15 @@
+package com.jh.websocketclient.event;
+
+/**
+ * 收到文本消息，每条消息一个事件
+ * <p>
+ * UI刷新请使用按帧合并的 MessageDispatcher，这个事件适合非UI的订阅者（ThreadMode.POSTING/BACKGROUND）
+ */
+public class SocketMessageEvent {
+
+    public final String message;
+
+    public SocketMessageEvent(String message) {
+        this.message = message;
+    }
+}
@@ -0,0 +1,13 @@
+package com.jh.websocketclient.event;
+
+/**
+ * 长链接开启
+ */
+public class SocketOpenEvent {
+
+    public final short httpStatus;
+
+    public SocketOpenEvent(short httpStatus) {
+        this.httpStatus = httpStatus;
+    }
+}
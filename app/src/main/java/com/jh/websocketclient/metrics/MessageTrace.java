@@ -0,0 +1,68 @@
+package com.jh.websocketclient.metrics;
+
+/**
+ * 一条被抽中的消息经过各个环节的时间戳(ns)
+ * <p>
+ * 随消息在读线程、分发线程、主线程之间传递，每个环节只由一个线程写，
+ * 经过的队列保证前面写入的时间戳对后面的线程可见。
+ */
+public class MessageTrace {
+
+    public static final int RECEIVED = 0;// 读线程收到帧
+    public static final int DEQUEUED = 1;// 分发线程取出
+    public static final int DECODED = 2;// 解码完成
+    public static final int PERSISTED = 3;// 去重、补齐后写入本地存储
+    public static final int DISPATCHED = 4;// 在帧回调里交给界面
+    public static final int RENDERED = 5;// 这一帧绘制完成
+    static final int STAGES = 6;
+
+    private final long[] stamps = new long[STAGES];
+    private final long receivedAt;// 收到时的系统时间(ms)，和服务端时间比较
+    private long messageId;
+    private long serverTime;// 消息里的服务端时间(ms)，没有时为0
+
+    MessageTrace(long receivedAt) {
+        this.receivedAt = receivedAt;
+        stamps[RECEIVED] = System.nanoTime();
+    }
+
+    public void stamp(int stage) {
+        stamps[stage] = System.nanoTime();
+    }
+
+    /**
+     * 解码后知道是哪条消息
+     */
+    public void setMessage(long messageId, long serverTime) {
+        this.messageId = messageId;
+        this.serverTime = serverTime;
+    }
+
+    /**
+     * @return 还没经过这个环节时为0
+     */
+    public long getStamp(int stage) {
+        return stamps[stage];
+    }
+
+    /**
+     * 从上一个环节到这个环节的时间(ns)，有一个没经过时返回-1
+     */
+    public long getElapsed(int stage) {
+        long start = stamps[stage - 1];
+        long end = stamps[stage];
+        return start == 0 || end == 0 ? -1 : end - start;
+    }
+
+    public long getReceivedAt() {
+        return receivedAt;
+    }
+
+    public long getMessageId() {
+        return messageId;
+    }
+
+    public long getServerTime() {
+        return serverTime;
+    }
+}
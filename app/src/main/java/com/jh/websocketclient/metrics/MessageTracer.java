@@ -0,0 +1,181 @@
+package com.jh.websocketclient.metrics;
+
+import com.jh.websocketclient.util.LatencyHistogram;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 收到的消息从读线程到界面绘制的分段耗时
+ * <p>
+ * 1. 每 sampleInterval 条消息抽一条，在读线程上创建 MessageTrace，随消息经过各个环节打时间戳，没抽中的只多一次计数；
+ * 2. 绘制完成后 complete，各环节耗时记到 MetricsRegistry 的 trace.* 直方图里，随指标快照给出百分位；
+ * 3. 最近完成的若干条保留在内存里，需要时 dump 成CSV文件离线分析。
+ * <p>
+ * 网络耗时用本机收到的时间减去消息里的服务端时间，两边时钟有偏差，只能看趋势。
+ */
+public class MessageTracer {
+
+    // 第 i 个环节的耗时是 stamps[i] - stamps[i-1]
+    private static final String[] STAGE_NAMES = {"receive", "queue", "decode", "persist", "dispatch", "render"};
+
+    private final LatencyHistogram[] stageLatency = new LatencyHistogram[MessageTrace.STAGES];
+    private final LatencyHistogram totalLatency;
+    private final LatencyHistogram networkLatency;
+
+    private final AtomicLong messageCount = new AtomicLong();
+    private volatile int sampleInterval;
+
+    // 最近完成的，环形覆盖，由 this 保护
+    private final MessageTrace[] recent;
+    private int recentNext;
+    private long completedCount;
+
+    /**
+     * @param sampleInterval 每这么多条消息跟踪一条，0表示关闭
+     * @param maxRecent      保留最近完成的条数，用于 dump
+     */
+    public MessageTracer(MetricsRegistry registry, int sampleInterval, int maxRecent) {
+        if (sampleInterval < 0 || maxRecent <= 0) {
+            throw new IllegalArgumentException("sampleInterval must be >= 0 and maxRecent > 0");
+        }
+        for (int stage = MessageTrace.DEQUEUED; stage < MessageTrace.STAGES; stage++) {
+            stageLatency[stage] = registry.histogram("trace." + STAGE_NAMES[stage] + "_ns");
+        }
+        this.totalLatency = registry.histogram("trace.total_ns");
+        this.networkLatency = registry.histogram("trace.network_ms");
+        this.sampleInterval = sampleInterval;
+        this.recent = new MessageTrace[maxRecent];
+    }
+
+    /**
+     * 读线程收到一条消息时调用
+     *
+     * @return 没有抽中时返回null，之后的环节都跳过
+     */
+    public MessageTrace start() {
+        int interval = sampleInterval;
+        if (interval == 0 || messageCount.getAndIncrement() % interval != 0) {
+            return null;
+        }
+        return new MessageTrace(System.currentTimeMillis());
+    }
+
+    /**
+     * 绘制完成后调用，中途被丢弃（重复、确认、缓冲区满）的不用调用
+     */
+    public void complete(MessageTrace trace) {
+        for (int stage = MessageTrace.DEQUEUED; stage < MessageTrace.STAGES; stage++) {
+            long elapsed = trace.getElapsed(stage);
+            if (elapsed >= 0) {
+                stageLatency[stage].record(elapsed);
+            }
+        }
+        long rendered = trace.getStamp(MessageTrace.RENDERED);
+        if (rendered != 0) {
+            totalLatency.record(rendered - trace.getStamp(MessageTrace.RECEIVED));
+        }
+        if (trace.getServerTime() > 0) {
+            networkLatency.record(trace.getReceivedAt() - trace.getServerTime());
+        }
+        synchronized (this) {
+            recent[recentNext] = trace;
+            recentNext = (recentNext + 1) % recent.length;
+            completedCount++;
+        }
+    }
+
+    /**
+     * 运行时调整抽样，0表示关闭
+     */
+    public void setSampleInterval(int sampleInterval) {
+        if (sampleInterval < 0) {
+            throw new IllegalArgumentException("sampleInterval must be >= 0");
+        }
+        this.sampleInterval = sampleInterval;
+    }
+
+    public int getSampleInterval() {
+        return sampleInterval;
+    }
+
+    public synchronized long getCompletedCount() {
+        return completedCount;
+    }
+
+    /**
+     * 某个环节的耗时分布(ns)
+     *
+     * @param stage MessageTrace.DEQUEUED ~ MessageTrace.RENDERED
+     */
+    public LatencyHistogram getStageLatency(int stage) {
+        return stageLatency[stage];
+    }
+
+    public LatencyHistogram getTotalLatency() {
+        return totalLatency;
+    }
+
+    /**
+     * 把最近完成的跟踪按完成顺序写成CSV，耗时单位微秒，有文件IO，不要在主线程调用
+     *
+     * @return 写出的条数
+     */
+    public int dump(File file) throws IOException {
+        MessageTrace[] traces;
+        synchronized (this) {
+            int count = (int) Math.min(completedCount, recent.length);
+            traces = new MessageTrace[count];
+            int start = (recentNext - count + recent.length) % recent.length;
+            for (int i = 0; i < count; i++) {
+                traces[i] = recent[(start + i) % recent.length];
+            }
+        }
+        File dir = file.getParentFile();
+        if (dir != null && !dir.exists() && !dir.mkdirs()) {
+            throw new IOException("can't create " + dir);
+        }
+        Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), "UTF-8"));
+        try {
+            out.write("message_id,server_time,received_at,network_ms");
+            for (int stage = MessageTrace.DEQUEUED; stage < MessageTrace.STAGES; stage++) {
+                out.write("," + STAGE_NAMES[stage] + "_us");
+            }
+            out.write(",total_us\n");
+            for (MessageTrace trace : traces) {
+                StringBuilder line = new StringBuilder();
+                line.append(trace.getMessageId()).append(',').append(trace.getServerTime())
+                        .append(',').append(trace.getReceivedAt()).append(',')
+                        .append(trace.getServerTime() > 0 ? trace.getReceivedAt() - trace.getServerTime() : -1);
+                for (int stage = MessageTrace.DEQUEUED; stage < MessageTrace.STAGES; stage++) {
+                    long elapsed = trace.getElapsed(stage);
+                    line.append(',').append(elapsed < 0 ? -1 : elapsed / 1000);
+                }
+                long rendered = trace.getStamp(MessageTrace.RENDERED);
+                line.append(',').append(rendered == 0 ? -1 : (rendered - trace.getStamp(MessageTrace.RECEIVED)) / 1000);
+                out.write(line.append('\n').toString());
+            }
+        } finally {
+            out.close();
+        }
+        return traces.length;
+    }
+
+    public String report() {
+        StringBuilder sb = new StringBuilder("trace: 1/").append(sampleInterval)
+                .append(", completed=").append(getCompletedCount());
+        for (int stage = MessageTrace.DEQUEUED; stage < MessageTrace.STAGES; stage++) {
+            sb.append(", ").append(STAGE_NAMES[stage]).append(" p50=")
+                    .append(stageLatency[stage].getPercentile(50) / 1000).append("us p99=")
+                    .append(stageLatency[stage].getPercentile(99) / 1000).append("us");
+        }
+        sb.append(", total p50=").append(totalLatency.getPercentile(50) / 1000)
+                .append("us p99=").append(totalLatency.getPercentile(99) / 1000).append("us");
+        return sb.toString();
+    }
+}
@@ -0,0 +1,127 @@
+package com.jh.websocketclient.metrics;
+
+import com.jh.websocketclient.util.LatencyHistogram;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * 连接和消息链路的指标
+ * <p>
+ * 1. 计数用 StripedCounter，延时用 LatencyHistogram，启动时注册好，热路径上只持有引用直接记录，不查表也不分配对象；
+ * 2. 队列深度这类当前值用 Gauge，只在快照时读取；
+ * 3. publish 生成快照并交给监听者，由调用方定时调用。
+ */
+public class MetricsRegistry {
+
+    public interface Gauge {
+        long get();
+    }
+
+    public interface Listener {
+        /**
+         * 在调用 publish 的线程上回调
+         */
+        void onSnapshot(MetricsSnapshot snapshot);
+    }
+
+    // 以下由 this 保护，只在注册和快照时使用
+    private final Map<String, StripedCounter> counters = new LinkedHashMap<>();
+    private final Map<String, Gauge> gauges = new LinkedHashMap<>();
+    private final Map<String, LatencyHistogram> histograms = new LinkedHashMap<>();
+
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+    private volatile MetricsSnapshot lastSnapshot;
+
+    /**
+     * 同名的返回同一个
+     */
+    public synchronized StripedCounter counter(String name) {
+        StripedCounter counter = counters.get(name);
+        if (counter == null) {
+            checkUnused(name);
+            counter = new StripedCounter();
+            counters.put(name, counter);
+        }
+        return counter;
+    }
+
+    /**
+     * 同名的返回同一个，单位由名字说明，比如 handshake_ns
+     */
+    public synchronized LatencyHistogram histogram(String name) {
+        LatencyHistogram histogram = histograms.get(name);
+        if (histogram == null) {
+            checkUnused(name);
+            histogram = new LatencyHistogram();
+            histograms.put(name, histogram);
+        }
+        return histogram;
+    }
+
+    /**
+     * 登记已有组件自己维护的直方图
+     */
+    public synchronized void register(String name, LatencyHistogram histogram) {
+        checkUnused(name);
+        histograms.put(name, histogram);
+    }
+
+    public synchronized void gauge(String name, Gauge gauge) {
+        checkUnused(name);
+        gauges.put(name, gauge);
+    }
+
+    private void checkUnused(String name) {
+        if (counters.containsKey(name) || gauges.containsKey(name) || histograms.containsKey(name)) {
+            throw new IllegalArgumentException("metric " + name + " already registered");
+        }
+    }
+
+    /**
+     * @param timestamp 快照时间(ms)
+     */
+    public synchronized MetricsSnapshot snapshot(long timestamp) {
+        Map<String, Long> values = new LinkedHashMap<>();
+        for (Map.Entry<String, StripedCounter> entry : counters.entrySet()) {
+            values.put(entry.getKey(), entry.getValue().sum());
+        }
+        for (Map.Entry<String, Gauge> entry : gauges.entrySet()) {
+            values.put(entry.getKey(), entry.getValue().get());
+        }
+        Map<String, MetricsSnapshot.Histogram> summaries = new LinkedHashMap<>();
+        for (Map.Entry<String, LatencyHistogram> entry : histograms.entrySet()) {
+            summaries.put(entry.getKey(), new MetricsSnapshot.Histogram(entry.getValue()));
+        }
+        return new MetricsSnapshot(timestamp, values, summaries);
+    }
+
+    /**
+     * 生成快照并通知监听者，定时调用
+     */
+    public MetricsSnapshot publish(long timestamp) {
+        MetricsSnapshot snapshot = snapshot(timestamp);
+        lastSnapshot = snapshot;
+        for (Listener listener : listeners) {
+            listener.onSnapshot(snapshot);
+        }
+        return snapshot;
+    }
+
+    /**
+     * 最近一次 publish 的快照，还没有时为null
+     */
+    public MetricsSnapshot getLastSnapshot() {
+        return lastSnapshot;
+    }
+
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+}
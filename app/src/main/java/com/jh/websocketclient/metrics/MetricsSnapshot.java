@@ -0,0 +1,97 @@
+package com.jh.websocketclient.metrics;
+
+import com.jh.websocketclient.util.LatencyHistogram;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 某个时刻所有指标的值，创建后不再变化，可以交给任意线程
+ * <p>
+ * 计数是从启动开始的累计值，两次快照相减得到这段时间的增量。
+ */
+public class MetricsSnapshot {
+
+    public static class Histogram {
+        public final long count;
+        public final double mean;
+        public final long p50;
+        public final long p90;
+        public final long p99;
+        public final long max;
+
+        Histogram(LatencyHistogram histogram) {
+            this.count = histogram.getCount();
+            this.mean = histogram.getMean();
+            this.p50 = histogram.getPercentile(50);
+            this.p90 = histogram.getPercentile(90);
+            this.p99 = histogram.getPercentile(99);
+            this.max = histogram.getMax();
+        }
+
+        @Override
+        public String toString() {
+            return "count=" + count + ", p50=" + p50 + ", p90=" + p90 + ", p99=" + p99 + ", max=" + max;
+        }
+    }
+
+    private final long timestamp;
+    private final Map<String, Long> values;
+    private final Map<String, Histogram> histograms;
+
+    MetricsSnapshot(long timestamp, Map<String, Long> values, Map<String, Histogram> histograms) {
+        this.timestamp = timestamp;
+        this.values = Collections.unmodifiableMap(new LinkedHashMap<>(values));
+        this.histograms = Collections.unmodifiableMap(new LinkedHashMap<>(histograms));
+    }
+
+    /**
+     * 快照时间(ms)
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    /**
+     * 计数和当前值，按注册顺序
+     */
+    public Map<String, Long> getValues() {
+        return values;
+    }
+
+    public Map<String, Histogram> getHistograms() {
+        return histograms;
+    }
+
+    /**
+     * @return 没有这个指标时返回0
+     */
+    public long getValue(String name) {
+        Long value = values.get(name);
+        return value == null ? 0 : value;
+    }
+
+    public Histogram getHistogram(String name) {
+        return histograms.get(name);
+    }
+
+    /**
+     * 和更早的快照相比的增量
+     */
+    public long delta(MetricsSnapshot previous, String name) {
+        return previous == null ? getValue(name) : getValue(name) - previous.getValue(name);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("metrics@").append(timestamp).append(':');
+        for (Map.Entry<String, Long> entry : values.entrySet()) {
+            sb.append(' ').append(entry.getKey()).append('=').append(entry.getValue());
+        }
+        for (Map.Entry<String, Histogram> entry : histograms.entrySet()) {
+            sb.append("; ").append(entry.getKey()).append(": ").append(entry.getValue());
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,64 @@
+package com.jh.websocketclient.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 分段计数器
+ * <p>
+ * 读线程、分发线程、发送线程同时累加同一个计数时，按线程分到不同的段上，
+ * 每段占一个缓存行，互不争用；读取时把各段加起来。
+ * add 只有一次原子加法，不分配对象（API 24 以下没有 LongAdder）。
+ */
+public class StripedCounter {
+
+    private static final int PADDING = 8;// 每段间隔8个long，64字节
+
+    private final AtomicLongArray cells;
+    private final int mask;
+
+    public StripedCounter() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * @param stripes 段数，取整到2的幂
+     */
+    public StripedCounter(int stripes) {
+        int size = 1;
+        while (size < stripes) {
+            size <<= 1;
+        }
+        this.mask = size - 1;
+        this.cells = new AtomicLongArray(size * PADDING);
+    }
+
+    public void increment() {
+        add(1);
+    }
+
+    public void add(long delta) {
+        cells.getAndAdd(index(), delta);
+    }
+
+    private int index() {
+        long id = Thread.currentThread().getId();
+        int hash = (int) (id ^ (id >>> 32)) * 0x9E3779B9;
+        return ((hash >>> 16) & mask) * PADDING;
+    }
+
+    /**
+     * 并发累加时是某个时刻附近的近似值
+     */
+    public long sum() {
+        long sum = 0;
+        for (int i = 0; i < cells.length(); i += PADDING) {
+            sum += cells.get(i);
+        }
+        return sum;
+    }
+
+    @Override
+    public String toString() {
+        return Long.toString(sum());
+    }
+}
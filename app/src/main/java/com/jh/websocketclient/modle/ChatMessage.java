@@ -1,11 +1,74 @@
 package com.jh.websocketclient.modle;
 
+import com.jh.websocketclient.metrics.MessageTrace;
+import com.jh.websocketclient.util.TimeFormatter;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 聊天消息
+ * <p>
+ * 时间用 long 毫秒保存，方向和已读状态打包在 flags 里；格式化后的时间第一次显示时生成并缓存。
+ */
 public class ChatMessage {
 
+    public static final int FLAG_ME_SEND = 1;// 自己发送（否则是对方发送）
+    public static final int FLAG_READ = 1 << 1;// 已读；自己发送的消息表示服务端已确认
+
+    // 本地生成的消息id：毫秒时间戳左移16位 + 自增序号
+    private static final AtomicLong ID_SEQUENCE = new AtomicLong();
+
+    private long id;// 消息id，稳定不变，用于去重和确认
+    private long seq;// 本地存储序号，按写入顺序递增，0表示还没有存储
+    private long time;// 毫秒时间戳
+    private int flags;
     private String content;
-    private String time;
-    private int isMeSend;//0是对方发送 1是自己发送
-    private int isRead;//是否已读（0未读 1已读）
+    private String formattedTime;// 显示用的时间，懒加载
+    private MessageTrace trace;// 抽中跟踪的收到的消息，只在内存里随消息传到界面，不存储
+
+    public ChatMessage() {
+    }
+
+    public ChatMessage(long id, String content, long time, int flags) {
+        this.id = id;
+        this.content = content;
+        this.time = time;
+        this.flags = flags;
+    }
+
+    /**
+     * 对方发来的消息
+     */
+    public static ChatMessage received(String content, long time) {
+        return new ChatMessage(newId(time), content, time, FLAG_READ);
+    }
+
+    /**
+     * 自己发送的消息，服务端确认后才标记为已读
+     */
+    public static ChatMessage sent(String content, long time) {
+        return new ChatMessage(newId(time), content, time, FLAG_ME_SEND);
+    }
+
+    public static long newId(long time) {
+        return (time << 16) | (ID_SEQUENCE.incrementAndGet() & 0xFFFF);
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    public void setId(long id) {
+        this.id = id;
+    }
+
+    public long getSeq() {
+        return seq;
+    }
+
+    public void setSeq(long seq) {
+        this.seq = seq;
+    }
 
     public String getContent() {
         return content;
@@ -15,27 +78,71 @@ public class ChatMessage {
         this.content = content;
     }
 
-    public String getTime() {
+    public long getTime() {
         return time;
     }
 
-    public void setTime(String time) {
+    public void setTime(long time) {
         this.time = time;
+        this.formattedTime = null;
+    }
+
+    /**
+     * 主线程调用
+     */
+    public String getFormattedTime() {
+        if (formattedTime == null) {
+            formattedTime = TimeFormatter.format(time);
+        }
+        return formattedTime;
+    }
+
+    /**
+     * 没有跟踪时为null
+     */
+    public MessageTrace getTrace() {
+        return trace;
+    }
+
+    public void setTrace(MessageTrace trace) {
+        this.trace = trace;
+    }
+
+    public int getFlags() {
+        return flags;
+    }
+
+    /**
+     * 复制一份并修改状态，列表差分需要新的对象
+     */
+    public ChatMessage withFlags(int flags) {
+        ChatMessage copy = new ChatMessage(id, content, time, flags);
+        copy.seq = seq;
+        copy.formattedTime = formattedTime;
+        return copy;
+    }
+
+    public void setFlags(int flags) {
+        this.flags = flags;
+    }
+
+    public boolean isMeSend() {
+        return (flags & FLAG_ME_SEND) != 0;
     }
 
-    public int getIsMeSend() {
-        return isMeSend;
+    public void setMeSend(boolean meSend) {
+        setFlag(FLAG_ME_SEND, meSend);
     }
 
-    public void setIsMeSend(int isMeSend) {
-        this.isMeSend = isMeSend;
+    public boolean isRead() {
+        return (flags & FLAG_READ) != 0;
     }
 
-    public int getIsRead() {
-        return isRead;
+    public void setRead(boolean read) {
+        setFlag(FLAG_READ, read);
     }
 
-    public void setIsRead(int isRead) {
-        this.isRead = isRead;
+    private void setFlag(int flag, boolean on) {
+        flags = on ? flags | flag : flags & ~flag;
     }
 }
@@ -0,0 +1,468 @@
+package com.jh.websocketclient.queue;
+
+import com.jh.websocketclient.codec.BinaryCodec;
+import com.jh.websocketclient.codec.Envelope;
+import com.jh.websocketclient.codec.MessageCodec;
+import com.jh.websocketclient.util.ClientLog;
+import com.jh.websocketclient.util.LatencyHistogram;
+import com.jh.websocketclient.websocket.StageStats;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 发送队列
+ * <p>
+ * 任何连接状态下都可以发送：消息先写入本地追加日志，连接可用时按批次发送，
+ * 断线期间的消息在 onOpen 之后调用 onConnected() 补发。
+ * 队列有条数和字节数上限，超过后 offer 返回false，并通过 OnBackpressureListener 通知调用者，
+ * 积压降到上限一半以下时再通知恢复。
+ * <p>
+ * 写日志和发送都在同一个工作线程上完成，调用线程不做IO。
+ * 日志里统一用 BinaryCodec 编码，和连接实际协商出的编码无关；发送时由 Sender 按连接的编码重新编码。
+ * <p>
+ * 可靠投递：连接要求确认时，发出的消息按 id 记录为“已发送未确认”，服务端确认（或回显同一 id 的消息）后
+ * 才从日志中删除；未确认的消息最多 windowSize 条，窗口满了暂停发送，收到确认后继续。
+ * 连接断开时未确认的消息不知道是否送达，重连后排到队首按原顺序重发，id 不变，由服务端去重。
+ * 窗口大小决定了一个往返时间内能发出多少条，高延迟链路上应调大，不要退化成发一条等一条。
+ */
+public class OutboundQueue {
+
+    private static final ClientLog logger = ClientLog.get("OutboundQueue");
+
+    public interface Sender {
+        boolean isOpen();
+
+        void send(Envelope envelope);
+    }
+
+    public interface OnAckListener {
+        /**
+         * 在确认到达的线程回调（通常是连接的读线程）
+         *
+         * @param serverSeq 服务端分配的序号，没有时为0
+         */
+        void onAcked(Envelope envelope, long serverSeq);
+    }
+
+    public interface OnBackpressureListener {
+        /**
+         * 在调用 offer 的线程或工作线程回调
+         *
+         * @param full true: 队列已满，暂停发送；false: 已恢复
+         */
+        void onBackpressureChanged(boolean full);
+    }
+
+    private final MessageCodec logCodec = BinaryCodec.getInstance();
+    private final PendingFrameLog log;
+    private final Sender sender;
+    private final int maxCount;
+    private final long maxBytes;
+    private final int batchCount;
+    private final long batchBytes;
+
+    // 工作线程：读写 frames.log、攒批，排队统计见 getStats
+    private final StageStats stats = new StageStats("ws-outbox");
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "ws-outbox");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+    // 只在工作线程访问
+    private final ArrayDeque<PendingFrame> pending = new ArrayDeque<>();
+    private boolean logOpened;
+    private boolean ackEnabled;// 当前连接是否要求确认
+
+    // 已发送未确认的消息，按发送顺序（也是日志顺序）排列；确认在读线程到达，用 this 加锁
+    private final LinkedHashMap<Long, PendingFrame> inFlight = new LinkedHashMap<>();
+    private int windowSize;
+    private OnAckListener ackListener;
+
+    // 已接收未发送的总量（包含还没写入日志的），用于限流
+    private int queuedCount;
+    private long queuedBytes;
+    private boolean backpressured;
+    private OnBackpressureListener backpressureListener;
+
+    private final AtomicLong sentCount = new AtomicLong();
+    private final AtomicLong rejectedCount = new AtomicLong();
+    private final AtomicLong ackedCount = new AtomicLong();
+    private final AtomicLong retransmitCount = new AtomicLong();
+    private final LatencyHistogram ackLatency = new LatencyHistogram();
+
+    /**
+     * @param dir        日志目录
+     * @param maxCount   最多积压的消息条数
+     * @param maxBytes   最多积压的字节数
+     * @param batchCount 每批最多发送的条数
+     * @param batchBytes 每批最多发送的字节数
+     * @param windowSize 最多已发送未确认的消息数
+     */
+    public OutboundQueue(File dir, Sender sender, int maxCount, long maxBytes, int batchCount, long batchBytes,
+                         int windowSize) {
+        if (windowSize <= 0) {
+            throw new IllegalArgumentException("windowSize must be positive");
+        }
+        this.log = new PendingFrameLog(dir, logCodec);
+        this.sender = sender;
+        this.maxCount = maxCount;
+        this.maxBytes = maxBytes;
+        this.batchCount = batchCount;
+        this.batchBytes = batchBytes;
+        this.windowSize = windowSize;
+        execute(new Runnable() {
+            @Override
+            public void run() {
+                openLog();
+            }
+        });
+    }
+
+    public synchronized void setOnBackpressureListener(OnBackpressureListener listener) {
+        this.backpressureListener = listener;
+    }
+
+    public synchronized void setOnAckListener(OnAckListener listener) {
+        this.ackListener = listener;
+    }
+
+    /**
+     * 调整确认窗口，调大后立即发送窗口内新增的部分
+     */
+    public void setWindowSize(int windowSize) {
+        if (windowSize <= 0) {
+            throw new IllegalArgumentException("windowSize must be positive");
+        }
+        synchronized (this) {
+            this.windowSize = windowSize;
+        }
+        execute(drainRunnable);
+    }
+
+    public synchronized int getWindowSize() {
+        return windowSize;
+    }
+
+    /**
+     * 任意线程调用
+     *
+     * @return 队列已满返回false，消息未被接收
+     */
+    public boolean offer(final Envelope envelope) {
+        final byte[] bytes = logCodec.encode(envelope);
+        synchronized (this) {
+            if (queuedCount + 1 > maxCount || queuedBytes + bytes.length > maxBytes) {
+                rejectedCount.incrementAndGet();
+                changeBackpressure(true);
+                return false;
+            }
+            queuedCount++;
+            queuedBytes += bytes.length;
+        }
+        execute(new Runnable() {
+            @Override
+            public void run() {
+                long endOffset = -1;
+                if (logOpened) {
+                    try {
+                        endOffset = log.append(bytes);
+                    } catch (IOException e) {
+                        logger.e("append failed, frame kept in memory only", e);
+                    }
+                }
+                pending.addLast(new PendingFrame(envelope, bytes.length, endOffset));
+                drainBatch();
+            }
+        });
+        return true;
+    }
+
+    /**
+     * 连接建立后调用：上一个连接上未确认的消息排回队首，然后补发积压的消息
+     *
+     * @param ackEnabled 这个连接上的服务端是否会确认消息；false 时发出即算送达
+     */
+    public void onConnected(final boolean ackEnabled) {
+        execute(new Runnable() {
+            @Override
+            public void run() {
+                List<PendingFrame> unacked;
+                synchronized (OutboundQueue.this) {
+                    unacked = new ArrayList<>(inFlight.values());
+                    inFlight.clear();
+                }
+                for (int i = unacked.size() - 1; i >= 0; i--) {
+                    pending.addFirst(unacked.get(i));
+                }
+                retransmitCount.addAndGet(unacked.size());
+                if (!unacked.isEmpty()) {
+                    logger.d("retransmit {} unacked frames", unacked.size());
+                }
+                OutboundQueue.this.ackEnabled = ackEnabled;
+                drainBatch();
+            }
+        });
+    }
+
+    /**
+     * 任意线程调用：服务端确认了 id 这条消息
+     *
+     * @return 这条消息正在等待确认返回true；重复的确认、或不是本端发出的 id 返回false
+     */
+    public boolean onAck(long id, long serverSeq) {
+        final PendingFrame frame;
+        OnAckListener listener;
+        synchronized (this) {
+            frame = inFlight.remove(id);
+            listener = ackListener;
+        }
+        if (frame == null) {
+            return false;
+        }
+        ackLatency.record(System.nanoTime() - frame.sentAt);
+        ackedCount.incrementAndGet();
+        execute(new Runnable() {
+            @Override
+            public void run() {
+                release(1, frame.bytes);
+                ackLog();
+                drainBatch();
+            }
+        });
+        if (listener != null) {
+            listener.onAcked(frame.envelope, serverSeq);
+        }
+        return true;
+    }
+
+    private void execute(Runnable task) {
+        executor.execute(stats.wrap(task));
+    }
+
+    private final Runnable drainRunnable = new Runnable() {
+        @Override
+        public void run() {
+            drainBatch();
+        }
+    };
+
+    private void openLog() {
+        try {
+            List<PendingFrame> frames = log.open();
+            logOpened = true;
+            long bytes = 0;
+            for (PendingFrame frame : frames) {
+                pending.addLast(frame);
+                bytes += frame.bytes;
+            }
+            synchronized (this) {
+                queuedCount += frames.size();
+                queuedBytes += bytes;
+            }
+            if (!frames.isEmpty()) {
+                logger.d("restored {} pending frames", frames.size());
+            }
+        } catch (IOException e) {
+            logger.e("open log failed, queue is memory only", e);
+        }
+    }
+
+    /**
+     * 工作线程：发送一批，剩余的重新排队，让新消息的写入有机会插进来
+     */
+    private void drainBatch() {
+        if (pending.isEmpty() || !sender.isOpen()) {
+            return;
+        }
+        int count = 0;
+        long bytes = 0;
+        int deliveredCount = 0;
+        long deliveredBytes = 0;
+        boolean windowFull = false;
+        while (!pending.isEmpty() && count < batchCount && (count == 0 || bytes + pending.peekFirst().bytes <= batchBytes)) {
+            PendingFrame frame = pending.peekFirst();
+            // 旧版本日志里的消息没有 id，无法确认，发出即算送达
+            boolean tracked = ackEnabled && frame.envelope.getId() != 0;
+            if (tracked) {
+                // 确认可能在 send 返回之前就到达，先登记再发送
+                synchronized (this) {
+                    windowFull = inFlight.size() >= windowSize;
+                    if (!windowFull) {
+                        frame.sentAt = System.nanoTime();
+                        inFlight.put(frame.envelope.getId(), frame);
+                    }
+                }
+                if (windowFull) {
+                    break;// 等确认腾出窗口
+                }
+            }
+            try {
+                sender.send(frame.envelope);
+            } catch (RuntimeException e) {
+                // 发送途中断开，剩下的等下次 onOpen
+                logger.w("send interrupted: {}", e);
+                if (tracked) {
+                    synchronized (this) {
+                        inFlight.remove(frame.envelope.getId());
+                    }
+                }
+                break;
+            }
+            pending.pollFirst();
+            count++;
+            bytes += frame.bytes;
+            if (!tracked) {
+                deliveredCount++;
+                deliveredBytes += frame.bytes;
+            }
+        }
+        if (count == 0) {
+            return;
+        }
+        sentCount.addAndGet(count);
+        if (deliveredCount > 0) {
+            release(deliveredCount, deliveredBytes);
+            ackLog();
+        }
+        if (!pending.isEmpty() && !windowFull) {
+            execute(drainRunnable);
+        }
+    }
+
+    /**
+     * 工作线程：日志确认到第一条还没有送达的消息之前
+     */
+    private void ackLog() {
+        if (!logOpened) {
+            return;
+        }
+        PendingFrame first = null;
+        synchronized (this) {
+            for (PendingFrame frame : inFlight.values()) {
+                if (frame.endOffset >= 0) {
+                    first = frame;
+                    break;
+                }
+            }
+        }
+        if (first == null) {
+            for (PendingFrame frame : pending) {
+                if (frame.endOffset >= 0) {
+                    first = frame;
+                    break;
+                }
+            }
+        }
+        try {
+            if (first == null) {
+                log.ackAll();
+            } else {
+                log.ack(first.endOffset - PendingFrameLog.RECORD_HEADER_SIZE - first.bytes);
+            }
+        } catch (IOException e) {
+            logger.e("ack failed", e);
+        }
+    }
+
+    /**
+     * 送达的消息不再占用积压额度
+     */
+    private synchronized void release(int count, long bytes) {
+        queuedCount -= count;
+        queuedBytes -= bytes;
+        if (queuedCount <= maxCount / 2 && queuedBytes <= maxBytes / 2) {
+            changeBackpressure(false);
+        }
+    }
+
+    private void changeBackpressure(boolean full) {
+        if (backpressured == full) {
+            return;
+        }
+        backpressured = full;
+        final OnBackpressureListener listener = backpressureListener;
+        if (listener != null) {
+            listener.onBackpressureChanged(full);
+        }
+    }
+
+    public synchronized boolean isBackpressured() {
+        return backpressured;
+    }
+
+    /**
+     * 已发送未确认的消息数
+     */
+    public synchronized int getInFlightCount() {
+        return inFlight.size();
+    }
+
+    /**
+     * 积压的消息数，包括已发送未确认的
+     */
+    public synchronized int getPendingCount() {
+        return queuedCount;
+    }
+
+    public synchronized long getPendingBytes() {
+        return queuedBytes;
+    }
+
+    public long getSentCount() {
+        return sentCount.get();
+    }
+
+    /**
+     * 队列满被拒绝的消息数
+     */
+    public long getRejectedCount() {
+        return rejectedCount.get();
+    }
+
+    public long getAckedCount() {
+        return ackedCount.get();
+    }
+
+    /**
+     * 因为连接断开而重发的消息数
+     */
+    public long getRetransmitCount() {
+        return retransmitCount.get();
+    }
+
+    /**
+     * 从发出到收到确认的时延（纳秒）
+     */
+    public LatencyHistogram getAckLatency() {
+        return ackLatency;
+    }
+
+    /**
+     * 工作线程的队列深度和等待时间
+     */
+    public StageStats getStats() {
+        return stats;
+    }
+
+    /**
+     * 确认时延的 p50/p99（毫秒）和重发次数，用于日志
+     */
+    public String report() {
+        return "确认时延: n=" + ackLatency.getCount()
+                + " p50=" + ackLatency.getPercentile(50) / 1000000.0
+                + "ms p99=" + ackLatency.getPercentile(99) / 1000000.0
+                + "ms; 未确认=" + getInFlightCount() + " 重发=" + retransmitCount.get();
+    }
+}
@@ -0,0 +1,438 @@
+package com.jh.websocketclient.queue;
+
+import com.jh.websocketclient.codec.Envelope;
+import com.jh.websocketclient.util.ClientLog;
+import com.jh.websocketclient.util.LatencyHistogram;
+import com.jh.websocketclient.websocket.StageStats;
+
+import org.java_websocket.enums.Opcode;
+import org.java_websocket.framing.BinaryFrame;
+import org.java_websocket.framing.ContinuousFrame;
+import org.java_websocket.framing.DataFrame;
+import org.java_websocket.framing.Framedata;
+import org.java_websocket.framing.TextFrame;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 按优先级调度所有发出的数据
+ * <p>
+ * 1. CONTROL 严格优先；INTERACTIVE 和 BULK 之间按权重做加权公平队列（入队时算虚拟完成时间，每次发最小的），
+ * 大量 BULK 数据排队时，聊天消息最多等一块 BULK 数据写出；
+ * 2. BULK 的大消息拆块：信封按 chunkSize 个字符拆成多条独立的消息（part/parts，接收方用 EnvelopeAssembler 拼回），
+ * 块之间可以插入其他消息；没有信封的二进制/文本消息只能拆成 WebSocket 分片，分片之间按协议只能插入 ping 等控制帧；
+ * 3. 只在库的写队列里少于 maxBufferedFrames 帧时才往下写，优先级在这里决定，而不是全堆进库的队列里先进先出；
+ * 4. 记录每个类别从入队到写出的排队时延。
+ * <p>
+ * 断线时丢弃控制消息、没有信封的帧和已经开始发送的分块消息，其余信封重连后接着发。
+ * 写出在单独的线程上完成。
+ */
+public class OutboundScheduler {
+
+    private static final ClientLog log = ClientLog.get("OutboundScheduler");
+
+    private static final long WRITE_RETRY_MILLIS = 5;// 写队列满时隔多久再试
+    private static final long WEIGHT_SCALE = 1024;
+
+    public interface Writer {
+        boolean isOpen();
+
+        /**
+         * 已经交给库、还没写到 socket 的帧数
+         */
+        int getBufferedFrames();
+
+        void write(Envelope envelope);
+
+        void write(Framedata frame);
+    }
+
+    private static final class Item {
+        final TrafficClass trafficClass;
+        final Envelope envelope;// 和 frame 二选一
+        final Framedata frame;
+        final int bytes;
+        final long enqueuedAt;
+        final Runnable onComplete;// 整条消息写出或丢弃后调用，只在最后一块上
+        long finishTag;
+
+        Item(TrafficClass trafficClass, Envelope envelope, Framedata frame, int bytes, Runnable onComplete) {
+            this.trafficClass = trafficClass;
+            this.envelope = envelope;
+            this.frame = frame;
+            this.bytes = bytes;
+            this.onComplete = onComplete;
+            this.enqueuedAt = System.nanoTime();
+        }
+    }
+
+    private final Writer writer;
+    private final int chunkSize;
+    private final int maxBufferedFrames;
+    // 写线程：和 ws-io、ws-connect、ws-dispatch 一样有名字、不阻止进程退出，排队统计见 getStats
+    private final StageStats stats = new StageStats("ws-send");
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "ws-send");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+
+    // 以下加锁访问，数组按 TrafficClass.ordinal() 索引
+    private final ArrayDeque<Item> controlFrames = new ArrayDeque<>();// ping/pong，可以插在分片之间
+    private final List<ArrayDeque<Item>> queues = new ArrayList<>();
+    private final long[] lastFinish = new long[TrafficClass.values().length];
+    private final long[] queuedBytes = new long[TrafficClass.values().length];
+    private final long[] sentCount = new long[TrafficClass.values().length];
+    private long droppedCount;
+    private long virtualTime;
+    private boolean midMessage;// 写了一条分片消息的前几片，最后一片还没写
+    private boolean drainScheduled;
+
+    private final LatencyHistogram[] queueLatency = new LatencyHistogram[TrafficClass.values().length];
+
+    /**
+     * @param chunkSize         BULK 消息拆块的大小：信封按字符数，其他按字节数
+     * @param maxBufferedFrames 库的写队列里最多积压的帧数
+     */
+    public OutboundScheduler(Writer writer, int chunkSize, int maxBufferedFrames) {
+        if (chunkSize <= 0 || maxBufferedFrames <= 0) {
+            throw new IllegalArgumentException("invalid scheduler config");
+        }
+        this.writer = writer;
+        this.chunkSize = chunkSize;
+        this.maxBufferedFrames = maxBufferedFrames;
+        for (int i = 0; i < TrafficClass.values().length; i++) {
+            queues.add(new ArrayDeque<Item>());
+            queueLatency[i] = new LatencyHistogram();
+        }
+    }
+
+    /**
+     * 发送一个信封，BULK 的大消息拆成多块
+     */
+    public void submit(TrafficClass trafficClass, Envelope envelope) {
+        String content = envelope.getContent();
+        if (trafficClass != TrafficClass.BULK || content == null || content.length() <= chunkSize) {
+            enqueue(new Item(trafficClass, envelope, null, cost(envelope), null));
+            return;
+        }
+        List<String> pieces = new ArrayList<>(content.length() / chunkSize + 1);
+        int start = 0;
+        while (start < content.length()) {
+            int end = Math.min(content.length(), start + chunkSize);
+            if (end < content.length() && Character.isHighSurrogate(content.charAt(end - 1))) {
+                end--;// 不拆开代理对
+            }
+            pieces.add(content.substring(start, end));
+            start = end;
+        }
+        List<Item> items = new ArrayList<>(pieces.size());
+        for (int i = 0; i < pieces.size(); i++) {
+            Envelope chunk = envelope.chunk(i, pieces.size(), pieces.get(i));
+            items.add(new Item(trafficClass, chunk, null, cost(chunk), null));
+        }
+        enqueue(items);
+    }
+
+    /**
+     * 发送一条没有信封的消息，BULK 的大消息拆成 WebSocket 分片
+     *
+     * @param onComplete 写出或丢弃后调用（可以为null），之后不再访问 payload
+     */
+    public void submitMessage(TrafficClass trafficClass, ByteBuffer payload, boolean binary, Runnable onComplete) {
+        int length = payload.remaining();
+        if (trafficClass != TrafficClass.BULK || length <= chunkSize) {
+            DataFrame frame = binary ? new BinaryFrame() : new TextFrame();
+            frame.setPayload(payload);
+            frame.setFin(true);
+            enqueue(new Item(trafficClass, null, frame, length, onComplete));
+            return;
+        }
+        List<Item> items = new ArrayList<>(length / chunkSize + 1);
+        for (int offset = 0; offset < length; offset += chunkSize) {
+            int size = Math.min(chunkSize, length - offset);
+            DataFrame frame = offset == 0 ? (binary ? new BinaryFrame() : new TextFrame()) : new ContinuousFrame();
+            ByteBuffer slice = payload.duplicate();
+            slice.position(payload.position() + offset);
+            slice.limit(payload.position() + offset + size);
+            frame.setPayload(slice.slice());
+            frame.setFin(offset + size >= length);
+            items.add(new Item(trafficClass, null, frame, size, frame.isFin() ? onComplete : null));
+        }
+        enqueue(items);
+    }
+
+    /**
+     * ping/pong 等控制帧，排在所有数据前面，可以插在分片之间
+     */
+    public void submitControl(Framedata frame) {
+        synchronized (this) {
+            controlFrames.addLast(new Item(TrafficClass.CONTROL, null, frame, 0, null));
+            scheduleDrain(0);
+        }
+    }
+
+    private void enqueue(Item item) {
+        synchronized (this) {
+            add(item);
+            scheduleDrain(0);
+        }
+    }
+
+    private void enqueue(List<Item> items) {
+        synchronized (this) {
+            for (Item item : items) {
+                add(item);
+            }
+            scheduleDrain(0);
+        }
+    }
+
+    private void add(Item item) {
+        int index = item.trafficClass.ordinal();
+        if (item.trafficClass.weight > 0) {
+            long start = Math.max(virtualTime, lastFinish[index]);
+            item.finishTag = start + Math.max(1, item.bytes) * WEIGHT_SCALE / item.trafficClass.weight;
+            lastFinish[index] = item.finishTag;
+        }
+        queues.get(index).addLast(item);
+        queuedBytes[index] += item.bytes;
+    }
+
+    /**
+     * 连接建立后调用，开始写出积压的消息
+     */
+    public synchronized void onConnected() {
+        scheduleDrain(0);
+    }
+
+    /**
+     * 连接断开后调用，丢弃不能在新连接上继续的数据
+     */
+    public void onDisconnected() {
+        List<Runnable> callbacks = new ArrayList<>();
+        synchronized (this) {
+            droppedCount += controlFrames.size();
+            controlFrames.clear();
+            midMessage = false;
+            for (int i = 0; i < queues.size(); i++) {
+                Iterator<Item> iterator = queues.get(i).iterator();
+                long partialId = -1;
+                String partialChannel = null;
+                boolean first = true;
+                while (iterator.hasNext()) {
+                    Item item = iterator.next();
+                    boolean drop;
+                    if (item.frame != null || item.trafficClass == TrafficClass.CONTROL) {
+                        drop = true;
+                    } else if (first && item.envelope.isChunk() && item.envelope.getPart() > 0) {
+                        // 队首是一条已经开始发送的分块消息，剩下的块在新连接上没法拼
+                        partialId = item.envelope.getId();
+                        partialChannel = item.envelope.getChannel();
+                        drop = true;
+                    } else {
+                        drop = partialId >= 0 && item.envelope.isChunk() && item.envelope.getPart() > 0
+                                && item.envelope.getId() == partialId
+                                && (partialChannel == null ? item.envelope.getChannel() == null
+                                : partialChannel.equals(item.envelope.getChannel()));
+                    }
+                    first = false;
+                    if (drop) {
+                        iterator.remove();
+                        queuedBytes[i] -= item.bytes;
+                        droppedCount++;
+                        if (item.onComplete != null) {
+                            callbacks.add(item.onComplete);
+                        }
+                    }
+                }
+            }
+        }
+        for (Runnable callback : callbacks) {
+            callback.run();
+        }
+    }
+
+    private void scheduleDrain(long delayMillis) {
+        if (drainScheduled) {
+            return;
+        }
+        drainScheduled = true;
+        executor.schedule(stats.wrap(drainRunnable, delayMillis), delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private final Runnable drainRunnable = new Runnable() {
+        @Override
+        public void run() {
+            synchronized (OutboundScheduler.this) {
+                drainScheduled = false;
+            }
+            drain();
+        }
+    };
+
+    /**
+     * 写线程：写到没有数据或写队列满为止
+     */
+    private void drain() {
+        while (true) {
+            if (!writer.isOpen()) {
+                return;// onConnected 时继续
+            }
+            if (writer.getBufferedFrames() >= maxBufferedFrames) {
+                synchronized (this) {
+                    scheduleDrain(WRITE_RETRY_MILLIS);
+                }
+                return;
+            }
+            Item item;
+            synchronized (this) {
+                item = pick();
+                if (item == null) {
+                    return;
+                }
+            }
+            try {
+                if (item.envelope != null) {
+                    writer.write(item.envelope);
+                } else {
+                    writer.write(item.frame);
+                }
+            } catch (RuntimeException e) {
+                // 写的途中断开，信封放回队首，onDisconnected 再决定留不留
+                log.w("write interrupted", e);
+                synchronized (this) {
+                    if (item.frame == null && item.trafficClass != TrafficClass.CONTROL) {
+                        queues.get(item.trafficClass.ordinal()).addFirst(item);
+                        queuedBytes[item.trafficClass.ordinal()] += item.bytes;
+                        return;
+                    }
+                    droppedCount++;
+                }
+                if (item.onComplete != null) {
+                    item.onComplete.run();
+                }
+                return;
+            }
+            queueLatency[item.trafficClass.ordinal()].record(System.nanoTime() - item.enqueuedAt);
+            synchronized (this) {
+                sentCount[item.trafficClass.ordinal()]++;
+            }
+            if (item.onComplete != null) {
+                item.onComplete.run();
+            }
+        }
+    }
+
+    /**
+     * 取下一个要写的：控制帧 > 正在写的分片消息的下一片 > CONTROL 信封 > 虚拟完成时间最小的
+     */
+    private Item pick() {
+        Item item = controlFrames.pollFirst();
+        if (item != null) {
+            return item;
+        }
+        if (midMessage) {
+            item = poll(TrafficClass.BULK);
+        } else {
+            item = poll(TrafficClass.CONTROL);
+            if (item == null) {
+                TrafficClass next = null;
+                long minFinish = Long.MAX_VALUE;
+                for (TrafficClass trafficClass : TrafficClass.values()) {
+                    Item head = queues.get(trafficClass.ordinal()).peekFirst();
+                    if (trafficClass.weight > 0 && head != null && head.finishTag < minFinish) {
+                        minFinish = head.finishTag;
+                        next = trafficClass;
+                    }
+                }
+                if (next != null) {
+                    item = poll(next);
+                    virtualTime = item.finishTag;
+                }
+            }
+        }
+        if (item != null && item.frame != null && isData(item.frame)) {
+            midMessage = !item.frame.isFin();
+        }
+        return item;
+    }
+
+    private Item poll(TrafficClass trafficClass) {
+        Item item = queues.get(trafficClass.ordinal()).pollFirst();
+        if (item != null) {
+            queuedBytes[trafficClass.ordinal()] -= item.bytes;
+        }
+        return item;
+    }
+
+    private static boolean isData(Framedata frame) {
+        Opcode opcode = frame.getOpcode();
+        return opcode == Opcode.TEXT || opcode == Opcode.BINARY || opcode == Opcode.CONTINUOUS;
+    }
+
+    private static int cost(Envelope envelope) {
+        return envelope.getContent() == null ? 0 : envelope.getContent().length();
+    }
+
+    public synchronized int getQueuedCount(TrafficClass trafficClass) {
+        return queues.get(trafficClass.ordinal()).size();
+    }
+
+    public synchronized long getQueuedBytes(TrafficClass trafficClass) {
+        return queuedBytes[trafficClass.ordinal()];
+    }
+
+    public synchronized long getSentCount(TrafficClass trafficClass) {
+        return sentCount[trafficClass.ordinal()];
+    }
+
+    /**
+     * 断线时丢弃的数量
+     */
+    public synchronized long getDroppedCount() {
+        return droppedCount;
+    }
+
+    /**
+     * 从入队到写出的排队时延（纳秒）
+     */
+    public LatencyHistogram getQueueLatency(TrafficClass trafficClass) {
+        return queueLatency[trafficClass.ordinal()];
+    }
+
+    /**
+     * 各类别排队时延的 p50/p99（毫秒），用于日志
+     */
+    public String report() {
+        StringBuilder builder = new StringBuilder("排队时延");
+        for (TrafficClass trafficClass : TrafficClass.values()) {
+            LatencyHistogram histogram = getQueueLatency(trafficClass);
+            builder.append(' ').append(trafficClass.name().toLowerCase())
+                    .append(": n=").append(histogram.getCount())
+                    .append(" p50=").append(histogram.getPercentile(50) / 1000000.0)
+                    .append("ms p99=").append(histogram.getPercentile(99) / 1000000.0).append("ms;");
+        }
+        return builder.toString();
+    }
+
+    public StageStats getStats() {
+        return stats;
+    }
+
+    public void shutdown() {
+        stats.onCancelled(executor.shutdownNow().size());
+    }
+}
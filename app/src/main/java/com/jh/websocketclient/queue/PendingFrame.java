@@ -0,0 +1,24 @@
+package com.jh.websocketclient.queue;
+
+import com.jh.websocketclient.codec.Envelope;
+
+/**
+ * 一条待发送的消息
+ */
+public class PendingFrame {
+
+    final Envelope envelope;
+    final int bytes;// 编码后的字节数
+    final long endOffset;// 在日志中结束的位置，-1表示只在内存中
+    long sentAt;// 最近一次发出的时间（纳秒），只在等待确认时有意义
+
+    PendingFrame(Envelope envelope, int bytes, long endOffset) {
+        this.envelope = envelope;
+        this.bytes = bytes;
+        this.endOffset = endOffset;
+    }
+
+    public Envelope getEnvelope() {
+        return envelope;
+    }
+}
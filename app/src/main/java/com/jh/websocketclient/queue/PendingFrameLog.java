@@ -0,0 +1,147 @@
+package com.jh.websocketclient.queue;
+
+import com.jh.websocketclient.codec.BinaryCodec;
+import com.jh.websocketclient.codec.CodecException;
+import com.jh.websocketclient.codec.Envelope;
+import com.jh.websocketclient.codec.MessageCodec;
+import com.jh.websocketclient.util.ClientLog;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 待发送消息的追加日志
+ * <p>
+ * frames.log 按 [长度int][编码后的信封] 追加写入，frames.ack 记录已送达到的位置。
+ * 旧版本写入的记录是纯 UTF-8 文本（没有信封头），读出时当作聊天消息。
+ * 全部发送完后两个文件一起截断为0，日志不会无限增长。
+ * 不做fsync，进程被杀不会丢消息，系统掉电可能丢失最后几条。
+ * <p>
+ * 非线程安全，只在 OutboundQueue 的工作线程中使用。
+ */
+public class PendingFrameLog {
+
+    private static final ClientLog logger = ClientLog.get("PendingFrameLog");
+
+    static final Charset UTF_8 = Charset.forName("UTF-8");
+    static final int RECORD_HEADER_SIZE = 4;// 每条记录前的长度
+
+    private final MessageCodec codec;
+    private final File logFile;
+    private final File ackFile;
+
+    private RandomAccessFile log;
+    private RandomAccessFile ack;
+    private long ackedOffset;
+
+    public PendingFrameLog(File dir, MessageCodec codec) {
+        this.codec = codec;
+        this.logFile = new File(dir, "frames.log");
+        this.ackFile = new File(dir, "frames.ack");
+    }
+
+    /**
+     * 打开日志，返回上次未发送的消息
+     */
+    public List<PendingFrame> open() throws IOException {
+        File dir = logFile.getParentFile();
+        if (dir != null && !dir.exists() && !dir.mkdirs()) {
+            throw new IOException("can't create " + dir);
+        }
+        log = new RandomAccessFile(logFile, "rw");
+        ack = new RandomAccessFile(ackFile, "rw");
+        ackedOffset = ack.length() >= 8 ? ack.readLong() : 0;
+
+        List<PendingFrame> frames = new ArrayList<>();
+        long length = log.length();
+        long position = Math.min(ackedOffset, length);
+        log.seek(position);
+        while (position + 4 <= length) {
+            int size = log.readInt();
+            if (size < 0 || position + 4 + size > length) {
+                break;// 最后一条没写完（写入过程中进程被杀）
+            }
+            byte[] bytes = new byte[size];
+            log.readFully(bytes);
+            position += 4 + size;
+            Envelope envelope = decode(bytes);
+            if (envelope != null) {
+                frames.add(new PendingFrame(envelope, size, position));
+            }
+        }
+        // 丢掉末尾不完整的记录
+        if (position < length) {
+            log.setLength(position);
+        }
+        log.seek(position);
+        return frames;
+    }
+
+    private Envelope decode(byte[] bytes) {
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        if (!BinaryCodec.isEnvelope(buffer)) {
+            return Envelope.chat(0, 0, new String(bytes, UTF_8));
+        }
+        try {
+            return codec.decode(buffer);
+        } catch (CodecException e) {
+            logger.w("drop unreadable frame: {}", e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * 追加一条消息
+     *
+     * @return 这条记录结束的位置，发送后用来确认
+     */
+    public long append(byte[] bytes) throws IOException {
+        log.writeInt(bytes.length);
+        log.write(bytes);
+        return log.getFilePointer();
+    }
+
+    /**
+     * 确认 offset 之前的消息都已送达
+     */
+    public void ack(long offset) throws IOException {
+        if (offset <= ackedOffset) {
+            return;
+        }
+        ackedOffset = offset;
+        if (ackedOffset >= log.length()) {
+            // 全部发完，截断日志
+            log.setLength(0);
+            log.seek(0);
+            ackedOffset = 0;
+        }
+        ack.seek(0);
+        ack.writeLong(ackedOffset);
+    }
+
+    /**
+     * 确认日志里的全部消息
+     */
+    public void ackAll() throws IOException {
+        ack(log.length());
+    }
+
+    public void close() {
+        closeQuietly(log);
+        closeQuietly(ack);
+    }
+
+    private static void closeQuietly(RandomAccessFile file) {
+        if (file != null) {
+            try {
+                file.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+}
@@ -0,0 +1,16 @@
+package com.jh.websocketclient.queue;
+
+/**
+ * 发送流量的优先级类别
+ */
+public enum TrafficClass {
+    CONTROL(0),// ping、订阅、流控等控制消息，严格优先
+    INTERACTIVE(8),// 用户发出的聊天消息
+    BULK(1);// 大文件、二进制数据、统计上报
+
+    final int weight;// 加权公平队列中的权重，0 表示严格优先
+
+    TrafficClass(int weight) {
+        this.weight = weight;
+    }
+}
@@ -12,13 +12,22 @@ import android.os.Build;
 import android.os.IBinder;
 import android.os.PowerManager;
 import android.text.TextUtils;
-import android.util.Log;
 
 import com.jh.websocketclient.R;
+import com.jh.websocketclient.codec.Envelope;
+import com.jh.websocketclient.metrics.MetricsRegistry;
+import com.jh.websocketclient.metrics.MetricsSnapshot;
+import com.jh.websocketclient.modle.ChatMessage;
+import com.jh.websocketclient.util.ClientLog;
 import com.jh.websocketclient.websocket.MyWebSocketClient;
 
+import java.io.File;
+import java.io.IOException;
+
 public class WebSocketService extends Service {
 
+    private static final ClientLog log = ClientLog.get("WebSocketService");
+
     private JWebSocketClientBinder mBinder = new JWebSocketClientBinder();
     private final static int GRAY_SERVICE_ID = 1001;
 
@@ -58,6 +67,40 @@ public class WebSocketService extends Service {
         public WebSocketService getService() {
             return WebSocketService.this;
         }
+
+        /**
+         * 当前的指标快照：收发帧数和字节数、发送队列深度、重连次数和原因、握手耗时、心跳往返、消息交给UI的延时
+         */
+        public MetricsSnapshot getMetrics() {
+            return MyWebSocketClient.getMetrics().snapshot(System.currentTimeMillis());
+        }
+
+        /**
+         * 定时收到指标快照，在 ws-io 线程上回调，不能阻塞
+         */
+        public void addMetricsListener(MetricsRegistry.Listener listener) {
+            MyWebSocketClient.getMetrics().addListener(listener);
+        }
+
+        public void removeMetricsListener(MetricsRegistry.Listener listener) {
+            MyWebSocketClient.getMetrics().removeListener(listener);
+        }
+
+        /**
+         * 每 interval 条收到的消息跟踪一条从收到到界面绘制的分段耗时，0表示关闭
+         */
+        public void setTraceSampleInterval(int interval) {
+            MyWebSocketClient.getTracer().setSampleInterval(interval);
+        }
+
+        /**
+         * 把最近的消息跟踪写成CSV文件，有文件IO，不要在主线程调用
+         *
+         * @return 写出的条数
+         */
+        public int dumpTraces(File file) throws IOException {
+            return MyWebSocketClient.getTracer().dump(file);
+        }
     }
 
     @Override
@@ -144,15 +187,15 @@ public class WebSocketService extends Service {
 
 
     /**
-     * 发送消息
+     * 发送消息，未连接时先存入发送队列，连上后补发
      *
-     * @param msg
+     * @param msg 本地已生成id和时间的消息，重发时id不变
+     * @return 发送队列已满返回false
      */
-    public void sendMsg(String msg) {
-        if (null != MyWebSocketClient.getInstance(this)) {
-            Log.e("WebSocketService", "发送的消息：" + msg);
-            MyWebSocketClient.getInstance(this).send(msg);
-        }
+    public boolean sendMsg(ChatMessage msg) {
+        log.d("发送的消息：{}", msg.getContent());
+        Envelope envelope = Envelope.chat(msg.getId(), msg.getTime(), msg.getContent());
+        return MyWebSocketClient.getInstance(this).getOutboundQueue().offer(envelope);
     }
 
 
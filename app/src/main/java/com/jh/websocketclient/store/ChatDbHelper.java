@@ -0,0 +1,53 @@
+package com.jh.websocketclient.store;
+
+import android.content.Context;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+
+/**
+ * 聊天记录数据库
+ */
+class ChatDbHelper extends SQLiteOpenHelper {
+
+    static final String DB_NAME = "chat.db";
+    private static final int DB_VERSION = 3;// 2: 增加消息id；3: 消息id索引，按id更新确认状态
+
+    static final String TABLE_MESSAGE = "message";
+    static final String COLUMN_SEQ = "_id";// 写入序号，同时是主键
+    static final String COLUMN_MSG_ID = "msg_id";
+    static final String COLUMN_CONTENT = "content";
+    static final String COLUMN_TIME = "time";
+    static final String COLUMN_IS_ME_SEND = "is_me_send";
+    static final String COLUMN_IS_READ = "is_read";
+
+    ChatDbHelper(Context context, String name) {
+        super(context, name, null, DB_VERSION);
+    }
+
+    @Override
+    public void onCreate(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + TABLE_MESSAGE + " ("
+                + COLUMN_SEQ + " INTEGER PRIMARY KEY, "
+                + COLUMN_MSG_ID + " INTEGER NOT NULL DEFAULT 0, "
+                + COLUMN_CONTENT + " TEXT, "
+                + COLUMN_TIME + " INTEGER NOT NULL, "
+                + COLUMN_IS_ME_SEND + " INTEGER NOT NULL, "
+                + COLUMN_IS_READ + " INTEGER NOT NULL)");
+        db.execSQL("CREATE INDEX idx_message_time ON " + TABLE_MESSAGE + " (" + COLUMN_TIME + ")");
+        createMsgIdIndex(db);
+    }
+
+    @Override
+    public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        if (oldVersion < 2) {
+            db.execSQL("ALTER TABLE " + TABLE_MESSAGE + " ADD COLUMN " + COLUMN_MSG_ID + " INTEGER NOT NULL DEFAULT 0");
+        }
+        if (oldVersion < 3) {
+            createMsgIdIndex(db);
+        }
+    }
+
+    private static void createMsgIdIndex(SQLiteDatabase db) {
+        db.execSQL("CREATE INDEX idx_message_msg_id ON " + TABLE_MESSAGE + " (" + COLUMN_MSG_ID + ")");
+    }
+}
@@ -0,0 +1,191 @@
+package com.jh.websocketclient.store;
+
+import com.jh.websocketclient.codec.Envelope;
+import com.jh.websocketclient.util.ClientLog;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * 重连后的增量补齐
+ * <p>
+ * 连上后发送 TYPE_SYNC(已应用到的序号)，服务端按序号顺序推送断线期间错过的消息，最后发 TYPE_SYNC_DONE(最新序号)。
+ * 补齐期间收到的消息每 batchSize 条交给 Sink 一次，重连的开销和断开期间的消息数成正比，和历史记录多少无关。
+ * <p>
+ * 去重：序号不大于游标的直接丢弃；补齐期间游标不前移（实时推送可能和补齐的消息交错到达），
+ * 已应用但还没被游标覆盖的消息按 id 去重，补齐中途断开后重新补齐不会重复应用。
+ * 不在补齐时，实时消息逐条应用并前移游标。
+ * <p>
+ * 不带序号的消息（旧服务器）不经过这里。所有方法在收消息的线程调用。
+ */
+public class DeltaSync {
+
+    private static final ClientLog log = ClientLog.get("DeltaSync");
+
+    public interface Sink {
+        /**
+         * 应用一批消息，按到达顺序排列
+         *
+         * @param replayed true: 补齐的消息；false: 实时消息
+         */
+        void apply(List<Envelope> batch, boolean replayed);
+    }
+
+    private final SyncCursor cursor;
+    private final Sink sink;
+    private final int batchSize;
+
+    private boolean syncing;
+    private long syncStartedAt;
+    private long maxSeq;// 补齐期间应用过的最大序号
+    private List<Envelope> batch = new ArrayList<>();
+    // 已应用、但序号还没被游标覆盖的消息id，补齐完成后清空
+    private final Set<Long> appliedIds = new HashSet<>();
+
+    private long syncCount;
+    private long replayedCount;
+    private long duplicateCount;
+    private long lastSyncMillis = -1;
+    private long lastGap;
+
+    public DeltaSync(SyncCursor cursor, Sink sink, int batchSize) {
+        if (batchSize <= 0) {
+            throw new IllegalArgumentException("batchSize must be positive");
+        }
+        this.cursor = cursor;
+        this.sink = sink;
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * 连接建立后调用
+     *
+     * @return 需要发给服务端的补齐请求；从来没有收到过带序号的消息时返回null，不补历史
+     */
+    public synchronized Envelope onConnected() {
+        long from = cursor.get();
+        if (from == 0) {
+            syncing = false;
+            return null;
+        }
+        syncing = true;
+        syncStartedAt = System.nanoTime();
+        lastGap = 0;
+        return Envelope.sync(from);
+    }
+
+    /**
+     * 连接断开：已收到的先应用，游标留在原处，下次从这里重新补齐
+     */
+    public synchronized void onDisconnected() {
+        flush();
+        syncing = false;
+    }
+
+    /**
+     * @return true: 已处理（应用、缓存待应用或作为重复丢弃）；false: 不是带序号的聊天消息，调用者自行处理
+     */
+    public synchronized boolean onEnvelope(Envelope envelope) {
+        int type = envelope.getType();
+        if (type == Envelope.TYPE_SYNC_DONE) {
+            onSyncDone(envelope.getSeq());
+            return true;
+        }
+        if (type == Envelope.TYPE_SYNC) {
+            return true;// 旧服务器原样回显的请求
+        }
+        if (type != Envelope.TYPE_CHAT || envelope.getSeq() == 0 || envelope.getChannel() != null) {
+            return false;
+        }
+        long seq = envelope.getSeq();
+        if (seq <= cursor.get() || appliedIds.contains(envelope.getId())) {
+            duplicateCount++;
+            return true;
+        }
+        if (!syncing) {
+            List<Envelope> single = new ArrayList<>(1);
+            single.add(envelope);
+            sink.apply(single, false);
+            cursor.advance(seq);
+            return true;
+        }
+        appliedIds.add(envelope.getId());
+        maxSeq = Math.max(maxSeq, seq);
+        replayedCount++;
+        lastGap++;
+        batch.add(envelope);
+        if (batch.size() >= batchSize) {
+            flush();
+        }
+        return true;
+    }
+
+    private void onSyncDone(long headSeq) {
+        flush();
+        if (!syncing) {
+            return;
+        }
+        // 差量已全部收到，游标直接移到服务端的最新序号
+        cursor.advance(Math.max(headSeq, maxSeq));
+        appliedIds.clear();
+        maxSeq = 0;
+        syncing = false;
+        syncCount++;
+        lastSyncMillis = (System.nanoTime() - syncStartedAt) / 1000000L;
+        log.d("synced {} messages in {}ms, cursor {}", lastGap, lastSyncMillis, cursor.get());
+    }
+
+    private void flush() {
+        if (batch.isEmpty()) {
+            return;
+        }
+        List<Envelope> full = batch;
+        batch = new ArrayList<>(batchSize);
+        sink.apply(full, true);
+    }
+
+    public synchronized boolean isSyncing() {
+        return syncing;
+    }
+
+    public long getCursor() {
+        return cursor.get();
+    }
+
+    /**
+     * 完成的补齐次数
+     */
+    public synchronized long getSyncCount() {
+        return syncCount;
+    }
+
+    /**
+     * 补齐收到的消息数（不含重复）
+     */
+    public synchronized long getReplayedCount() {
+        return replayedCount;
+    }
+
+    /**
+     * 按序号或id丢弃的重复消息数
+     */
+    public synchronized long getDuplicateCount() {
+        return duplicateCount;
+    }
+
+    /**
+     * 最近一次补齐的耗时(ms)，还没有完成过时返回-1
+     */
+    public synchronized long getLastSyncMillis() {
+        return lastSyncMillis;
+    }
+
+    /**
+     * 最近一次补齐的消息数
+     */
+    public synchronized long getLastGap() {
+        return lastGap;
+    }
+}
@@ -0,0 +1,275 @@
+package com.jh.websocketclient.store;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import com.jh.websocketclient.modle.ChatMessage;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static com.jh.websocketclient.store.ChatDbHelper.COLUMN_CONTENT;
+import static com.jh.websocketclient.store.ChatDbHelper.COLUMN_IS_ME_SEND;
+import static com.jh.websocketclient.store.ChatDbHelper.COLUMN_IS_READ;
+import static com.jh.websocketclient.store.ChatDbHelper.COLUMN_MSG_ID;
+import static com.jh.websocketclient.store.ChatDbHelper.COLUMN_SEQ;
+import static com.jh.websocketclient.store.ChatDbHelper.COLUMN_TIME;
+import static com.jh.websocketclient.store.ChatDbHelper.TABLE_MESSAGE;
+
+/**
+ * 聊天记录本地存储
+ * <p>
+ * insert 在调用线程里只分配序号并入队，写库在单独的线程上按批次放进一个事务里完成；
+ * 分页查询按序号倒序取一页，结果回调到主线程。
+ * 写入和查询共用一个线程，查询一定能看到在它之前 insert 的消息。
+ */
+public class MessageStore {
+
+    private static final String TAG = "MessageStore";
+
+    public interface OnPageLoadedListener {
+        /**
+         * 主线程回调，消息按序号从旧到新排列
+         */
+        void onPageLoaded(List<ChatMessage> messages);
+    }
+
+    private static volatile MessageStore instance;
+
+    private final ChatDbHelper dbHelper;
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    private final Object lock = new Object();
+    private List<ChatMessage> pendingWrites = new ArrayList<>();
+    private boolean flushScheduled;
+    private long lastSeq = -1;// 已分配的最大序号，-1表示写线程还没有从数据库读出
+
+    public static MessageStore getInstance(Context context) {
+        if (instance == null) {
+            synchronized (MessageStore.class) {
+                if (instance == null) {
+                    instance = new MessageStore(context.getApplicationContext(), ChatDbHelper.DB_NAME);
+                }
+            }
+        }
+        return instance;
+    }
+
+    /**
+     * 单独的数据库文件，给测试用；应用里用 getInstance
+     */
+    MessageStore(Context context, String dbName) {
+        dbHelper = new ChatDbHelper(context, dbName);
+        // 打开时就在写线程上读出最大序号，insert 不在调用线程（通常是主线程）上查库
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                long maxSeq;
+                try {
+                    maxSeq = queryMaxSeq();
+                } catch (RuntimeException e) {
+                    Log.e(TAG, "query max seq failed", e);
+                    maxSeq = 0;
+                }
+                synchronized (lock) {
+                    lastSeq = maxSeq;
+                    lock.notifyAll();
+                }
+            }
+        });
+    }
+
+    /**
+     * 等已经提交的写入和查询完成后关闭数据库，只给测试用
+     */
+    void close() throws InterruptedException {
+        executor.shutdown();
+        executor.awaitTermination(1, TimeUnit.MINUTES);
+        dbHelper.close();
+    }
+
+    /**
+     * 任意线程调用，立即分配序号（ChatMessage.seq），稍后批量写入；
+     * 只有在打开后写线程还没读出最大序号时才等待
+     */
+    public void insert(ChatMessage message) {
+        synchronized (lock) {
+            boolean interrupted = false;
+            while (lastSeq < 0) {
+                try {
+                    lock.wait();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+            message.setSeq(++lastSeq);
+            pendingWrites.add(message);
+            if (!flushScheduled) {
+                flushScheduled = true;
+                executor.execute(flushRunnable);
+            }
+        }
+    }
+
+    /**
+     * 更新已读状态
+     */
+    public void updateRead(final long seq, final boolean isRead) {
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                ContentValues values = new ContentValues();
+                values.put(COLUMN_IS_READ, isRead ? 1 : 0);
+                dbHelper.getWritableDatabase().update(TABLE_MESSAGE, values, COLUMN_SEQ + "=?",
+                        new String[]{String.valueOf(seq)});
+            }
+        });
+    }
+
+    /**
+     * 按消息id更新已读状态（自己发送的消息收到服务端确认）
+     */
+    public void updateReadByMsgId(final long msgId) {
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                ContentValues values = new ContentValues();
+                values.put(COLUMN_IS_READ, 1);
+                dbHelper.getWritableDatabase().update(TABLE_MESSAGE, values, COLUMN_MSG_ID + "=?",
+                        new String[]{String.valueOf(msgId)});
+            }
+        });
+    }
+
+    /**
+     * 最新的一页
+     */
+    public void loadLatest(int limit, OnPageLoadedListener listener) {
+        loadBefore(Long.MAX_VALUE, limit, listener);
+    }
+
+    /**
+     * 序号小于 beforeSeq 的一页（向上翻历史）
+     */
+    public void loadBefore(final long beforeSeq, final int limit, final OnPageLoadedListener listener) {
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                List<ChatMessage> page = query(COLUMN_SEQ + "<?", String.valueOf(beforeSeq), COLUMN_SEQ + " DESC", limit);
+                Collections.reverse(page);
+                deliver(page, listener);
+            }
+        });
+    }
+
+    /**
+     * 序号大于 afterSeq 的一页（向下翻回最新）
+     */
+    public void loadAfter(final long afterSeq, final int limit, final OnPageLoadedListener listener) {
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                List<ChatMessage> page = query(COLUMN_SEQ + ">?", String.valueOf(afterSeq), COLUMN_SEQ + " ASC", limit);
+                deliver(page, listener);
+            }
+        });
+    }
+
+    private final Runnable flushRunnable = new Runnable() {
+        @Override
+        public void run() {
+            List<ChatMessage> batch;
+            synchronized (lock) {
+                batch = pendingWrites;
+                pendingWrites = new ArrayList<>();
+                flushScheduled = false;
+            }
+            writeBatch(batch);
+        }
+    };
+
+    /**
+     * 一个事务写入一批消息
+     */
+    private void writeBatch(List<ChatMessage> batch) {
+        if (batch.isEmpty()) {
+            return;
+        }
+        SQLiteDatabase db = dbHelper.getWritableDatabase();
+        SQLiteStatement statement = db.compileStatement("INSERT OR REPLACE INTO " + TABLE_MESSAGE + " ("
+                + COLUMN_SEQ + ", " + COLUMN_MSG_ID + ", " + COLUMN_CONTENT + ", " + COLUMN_TIME + ", "
+                + COLUMN_IS_ME_SEND + ", " + COLUMN_IS_READ + ") VALUES (?, ?, ?, ?, ?, ?)");
+        db.beginTransaction();
+        try {
+            for (ChatMessage message : batch) {
+                statement.clearBindings();
+                statement.bindLong(1, message.getSeq());
+                statement.bindLong(2, message.getId());
+                if (message.getContent() != null) {
+                    statement.bindString(3, message.getContent());
+                }
+                statement.bindLong(4, message.getTime());
+                statement.bindLong(5, message.isMeSend() ? 1 : 0);
+                statement.bindLong(6, message.isRead() ? 1 : 0);
+                statement.executeInsert();
+            }
+            db.setTransactionSuccessful();
+        } catch (RuntimeException e) {
+            Log.e(TAG, "write batch failed", e);
+        } finally {
+            db.endTransaction();
+            statement.close();
+        }
+    }
+
+    private List<ChatMessage> query(String selection, String arg, String orderBy, int limit) {
+        List<ChatMessage> page = new ArrayList<>(limit);
+        Cursor cursor = dbHelper.getReadableDatabase().query(TABLE_MESSAGE,
+                new String[]{COLUMN_SEQ, COLUMN_MSG_ID, COLUMN_CONTENT, COLUMN_TIME, COLUMN_IS_ME_SEND, COLUMN_IS_READ},
+                selection, new String[]{arg}, null, null, orderBy, String.valueOf(limit));
+        try {
+            while (cursor.moveToNext()) {
+                int flags = (cursor.getInt(4) != 0 ? ChatMessage.FLAG_ME_SEND : 0)
+                        | (cursor.getInt(5) != 0 ? ChatMessage.FLAG_READ : 0);
+                ChatMessage message = new ChatMessage(cursor.getLong(1), cursor.getString(2), cursor.getLong(3), flags);
+                message.setSeq(cursor.getLong(0));
+                page.add(message);
+            }
+        } finally {
+            cursor.close();
+        }
+        return page;
+    }
+
+    private long queryMaxSeq() {
+        Cursor cursor = dbHelper.getReadableDatabase().rawQuery("SELECT MAX(" + COLUMN_SEQ + ") FROM " + TABLE_MESSAGE, null);
+        try {
+            return cursor.moveToFirst() ? cursor.getLong(0) : 0;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private void deliver(final List<ChatMessage> page, final OnPageLoadedListener listener) {
+        mainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                listener.onPageLoaded(page);
+            }
+        });
+    }
+}
@@ -0,0 +1,90 @@
+package com.jh.websocketclient.store;
+
+import com.jh.websocketclient.util.ClientLog;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+/**
+ * 已应用到的服务端序号，重连后从这里开始补齐
+ * <p>
+ * 文件里只有一个 long，覆盖写入，不做fsync。
+ */
+public class SyncCursor {
+
+    private static final ClientLog log = ClientLog.get("SyncCursor");
+
+    private final File file;
+    private RandomAccessFile raf;
+    private long value = -1;// -1表示还没有从文件读出
+
+    public SyncCursor(File file) {
+        this.file = file;
+    }
+
+    /**
+     * 0表示还没有收到过带序号的消息
+     */
+    public synchronized long get() {
+        if (value < 0) {
+            value = read();
+        }
+        return value;
+    }
+
+    /**
+     * 前移到 seq，不会后退
+     */
+    public synchronized void advance(long seq) {
+        if (seq <= get()) {
+            return;
+        }
+        value = seq;
+        try {
+            if (raf == null) {
+                File dir = file.getParentFile();
+                if (dir != null && !dir.exists() && !dir.mkdirs()) {
+                    throw new IOException("can't create " + dir);
+                }
+                raf = new RandomAccessFile(file, "rw");
+            }
+            raf.seek(0);
+            raf.writeLong(seq);
+        } catch (IOException e) {
+            // 只影响下次重连补齐的起点，多补的消息会按id去重
+            log.e("write cursor failed", e);
+        }
+    }
+
+    private long read() {
+        if (!file.exists()) {
+            return 0;
+        }
+        RandomAccessFile in = null;
+        try {
+            in = new RandomAccessFile(file, "r");
+            return in.length() >= 8 ? Math.max(0, in.readLong()) : 0;
+        } catch (IOException e) {
+            log.e("read cursor failed", e);
+            return 0;
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+    }
+
+    public synchronized void close() {
+        if (raf != null) {
+            try {
+                raf.close();
+            } catch (IOException ignored) {
+            }
+            raf = null;
+        }
+    }
+}
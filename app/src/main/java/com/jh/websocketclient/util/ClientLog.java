@@ -0,0 +1,396 @@
+package com.jh.websocketclient.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 收发链路上用的日志门面
+ * <p>
+ * 1. 先判断级别，不输出的日志只有一次 volatile 读，不拼字符串、不分配对象；
+ * 2. 消息用 {} 占位，参数原样放进预先分配好的环形缓冲区，由 ws-log 线程格式化后交给 Sink，
+ * 调用线程（读线程、ws-io）不做格式化也不写 logcat；缓冲区满时丢弃并计数，不阻塞调用方；
+ * 3. 单个参数超过 maxArgLength 个字符时截断，大消息不会整条打出来；
+ * 4. 高频的日志用 Sampled 每 N 条只输出一条。
+ * <p>
+ * 参数在 ws-log 线程上才转成字符串，不要传之后还会被修改的对象。
+ */
+public final class ClientLog {
+
+    // 和 android.util.Log 的级别一致
+    public static final int VERBOSE = 2;
+    public static final int DEBUG = 3;
+    public static final int INFO = 4;
+    public static final int WARN = 5;
+    public static final int ERROR = 6;
+    public static final int NONE = Integer.MAX_VALUE;
+
+    public interface Sink {
+        /**
+         * 在 ws-log 线程上调用
+         */
+        void write(int level, String tag, String message, Throwable error);
+    }
+
+    private static volatile int minLevel = NONE;// install 之前不输出
+    private static volatile Writer writer;
+
+    private final String tag;
+
+    private ClientLog(String tag) {
+        this.tag = tag;
+    }
+
+    public static ClientLog get(String tag) {
+        return new ClientLog(tag);
+    }
+
+    /**
+     * 替换输出目标和级别，之前的写线程处理完已有的日志后退出
+     *
+     * @param capacity     环形缓冲区大小，取整到2的幂
+     * @param maxArgLength 单个参数最多输出的字符数
+     */
+    public static synchronized void install(Sink sink, int level, int capacity, int maxArgLength) {
+        Writer old = writer;
+        writer = new Writer(sink, capacity, maxArgLength);
+        minLevel = level;
+        if (old != null) {
+            old.stop();
+        }
+    }
+
+    public static void setLevel(int level) {
+        minLevel = level;
+    }
+
+    public static boolean isLoggable(int level) {
+        return level >= minLevel;
+    }
+
+    /**
+     * 等待已经记下的日志写出，测试和退出前使用
+     */
+    public static boolean flush(long timeoutMillis) throws InterruptedException {
+        Writer current = writer;
+        return current == null || current.flush(timeoutMillis);
+    }
+
+    /**
+     * 缓冲区满丢掉的日志数
+     */
+    public static long getDroppedCount() {
+        Writer current = writer;
+        return current == null ? 0 : current.dropped;
+    }
+
+    public static long getWrittenCount() {
+        Writer current = writer;
+        return current == null ? 0 : current.getCompleted();
+    }
+
+    public void d(String format) {
+        log(DEBUG, format, 0, null, null, null, null);
+    }
+
+    public void d(String format, Object a) {
+        log(DEBUG, format, 1, a, null, null, null);
+    }
+
+    public void d(String format, Object a, Object b) {
+        log(DEBUG, format, 2, a, b, null, null);
+    }
+
+    public void d(String format, Object a, Object b, Object c) {
+        log(DEBUG, format, 3, a, b, c, null);
+    }
+
+    public void i(String format) {
+        log(INFO, format, 0, null, null, null, null);
+    }
+
+    public void i(String format, Object a) {
+        log(INFO, format, 1, a, null, null, null);
+    }
+
+    public void w(String format) {
+        log(WARN, format, 0, null, null, null, null);
+    }
+
+    public void w(String format, Object a) {
+        log(WARN, format, 1, a, null, null, null);
+    }
+
+    public void w(String format, Object a, Object b) {
+        log(WARN, format, 2, a, b, null, null);
+    }
+
+    public void w(String message, Throwable error) {
+        log(WARN, message, 0, null, null, null, error);
+    }
+
+    public void e(String format) {
+        log(ERROR, format, 0, null, null, null, null);
+    }
+
+    public void e(String format, Object a) {
+        log(ERROR, format, 1, a, null, null, null);
+    }
+
+    public void e(String format, Object a, Object b) {
+        log(ERROR, format, 2, a, b, null, null);
+    }
+
+    public void e(String format, Object a, Object b, Object c) {
+        log(ERROR, format, 3, a, b, c, null);
+    }
+
+    public void e(String message, Throwable error) {
+        log(ERROR, message, 0, null, null, null, error);
+    }
+
+    public boolean isDebug() {
+        return DEBUG >= minLevel;
+    }
+
+    private void log(int level, String format, int argCount, Object a, Object b, Object c, Throwable error) {
+        if (level < minLevel) {
+            return;
+        }
+        Writer current = writer;
+        if (current != null) {
+            current.offer(level, tag, format, argCount, a, b, c, error);
+        }
+    }
+
+    /**
+     * 每 interval 条只输出一条，输出时带上跳过的条数
+     */
+    public Sampled sampled(int interval) {
+        return new Sampled(this, interval);
+    }
+
+    public static final class Sampled {
+        private final ClientLog log;
+        private final int interval;
+        private final AtomicLong count = new AtomicLong();
+
+        private Sampled(ClientLog log, int interval) {
+            if (interval <= 0) {
+                throw new IllegalArgumentException("interval must be > 0");
+            }
+            this.log = log;
+            this.interval = interval;
+        }
+
+        public void d(String format, Object a) {
+            log(DEBUG, format, a);
+        }
+
+        public void w(String format, Object a) {
+            log(WARN, format, a);
+        }
+
+        // 格式里最后一个 {} 是这段时间里的条数
+        private void log(int level, String format, Object a) {
+            if (level < minLevel) {
+                return;
+            }
+            if (count.getAndIncrement() % interval == 0) {
+                log.log(level, format, 2, a, interval, null, null);
+            }
+        }
+
+        public long getCount() {
+            return count.get();
+        }
+    }
+
+    /**
+     * 把 {} 依次替换成参数，超长的参数截断
+     */
+    static String format(String format, int argCount, Object a, Object b, Object c, int maxArgLength) {
+        if (argCount == 0 || format == null) {
+            return format;
+        }
+        StringBuilder sb = new StringBuilder(format.length() + 32 * argCount);
+        int start = 0;
+        for (int i = 0; i < argCount; i++) {
+            int at = format.indexOf("{}", start);
+            if (at < 0) {
+                break;
+            }
+            sb.append(format, start, at);
+            appendArg(sb, i == 0 ? a : (i == 1 ? b : c), maxArgLength);
+            start = at + 2;
+        }
+        sb.append(format, start, format.length());
+        return sb.toString();
+    }
+
+    private static void appendArg(StringBuilder sb, Object arg, int maxArgLength) {
+        String text = String.valueOf(arg);
+        if (text.length() <= maxArgLength) {
+            sb.append(text);
+            return;
+        }
+        sb.append(text, 0, maxArgLength).append("...(").append(text.length()).append(" chars)");
+    }
+
+    private static final class Entry {
+        int level;
+        String tag;
+        String format;
+        int argCount;
+        Object a;
+        Object b;
+        Object c;
+        Throwable error;
+
+        void copyFrom(Entry other) {
+            level = other.level;
+            tag = other.tag;
+            format = other.format;
+            argCount = other.argCount;
+            a = other.a;
+            b = other.b;
+            c = other.c;
+            error = other.error;
+        }
+
+        void clear() {
+            tag = null;
+            format = null;
+            a = null;
+            b = null;
+            c = null;
+            error = null;
+        }
+    }
+
+    /**
+     * 多个调用线程写入、一个线程读出的环形缓冲区，槽位预先分配
+     */
+    private static final class Writer implements Runnable {
+        private static final int BATCH = 64;
+
+        private final Sink sink;
+        private final int maxArgLength;
+        private final Entry[] ring;
+        private final int mask;
+        private final Entry[] batch = new Entry[BATCH];// 只在写线程上使用
+        private final Thread thread;
+
+        // 以下由 this 保护
+        private long head;// 下一个写入位置
+        private long tail;// 下一个读出位置
+        private long completed;// 已经交给 Sink 的条数
+        private boolean consumerWaiting;
+        private boolean stopped;
+
+        volatile long dropped;
+
+        Writer(Sink sink, int capacity, int maxArgLength) {
+            int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+            this.sink = sink;
+            this.maxArgLength = maxArgLength;
+            this.ring = new Entry[size];
+            this.mask = size - 1;
+            for (int i = 0; i < size; i++) {
+                ring[i] = new Entry();
+            }
+            for (int i = 0; i < BATCH; i++) {
+                batch[i] = new Entry();
+            }
+            thread = new Thread(this, "ws-log");
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MIN_PRIORITY);
+            thread.start();
+        }
+
+        synchronized void offer(int level, String tag, String format, int argCount, Object a, Object b, Object c,
+                                Throwable error) {
+            if (stopped || head - tail == ring.length) {
+                dropped++;
+                return;
+            }
+            Entry entry = ring[(int) (head & mask)];
+            entry.level = level;
+            entry.tag = tag;
+            entry.format = format;
+            entry.argCount = argCount;
+            entry.a = a;
+            entry.b = b;
+            entry.c = c;
+            entry.error = error;
+            head++;
+            if (consumerWaiting) {
+                notifyAll();
+            }
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                int n;
+                synchronized (this) {
+                    while (head == tail) {
+                        if (stopped) {
+                            return;
+                        }
+                        consumerWaiting = true;
+                        try {
+                            wait();
+                        } catch (InterruptedException e) {
+                            return;
+                        } finally {
+                            consumerWaiting = false;
+                        }
+                    }
+                    n = (int) Math.min(BATCH, head - tail);
+                    for (int i = 0; i < n; i++) {
+                        Entry entry = ring[(int) (tail & mask)];
+                        batch[i].copyFrom(entry);
+                        entry.clear();
+                        tail++;
+                    }
+                }
+                // 格式化和输出不持有锁，调用线程不会等它
+                for (int i = 0; i < n; i++) {
+                    Entry entry = batch[i];
+                    try {
+                        sink.write(entry.level, entry.tag, format(entry.format, entry.argCount, entry.a, entry.b,
+                                entry.c, maxArgLength), entry.error);
+                    } catch (RuntimeException e) {
+                        // 日志出错不能影响收发
+                    }
+                    entry.clear();
+                }
+                synchronized (this) {
+                    completed += n;
+                    notifyAll();
+                }
+            }
+        }
+
+        synchronized boolean flush(long timeoutMillis) throws InterruptedException {
+            long target = head;
+            long deadline = System.currentTimeMillis() + timeoutMillis;
+            while (completed < target) {
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    return false;
+                }
+                wait(remaining);
+            }
+            return true;
+        }
+
+        synchronized long getCompleted() {
+            return completed;
+        }
+
+        synchronized void stop() {
+            stopped = true;
+            notifyAll();
+        }
+    }
+}
@@ -0,0 +1,275 @@
+package com.jh.websocketclient.util;
+
+import java.util.Arrays;
+
+/**
+ * 收到的消息id去重，内存有上限
+ * <p>
+ * 最近的 exactCapacity 个id放在精确集合里（环形数组 + 开放寻址的 long 哈希表，没有装箱）；
+ * 被挤出的id放进布隆过滤器，过滤器分两代轮换：当前代装满 generationCapacity 个id或超过 windowMillis 后，
+ * 丢掉上一代，当前代变成上一代。所以比最近两代更早的id会被忘掉，内存不随运行时间增长。
+ * <p>
+ * 精确集合命中一定是重复；只有布隆过滤器命中是“可能重复”，有一定误判率，同样丢弃，分开计数。
+ * 误判率由 bitsPerId 决定，getEstimatedFalsePositiveRate() 按当前填充率估算。
+ */
+public class SeenIdFilter {
+
+    private static final long EMPTY = 0;// id 0 表示没有id，不参与去重
+    private static final int MAX_HASHES = 12;
+
+    // 精确集合
+    private final long[] ring;// 按加入顺序，满了以后覆盖最旧的
+    private final int ringMask;
+    private int ringHead;
+    private int ringSize;
+    private final long[] table;
+    private final int tableMask;
+
+    // 两代布隆过滤器
+    private long[] current;
+    private long[] previous;
+    private int currentBitsSet;
+    private int previousBitsSet;
+    private final int bloomMask;
+    private final int hashCount;
+    private final int generationCapacity;
+    private final long windowMillis;
+    private int generationCount;
+    private long generationStartedAt = -1;
+
+    private long addedCount;
+    private long exactDuplicateCount;
+    private long probableDuplicateCount;
+    private long rotationCount;
+
+    /**
+     * @param exactCapacity      精确记住的最近id数，向上取2的幂
+     * @param generationCapacity 每代布隆过滤器容纳的id数
+     * @param bitsPerId          布隆过滤器每个id占的位数，越大误判越少
+     * @param windowMillis       每代最长的时间，超过后轮换
+     */
+    public SeenIdFilter(int exactCapacity, int generationCapacity, int bitsPerId, long windowMillis) {
+        if (exactCapacity <= 0 || generationCapacity <= 0 || bitsPerId <= 0 || windowMillis <= 0) {
+            throw new IllegalArgumentException("invalid filter size");
+        }
+        int exact = nextPowerOfTwo(exactCapacity);
+        ring = new long[exact];
+        ringMask = exact - 1;
+        table = new long[exact * 2];// 负载不超过1/2
+        tableMask = table.length - 1;
+
+        int bloomBits = nextPowerOfTwo((int) Math.min(1 << 30, (long) generationCapacity * bitsPerId));
+        current = new long[Math.max(1, bloomBits / 64)];
+        previous = new long[current.length];
+        bloomMask = current.length * 64 - 1;
+        // 最优哈希个数是 m/n*ln2，但每个哈希都是一次随机访存；超过 MAX_HASHES 后误判率已经很低，不再增加
+        hashCount = (int) Math.max(1, Math.min(MAX_HASHES,
+                Math.round((double) (bloomMask + 1) / generationCapacity * Math.log(2))));
+        this.generationCapacity = generationCapacity;
+        this.windowMillis = windowMillis;
+    }
+
+    /**
+     * 记录一个收到的id
+     *
+     * @param nowMillis 当前时间，用于按时间轮换
+     * @return true: 第一次见到；false: 重复（或布隆过滤器误判），应当丢弃
+     */
+    public synchronized boolean add(long id, long nowMillis) {
+        if (id == EMPTY) {
+            return true;
+        }
+        if (generationStartedAt < 0) {
+            generationStartedAt = nowMillis;
+        } else if (nowMillis - generationStartedAt >= windowMillis) {
+            rotate(nowMillis);
+        }
+        if (exactContains(id)) {
+            exactDuplicateCount++;
+            return false;
+        }
+        long hash = mix(id);
+        if (bloomContains(current, hash) || bloomContains(previous, hash)) {
+            probableDuplicateCount++;
+            return false;
+        }
+        if (ringSize == ring.length) {
+            // 最旧的id挤出精确集合，转入布隆过滤器
+            long evicted = ring[ringHead];
+            exactRemove(evicted);
+            currentBitsSet += bloomAdd(current, mix(evicted));
+            if (++generationCount >= generationCapacity) {
+                rotate(nowMillis);
+            }
+        } else {
+            ringSize++;
+        }
+        ring[ringHead] = id;
+        ringHead = (ringHead + 1) & ringMask;
+        exactAdd(id);
+        addedCount++;
+        return true;
+    }
+
+    private void rotate(long nowMillis) {
+        long[] recycled = previous;
+        previous = current;
+        previousBitsSet = currentBitsSet;
+        Arrays.fill(recycled, 0);
+        current = recycled;
+        currentBitsSet = 0;
+        generationCount = 0;
+        generationStartedAt = nowMillis;
+        rotationCount++;
+    }
+
+    // ---------------- 精确集合：线性探测，删除时后移 ----------------
+
+    private int slot(long id) {
+        return (int) mix(id) & tableMask;
+    }
+
+    private boolean exactContains(long id) {
+        for (int i = slot(id); ; i = (i + 1) & tableMask) {
+            long value = table[i];
+            if (value == id) {
+                return true;
+            }
+            if (value == EMPTY) {
+                return false;
+            }
+        }
+    }
+
+    private void exactAdd(long id) {
+        int i = slot(id);
+        while (table[i] != EMPTY) {
+            i = (i + 1) & tableMask;
+        }
+        table[i] = id;
+    }
+
+    private void exactRemove(long id) {
+        int i = slot(id);
+        while (table[i] != id) {
+            if (table[i] == EMPTY) {
+                return;
+            }
+            i = (i + 1) & tableMask;
+        }
+        // 后面同一探测链上的元素前移，保证查找不会提前遇到空位
+        int j = i;
+        while (true) {
+            j = (j + 1) & tableMask;
+            long value = table[j];
+            if (value == EMPTY) {
+                break;
+            }
+            int home = slot(value);
+            boolean between = i <= j ? (home > i && home <= j) : (home > i || home <= j);
+            if (!between) {
+                table[i] = value;
+                i = j;
+            }
+        }
+        table[i] = EMPTY;
+    }
+
+    // ---------------- 布隆过滤器：双重哈希 ----------------
+
+    private boolean bloomContains(long[] bits, long hash) {
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32) | 1;
+        for (int i = 0; i < hashCount; i++) {
+            int bit = (h1 + i * h2) & bloomMask;
+            if ((bits[bit >>> 6] & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return 新置位的位数
+     */
+    private int bloomAdd(long[] bits, long hash) {
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32) | 1;
+        int set = 0;
+        for (int i = 0; i < hashCount; i++) {
+            int bit = (h1 + i * h2) & bloomMask;
+            long mask = 1L << bit;
+            if ((bits[bit >>> 6] & mask) == 0) {
+                bits[bit >>> 6] |= mask;
+                set++;
+            }
+        }
+        return set;
+    }
+
+    private static long mix(long value) {
+        // MurmurHash3 fmix64
+        value ^= value >>> 33;
+        value *= 0xff51afd7ed558ccdL;
+        value ^= value >>> 33;
+        value *= 0xc4ceb9fe1a85ec53L;
+        value ^= value >>> 33;
+        return value;
+    }
+
+    private static int nextPowerOfTwo(int value) {
+        int result = Integer.highestOneBit(Math.max(1, value));
+        return result < value ? result << 1 : result;
+    }
+
+    /**
+     * 一个新id被误判为重复的概率（按两代过滤器当前的填充率估算）
+     */
+    public synchronized double getEstimatedFalsePositiveRate() {
+        double bits = bloomMask + 1;
+        double current = Math.pow(currentBitsSet / bits, hashCount);
+        double previous = Math.pow(previousBitsSet / bits, hashCount);
+        return 1 - (1 - current) * (1 - previous);
+    }
+
+    /**
+     * 占用的内存（字节），创建后不变
+     */
+    public long getMemoryBytes() {
+        return 8L * (ring.length + table.length + current.length + previous.length);
+    }
+
+    public synchronized long getAddedCount() {
+        return addedCount;
+    }
+
+    /**
+     * 精确集合命中的重复数
+     */
+    public synchronized long getExactDuplicateCount() {
+        return exactDuplicateCount;
+    }
+
+    /**
+     * 布隆过滤器命中的重复数，其中可能有误判
+     */
+    public synchronized long getProbableDuplicateCount() {
+        return probableDuplicateCount;
+    }
+
+    public synchronized long getDuplicateCount() {
+        return exactDuplicateCount + probableDuplicateCount;
+    }
+
+    public synchronized long getRotationCount() {
+        return rotationCount;
+    }
+
+    /**
+     * 去重统计，用于日志
+     */
+    public synchronized String report() {
+        return "去重: 收到=" + addedCount + " 重复=" + exactDuplicateCount + " 可能重复=" + probableDuplicateCount
+                + " 估算误判率=" + getEstimatedFalsePositiveRate() + " 内存=" + getMemoryBytes() / 1024 + "KB";
+    }
+}
@@ -0,0 +1,45 @@
+package com.jh.websocketclient.util;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+
+/**
+ * 线程安全的时间格式化，"yyyy-MM-dd HH:mm:ss"
+ * <p>
+ * 每个线程一个 SimpleDateFormat，并缓存上一次格式化的秒数：同一秒内的消息直接复用字符串。
+ */
+public class TimeFormatter {
+
+    private static final ThreadLocal<TimeFormatter> LOCAL = new ThreadLocal<TimeFormatter>() {
+        @Override
+        protected TimeFormatter initialValue() {
+            return new TimeFormatter();
+        }
+    };
+
+    private final SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss", Locale.getDefault());
+    private final Date date = new Date();
+    private long cachedSecond = Long.MIN_VALUE;
+    private String cachedText;
+
+    private TimeFormatter() {
+    }
+
+    /**
+     * 将毫秒数转为日期格式
+     */
+    public static String format(long timeMillis) {
+        return LOCAL.get().formatInternal(timeMillis);
+    }
+
+    private String formatInternal(long timeMillis) {
+        long second = timeMillis / 1000;
+        if (second != cachedSecond) {
+            date.setTime(timeMillis);
+            cachedText = format.format(date);
+            cachedSecond = second;
+        }
+        return cachedText;
+    }
+}
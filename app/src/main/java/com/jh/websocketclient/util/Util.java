@@ -14,6 +14,14 @@ public class Util {
 
     public static final String ws = "ws://echo.websocket.org";//websocket测试地址
 
+    // 网关地址，按优先顺序；连接时按握手耗时和失败情况重新排序，一个地址出问题时切到下一个。
+    // 这里是占位：两个都是同一台测试服务器，只是 ws/wss 两种握手，切换和同时握手的效果有限；
+    // 上线时换成部署在不同主机、不同机房的网关地址
+    public static final String[] wsEndpoints = {
+            ws,
+            "wss://echo.websocket.org",
+    };
+
     public static void showToast(Context ctx, String msg) {
         Toast.makeText(ctx, msg, Toast.LENGTH_LONG).show();
     }
@@ -0,0 +1,178 @@
+package com.jh.websocketclient.websocket;
+
+import org.java_websocket.WebSocketImpl;
+import org.java_websocket.drafts.Draft;
+import org.java_websocket.drafts.Draft_6455;
+import org.java_websocket.enums.Opcode;
+import org.java_websocket.exceptions.InvalidDataException;
+import org.java_websocket.exceptions.LimitExceededException;
+import org.java_websocket.extensions.IExtension;
+import org.java_websocket.framing.CloseFrame;
+import org.java_websocket.framing.Framedata;
+import org.java_websocket.protocols.IProtocol;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 客户端使用的 Draft_6455
+ * <p>
+ * 1. permessage-deflate：Java-WebSocket 1.4.0 编码帧头时只写 FIN 和 opcode，扩展设置的 RSV1 会丢失，这里补写到帧头第一个字节；
+ * 2. 分片的二进制消息拼接到一个复用的缓冲区里，不像库里那样每条消息先存分片列表、最后再分配一块新内存拷贝一遍。
+ * 交给 onMessage(ByteBuffer) 的数据只在回调期间有效。
+ * <p>
+ * 3. 可选的 WireListener 统计线上收发的字节数和帧数（压缩后、含帧头和控制帧）。
+ * <p>
+ * 每个连接（WebSocketImpl）复制一份，缓冲区属于这个连接的读线程。
+ */
+public class ChatDraft extends Draft_6455 {
+
+    /**
+     * onRead 在读线程上回调，onWritten 在调用 send 的线程上回调，实现不能阻塞
+     */
+    public interface WireListener {
+        /**
+         * @param bytes  从 socket 读到的字节数
+         * @param frames 其中解析出的完整帧数
+         */
+        void onRead(int bytes, int frames);
+
+        void onWritten(int bytes);
+    }
+
+    private static final int RSV1_BIT = 0x40;
+    private static final int INITIAL_ASSEMBLY_CAPACITY = 64 * 1024;
+    private static final int MAX_RETAINED_CAPACITY = 1024 * 1024;// 超过这个大小的拼接缓冲区用完就释放
+
+    private final WireListener wireListener;
+
+    private ByteBuffer assembly;
+    private boolean assemblingBinary;
+
+    public ChatDraft(PerMessageDeflateExtension extension, List<IProtocol> protocols, int maxFrameSize) {
+        this(extension, protocols, maxFrameSize, null);
+    }
+
+    /**
+     * @param wireListener 可以为null
+     */
+    public ChatDraft(PerMessageDeflateExtension extension, List<IProtocol> protocols, int maxFrameSize,
+                     WireListener wireListener) {
+        this(Collections.<IExtension>singletonList(extension), protocols, maxFrameSize, wireListener);
+    }
+
+    private ChatDraft(List<IExtension> extensions, List<IProtocol> protocols, int maxFrameSize,
+                      WireListener wireListener) {
+        super(extensions, protocols, maxFrameSize);
+        this.wireListener = wireListener;
+    }
+
+    @Override
+    public ByteBuffer createBinaryFrame(Framedata framedata) {
+        ByteBuffer buffer = super.createBinaryFrame(framedata);// 这里会先调用扩展的 encodeFrame
+        if (framedata.isRSV1()) {
+            int head = buffer.position();
+            buffer.put(head, (byte) (buffer.get(head) | RSV1_BIT));
+        }
+        if (wireListener != null) {
+            wireListener.onWritten(buffer.remaining());
+        }
+        return buffer;
+    }
+
+    @Override
+    public List<Framedata> translateFrame(ByteBuffer buffer) throws InvalidDataException {
+        int bytes = buffer.remaining();
+        List<Framedata> frames = super.translateFrame(buffer);
+        if (wireListener != null) {
+            wireListener.onRead(bytes, frames.size());
+        }
+        return frames;
+    }
+
+    @Override
+    public void processFrame(WebSocketImpl webSocketImpl, Framedata frame) throws InvalidDataException {
+        Opcode opcode = frame.getOpcode();
+        if (assemblingBinary) {
+            if (opcode == Opcode.CONTINUOUS) {
+                append(frame.getPayloadData());
+                if (frame.isFin()) {
+                    assemblingBinary = false;
+                    deliverAssembled(webSocketImpl);
+                }
+                return;
+            }
+            if (opcode == Opcode.TEXT || opcode == Opcode.BINARY) {
+                throw new InvalidDataException(CloseFrame.PROTOCOL_ERROR, "Previous continuous frame sequence not completed.");
+            }
+        } else if (opcode == Opcode.BINARY && !frame.isFin()) {
+            assemblingBinary = true;
+            if (assembly == null) {
+                assembly = ByteBuffer.allocate(INITIAL_ASSEMBLY_CAPACITY);
+            }
+            assembly.clear();
+            append(frame.getPayloadData());
+            return;
+        }
+        // 文本消息、控制帧、不分片的二进制消息交给库处理
+        super.processFrame(webSocketImpl, frame);
+    }
+
+    private void append(ByteBuffer payload) throws LimitExceededException {
+        int required = assembly.position() + payload.remaining();
+        if (required > getMaxFrameSize()) {
+            throw new LimitExceededException("binary message too big", getMaxFrameSize());
+        }
+        if (required > assembly.capacity()) {
+            int capacity = assembly.capacity();
+            while (capacity < required) {
+                capacity = capacity > Integer.MAX_VALUE / 2 ? Integer.MAX_VALUE : capacity * 2;
+            }
+            ByteBuffer bigger = ByteBuffer.allocate(capacity);
+            assembly.flip();
+            bigger.put(assembly);
+            assembly = bigger;
+        }
+        assembly.put(payload.duplicate());
+    }
+
+    private void deliverAssembled(WebSocketImpl webSocketImpl) {
+        assembly.flip();
+        try {
+            webSocketImpl.getWebSocketListener().onWebsocketMessage(webSocketImpl, assembly.asReadOnlyBuffer());
+        } catch (RuntimeException e) {
+            webSocketImpl.getWebSocketListener().onWebsocketError(webSocketImpl, e);
+        } finally {
+            if (assembly.capacity() > MAX_RETAINED_CAPACITY) {
+                assembly = null;
+            } else {
+                assembly.clear();
+            }
+        }
+    }
+
+    @Override
+    public void reset() {
+        super.reset();
+        assemblingBinary = false;
+        assembly = null;
+    }
+
+    /**
+     * 每个连接（WebSocketImpl）复制一份，扩展也随之复制
+     */
+    @Override
+    public Draft copyInstance() {
+        List<IExtension> extensions = new ArrayList<>();
+        for (IExtension extension : getKnownExtensions()) {
+            extensions.add(extension.copyInstance());
+        }
+        List<IProtocol> protocols = new ArrayList<>();
+        for (IProtocol protocol : getKnownProtocols()) {
+            protocols.add(protocol.copyInstance());
+        }
+        return new ChatDraft(extensions, protocols, getMaxFrameSize(), wireListener);
+    }
+}
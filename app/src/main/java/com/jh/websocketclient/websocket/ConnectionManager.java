@@ -0,0 +1,99 @@
+package com.jh.websocketclient.websocket;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * 每次连接使用一个新的底层连接对象
+ * <p>
+ * WebSocketClient 用过之后不能再 connect，每个会话都是新的对象，用原子引用替换掉旧的；
+ * 读取当前连接不加锁，发送路径上只有一次 volatile 读。
+ * 替换和清除都是比较并交换：并发时只有一方成功，失败的一方把自己带来的连接释放掉。
+ * 被替换下来的连接由 Disposer.dispose 关闭，它之后的回调可以用 isCurrent 判断后忽略。
+ */
+public class ConnectionManager<C> {
+
+    public interface Disposer<C> {
+        /**
+         * 关闭被替换或清除的连接，可能在任意线程调用
+         */
+        void dispose(C connection);
+    }
+
+    private final Disposer<C> disposer;
+    private final AtomicReference<C> current = new AtomicReference<>();
+
+    private final AtomicLong replacedCount = new AtomicLong();
+    private final AtomicLong disposedCount = new AtomicLong();
+    private final AtomicLong lostRaceCount = new AtomicLong();
+
+    public ConnectionManager(Disposer<C> disposer) {
+        this.disposer = disposer;
+    }
+
+    /**
+     * 当前的连接，还没有创建或已经清除时为null
+     */
+    public C get() {
+        return current.get();
+    }
+
+    public boolean isCurrent(C connection) {
+        return connection != null && current.get() == connection;
+    }
+
+    /**
+     * 当前连接仍然是 expected 时换成 fresh，并释放 expected
+     *
+     * @param expected 调用方看到的当前连接，可以为null
+     * @return 是否换上；其他线程已经先替换或清除时释放 fresh 并返回false
+     */
+    public boolean replace(C expected, C fresh) {
+        if (!current.compareAndSet(expected, fresh)) {
+            lostRaceCount.incrementAndGet();
+            dispose(fresh);
+            return false;
+        }
+        replacedCount.incrementAndGet();
+        if (expected != null) {
+            dispose(expected);
+        }
+        return true;
+    }
+
+    /**
+     * 清除并释放当前连接
+     *
+     * @return 被清除的连接，没有时返回null
+     */
+    public C clear() {
+        C old = current.getAndSet(null);
+        if (old != null) {
+            dispose(old);
+        }
+        return old;
+    }
+
+    private void dispose(C connection) {
+        disposedCount.incrementAndGet();
+        disposer.dispose(connection);
+    }
+
+    /**
+     * 成功换上的连接数
+     */
+    public long getReplacedCount() {
+        return replacedCount.get();
+    }
+
+    public long getDisposedCount() {
+        return disposedCount.get();
+    }
+
+    /**
+     * 并发替换时没有换上去、直接释放的连接数
+     */
+    public long getLostRaceCount() {
+        return lostRaceCount.get();
+    }
+}
@@ -0,0 +1,86 @@
+package com.jh.websocketclient.websocket;
+
+import com.jh.websocketclient.event.ConnectionState;
+
+/**
+ * 连接状态机，记录每种状态转换发生的次数
+ */
+public class ConnectionStateMachine {
+
+    public interface OnStateChangedListener {
+        void onStateChanged(ConnectionState from, ConnectionState to);
+    }
+
+    private static final ConnectionState[] STATES = ConnectionState.values();
+
+    private final OnStateChangedListener listener;
+    private final long[][] transitions = new long[STATES.length][STATES.length];
+    private ConnectionState state = ConnectionState.CLOSED;
+
+    public ConnectionStateMachine(OnStateChangedListener listener) {
+        this.listener = listener;
+    }
+
+    public synchronized ConnectionState getState() {
+        return state;
+    }
+
+    /**
+     * 切换到新状态，状态没变时不通知
+     */
+    public void moveTo(ConnectionState to) {
+        ConnectionState from;
+        synchronized (this) {
+            from = state;
+            if (!changeLocked(to)) {
+                return;
+            }
+        }
+        notifyChanged(from, to);
+    }
+
+    /**
+     * 当前状态是 expect 时才切换
+     *
+     * @return 是否切换成功
+     */
+    public boolean moveTo(ConnectionState expect, ConnectionState to) {
+        synchronized (this) {
+            if (state != expect || !changeLocked(to)) {
+                return false;
+            }
+        }
+        notifyChanged(expect, to);
+        return true;
+    }
+
+    private boolean changeLocked(ConnectionState to) {
+        if (state == to) {
+            return false;
+        }
+        transitions[state.ordinal()][to.ordinal()]++;
+        state = to;
+        return true;
+    }
+
+    private void notifyChanged(ConnectionState from, ConnectionState to) {
+        if (listener != null) {
+            listener.onStateChanged(from, to);
+        }
+    }
+
+    public synchronized long getTransitionCount(ConnectionState from, ConnectionState to) {
+        return transitions[from.ordinal()][to.ordinal()];
+    }
+
+    /**
+     * 进入某个状态的总次数
+     */
+    public synchronized long getEnterCount(ConnectionState to) {
+        long count = 0;
+        for (ConnectionState from : STATES) {
+            count += transitions[from.ordinal()][to.ordinal()];
+        }
+        return count;
+    }
+}
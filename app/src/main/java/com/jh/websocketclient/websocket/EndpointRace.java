@@ -0,0 +1,204 @@
+package com.jh.websocketclient.websocket;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 一轮连接：多个地址错开时间同时握手，用第一个连上的（happy eyeballs）
+ * <p>
+ * 1. 按候选顺序先连第一个地址，等 staggerDelay 还没连上就同时连下一个；
+ * 已经开始的都失败了不再等，立即连下一个；
+ * 2. 第一个握手成功的胜出，run 返回它；其余的由 Connector.abort 关闭；
+ * 3. 每个地址的握手耗时和失败都记到 EndpointSelector，下一轮按健康度排序。
+ * <p>
+ * run 阻塞调用线程；onOpened、onFailed 由连接自己的线程回调。
+ * 锁的顺序：先 EndpointRace 后 EndpointSelector，selector 不会回调这里。
+ */
+public class EndpointRace<C> {
+
+    public interface Connector<C> {
+        /**
+         * 创建一个还没有连接的对象
+         */
+        C create(URI endpoint);
+
+        /**
+         * 开始连接，不阻塞；结果通过 onOpened/onFailed 通知
+         */
+        void start(C connection);
+
+        /**
+         * 关闭没有胜出或超时的连接
+         */
+        void abort(C connection);
+    }
+
+    private static class Attempt {
+        final URI endpoint;
+        final long startedAt;
+        boolean opened;
+        boolean failed;
+        boolean aborted;
+
+        Attempt(URI endpoint, long startedAt) {
+            this.endpoint = endpoint;
+            this.startedAt = startedAt;
+        }
+    }
+
+    private final Connector<C> connector;
+    private final EndpointSelector selector;
+    private final KeepAliveScheduler.Clock clock;
+    private final long staggerDelay;
+    private final long timeout;
+
+    // 以下由 this 保护
+    private final Map<C, Attempt> attempts = new IdentityHashMap<>();
+    private int failedCount;
+    private C winner;
+    private boolean finished;
+
+    /**
+     * @param staggerDelay 前一个地址这么久还没连上就同时连下一个(ms)
+     * @param timeout      整轮连接的最长时间(ms)
+     */
+    public EndpointRace(Connector<C> connector, EndpointSelector selector, KeepAliveScheduler.Clock clock,
+                        long staggerDelay, long timeout) {
+        this.connector = connector;
+        this.selector = selector;
+        this.clock = clock;
+        this.staggerDelay = staggerDelay;
+        this.timeout = timeout;
+    }
+
+    /**
+     * 阻塞到有一个地址连上、全部失败或超时，只能调用一次
+     *
+     * @return 胜出的连接，全部失败或超时时返回null
+     */
+    public C run(List<URI> candidates) throws InterruptedException {
+        long deadline = clock.now() + timeout;
+        try {
+            for (URI endpoint : candidates) {
+                synchronized (this) {
+                    if (winner != null || clock.now() >= deadline) {
+                        break;
+                    }
+                }
+                C connection = connector.create(endpoint);
+                synchronized (this) {
+                    attempts.put(connection, new Attempt(endpoint, clock.now()));
+                }
+                connector.start(connection);
+                awaitUntil(Math.min(deadline, clock.now() + staggerDelay));
+            }
+            awaitUntil(deadline);
+        } finally {
+            finish();
+        }
+        synchronized (this) {
+            return winner;
+        }
+    }
+
+    /**
+     * 等到有连接胜出、已开始的全部失败或到达时间
+     */
+    private synchronized void awaitUntil(long until) throws InterruptedException {
+        while (winner == null && failedCount < attempts.size()) {
+            long remaining = until - clock.now();
+            if (remaining <= 0) {
+                return;
+            }
+            wait(remaining);
+        }
+    }
+
+    /**
+     * 结束这一轮：关闭还没连上和晚连上的，超时没有结果的记为失败
+     */
+    private void finish() {
+        List<C> losers = new ArrayList<>();
+        List<URI> timedOut = new ArrayList<>();
+        synchronized (this) {
+            finished = true;
+            for (Map.Entry<C, Attempt> entry : attempts.entrySet()) {
+                Attempt attempt = entry.getValue();
+                if (entry.getKey() == winner || attempt.failed) {
+                    continue;
+                }
+                if (winner == null && !attempt.opened) {
+                    timedOut.add(attempt.endpoint);
+                }
+                attempt.aborted = true;
+                losers.add(entry.getKey());
+            }
+        }
+        for (URI endpoint : timedOut) {
+            selector.onFailed(endpoint);
+        }
+        for (C connection : losers) {
+            connector.abort(connection);
+        }
+    }
+
+    public synchronized boolean contains(C connection) {
+        return attempts.containsKey(connection);
+    }
+
+    /**
+     * 握手成功，连接的线程上调用
+     *
+     * @return 是否胜出；没有胜出的由调用方关闭
+     */
+    public synchronized boolean onOpened(C connection) {
+        Attempt attempt = attempts.get(connection);
+        if (attempt == null) {
+            return false;
+        }
+        attempt.opened = true;
+        // 晚连上的也是一次有效的测量；在唤醒 run 之前记下，run 返回时健康度已经更新
+        selector.onConnected(attempt.endpoint, clock.now() - attempt.startedAt);
+        if (winner != null || finished) {
+            return false;
+        }
+        winner = connection;
+        notifyAll();
+        return true;
+    }
+
+    /**
+     * 连接失败或关闭，连接的线程上调用，同一个连接可能回调多次
+     *
+     * @return 是这一轮里没有胜出的连接，调用方应该忽略这次回调；胜出的连接和不属于这一轮的返回false
+     */
+    public synchronized boolean onFailed(C connection) {
+        Attempt attempt = attempts.get(connection);
+        if (attempt == null || connection == winner) {
+            return false;
+        }
+        if (attempt.failed || attempt.opened || attempt.aborted) {
+            return true;// 已经记过，或者是被关闭的
+        }
+        attempt.failed = true;
+        failedCount++;
+        selector.onFailed(attempt.endpoint);
+        notifyAll();
+        return true;
+    }
+
+    public synchronized URI getEndpoint(C connection) {
+        Attempt attempt = attempts.get(connection);
+        return attempt == null ? null : attempt.endpoint;
+    }
+
+    /**
+     * 这一轮开始握手的地址数
+     */
+    public synchronized int getAttemptCount() {
+        return attempts.size();
+    }
+}
@@ -0,0 +1,184 @@
+package com.jh.websocketclient.websocket;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * 多个网关地址的健康度
+ * <p>
+ * 1. 每个地址记录握手耗时的滑动平均，连接时优先选耗时短的；没连上过的排在连上过的后面，按配置顺序；
+ * 2. 连接失败或已建立的连接异常断开，这个地址进入冷却，冷却时间随连续失败次数翻倍；
+ * 冷却中的地址排在最后，只有其他地址都不可用时才会尝试；
+ * 3. 还有不在冷却中的其他地址时可以立即切换过去，不需要等重连退避。
+ * <p>
+ * 时间由 Clock 提供，测试时可以用模拟时钟。
+ */
+public class EndpointSelector {
+
+    private static final double LATENCY_WEIGHT = 0.3;// 新的握手耗时在滑动平均里的权重
+
+    private static class Endpoint {
+        final URI uri;
+        final int order;// 配置里的顺序
+        long latency = -1;// 握手耗时滑动平均(ms)，-1表示还没连上过
+        int consecutiveFailures;
+        long coolDownUntil;
+        long successCount;
+        long failureCount;
+
+        Endpoint(URI uri, int order) {
+            this.uri = uri;
+            this.order = order;
+        }
+    }
+
+    private final KeepAliveScheduler.Clock clock;
+    private final long baseCoolDown;
+    private final long maxCoolDown;
+    private final List<Endpoint> endpoints = new ArrayList<>();
+
+    /**
+     * @param baseCoolDown 第一次失败后的冷却时间(ms)
+     * @param maxCoolDown  冷却时间上限(ms)
+     */
+    public EndpointSelector(KeepAliveScheduler.Clock clock, List<URI> uris, long baseCoolDown, long maxCoolDown) {
+        if (uris.isEmpty() || baseCoolDown <= 0 || maxCoolDown < baseCoolDown) {
+            throw new IllegalArgumentException("invalid endpoints");
+        }
+        this.clock = clock;
+        this.baseCoolDown = baseCoolDown;
+        this.maxCoolDown = maxCoolDown;
+        for (int i = 0; i < uris.size(); i++) {
+            endpoints.add(new Endpoint(uris.get(i), i));
+        }
+    }
+
+    /**
+     * 按健康度排好序的候选地址：可用的在前（握手快的优先），冷却中的在后（先到期的优先）
+     */
+    public synchronized List<URI> candidates(int max) {
+        final long now = clock.now();
+        List<Endpoint> sorted = new ArrayList<>(endpoints);
+        Collections.sort(sorted, new Comparator<Endpoint>() {
+            @Override
+            public int compare(Endpoint a, Endpoint b) {
+                boolean aReady = a.coolDownUntil <= now;
+                boolean bReady = b.coolDownUntil <= now;
+                if (aReady != bReady) {
+                    return aReady ? -1 : 1;
+                }
+                if (!aReady) {
+                    return compareLong(a.coolDownUntil, b.coolDownUntil);
+                }
+                if ((a.latency < 0) != (b.latency < 0)) {
+                    return a.latency < 0 ? 1 : -1;
+                }
+                int c = compareLong(a.latency, b.latency);
+                return c != 0 ? c : a.order - b.order;
+            }
+        });
+        List<URI> result = new ArrayList<>(Math.min(max, sorted.size()));
+        for (int i = 0; i < sorted.size() && i < max; i++) {
+            result.add(sorted.get(i).uri);
+        }
+        return result;
+    }
+
+    private static int compareLong(long a, long b) {
+        return a < b ? -1 : (a == b ? 0 : 1);
+    }
+
+    /**
+     * 握手成功
+     *
+     * @param handshakeMillis 从开始连接到握手完成的时间
+     */
+    public synchronized void onConnected(URI uri, long handshakeMillis) {
+        Endpoint endpoint = find(uri);
+        if (endpoint == null) {
+            return;
+        }
+        endpoint.latency = endpoint.latency < 0 ? handshakeMillis
+                : Math.round(endpoint.latency * (1 - LATENCY_WEIGHT) + handshakeMillis * LATENCY_WEIGHT);
+        endpoint.consecutiveFailures = 0;
+        endpoint.coolDownUntil = 0;
+        endpoint.successCount++;
+    }
+
+    /**
+     * 连接失败，或已建立的连接异常断开
+     */
+    public synchronized void onFailed(URI uri) {
+        Endpoint endpoint = find(uri);
+        if (endpoint == null) {
+            return;
+        }
+        endpoint.failureCount++;
+        endpoint.consecutiveFailures++;
+        int shift = Math.min(endpoint.consecutiveFailures - 1, 30);
+        endpoint.coolDownUntil = clock.now() + Math.min(maxCoolDown, baseCoolDown << shift);
+    }
+
+    /**
+     * 除了 uri 之外还有不在冷却中的地址，可以立即切换
+     */
+    public synchronized boolean hasAvailableAlternative(URI uri) {
+        long now = clock.now();
+        for (Endpoint endpoint : endpoints) {
+            if (!endpoint.uri.equals(uri) && endpoint.coolDownUntil <= now) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public synchronized boolean isAvailable(URI uri) {
+        Endpoint endpoint = find(uri);
+        return endpoint != null && endpoint.coolDownUntil <= clock.now();
+    }
+
+    /**
+     * 握手耗时滑动平均(ms)，-1表示还没连上过
+     */
+    public synchronized long getLatency(URI uri) {
+        Endpoint endpoint = find(uri);
+        return endpoint == null ? -1 : endpoint.latency;
+    }
+
+    public synchronized int getConsecutiveFailures(URI uri) {
+        Endpoint endpoint = find(uri);
+        return endpoint == null ? 0 : endpoint.consecutiveFailures;
+    }
+
+    public synchronized int size() {
+        return endpoints.size();
+    }
+
+    private Endpoint find(URI uri) {
+        for (Endpoint endpoint : endpoints) {
+            if (endpoint.uri.equals(uri)) {
+                return endpoint;
+            }
+        }
+        return null;
+    }
+
+    public synchronized String report() {
+        long now = clock.now();
+        StringBuilder sb = new StringBuilder("endpoints:");
+        for (Endpoint endpoint : endpoints) {
+            sb.append(' ').append(endpoint.uri)
+                    .append(" latency=").append(endpoint.latency)
+                    .append(" ok=").append(endpoint.successCount)
+                    .append(" failed=").append(endpoint.failureCount);
+            if (endpoint.coolDownUntil > now) {
+                sb.append(" coolDown=").append(endpoint.coolDownUntil - now).append("ms");
+            }
+            sb.append(';');
+        }
+        return sb.toString();
+    }
+}
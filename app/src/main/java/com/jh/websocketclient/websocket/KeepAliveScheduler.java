@@ -0,0 +1,152 @@
+package com.jh.websocketclient.websocket;
+
+/**
+ * 自适应心跳间隔
+ * <p>
+ * 1. 连接上有收发数据时不需要心跳，定时器到点后如果最近 interval 内有过数据就跳过这次心跳；
+ * 2. 空闲了整整一个 interval 后发出的心跳收到回应，说明这个间隔内NAT/网关没有回收连接，
+ * 下次尝试把间隔加大 step，直到 maxInterval；
+ * 3. 探测失败（心跳超时或空闲时被断开）退回上一个确认可用的间隔，并停止继续探测。
+ * <p>
+ * 时间由 Clock 提供，测试时可以用模拟时钟。
+ */
+public class KeepAliveScheduler {
+
+    public interface Clock {
+        long now();// 毫秒
+    }
+
+    public static final Clock SYSTEM_CLOCK = new Clock() {
+        @Override
+        public long now() {
+            return System.nanoTime() / 1000000L;
+        }
+    };
+
+    private final Clock clock;
+    private final long minInterval;
+    private final long maxInterval;
+    private final long step;
+
+    private long interval;// 当前使用的间隔（可能正在探测）
+    private long stableInterval;// 已确认可用的间隔
+    private boolean probing = true;
+    private long lastActivity;
+
+    private long sentCount;
+    private long skippedCount;
+    private long failedProbeCount;
+
+    /**
+     * @param minInterval 最小心跳间隔(ms)，也是初始间隔
+     * @param maxInterval 最大心跳间隔(ms)
+     * @param step        每次探测增加的间隔(ms)
+     */
+    public KeepAliveScheduler(Clock clock, long minInterval, long maxInterval, long step) {
+        if (minInterval <= 0 || maxInterval < minInterval || step <= 0) {
+            throw new IllegalArgumentException("invalid keep-alive interval");
+        }
+        this.clock = clock;
+        this.minInterval = minInterval;
+        this.maxInterval = maxInterval;
+        this.step = step;
+        this.interval = minInterval;
+        this.stableInterval = minInterval;
+        this.lastActivity = clock.now();
+    }
+
+    /**
+     * 收到或发出数据帧
+     */
+    public synchronized void onActivity() {
+        lastActivity = clock.now();
+    }
+
+    /**
+     * 心跳定时器到点
+     *
+     * @return true: 需要发送心跳；false: 最近有数据，跳过这次心跳
+     */
+    public synchronized boolean onTimer() {
+        if (clock.now() - lastActivity < interval) {
+            skippedCount++;
+            return false;
+        }
+        sentCount++;
+        return true;
+    }
+
+    /**
+     * 距离下一次心跳定时器的时间(ms)
+     */
+    public synchronized long nextDelay() {
+        long delay = lastActivity + interval - clock.now();
+        // 刚发出的心跳还在等回应时，至少等一个最小间隔
+        return delay > 0 ? delay : interval;
+    }
+
+    /**
+     * 心跳收到回应：当前间隔可用
+     */
+    public synchronized void onHeartbeatAcked() {
+        lastActivity = clock.now();
+        stableInterval = Math.max(stableInterval, interval);
+        if (probing && interval < maxInterval) {
+            interval = Math.min(maxInterval, interval + step);
+        }
+    }
+
+    /**
+     * 心跳超时，或空闲时连接被断开
+     */
+    public synchronized void onHeartbeatFailed() {
+        failedProbeCount++;
+        lastActivity = clock.now();// 随后会重连，空闲时间从现在重新计算
+        if (interval > stableInterval) {
+            // 探测的间隔太长，退回上一个可用的间隔
+            interval = stableInterval;
+        } else {
+            // 确认过的间隔也失败了，网络环境可能变了，减半后重新确认
+            interval = Math.max(minInterval, stableInterval / 2);
+            stableInterval = interval;
+        }
+        probing = false;
+    }
+
+    /**
+     * 连接空闲了多久(ms)
+     */
+    public synchronized long getIdleTime() {
+        return clock.now() - lastActivity;
+    }
+
+    /**
+     * 当前心跳间隔(ms)
+     */
+    public synchronized long getInterval() {
+        return interval;
+    }
+
+    public synchronized long getStableInterval() {
+        return stableInterval;
+    }
+
+    public synchronized boolean isProbing() {
+        return probing;
+    }
+
+    public synchronized long getSentCount() {
+        return sentCount;
+    }
+
+    /**
+     * 因为连接上有数据而省掉的心跳次数
+     */
+    public synchronized long getSkippedCount() {
+        return skippedCount;
+    }
+
+    public synchronized long getFailedProbeCount() {
+        return failedProbeCount;
+    }
+}
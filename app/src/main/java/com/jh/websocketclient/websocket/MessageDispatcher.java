@@ -0,0 +1,259 @@
+package com.jh.websocketclient.websocket;
+
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.view.Choreographer;
+
+import com.jh.websocketclient.metrics.MessageTrace;
+import com.jh.websocketclient.metrics.MessageTracer;
+import com.jh.websocketclient.modle.ChatMessage;
+import com.jh.websocketclient.util.LatencyHistogram;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 收到的消息按帧合并后再交给UI
+ * <p>
+ * onMessage 在读线程里只做入队，同一帧内到达的消息在下一次 vsync 时一次性交给监听者，
+ * 缓冲区有上限，满了之后新消息直接丢弃并计数。
+ * 没有监听者（界面不在）时不缓存，消息已经写入 MessageStore，界面打开时从本地分页加载。
+ * <p>
+ * 带跟踪的消息在交给监听者时打 DISPATCHED，这一帧绘制完（帧回调后 post 的任务执行时）打 RENDERED。
+ */
+public class MessageDispatcher {
+
+    public interface OnMessagesListener {
+        /**
+         * 主线程回调，一帧内收到的消息
+         */
+        void onMessages(List<ChatMessage> messages);
+    }
+
+    private static final long FRAME_DELAY = 16;// API16以下没有Choreographer，按16ms一帧
+
+    private final int capacity;
+    private final int maxBatchSize;
+    private final MessageTracer tracer;
+
+    private final ArrayDeque<ChatMessage> buffer = new ArrayDeque<>();
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private OnMessagesListener listener;
+    private boolean frameScheduled;
+    private long frameRequestedAt;// 请求这一帧的时间(ns)
+
+    // 入队到交给UI的等待时间，和监听者处理一批的时间
+    private final StageStats stats = new StageStats("ui");
+    // 每批第一条消息从入队到监听者处理完的时间(ns)
+    private final LatencyHistogram latency = new LatencyHistogram();
+
+    // 统计
+    private final AtomicLong receivedCount = new AtomicLong();
+    private final AtomicLong droppedCount = new AtomicLong();
+    private final AtomicLong coalescedCount = new AtomicLong();
+    private final AtomicLong batchCount = new AtomicLong();
+
+    // 这一帧交给界面的带跟踪的消息，等绘制完成，只在主线程使用
+    private final List<MessageTrace> rendering = new ArrayList<>();
+
+    /**
+     * @param capacity     缓冲区最多保留的消息数
+     * @param maxBatchSize 每帧最多交给UI的消息数，剩下的留到下一帧
+     */
+    public MessageDispatcher(int capacity, int maxBatchSize) {
+        this(capacity, maxBatchSize, null);
+    }
+
+    /**
+     * @param tracer 带跟踪的消息绘制完成后交给它，可以为null
+     */
+    public MessageDispatcher(int capacity, int maxBatchSize, MessageTracer tracer) {
+        if (capacity <= 0 || maxBatchSize <= 0) {
+            throw new IllegalArgumentException("capacity and maxBatchSize must be > 0");
+        }
+        this.capacity = capacity;
+        this.maxBatchSize = maxBatchSize;
+        this.tracer = tracer;
+    }
+
+    /**
+     * 任意线程调用
+     *
+     * @return 没有监听者或缓冲区已满时返回false，消息被丢弃
+     */
+    public boolean offer(ChatMessage message) {
+        receivedCount.incrementAndGet();
+        synchronized (buffer) {
+            if (listener == null) {
+                return false;
+            }
+            if (buffer.size() >= capacity) {
+                droppedCount.incrementAndGet();
+                return false;
+            }
+            buffer.addLast(message);
+            stats.onSubmitted(1);
+            scheduleFrameLocked();
+        }
+        return true;
+    }
+
+    /**
+     * 主线程调用，传null取消监听并清空缓冲区
+     */
+    public void setListener(OnMessagesListener listener) {
+        synchronized (buffer) {
+            this.listener = listener;
+            if (listener == null) {
+                stats.onCancelled(buffer.size());
+                buffer.clear();
+            }
+        }
+    }
+
+    private void scheduleFrameLocked() {
+        if (frameScheduled || listener == null) {
+            return;
+        }
+        frameScheduled = true;
+        frameRequestedAt = System.nanoTime();
+        if (Looper.myLooper() == Looper.getMainLooper()) {
+            postFrame.run();
+        } else {
+            mainHandler.post(postFrame);
+        }
+    }
+
+    private final Runnable postFrame = new Runnable() {
+        @Override
+        public void run() {
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+                if (frameCallback == null) {
+                    frameCallback = new Choreographer.FrameCallback() {
+                        @Override
+                        public void doFrame(long frameTimeNanos) {
+                            flush();
+                        }
+                    };
+                }
+                Choreographer.getInstance().postFrameCallback(frameCallback);
+            } else {
+                mainHandler.postDelayed(flushRunnable, FRAME_DELAY);
+            }
+        }
+    };
+
+    private Choreographer.FrameCallback frameCallback;// 只在主线程创建和使用
+
+    private final Runnable flushRunnable = new Runnable() {
+        @Override
+        public void run() {
+            flush();
+        }
+    };
+
+    /**
+     * 主线程：取出一批消息交给监听者
+     */
+    private void flush() {
+        List<ChatMessage> batch;
+        OnMessagesListener target;
+        long requestedAt;
+        synchronized (buffer) {
+            requestedAt = frameRequestedAt;
+            frameScheduled = false;
+            target = listener;
+            if (target == null || buffer.isEmpty()) {
+                return;
+            }
+            int n = Math.min(buffer.size(), maxBatchSize);
+            batch = new ArrayList<>(n);
+            for (int i = 0; i < n; i++) {
+                batch.add(buffer.pollFirst());
+            }
+            // 还有剩余，下一帧继续
+            if (!buffer.isEmpty()) {
+                scheduleFrameLocked();
+            }
+        }
+        batchCount.incrementAndGet();
+        coalescedCount.addAndGet(batch.size() - 1);
+        if (tracer != null) {
+            stampDispatched(batch);
+        }
+        long start = System.nanoTime();
+        target.onMessages(batch);
+        long end = System.nanoTime();
+        stats.onCompleted(batch.size(), start - requestedAt, end - start);
+        latency.record(end - requestedAt);
+    }
+
+    private void stampDispatched(List<ChatMessage> batch) {
+        boolean posted = !rendering.isEmpty();
+        for (int i = 0; i < batch.size(); i++) {
+            MessageTrace trace = batch.get(i).getTrace();
+            if (trace != null) {
+                trace.stamp(MessageTrace.DISPATCHED);
+                rendering.add(trace);
+            }
+        }
+        if (!posted && !rendering.isEmpty()) {
+            // 帧回调里 post 的任务排在这一帧的布局和绘制之后
+            mainHandler.post(renderedRunnable);
+        }
+    }
+
+    private final Runnable renderedRunnable = new Runnable() {
+        @Override
+        public void run() {
+            for (int i = 0; i < rendering.size(); i++) {
+                MessageTrace trace = rendering.get(i);
+                trace.stamp(MessageTrace.RENDERED);
+                tracer.complete(trace);
+            }
+            rendering.clear();
+        }
+    };
+
+    public StageStats getStats() {
+        return stats;
+    }
+
+    /**
+     * 消息交给UI的延时分布(ns)：每批第一条消息从入队到监听者处理完，同一批里后到的消息等得更短
+     */
+    public LatencyHistogram getLatency() {
+        return latency;
+    }
+
+    public int getPendingCount() {
+        synchronized (buffer) {
+            return buffer.size();
+        }
+    }
+
+    public long getReceivedCount() {
+        return receivedCount.get();
+    }
+
+    /**
+     * 缓冲区满被丢弃的消息数
+     */
+    public long getDroppedCount() {
+        return droppedCount.get();
+    }
+
+    /**
+     * 被合并进同一次UI刷新而省掉的刷新次数
+     */
+    public long getCoalescedCount() {
+        return coalescedCount.get();
+    }
+
+    public long getBatchCount() {
+        return batchCount.get();
+    }
+}
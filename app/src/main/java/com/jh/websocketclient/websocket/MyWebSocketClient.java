@@ -7,21 +7,69 @@ import android.app.NotificationManager;
 import android.app.PendingIntent;
 import android.content.Context;
 import android.content.Intent;
+import android.os.Build;
 import android.os.Handler;
+import android.os.Looper;
 import android.os.PowerManager;
 import android.support.v4.app.NotificationCompat;
-import android.util.Log;
 
 import com.jh.websocketclient.MainActivity;
 import com.jh.websocketclient.R;
+import com.jh.websocketclient.binary.BinaryChannel;
+import com.jh.websocketclient.binary.BufferPool;
+import com.jh.websocketclient.channel.ChannelMux;
+import com.jh.websocketclient.codec.BinaryCodec;
+import com.jh.websocketclient.codec.CodecException;
+import com.jh.websocketclient.codec.Envelope;
+import com.jh.websocketclient.codec.JsonCodec;
+import com.jh.websocketclient.codec.MessageCodec;
+import com.jh.websocketclient.event.ConnectionState;
+import com.jh.websocketclient.event.MessageAckEvent;
+import com.jh.websocketclient.event.SocketBinaryEvent;
+import com.jh.websocketclient.event.SocketCloseEvent;
+import com.jh.websocketclient.event.SocketErrorEvent;
+import com.jh.websocketclient.event.SocketEventBus;
+import com.jh.websocketclient.event.SocketMessageEvent;
+import com.jh.websocketclient.event.SocketOpenEvent;
+import com.jh.websocketclient.metrics.MessageTrace;
+import com.jh.websocketclient.metrics.MessageTracer;
+import com.jh.websocketclient.metrics.MetricsRegistry;
+import com.jh.websocketclient.metrics.MetricsSnapshot;
+import com.jh.websocketclient.metrics.StripedCounter;
+import com.jh.websocketclient.modle.ChatMessage;
+import com.jh.websocketclient.queue.OutboundQueue;
+import com.jh.websocketclient.queue.OutboundScheduler;
+import com.jh.websocketclient.queue.TrafficClass;
+import com.jh.websocketclient.store.DeltaSync;
+import com.jh.websocketclient.store.MessageStore;
+import com.jh.websocketclient.store.SyncCursor;
+import com.jh.websocketclient.util.ClientLog;
+import com.jh.websocketclient.util.LatencyHistogram;
+import com.jh.websocketclient.util.SeenIdFilter;
 import com.jh.websocketclient.util.Util;
-import com.orhanobut.logger.Logger;
 
-import org.java_websocket.client.WebSocketClient;
+import org.java_websocket.framing.CloseFrame;
+import org.java_websocket.framing.Framedata;
+import org.java_websocket.framing.PingFrame;
 import org.java_websocket.handshake.ServerHandshake;
 
+import java.io.File;
 import java.net.URI;
 import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
 
 import static android.support.v4.app.NotificationCompat.VISIBILITY_PUBLIC;
 
@@ -33,63 +81,485 @@ import static android.support.v4.app.NotificationCompat.VISIBILITY_PUBLIC;
  * 用户登录建立连接
  * <p>
  * 什么条件下执行心跳：
- * 当onopen也就是连接上时，我们便开始start计时，如果在定时时间范围内，onmessage获取到了后端的消息，我们就重置倒计时，
- * 距离上次从后端获取到消息超过60秒之后，执行心跳检测，看是不是断连了，这个检测时间可以自己根据自身情况设定。
+ * 每隔 HEART_BEAT_RATE 发送一个协议层 ping，PONG_TIMEOUT 内没有收到 pong 就判定连接已死（半开连接），
+ * 强制关闭后按退避策略重连，每次 ping 的往返时延记录在 PingMonitor 中。
  * <p>
  * 服务器未开启,websocket请求建立重连，请求不到或者达到某个次数就终止请求，不让异常发生！
  * <p>
  * onClose: 长链接关闭    // 登录状态时才重连
+ * <p>
+ * 消息编码：握手时先提供二进制编码的子协议，服务器选中就用 BinaryCodec 发二进制帧，
+ * 不选子协议的旧服务器按 JSON 文本帧收发；收到的不是JSON的文本当作纯文本消息。
  *
  * 使用WebSocket实现Android端即时通讯聊天功能
  * https://blog.csdn.net/beita08/article/details/80162070
  * https://www.jianshu.com/p/7b919910c892
  *
  */
-public class MyWebSocketClient extends WebSocketClient {
+public class MyWebSocketClient implements WebSocketSession.Callback {
 
     public static final String TAG = "MyWebSocketClient";
 
-    private static final String serverUriStr = Util.ws;
+    private static final int FRAME_LOG_INTERVAL = 100;// 每帧的日志每这么多条记一条
+
+    private static final ClientLog log = ClientLog.get(TAG);
+    private static final ClientLog.Sampled frameLog = log.sampled(FRAME_LOG_INTERVAL);
+
+    private static final int RACE_MAX_PARALLEL = 3;// 一轮最多同时握手的地址数
+    private static final long RACE_STAGGER_DELAY = 250;// 前一个地址这么久还没连上就同时连下一个
+    private static final long RACE_TIMEOUT = 15 * 1000;// 一轮连接的最长时间
+    private static final long ENDPOINT_COOL_DOWN = 5 * 1000;// 地址失败后第一次冷却时间，连续失败时翻倍
+    private static final long ENDPOINT_MAX_COOL_DOWN = 5 * 60 * 1000;// 地址冷却时间上限
+
+    // 多个网关地址的握手耗时和失败情况，连接时按它排序，一个地址出问题时切到下一个
+    private static final EndpointSelector endpoints = new EndpointSelector(KeepAliveScheduler.SYSTEM_CLOCK,
+            parseEndpoints(Util.wsEndpoints), ENDPOINT_COOL_DOWN, ENDPOINT_MAX_COOL_DOWN);
+
+    // 门面对象全局只有一个，调用方一直持有它；底层连接每次连接时新建，见 ConnectionManager
+    private static final AtomicReference<MyWebSocketClient> instance = new AtomicReference<>();
+    private static volatile Context appContext;
+
+    private final Context mContext;
+    private final ConnectionManager<WebSocketSession> connections;
+    // 所有连接的压缩扩展都从它复制，共享 Deflater/Inflater 池和统计，重连不重新分配 zlib 的本地内存
+    private final PerMessageDeflateExtension compression;
+    private final EndpointRace.Connector<WebSocketSession> connector;
+    // 正在进行或最近一轮的连接，用来认出这一轮里没有胜出的会话的回调
+    private volatile ConnectAttempt connectAttempt;
+    // 正在处理的被跟踪的消息，只在分发线程上读写
+    private Envelope tracedEnvelope;
+    private MessageTrace currentTrace;
+
+    private static final class ConnectAttempt {
+        final EndpointRace<WebSocketSession> race;
+        final WebSocketSession expected;// 开始时的当前连接，胜出的会话替换它
+
+        ConnectAttempt(EndpointRace<WebSocketSession> race, WebSocketSession expected) {
+            this.race = race;
+            this.expected = expected;
+        }
+    }
+
+    private static final long METRICS_INTERVAL = 60 * 1000;// 定时生成指标快照的间隔
+
+    // 计数和延时分布，热路径上直接持有引用记录；队列深度在快照时读取
+    private static final MetricsRegistry metrics = new MetricsRegistry();
+
+    private static final int TRACE_SAMPLE_INTERVAL = 100;// 每这么多条收到的消息跟踪一条
+    private static final int TRACE_MAX_RECENT = 1000;// 保留最近完成的跟踪条数，用于导出
+
+    // 收到的消息从读线程到界面绘制的分段耗时
+    private static final MessageTracer tracer = new MessageTracer(metrics, TRACE_SAMPLE_INTERVAL, TRACE_MAX_RECENT);
+
+    private static final int DISPATCH_BUFFER_SIZE = 5000;// 等待交给UI的消息上限
+    private static final int DISPATCH_MAX_BATCH = 200;// 每帧最多交给UI的消息数
+
+    // 收到的消息按帧合并后交给UI
+    private static final MessageDispatcher dispatcher = new MessageDispatcher(DISPATCH_BUFFER_SIZE, DISPATCH_MAX_BATCH,
+            tracer);
+
+    private static final int SEND_QUEUE_MAX_COUNT = 1000;// 最多积压的待发送消息数
+    private static final long SEND_QUEUE_MAX_BYTES = 1024 * 1024;// 最多积压的待发送字节数
+    private static final int SEND_BATCH_COUNT = 50;// 每批发送条数
+    private static final long SEND_BATCH_BYTES = 64 * 1024;// 每批发送字节数
+    private static final int SEND_WINDOW = 32;// 最多已发送未确认的消息数，一个往返时间内能发出的条数
+    private static final boolean SEND_REQUIRE_ACK = true;// 服务器会确认或回显每条聊天消息
+
+    private static final int BINARY_POOL_MIN_SIZE = 1024;// 二进制发送缓冲区最小一档
+    private static final int BINARY_POOL_MAX_SIZE = 1024 * 1024;// 更大的不缓存
+    private static final int BINARY_POOL_PER_CLASS = 4;// 每档最多缓存的缓冲区数
+
+    private static final int SYNC_BATCH_SIZE = 100;// 重连补齐时每批应用的消息数
+
+    private static final int DEDUP_EXACT_IDS = 4096;// 精确记住的最近消息id数
+    private static final int DEDUP_GENERATION_IDS = 32 * 1024;// 每代布隆过滤器的id数，最多记住两代
+    private static final int DEDUP_BITS_PER_ID = 24;// 按2的幂取整后实际每个id 32位，误判率约百万分之一
+    private static final long DEDUP_WINDOW = 30 * 60 * 1000;// 每代最长时间
+
+    // 重传、重连后重复收到的消息按id丢弃，内存固定（约350KB）
+    private static final SeenIdFilter seenIds = new SeenIdFilter(DEDUP_EXACT_IDS, DEDUP_GENERATION_IDS,
+            DEDUP_BITS_PER_ID, DEDUP_WINDOW);
+
+    private static final long NOTIFY_WINDOW = 2 * 1000;// 这段时间内收到的消息合并成一条通知
+    private static final long NOTIFY_WAKE_UP_INTERVAL = 60 * 1000;// 两次点亮屏幕、响铃振动的最小间隔
+    private static final int NOTIFY_MAX_LINES = 5;// 汇总通知里最多列出的消息条数
+    private static final int NOTIFY_ID = 1;
 
-    //单例选择懒汉模式
-    private Context mContext;
+    // 消息通知按窗口合并，界面在前台时不通知
+    private static final NotificationAggregator notifications = new NotificationAggregator(
+            KeepAliveScheduler.SYSTEM_CLOCK, NOTIFY_WINDOW, NOTIFY_WAKE_UP_INTERVAL, NOTIFY_MAX_LINES);
 
-    private static MyWebSocketClient client;
+    private static final long CHANNEL_WINDOW = 256 * 1024;// 每个频道每个方向的初始额度
+    private static final long CHANNEL_QUANTUM = 16 * 1024;// 频道轮转时每轮发送的字节数
+    private static final long CHANNEL_MAX_QUEUED = 1024 * 1024;// 每个频道本地最多排队的字节数
+    private static final int CHANNEL_MAX_SCHEDULED = 8;// 调度器里排队超过这么多条时频道暂停发送
 
-    //1. 私有构造方法
+    private static final int SEND_CHUNK_SIZE = 16 * 1024;// BULK 大消息拆块的大小
+    private static final int SEND_MAX_BUFFERED_FRAMES = 4;// 库的写队列里最多积压的帧数，其余的在调度器里按优先级排队
+    private static final int ASSEMBLER_MAX_PENDING = 16;// 最多同时拼接的分块消息数
+
+    private static final long RECONNECT_BASE_DELAY = 1000;// 重连最小等待时间
+    private static final long RECONNECT_MAX_DELAY = 60 * 1000;// 重连最大等待时间
+    private static final int RECONNECT_MAX_ATTEMPTS = 10;// 连续失败多少次后熔断
+    private static final long RECONNECT_CIRCUIT_OPEN_TIME = 5 * 60 * 1000;// 熔断后等待时间
+
+    private static final int DISPATCH_QUEUE_SIZE = 1024;// 读线程交给分发线程的消息上限，满了读线程等待
+
+    // 线程模型：
+    // 1. 读写socket在库自己的线程上，读线程收到消息后只入队，不做解码、存储和通知；
+    // 2. 重连调度、心跳和pong超时都在 ws-io 这一个线程上执行；一轮握手要等到有地址连上或超时，
+    //    放在 ws-connect 单线程上，一次只有一轮，结果再交回 ws-io，不会出现并发重连；
+    // 3. 解码、去重、补齐、存储在 ws-dispatch 单线程上按顺序执行，队列有界；
+    // 4. 只有刷新列表和发通知切到主线程；
+    // 5. 待发消息的落盘和攒批在 ws-outbox 单线程上，按流量类别调度和写 socket 在 ws-send 单线程上。
+    private static final ScheduledExecutorService eventLoop = Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "ws-io");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+    private static final StageStats eventLoopStats = new StageStats("ws-io");
+    private static final ExecutorService connectExecutor = Executors.newSingleThreadExecutor(
+            new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "ws-connect");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+    private static final StageStats connectStats = new StageStats("ws-connect");
+    private static final StageExecutor dispatchExecutor = new StageExecutor("ws-dispatch", DISPATCH_QUEUE_SIZE);
+    private static final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private static final StageStats mainStats = new StageStats("main");
+    private static final ReconnectPolicy reconnectPolicy = new ReconnectPolicy(RECONNECT_BASE_DELAY,
+            RECONNECT_MAX_DELAY, RECONNECT_MAX_ATTEMPTS, RECONNECT_CIRCUIT_OPEN_TIME, new Random());
+    private static final ConnectionStateMachine stateMachine = new ConnectionStateMachine(
+            new ConnectionStateMachine.OnStateChangedListener() {
+                @Override
+                public void onStateChanged(ConnectionState from, ConnectionState to) {
+                    log.d("连接状态: {} -> {}", from, to);
+                    SocketEventBus.postState(to);
+                }
+            });
+    private static ScheduledFuture<?> pendingReconnect;
+    private static volatile boolean closedByUser;// 主动断开后不再重连
+
+    private static final int COMPRESS_THRESHOLD = 128;// 小于这个字节数的消息不压缩
+    private static final int MAX_MESSAGE_SIZE = 4 * 1024 * 1024;// 单帧、解压后或拼接后单条消息的上限
+
+    //1. 私有构造方法：只创建门面，不连接也不打开文件，并发创建时多出来的直接丢弃
     private MyWebSocketClient(Context context) {
-        /*ws://服务器ip:8282*/
-        super(URI.create(serverUriStr));
         this.mContext = context;
-        Logger.d("MyWebSocketClient ->ws地址: " + serverUriStr);
+        // API 19 以下的 Deflater 不支持 SYNC_FLUSH，每条消息单独压缩
+        this.compression = new PerMessageDeflateExtension(COMPRESS_THRESHOLD,
+                Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT, MAX_MESSAGE_SIZE);
+        this.connections = new ConnectionManager<>(new ConnectionManager.Disposer<WebSocketSession>() {
+            @Override
+            public void dispose(WebSocketSession session) {
+                closeSession(session);
+            }
+        });
+        this.connector = new EndpointRace.Connector<WebSocketSession>() {
+            @Override
+            public WebSocketSession create(URI endpoint) {
+                /*ws://服务器ip:8282*/
+                return new WebSocketSession(endpoint, (PerMessageDeflateExtension) compression.copyInstance(),
+                        MAX_MESSAGE_SIZE, ASSEMBLER_MAX_PENDING, (int) RACE_TIMEOUT, wireMetrics,
+                        MyWebSocketClient.this);
+            }
+
+            @Override
+            public void start(WebSocketSession session) {
+                session.connect();
+            }
+
+            @Override
+            public void abort(WebSocketSession session) {
+                closeSession(session);
+            }
+        };
+        log.d("ws地址: {}", Arrays.toString(Util.wsEndpoints));
+    }
+
+    private static List<URI> parseEndpoints(String[] uris) {
+        List<URI> result = new ArrayList<>(uris.length);
+        for (String uri : uris) {
+            result.add(URI.create(uri));
+        }
+        return result;
     }
 
-    //2.公开方法,返回单例对象
+    private static void closeSession(WebSocketSession session) {
+        if (!session.isClosed()) {
+            session.close();
+        }
+    }
+
+    //2.公开方法,返回单例对象：比较并交换，不加锁
     public static MyWebSocketClient getInstance(Context context) {
-        //懒汉: 考虑线程安全问题
-        if (client == null) {
-            synchronized (MyWebSocketClient.class) {
-                if (client == null) {
-                    client = new MyWebSocketClient(context);
-                    Log.e(TAG, "getInstance: *****创建单例对象*****");
+        MyWebSocketClient current = instance.get();
+        if (current != null) {
+            return current;
+        }
+        Context app = context.getApplicationContext();
+        appContext = app;
+        MyWebSocketClient created = new MyWebSocketClient(app);
+        if (instance.compareAndSet(null, created)) {
+            log.d("getInstance: *****创建单例对象*****");
+            return created;
+        }
+        return instance.get();
+    }
+
+    // 依赖 Context 的存储，第一次用到时创建，由类初始化保证只创建一次
+    private static final class Stores {
+        // 发送队列，断线时的消息持久化，连上后补发
+        static final OutboundQueue outboundQueue = createOutboundQueue(appContext);
+        // 重连后按游标补齐断线期间错过的消息
+        static final DeltaSync deltaSync = new DeltaSync(new SyncCursor(new File(appContext.getFilesDir(),
+                "sync.cursor")), syncSink, SYNC_BATCH_SIZE);
+    }
+
+    private static OutboundQueue createOutboundQueue(final Context context) {
+        OutboundQueue queue = new OutboundQueue(new File(context.getFilesDir(), "outbound"),
+                queueSender, SEND_QUEUE_MAX_COUNT, SEND_QUEUE_MAX_BYTES, SEND_BATCH_COUNT, SEND_BATCH_BYTES,
+                SEND_WINDOW);
+        // 服务端确认后更新本地记录和界面上的已读状态
+        queue.setOnAckListener(new OutboundQueue.OnAckListener() {
+            @Override
+            public void onAcked(Envelope envelope, long serverSeq) {
+                MessageStore.getInstance(context).updateReadByMsgId(envelope.getId());
+                if (SocketEventBus.hasSubscriber(MessageAckEvent.class)) {
+                    SocketEventBus.get().post(new MessageAckEvent(envelope.getId(), serverSeq));
                 }
             }
+        });
+        return queue;
+    }
+
+    /**
+     * 当前的底层连接，不加锁，还没有连接或已经断开时为null
+     */
+    private static WebSocketSession currentSession() {
+        MyWebSocketClient facade = instance.get();
+        return facade == null ? null : facade.connections.get();
+    }
+
+    public ConnectionManager<?> getConnections() {
+        return connections;
+    }
+
+    /**
+     * 各个网关地址的握手耗时和冷却情况
+     */
+    public static EndpointSelector getEndpoints() {
+        return endpoints;
+    }
+
+    /**
+     * 各个线程的队列深度和等待时间：ws-io、ws-connect、ws-dispatch、主线程通知、主线程刷新列表、ws-send、
+     * ws-outbox（初始化之后才有）
+     */
+    public static List<StageStats> getStageStats() {
+        List<StageStats> stats = new ArrayList<>(Arrays.asList(eventLoopStats, connectStats,
+                dispatchExecutor.getStats(), mainStats, dispatcher.getStats(), scheduler.getStats()));
+        if (appContext != null) {
+            stats.add(Stores.outboundQueue.getStats());
+        }
+        return stats;
+    }
+
+    public static StageExecutor getDispatchExecutor() {
+        return dispatchExecutor;
+    }
+
+    private static void runOnEventLoop(Runnable task) {
+        eventLoop.execute(eventLoopStats.wrap(task));
+    }
+
+    private static ScheduledFuture<?> schedule(Runnable task, long delay) {
+        return eventLoop.schedule(eventLoopStats.wrap(task, delay), delay, TimeUnit.MILLISECONDS);
+    }
+
+    private static void cancel(ScheduledFuture<?> future) {
+        if (future != null && future.cancel(false)) {
+            eventLoopStats.onCancelled(1);
+        }
+    }
+
+    public static MessageDispatcher getDispatcher() {
+        return dispatcher;
+    }
+
+    public OutboundQueue getOutboundQueue() {
+        return Stores.outboundQueue;
+    }
+
+    public static ConnectionStateMachine getStateMachine() {
+        return stateMachine;
+    }
+
+    // 所有发出的数据按优先级排队：ping > 聊天 > 二进制数据和统计上报
+    private static final OutboundScheduler scheduler = new OutboundScheduler(new OutboundScheduler.Writer() {
+        @Override
+        public boolean isOpen() {
+            WebSocketSession current = currentSession();
+            return current != null && current.isOpen();
+        }
+
+        @Override
+        public int getBufferedFrames() {
+            WebSocketSession current = currentSession();
+            return current == null ? 0 : current.getBufferedFrames();
+        }
+
+        @Override
+        public void write(Envelope envelope) {
+            WebSocketSession current = currentSession();
+            if (current == null) {
+                throw new IllegalStateException("client closed");
+            }
+            current.sendEnvelope(envelope);
+        }
+
+        @Override
+        public void write(Framedata frame) {
+            WebSocketSession current = currentSession();
+            if (current == null) {
+                throw new IllegalStateException("client closed");
+            }
+            current.writeFrame(frame);
+        }
+    }, SEND_CHUNK_SIZE, SEND_MAX_BUFFERED_FRAMES);
+
+    public static OutboundScheduler getScheduler() {
+        return scheduler;
+    }
+
+    // 二进制消息：收到的直接交给监听者，发送缓冲区从池里取，按 BULK 排队发送
+    private static final BinaryChannel binaryChannel = new BinaryChannel(new BinaryChannel.Sender() {
+        @Override
+        public boolean isOpen() {
+            WebSocketSession current = currentSession();
+            return current != null && current.isOpen();
+        }
+
+        @Override
+        public void send(ByteBuffer bytes, Runnable onComplete) {
+            scheduler.submitMessage(TrafficClass.BULK, bytes, true, onComplete);
+        }
+    }, new BufferPool(BINARY_POOL_MIN_SIZE, BINARY_POOL_MAX_SIZE, BINARY_POOL_PER_CLASS));
+
+    public static BinaryChannel getBinaryChannel() {
+        return binaryChannel;
+    }
+
+    // 聊天室、在线状态、通知等逻辑频道，复用这一个连接
+    private static final ChannelMux channelMux = new ChannelMux(new ChannelMux.Transport() {
+        @Override
+        public boolean isOpen() {
+            WebSocketSession current = currentSession();
+            return current != null && current.isOpen();
+        }
+
+        @Override
+        public boolean isWritable() {
+            WebSocketSession current = currentSession();
+            return current != null && scheduler.getQueuedCount(TrafficClass.INTERACTIVE)
+                    + scheduler.getQueuedCount(TrafficClass.BULK) < CHANNEL_MAX_SCHEDULED;
+        }
+
+        @Override
+        public void send(Envelope envelope, TrafficClass trafficClass) {
+            scheduler.submit(trafficClass, envelope);
+        }
+    }, CHANNEL_WINDOW, CHANNEL_QUANTUM, CHANNEL_MAX_QUEUED);
+
+    public static ChannelMux getChannelMux() {
+        return channelMux;
+    }
+
+    // 补齐的消息总是交给当前的连接对象处理
+    private static final DeltaSync.Sink syncSink = new DeltaSync.Sink() {
+        @Override
+        public void apply(List<Envelope> batch, boolean replayed) {
+            MyWebSocketClient current = instance.get();
+            if (current != null) {
+                current.applyMessages(batch);
+            }
+        }
+    };
+
+    public static DeltaSync getDeltaSync() {
+        return Stores.deltaSync;
+    }
+
+    public static SeenIdFilter getSeenIds() {
+        return seenIds;
+    }
+
+    public static NotificationAggregator getNotifications() {
+        return notifications;
+    }
+
+    /**
+     * 聊天界面进入/离开前台，前台时不发通知并清掉已有的通知
+     */
+    public static void setForeground(Context context, boolean foreground) {
+        notifications.setForeground(foreground);
+        if (foreground) {
+            NotificationManager notifyManager = (NotificationManager) context.getSystemService(Context.NOTIFICATION_SERVICE);
+            notifyManager.cancel(NOTIFY_ID);
         }
-        return client;
     }
 
+    // 发送队列总是发给当前的连接
+    private static final OutboundQueue.Sender queueSender = new OutboundQueue.Sender() {
+        @Override
+        public boolean isOpen() {
+            WebSocketSession current = currentSession();
+            return current != null && current.isOpen();
+        }
+
+        @Override
+        public void send(Envelope envelope) {
+            scheduler.submit(TrafficClass.INTERACTIVE, envelope);
+        }
+    };
 
 
     //    -------------------------------------websocket心跳检测------------------------------------------------
-    private Handler mHandler = new Handler();
+    // 只在 eventLoop 上读写
+    private ScheduledFuture<?> heartBeatFuture;
+    private ScheduledFuture<?> pongTimeoutFuture;
+    private ScheduledFuture<?> msgFuture;
 
-    private static final long HEART_BEAT_RATE = 10 * 1000;// 每隔10秒进行一次对长连接的心跳检测
+    private static final long HEART_BEAT_RATE = 10 * 1000;// 最短每隔10秒进行一次对长连接的心跳检测
+    private static final long HEART_BEAT_MAX_RATE = 280 * 1000;// 心跳间隔上限，低于常见NAT的5分钟回收时间
+    private static final long HEART_BEAT_PROBE_STEP = 30 * 1000;// 每次探测增加的心跳间隔
     private static final long MSG_TIME = 50 * 1000;// 每隔5秒进行一次消息发送给后台
+    private static final long PONG_TIMEOUT = 5 * 1000;// 发出ping后等待pong的时间，超时判定连接已死
+
+    // ping/pong 存活检测和往返时延统计
+    private static final PingMonitor pingMonitor = new PingMonitor(PONG_TIMEOUT);
+    // 自适应心跳间隔：有数据时跳过心跳，空闲时逐步探测最长可用间隔
+    private static final KeepAliveScheduler keepAlive = new KeepAliveScheduler(KeepAliveScheduler.SYSTEM_CLOCK,
+            HEART_BEAT_RATE, HEART_BEAT_MAX_RATE, HEART_BEAT_PROBE_STEP);
 
     // 开启心跳检测
     public void openHeart() {
-        mHandler.postDelayed(heartBeatRunnable, HEART_BEAT_RATE);
-//        mHandler.postDelayed(MSG_RUNNABLE, MSG_TIME);
+        runOnEventLoop(new Runnable() {
+            @Override
+            public void run() {
+                cancelHeart();
+                heartBeatFuture = schedule(heartBeatRunnable, keepAlive.nextDelay());
+//                msgFuture = schedule(MSG_RUNNABLE, MSG_TIME);
+            }
+        });
     }
 
     /**
@@ -98,33 +568,238 @@ public class MyWebSocketClient extends WebSocketClient {
     private Runnable MSG_RUNNABLE = new Runnable() {
         @Override
         public void run() {
-            if (null != client) {
-                if (client.isOpen()) {
-                    client.send("我是空消息");
-                    Logger.w("MyWebSocketClient ->发送1条消息给后台");
+            WebSocketSession current = connections.get();
+            if (null != current) {
+                if (current.isOpen()) {
+                    scheduler.submitMessage(TrafficClass.BULK, ByteBuffer.wrap("我是空消息".getBytes(Charset.forName("UTF-8"))),
+                            false, null);
+                    log.w("发送1条消息给后台");
                 }
             }
-            mHandler.postDelayed(this, MSG_TIME);
+            msgFuture = schedule(this, MSG_TIME);
         }
     };
 
     private Runnable heartBeatRunnable = new Runnable() {
         @Override
         public void run() {
-            Logger.w("MyWebSocketClient ->心跳包检测websocket连接状态: ");
-            if (client != null) {
-                if (client.isClosed()) {
-                    reconnectWs();  // 重连
+            log.d("心跳包检测websocket连接状态");
+            WebSocketSession current = connections.get();
+            if (current != null) {
+                if (current.isClosed()) {
+                    reconnectWs(reconnectClosed);  // 重连
+                } else if (current.isOpen() && pingMonitor.shouldPing() && keepAlive.onTimer()) {
+                    // 发送协议层ping，超时未收到pong判定为半开连接
+                    // 先记下再交给发送线程：ping 在 OutboundScheduler 的线程上写出，pong 可能在这之后马上到达
+                    pingMonitor.onPingSent(System.nanoTime());
+                    try {
+                        // 控制帧优先，可以插在正在发送的大消息的分片之间
+                        scheduler.submitControl(new PingFrame());
+                        pongTimeoutFuture = schedule(pongTimeoutRunnable, PONG_TIMEOUT);
+                    } catch (RuntimeException e) {
+                        pingMonitor.reset();// 没有发出去，不等 pong
+                        log.w("发送ping失败", e);
+                    }
                 }
             } else {
-                //如果client已为空，重新初始化连接
+                //如果还没有连接，重新初始化连接
                 initSocketClient();
             }
-            //每隔一定的时间，对长连接进行一次心跳检测
-            mHandler.postDelayed(this, HEART_BEAT_RATE);
+            //每隔一定的时间，对长连接进行一次心跳检测，间隔随连接空闲情况调整
+            heartBeatFuture = schedule(this, keepAlive.nextDelay());
+        }
+    };
+
+    /**
+     * pong 超时检查
+     */
+    private Runnable pongTimeoutRunnable = new Runnable() {
+        @Override
+        public void run() {
+            if (!pingMonitor.checkAlive(System.nanoTime())) {
+                log.e("{}ms内未收到pong，连接已失效", PONG_TIMEOUT);
+                keepAlive.onHeartbeatFailed();
+                log.w("心跳间隔调整为: {}ms", keepAlive.getInterval());
+                onConnectionDead();
+            }
         }
     };
 
+    /**
+     * 连接已死：先安排重连，再强制关闭底层连接（半开连接走正常关闭握手会一直等待）
+     */
+    private void onConnectionDead() {
+        WebSocketSession current = connections.get();
+        if (current == null) {
+            return;
+        }
+        failover(current, reconnectPongTimeout);
+        current.closeConnection(CloseFrame.ABNORMAL_CLOSE, "pong timeout");
+    }
+
+    //    -------------------------------------指标------------------------------------------------
+    private static final StripedCounter framesIn = metrics.counter("frames.in");
+    private static final StripedCounter bytesIn = metrics.counter("bytes.in");
+    private static final StripedCounter framesOut = metrics.counter("frames.out");
+    private static final StripedCounter bytesOut = metrics.counter("bytes.out");
+    private static final StripedCounter messagesIn = metrics.counter("messages.in");
+    private static final StripedCounter reconnects = metrics.counter("reconnect.total");
+    private static final StripedCounter reconnectFailover = metrics.counter("reconnect.failover");// 其中直接切换地址的
+    // 重连原因
+    private static final StripedCounter reconnectRemoteClose = metrics.counter("reconnect.remote_close");
+    private static final StripedCounter reconnectError = metrics.counter("reconnect.error");
+    private static final StripedCounter reconnectPongTimeout = metrics.counter("reconnect.pong_timeout");
+    private static final StripedCounter reconnectConnectFailed = metrics.counter("reconnect.connect_failed");
+    private static final StripedCounter reconnectClosed = metrics.counter("reconnect.closed");// 心跳时发现已关闭
+    private static final LatencyHistogram handshakeTime = metrics.histogram("handshake_ns");
+
+    static {
+        metrics.register("ping_rtt_ns", pingMonitor.getRttHistogram());
+        metrics.register("dispatch_to_ui_ns", dispatcher.getLatency());
+        metrics.gauge("send_queue.pending", new MetricsRegistry.Gauge() {
+            @Override
+            public long get() {
+                return appContext == null ? 0 : Stores.outboundQueue.getPendingCount();
+            }
+        });
+        metrics.gauge("send_queue.pending_bytes", new MetricsRegistry.Gauge() {
+            @Override
+            public long get() {
+                return appContext == null ? 0 : Stores.outboundQueue.getPendingBytes();
+            }
+        });
+        metrics.gauge("scheduler.queued", new MetricsRegistry.Gauge() {
+            @Override
+            public long get() {
+                long queued = 0;
+                for (TrafficClass trafficClass : TrafficClass.values()) {
+                    queued += scheduler.getQueuedCount(trafficClass);
+                }
+                return queued;
+            }
+        });
+        metrics.gauge("messages.out", new MetricsRegistry.Gauge() {
+            @Override
+            public long get() {
+                long sent = 0;
+                for (TrafficClass trafficClass : TrafficClass.values()) {
+                    sent += scheduler.getSentCount(trafficClass);
+                }
+                return sent;
+            }
+        });
+        metrics.gauge("dispatch.queue_depth", new MetricsRegistry.Gauge() {
+            @Override
+            public long get() {
+                return dispatchExecutor.getStats().getQueueDepth();
+            }
+        });
+        metrics.gauge("ui.queue_depth", new MetricsRegistry.Gauge() {
+            @Override
+            public long get() {
+                return dispatcher.getPendingCount();
+            }
+        });
+    }
+
+    // 线上收发的帧和字节，所有会话共用
+    private static final ChatDraft.WireListener wireMetrics = new ChatDraft.WireListener() {
+        @Override
+        public void onRead(int bytes, int frames) {
+            bytesIn.add(bytes);
+            framesIn.add(frames);
+        }
+
+        @Override
+        public void onWritten(int bytes) {
+            bytesOut.add(bytes);
+            framesOut.increment();
+        }
+    };
+
+    private static final AtomicBoolean metricsStarted = new AtomicBoolean();
+
+    // ws-io 上定时生成快照，交给监听者
+    private static final Runnable metricsTask = new Runnable() {
+        @Override
+        public void run() {
+            try {
+                MetricsSnapshot snapshot = metrics.publish(System.currentTimeMillis());
+                log.d("{}", snapshot);
+            } finally {
+                schedule(this, METRICS_INTERVAL);
+            }
+        }
+    };
+
+    /**
+     * 收发、重连、握手、心跳往返和消息交给UI的指标，监听者每 METRICS_INTERVAL 在 ws-io 线程上收到一次快照
+     */
+    public static MetricsRegistry getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * 抽样跟踪收到的消息经过各个环节的耗时，抽样间隔可以运行时调整
+     */
+    public static MessageTracer getTracer() {
+        return tracer;
+    }
+
+    public static PingMonitor getPingMonitor() {
+        return pingMonitor;
+    }
+
+    public static KeepAliveScheduler getKeepAliveScheduler() {
+        return keepAlive;
+    }
+
+    /**
+     * 所有连接累计的压缩统计：省下的字节数和压缩、解压耗时
+     */
+    public PerMessageDeflateExtension getCompression() {
+        return compression;
+    }
+
+    public MessageCodec getWireCodec() {
+        WebSocketSession current = connections.get();
+        return current == null ? JsonCodec.getInstance() : current.getWireCodec();
+    }
+
+    /**
+     * 已经被新的连接替换掉的会话，它的生命周期回调不再处理
+     */
+    private boolean isStale(WebSocketSession session) {
+        WebSocketSession current = connections.get();
+        if (current != null && current != session) {
+            return true;
+        }
+        // 已经开始连新的地址，旧连接晚到的回调也不再处理
+        ConnectAttempt attempt = connectAttempt;
+        return attempt != null && attempt.expected == session;
+    }
+
+    // 收到pong
+    @Override
+    public void onPong(WebSocketSession session) {
+        if (isStale(session)) {
+            return;
+        }
+        pingMonitor.onPong(System.nanoTime());
+        long interval = keepAlive.getInterval();
+        keepAlive.onHeartbeatAcked();
+        if (keepAlive.getInterval() != interval) {
+            log.d("心跳间隔{}ms可用，下次尝试{}ms，已省掉{}次心跳", interval, keepAlive.getInterval(),
+                    keepAlive.getSkippedCount());
+        }
+    }
+
+    // 发出的数据也算连接活跃
+    @Override
+    public void onSent(WebSocketSession session) {
+        keepAlive.onActivity();
+    }
+
     /**
      * 初始化websocket连接
      */
@@ -132,98 +807,432 @@ public class MyWebSocketClient extends WebSocketClient {
         getInstance(mContext).toConnect();
     }
 
+    /**
+     * 连接异常断开：这个地址进入冷却，还有不在冷却中的其他地址时立即切过去，不走退避
+     */
+    private void failover(WebSocketSession session, StripedCounter reason) {
+        URI endpoint = session.getURI();
+        if (session.markFailed()) {
+            endpoints.onFailed(endpoint);
+        }
+        reconnectWs(endpoints.hasAvailableAlternative(endpoint), reason);
+    }
+
+    private void reconnectWs(StripedCounter reason) {
+        reconnectWs(false, reason);
+    }
+
     /**
      * 开启重连
+     * onError 和 onClose 可能因为同一次断线先后调用，已经在等待重连时直接忽略，
+     * 按退避策略延时后在 eventLoop 上重连。
+     *
+     * @param immediately 切换到其他地址，不等待也不计入退避次数
+     * @param reason      重连原因的计数，真正安排了重连才加一
      */
-    private void reconnectWs() {
-        Logger.e("MyWebSocketClient ->开启重连");
+    private void reconnectWs(boolean immediately, StripedCounter reason) {
+        if (closedByUser) {
+            return;
+        }
+        long delay;
+        ConnectionState next;
+        synchronized (stateMachine) {
+            ConnectionState state = stateMachine.getState();
+            if (state == ConnectionState.WAITING_RECONNECT || state == ConnectionState.CIRCUIT_OPEN) {
+                return;// 已经安排了重连
+            }
+            if (immediately) {
+                delay = 0;
+                next = ConnectionState.WAITING_RECONNECT;
+            } else {
+                delay = reconnectPolicy.nextDelay();
+                next = reconnectPolicy.isCircuitOpen() ? ConnectionState.CIRCUIT_OPEN
+                        : ConnectionState.WAITING_RECONNECT;
+            }
+            stateMachine.moveTo(next);
+            pendingReconnect = schedule(reconnectTask, delay);
+        }
+        reason.increment();
+        reconnects.increment();
+        if (immediately) {
+            reconnectFailover.increment();
+        }
         removeCallBack();
-        new Thread() {
+        if (immediately) {
+            log.e("切换地址: {}", endpoints.report());
+        } else {
+            log.e("开启重连: {}ms后第{}次重连 {}", delay, reconnectPolicy.getFailures(), next);
+        }
+    }
+
+    private static final Runnable reconnectTask = new Runnable() {
+        @Override
+        public void run() {
+            MyWebSocketClient facade = instance.get();
+            if (facade == null || closedByUser) {
+                return;
+            }
+            facade.openSession();
+        }
+    };
+
+    /**
+     * eventLoop 上调用：按健康度取几个地址错开时间同时握手，第一个连上的在 onOpen 里换上。
+     * 一轮握手在 ws-connect 上等到有地址连上或这一轮全部失败，不占着 eventLoop；
+     * 全部失败时回到 eventLoop 按退避策略重连，连上之后再断开由 onError/onClose 调用 failover
+     */
+    private void openSession() {
+        stateMachine.moveTo(ConnectionState.CONNECTING);
+        connectExecutor.execute(connectStats.wrap(new Runnable() {
             @Override
             public void run() {
+                if (closedByUser) {
+                    return;// 排队期间被 closeConnect 取消了
+                }
+                final EndpointRace<WebSocketSession> race = new EndpointRace<>(connector, endpoints,
+                        KeepAliveScheduler.SYSTEM_CLOCK, RACE_STAGGER_DELAY, RACE_TIMEOUT);
+                connectAttempt = new ConnectAttempt(race, connections.get());
+                WebSocketSession winner = null;
                 try {
-                    Log.e("WebSocketService", "开启重连");
-                    client.reconnectBlocking();
+                    winner = race.run(endpoints.candidates(RACE_MAX_PARALLEL));
                 } catch (InterruptedException e) {
-                    e.printStackTrace();
+                    Thread.currentThread().interrupt();
+                }
+                if (winner == null) {
+                    runOnEventLoop(new Runnable() {
+                        @Override
+                        public void run() {
+                            log.e("{}个地址都没有连上 {}", race.getAttemptCount(), endpoints.report());
+                            reconnectWs(reconnectConnectFailed);
+                        }
+                    });
                 }
             }
-        }.start();
+        }));
     }
 
     private void removeCallBack() {
-        mHandler.removeCallbacks(heartBeatRunnable);
-        mHandler.removeCallbacks(MSG_RUNNABLE);
+        runOnEventLoop(new Runnable() {
+            @Override
+            public void run() {
+                cancelHeart();
+            }
+        });
+    }
+
+    private void cancelHeart() {
+        cancel(heartBeatFuture);
+        cancel(pongTimeoutFuture);
+        cancel(msgFuture);
+        heartBeatFuture = null;
+        pongTimeoutFuture = null;
+        msgFuture = null;
     }
 
 
     // 长链接开启
     @Override
-    public void onOpen(ServerHandshake handshakedata) {
-        Logger.e("MyWebSocketClient ->onOpen: 长链接开启");
+    public void onOpen(WebSocketSession session, ServerHandshake handshakedata) {
+        ConnectAttempt attempt = connectAttempt;
+        if (attempt != null && attempt.race.contains(session)) {
+            // 多个地址同时握手，只换上第一个连上的，替换失败说明同时被 closeConnect 清除了
+            if (!attempt.race.onOpened(session) || !connections.replace(attempt.expected, session)) {
+                closeSession(session);
+                return;
+            }
+            log.d("连上{} {}", session.getURI(), endpoints.report());
+        }
+        if (!connections.isCurrent(session)) {
+            session.close();// 连接过程中被替换或被 closeConnect 清除了
+            return;
+        }
+        handshakeTime.record(session.getConnectElapsed());
+        log.e("onOpen: 长链接开启");
         showOnOpen("onOpen");
+        log.d("消息编码: {}", session.getWireCodec().getProtocol());
+        reconnectPolicy.reset();
+        pingMonitor.reset();
+        keepAlive.onActivity();
+        SocketEventBus.get().post(new SocketOpenEvent(handshakedata.getHttpStatus()));
+        stateMachine.moveTo(ConnectionState.OPEN);
+        // 重连成功后恢复心跳检测
+        openHeart();
+        scheduler.onConnected();
+        // 排在上个连接剩下的消息后面：先请求补齐断线期间错过的消息，
+        // 再补发断线期间的消息和上个连接上未确认的消息，重新订阅频道
+        dispatchExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                Envelope syncRequest = Stores.deltaSync.onConnected();
+                if (syncRequest != null) {
+                    scheduler.submit(TrafficClass.CONTROL, syncRequest);
+                    log.d("从序号{}开始补齐", syncRequest.getSeq());
+                }
+                Stores.outboundQueue.onConnected(SEND_REQUIRE_ACK);
+                channelMux.onConnected();
+            }
+        });
     }
 
-    // 消息通道收到消息
+    // 消息通道收到消息，读线程只入队
+    // 已经被替换掉的连接上收到的消息也是有效数据，照常处理
     @Override
-    public void onMessage(final String message) {
-        Logger.e("MyWebSocketClient ->onMessage: 消息通道收到消息 = " + message);
-        showOnOpen(message);
-        Intent intent = new Intent();
-        intent.setAction("com.xch.servicecallback.content");
-        intent.putExtra("message", message);
-        mContext.sendBroadcast(intent);
+    public void onMessage(final WebSocketSession session, final String message) {
+        keepAlive.onActivity();
+        final MessageTrace trace = tracer.start();
+        dispatchExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                handleText(session, message, trace);
+            }
+        });
+    }
 
-        // 检查锁屏状态，如果锁屏先点亮屏幕
-        checkLockAndShowNotification(message);
+    /**
+     * 分发线程：解码文本消息
+     */
+    private void handleText(WebSocketSession session, String message, MessageTrace trace) {
+        if (trace != null) {
+            trace.stamp(MessageTrace.DEQUEUED);
+        }
+        // 每帧都会走到这里，抽样记录，消息内容截断
+        frameLog.d("onMessage: 消息通道收到消息 = {}（每{}条记一条）", message);
+        Envelope envelope;
+        if (message.length() > 0 && message.charAt(0) == '{') {
+            try {
+                envelope = JsonCodec.getInstance().decode(message);
+            } catch (CodecException e) {
+                log.w("消息格式错误，按文本处理: {}", e.getMessage());
+                envelope = Envelope.chat(0, 0, message);
+            }
+        } else {
+            // 旧服务器直接发的文本
+            envelope = Envelope.chat(0, 0, message);
+        }
+        handleEnvelope(session, envelope, trace);
+    }
 
+    /**
+     * 分发线程：打上解码完成的时间戳，跟踪交给 applyMessages 时认出同一条消息，
+     * 补齐期间缓存下来、之后按批应用的消息不再跟踪
+     */
+    private void handleEnvelope(WebSocketSession session, Envelope envelope, MessageTrace trace) {
+        if (trace == null) {
+            handleEnvelope(session, envelope);
+            return;
+        }
+        trace.stamp(MessageTrace.DECODED);
+        trace.setMessage(envelope.getId(), envelope.getTime());
+        tracedEnvelope = envelope;
+        currentTrace = trace;
+        try {
+            handleEnvelope(session, envelope);
+        } finally {
+            tracedEnvelope = null;
+            currentTrace = null;
+        }
+    }
+
+    /**
+     * 分发线程：收到一条消息，确认、频道消息和带序号的消息分别处理，其余的直接应用
+     */
+    private void handleEnvelope(WebSocketSession session, Envelope envelope) {
+        envelope = session.getAssembler().offer(envelope);
+        if (envelope == null) {
+            return;// 分块消息还没收齐
+        }
+        messagesIn.increment();
+        if (envelope.getType() == Envelope.TYPE_ACK) {
+            Stores.outboundQueue.onAck(envelope.getId(), envelope.getSeq());
+            return;
+        }
+        if (channelMux.onEnvelope(envelope)) {
+            return;// 逻辑频道的消息
+        }
+        if (envelope.getId() != 0 && Stores.outboundQueue.onAck(envelope.getId(), envelope.getSeq())) {
+            return;// 服务器回显的自己发出的消息，当作确认，不再显示一遍
+        }
+        if (!seenIds.add(envelope.getId(), System.currentTimeMillis())) {
+            return;// 重复收到的消息，不再存储、显示和通知
+        }
+        if (Stores.deltaSync.onEnvelope(envelope)) {
+            return;// 带序号的消息：去重、按批应用、前移游标
+        }
+        applyMessages(Collections.singletonList(envelope));
+    }
+
+    /**
+     * 应用一批消息：先存储（分配序号），再交给界面，通知按窗口合并
+     */
+    private void applyMessages(List<Envelope> batch) {
+        if (batch.isEmpty()) {
+            return;
+        }
+        MessageStore store = MessageStore.getInstance(mContext);
+        boolean hasSubscriber = SocketEventBus.hasSubscriber(SocketMessageEvent.class);
+        boolean scheduleNotification = false;
+        for (Envelope envelope : batch) {
+            String content = envelope.getContent();
+            long time = envelope.getTime() != 0 ? envelope.getTime() : System.currentTimeMillis();
+            ChatMessage chatMessage = ChatMessage.received(content, time);
+            if (envelope.getId() != 0) {
+                chatMessage.setId(envelope.getId());// 沿用发送方的id
+            }
+            store.insert(chatMessage);
+            if (envelope == tracedEnvelope) {
+                currentTrace.stamp(MessageTrace.PERSISTED);
+                chatMessage.setTrace(currentTrace);
+            }
+            dispatcher.offer(chatMessage);
+            if (hasSubscriber) {
+                SocketEventBus.get().post(new SocketMessageEvent(content));
+            }
+            scheduleNotification |= notifications.offer(content);
+        }
+        // 窗口内第一条消息到达时定时，到点后把这段时间的消息合并成一条通知
+        if (scheduleNotification) {
+            mainHandler.postDelayed(mainStats.wrap(notificationRunnable, notifications.getWindow()),
+                    notifications.getWindow());
+        }
     }
 
 
     // 通过字节接收消息
     @Override
-    public void onMessage(ByteBuffer bytes) {
-        super.onMessage(bytes);
-        Logger.e("MyWebSocketClient ->onMessage bytes:" + bytes);
+    public void onMessage(final WebSocketSession session, ByteBuffer bytes) {
+        keepAlive.onActivity();
+        if (BinaryCodec.isEnvelope(bytes)) {
+            // bytes 只在这次回调内有效，拷贝后交给分发线程解码
+            final MessageTrace trace = tracer.start();
+            final ByteBuffer copy = ByteBuffer.allocate(bytes.remaining());
+            copy.put(bytes.duplicate());
+            copy.flip();
+            dispatchExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    handleBinary(session, copy, trace);
+                }
+            });
+            return;
+        }
+        if (log.isDebug()) {
+            frameLog.d("onMessage bytes: {}（每{}条记一条）", bytes.remaining());
+        }
+        binaryChannel.dispatch(bytes);
+        if (SocketEventBus.hasSubscriber(SocketBinaryEvent.class)) {
+            // 事件可能被切到其他线程处理，而 bytes 只在这次回调内有效，只有这里拷贝
+            ByteBuffer copy = ByteBuffer.allocate(bytes.remaining());
+            copy.put(bytes.duplicate());
+            copy.flip();
+            SocketEventBus.get().post(new SocketBinaryEvent(copy));
+        }
+    }
+
+    /**
+     * 分发线程：解码二进制消息，不是消息格式的按二进制数据处理
+     */
+    private void handleBinary(WebSocketSession session, ByteBuffer bytes, MessageTrace trace) {
+        if (trace != null) {
+            trace.stamp(MessageTrace.DEQUEUED);
+        }
+        if (log.isDebug()) {
+            frameLog.d("onMessage bytes: {}（每{}条记一条）", bytes.remaining());
+        }
+        try {
+            handleEnvelope(session, BinaryCodec.getInstance().decode(bytes.duplicate()), trace);
+        } catch (CodecException e) {
+            log.w("消息格式错误，按二进制数据处理: {}", e.getMessage());
+            binaryChannel.dispatch(bytes);
+            if (SocketEventBus.hasSubscriber(SocketBinaryEvent.class)) {
+                SocketEventBus.get().post(new SocketBinaryEvent(bytes));
+            }
+        }
     }
 
     // 长链接关闭
     @Override
-    public void onClose(int code, String reason, boolean remote) {
-        Logger.e("MyWebSocketClient ->onClose: 长链接关闭");
-        showClose(code, reason);
-        if (remote) {
-            reconnectWs();
+    public void onClose(WebSocketSession session, int code, String reason, boolean remote) {
+        if (isLosingAttempt(session)) {
+            return;
+        }
+        if (isStale(session)) {
+            log.d("忽略已替换的连接的关闭: {}", code);
+            return;
+        }
+        log.e("onClose: 长链接关闭");
+        scheduler.onDisconnected();
+        // 排在这个连接上已收到的消息后面
+        dispatchExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                Stores.deltaSync.onDisconnected();
+                channelMux.onDisconnected();
+                if (!log.isDebug()) {
+                    return;
+                }
+                log.d(scheduler.report());
+                log.d(Stores.outboundQueue.report());
+                log.d(seenIds.report());
+                log.d(notifications.report());
+                log.d(tracer.report());
+                for (StageStats stats : getStageStats()) {
+                    log.d(stats.report());
+                }
+            }
+        });
+        showClose(session, code, reason);
+        SocketEventBus.get().post(new SocketCloseEvent(code, reason, remote));
+        if (remote || stateMachine.getState() == ConnectionState.CONNECTING) {
+            // 空闲超过已确认的心跳间隔后被断开，说明正在探测的间隔太长
+            if (remote && keepAlive.isProbing() && keepAlive.getIdleTime() > keepAlive.getStableInterval()) {
+                keepAlive.onHeartbeatFailed();
+            }
+            failover(session, remote ? reconnectRemoteClose : reconnectConnectFailed);
+        } else {
+            stateMachine.moveTo(ConnectionState.OPEN, ConnectionState.CLOSED);
         }
     }
 
     // 链接发生错误
     @Override
-    public void onError(Exception ex) {
-        if (ex != null) {
-            Logger.e("MyWebSocketClient ->onError: 链接发生错误" + ex.toString());
+    public void onError(WebSocketSession session, Exception ex) {
+        if (isLosingAttempt(session)) {
+            log.d("{}连接失败: {}", session.getURI(), ex);
+            return;
+        }
+        if (ex != null && !isStale(session)) {
+            log.e("onError: 链接发生错误", ex);
             showError(ex);
-            reconnectWs();
+            SocketEventBus.get().post(new SocketErrorEvent(ex));
+            failover(session, reconnectError);
         }
     }
 
+    /**
+     * 同时握手的一轮里没有胜出的会话：失败记到地址的健康度上，不触发重连
+     */
+    private boolean isLosingAttempt(WebSocketSession session) {
+        ConnectAttempt attempt = connectAttempt;
+        return attempt != null && attempt.race.onFailed(session);
+    }
+
     /********************打印连接后日志************************/
     private void showOnOpen(String message) {
         if (message != null) {
-            Logger.d("获取到服务器信息【" + message + "】");
+            log.d("获取到服务器信息【{}】", message);
         }
     }
 
-    private void showClose(int code, String reason) {
+    private void showClose(WebSocketSession session, int code, String reason) {
         if (code != 0 && reason != null) {
-            Logger.d("onClose 断开服务器连接【" + getURI() + "，状态码： " + code + "，断开原因：" + reason + "】");
+            log.d("onClose 断开服务器连接【{}，状态码： {}，断开原因：{}】", session.getURI(), code, reason);
         }
     }
 
 
     private void showError(Exception exception) {
         if (exception != null) {
-            Logger.d("onError 连接发生了异常【异常原因：" + exception + "】");
+            log.d("onError 连接发生了异常【异常原因：{}】", exception);
         }
     }
 
@@ -261,15 +1270,21 @@ public class MyWebSocketClient extends WebSocketClient {
      * 断开连接
      */
     public void closeConnect() {
+        closedByUser = true;
+        synchronized (stateMachine) {
+            cancel(pendingReconnect);
+            pendingReconnect = null;
+        }
+        removeCallBack();
+        stateMachine.moveTo(ConnectionState.CLOSED);
         try {
-            if (null != client) {
-                client.close();
-            }
+            // 只关闭底层连接，门面保留，之后还可以 toConnect
+            connections.clear();
         } catch (Exception e) {
             e.printStackTrace();
-        } finally {
-            client = null;
         }
+        // 释放池里空闲的 zlib 本地内存，正在关闭的连接稍后还回来的最多保留 MAX_POOLED 个
+        compression.releasePooled();
     }
 
     /**
@@ -280,31 +1295,44 @@ public class MyWebSocketClient extends WebSocketClient {
      *
      */
     public void toConnect() {
-        Logger.d("MyWebSocketClient ->toConnect");
-        new Thread() {
+        log.d("toConnect");
+        closedByUser = false;
+        if (metricsStarted.compareAndSet(false, true)) {
+            schedule(metricsTask, METRICS_INTERVAL);
+        }
+        runOnEventLoop(new Runnable() {
             @Override
             public void run() {
-                try {
-                    // connectBlocking多出一个等待操作，会先连接再发送，否则未连接发送会报错
-                    client.connectBlocking();
-                } catch (InterruptedException e) {
-                    e.printStackTrace();
+                if (!stateMachine.moveTo(ConnectionState.CLOSED, ConnectionState.CONNECTING)) {
+                    return;// 已经在连接或已连接
                 }
+                // WebSocketClient objects are not reuseable，每次连接都用新的对象
+                openSession();
             }
-        }.start();
+        });
     }
 
 
     //    -----------------------------------消息通知--------------------------------------------------------
+    private final Runnable notificationRunnable = new Runnable() {
+        @Override
+        public void run() {
+            NotificationAggregator.Summary summary = notifications.drain();
+            if (summary != null) {
+                checkLockAndShowNotification(summary);
+            }
+        }
+    };
+
     /**
-     * 检查锁屏状态，如果锁屏先点亮屏幕
+     * 检查锁屏状态，如果锁屏先点亮屏幕（限流，间隔内只更新通知）
      *
-     * @param content
+     * @param summary
      */
-    private void checkLockAndShowNotification(String content) {
+    private void checkLockAndShowNotification(NotificationAggregator.Summary summary) {
         // 管理锁屏的一个服务
         KeyguardManager km = (KeyguardManager) mContext.getSystemService(Context.KEYGUARD_SERVICE);
-        if (km.inKeyguardRestrictedInputMode()) {//锁屏
+        if (summary.isWakeUp() && km.inKeyguardRestrictedInputMode()) {//锁屏
             //获取电源管理器对象
             PowerManager pm = (PowerManager) mContext.getSystemService(Context.POWER_SERVICE);
             if (!pm.isScreenOn()) {
@@ -313,37 +1341,52 @@ public class MyWebSocketClient extends WebSocketClient {
                 wl.acquire();  //点亮屏幕
                 wl.release();  //任务结束后释放
             }
-            sendNotification(content);
-        } else {
-            sendNotification(content);
         }
+        sendNotification(summary);
     }
 
     /**
-     * 发送通知
+     * 发送通知，多条消息显示成收件箱样式
      *
-     * @param content
+     * @param summary
      */
-    private void sendNotification(String content) {
+    private void sendNotification(NotificationAggregator.Summary summary) {
         Intent intent = new Intent();
         intent.setClass(mContext, MainActivity.class);
         PendingIntent pendingIntent = PendingIntent.getActivity(mContext, 0, intent, PendingIntent.FLAG_UPDATE_CURRENT);
         NotificationManager notifyManager = (NotificationManager) mContext.getSystemService(Context.NOTIFICATION_SERVICE);
-        Notification notification = new NotificationCompat.Builder(mContext)
+        List<String> lines = summary.getLines();
+        int count = summary.getCount();
+        NotificationCompat.Builder builder = new NotificationCompat.Builder(mContext)
                 .setAutoCancel(true)
                 // 设置该通知优先级
                 .setPriority(Notification.PRIORITY_MAX)
                 .setSmallIcon(R.drawable.icon)
                 .setContentTitle("服务器")
-                .setContentText(content)
+                .setContentText(count == 1 ? lines.get(0) : "收到" + count + "条新消息")
+                .setNumber(count)
                 .setVisibility(VISIBILITY_PUBLIC)
                 .setWhen(System.currentTimeMillis())
-                // 向通知添加声音、闪灯和振动效果
-                .setDefaults(Notification.DEFAULT_VIBRATE | Notification.DEFAULT_ALL | Notification.DEFAULT_SOUND)
-                .setContentIntent(pendingIntent)
-                .build();
-        notifyManager.notify(1, notification);//id要保证唯一
+                .setContentIntent(pendingIntent);
+        if (count > 1) {
+            NotificationCompat.InboxStyle style = new NotificationCompat.InboxStyle()
+                    .setBigContentTitle("收到" + count + "条新消息");
+            for (String line : lines) {
+                style.addLine(line);
+            }
+            if (count > lines.size()) {
+                style.setSummaryText("还有" + (count - lines.size()) + "条");
+            }
+            builder.setStyle(style);
+        }
+        if (summary.isWakeUp()) {
+            // 向通知添加声音、闪灯和振动效果
+            builder.setDefaults(Notification.DEFAULT_ALL);
+        } else {
+            // 限流期间静默更新
+            builder.setOnlyAlertOnce(true);
+        }
+        notifyManager.notify(NOTIFY_ID, builder.build());//id要保证唯一
     }
 
 }
-
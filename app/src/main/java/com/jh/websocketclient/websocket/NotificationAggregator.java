@@ -0,0 +1,198 @@
+package com.jh.websocketclient.websocket;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+
+/**
+ * 消息通知合并和限流
+ * <p>
+ * 1. 界面在前台时不发通知，消息直接显示在列表里；
+ * 2. 一个窗口内收到的消息合并成一条收件箱样式的汇总通知，窗口内第一条消息到达时由调用方定时，
+ * 到点后 drain() 取出汇总；
+ * 3. 点亮屏幕和声音振动按最小间隔限流，间隔内的汇总通知只静默更新。
+ * <p>
+ * 只做计数和决策，不依赖 Android，时间由 Clock 提供。
+ */
+public class NotificationAggregator {
+
+    /**
+     * 一个窗口的汇总
+     */
+    public static class Summary {
+        private final int count;
+        private final List<String> lines;
+        private final boolean wakeUp;
+
+        Summary(int count, List<String> lines, boolean wakeUp) {
+            this.count = count;
+            this.lines = lines;
+            this.wakeUp = wakeUp;
+        }
+
+        /**
+         * 窗口内的消息总数
+         */
+        public int getCount() {
+            return count;
+        }
+
+        /**
+         * 最近的几条消息内容，从旧到新
+         */
+        public List<String> getLines() {
+            return lines;
+        }
+
+        /**
+         * 是否点亮屏幕、响铃振动；false 时只静默更新通知
+         */
+        public boolean isWakeUp() {
+            return wakeUp;
+        }
+    }
+
+    private final KeepAliveScheduler.Clock clock;
+    private final long window;
+    private final long wakeUpInterval;
+    private final int maxLines;
+
+    private final LinkedList<String> lines = new LinkedList<>();
+    private int pendingCount;
+    private boolean foreground;
+    private long lastWakeUp;
+    private boolean wokenUp;
+
+    private long messageCount;
+    private long postedCount;
+    private long coalescedCount;
+    private long foregroundSuppressedCount;
+    private long wakeUpCount;
+    private long wakeUpThrottledCount;
+
+    /**
+     * @param window         合并窗口(ms)
+     * @param wakeUpInterval 两次点亮屏幕、响铃振动之间的最小间隔(ms)
+     * @param maxLines       汇总通知最多显示的消息条数
+     */
+    public NotificationAggregator(KeepAliveScheduler.Clock clock, long window, long wakeUpInterval, int maxLines) {
+        if (window < 0 || wakeUpInterval < 0 || maxLines <= 0) {
+            throw new IllegalArgumentException("invalid notification window");
+        }
+        this.clock = clock;
+        this.window = window;
+        this.wakeUpInterval = wakeUpInterval;
+        this.maxLines = maxLines;
+    }
+
+    /**
+     * 收到一条需要通知的消息
+     *
+     * @return true: 这是窗口内第一条消息，调用方应在 getWindow() 后调用 drain()
+     */
+    public synchronized boolean offer(String content) {
+        messageCount++;
+        if (foreground) {
+            foregroundSuppressedCount++;
+            return false;
+        }
+        lines.addLast(content != null ? content : "");
+        if (lines.size() > maxLines) {
+            lines.removeFirst();
+        }
+        pendingCount++;
+        if (pendingCount > 1) {
+            coalescedCount++;
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * 窗口到点，取出汇总
+     *
+     * @return null: 窗口内没有需要通知的消息（例如期间界面回到了前台）
+     */
+    public synchronized Summary drain() {
+        if (pendingCount == 0) {
+            return null;
+        }
+        long now = clock.now();
+        boolean wakeUp = !wokenUp || now - lastWakeUp >= wakeUpInterval;
+        if (wakeUp) {
+            wokenUp = true;
+            lastWakeUp = now;
+            wakeUpCount++;
+        } else {
+            wakeUpThrottledCount++;
+        }
+        Summary summary = new Summary(pendingCount, new ArrayList<>(lines), wakeUp);
+        lines.clear();
+        pendingCount = 0;
+        postedCount++;
+        return summary;
+    }
+
+    /**
+     * 界面进入/离开前台，进入前台时丢弃还没发出的汇总
+     */
+    public synchronized void setForeground(boolean foreground) {
+        this.foreground = foreground;
+        if (foreground) {
+            foregroundSuppressedCount += pendingCount;
+            coalescedCount -= Math.max(0, pendingCount - 1);
+            lines.clear();
+            pendingCount = 0;
+        }
+    }
+
+    public synchronized boolean isForeground() {
+        return foreground;
+    }
+
+    public long getWindow() {
+        return window;
+    }
+
+    public synchronized long getMessageCount() {
+        return messageCount;
+    }
+
+    /**
+     * 实际发出的通知数
+     */
+    public synchronized long getPostedCount() {
+        return postedCount;
+    }
+
+    /**
+     * 合并进同一条汇总而省掉的通知数
+     */
+    public synchronized long getCoalescedCount() {
+        return coalescedCount;
+    }
+
+    /**
+     * 界面在前台而没有发的通知数
+     */
+    public synchronized long getForegroundSuppressedCount() {
+        return foregroundSuppressedCount;
+    }
+
+    public synchronized long getWakeUpCount() {
+        return wakeUpCount;
+    }
+
+    /**
+     * 因为限流只静默更新、没有点亮屏幕和振动的通知数
+     */
+    public synchronized long getWakeUpThrottledCount() {
+        return wakeUpThrottledCount;
+    }
+
+    public synchronized String report() {
+        return "notification: messages=" + messageCount + " posted=" + postedCount
+                + " coalesced=" + coalescedCount + " foreground=" + foregroundSuppressedCount
+                + " wakeUps=" + wakeUpCount + " throttled=" + wakeUpThrottledCount;
+    }
+}
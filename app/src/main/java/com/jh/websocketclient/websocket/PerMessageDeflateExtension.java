@@ -0,0 +1,520 @@
+package com.jh.websocketclient.websocket;
+
+import org.java_websocket.enums.Opcode;
+import org.java_websocket.exceptions.InvalidDataException;
+import org.java_websocket.exceptions.InvalidFrameException;
+import org.java_websocket.exceptions.LimitExceededException;
+import org.java_websocket.extensions.CompressionExtension;
+import org.java_websocket.extensions.IExtension;
+import org.java_websocket.framing.CloseFrame;
+import org.java_websocket.framing.DataFrame;
+import org.java_websocket.framing.Framedata;
+import org.java_websocket.framing.FramedataImpl1;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * permessage-deflate 压缩扩展（RFC 7692）
+ * <p>
+ * 1. 握手时请求 permessage-deflate，对方同意后双向压缩。保留上下文（context takeover）时，
+ * 后面的消息可以引用前面消息里的内容，聊天JSON里重复的字段名几乎不占流量；
+ * 2. 小于 threshold 的消息不压缩（RSV1 不置位），压缩后没有变小的消息也按原文发送；
+ * 3. 每个连接一对 Deflater/Inflater，连接断开时 reset 后还回池里，下一个连接直接复用，不重复分配 zlib 的本地内存；
+ * 4. 统计压缩前后的字节数和压缩、解压耗时。
+ * <p>
+ * Java-WebSocket 为每个连接调用 copyInstance 复制一份扩展，副本之间共享配置、统计和 Deflater/Inflater 池。
+ * <p>
+ * Java 的 Deflater 不能指定窗口大小，所以不请求 client_max_window_bits；
+ * 对方的窗口小于15位不影响解压。
+ * Java-WebSocket 1.4.0 编码帧时不写 RSV 位，需要和 ChatDraft 一起使用。
+ * <p>
+ * 保留上下文时帧的压缩顺序必须和写出顺序一致，多个线程发送时由调用者保证串行。
+ */
+public class PerMessageDeflateExtension extends CompressionExtension {
+
+    public static final String EXTENSION_NAME = "permessage-deflate";
+    private static final String SERVER_NO_CONTEXT_TAKEOVER = "server_no_context_takeover";
+    private static final String CLIENT_NO_CONTEXT_TAKEOVER = "client_no_context_takeover";
+    private static final String SERVER_MAX_WINDOW_BITS = "server_max_window_bits";
+    private static final String CLIENT_MAX_WINDOW_BITS = "client_max_window_bits";
+
+    // 每条压缩消息末尾的空 stored 块，发送时去掉，接收时补上
+    private static final byte[] TAIL = {0, 0, (byte) 0xff, (byte) 0xff};
+
+    private static final int MAX_POOLED = 4;// 池里最多保留的空闲 Deflater/Inflater
+
+    private final Shared shared;
+    private final int threshold;
+    private final boolean contextTakeover;
+    private final int maxMessageSize;
+
+    // 协商结果
+    private boolean resetDeflaterPerMessage;
+    private boolean resetInflaterPerMessage;
+    private boolean peerRequestedNoContextTakeover;// 只在服务端使用
+
+    private Deflater deflater;
+    private Inflater inflater;
+    private byte[] scratch = new byte[4096];
+    private boolean inflatingMessage;// 当前收到的分片消息是否是压缩的
+    private int inflatedSize;
+
+    /**
+     * 同一个扩展的所有副本共享
+     */
+    private static class Shared {
+        final int threshold;
+        final boolean contextTakeover;
+        final int maxMessageSize;
+
+        final ArrayDeque<Deflater> deflaterPool = new ArrayDeque<>();
+        final ArrayDeque<Inflater> inflaterPool = new ArrayDeque<>();
+
+        final AtomicLong rawBytesOut = new AtomicLong();
+        final AtomicLong wireBytesOut = new AtomicLong();
+        final AtomicLong rawBytesIn = new AtomicLong();
+        final AtomicLong wireBytesIn = new AtomicLong();
+        final AtomicLong deflateNanos = new AtomicLong();
+        final AtomicLong inflateNanos = new AtomicLong();
+        final AtomicLong compressedCount = new AtomicLong();
+        final AtomicLong skippedCount = new AtomicLong();
+
+        Shared(int threshold, boolean contextTakeover, int maxMessageSize) {
+            this.threshold = threshold;
+            this.contextTakeover = contextTakeover;
+            this.maxMessageSize = maxMessageSize;
+        }
+
+        synchronized Deflater obtainDeflater() {
+            Deflater deflater = deflaterPool.pollFirst();
+            return deflater != null ? deflater : new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        }
+
+        synchronized Inflater obtainInflater() {
+            Inflater inflater = inflaterPool.pollFirst();
+            return inflater != null ? inflater : new Inflater(true);
+        }
+
+        synchronized void recycle(Deflater deflater) {
+            deflater.reset();
+            if (deflaterPool.size() < MAX_POOLED) {
+                deflaterPool.addLast(deflater);
+            } else {
+                deflater.end();
+            }
+        }
+
+        synchronized void recycle(Inflater inflater) {
+            inflater.reset();
+            if (inflaterPool.size() < MAX_POOLED) {
+                inflaterPool.addLast(inflater);
+            } else {
+                inflater.end();
+            }
+        }
+
+        synchronized void endPooled() {
+            Deflater deflater;
+            while ((deflater = deflaterPool.pollFirst()) != null) {
+                deflater.end();
+            }
+            Inflater inflater;
+            while ((inflater = inflaterPool.pollFirst()) != null) {
+                inflater.end();
+            }
+        }
+    }
+
+    /**
+     * @param threshold       小于这个字节数的消息不压缩
+     * @param contextTakeover 是否在消息之间保留压缩上下文，需要 Deflater 支持 SYNC_FLUSH（Android API 19+）
+     * @param maxMessageSize  解压后单条消息的最大字节数，超过后断开连接
+     */
+    public PerMessageDeflateExtension(int threshold, boolean contextTakeover, int maxMessageSize) {
+        this(new Shared(threshold, contextTakeover, maxMessageSize));
+    }
+
+    private PerMessageDeflateExtension(Shared shared) {
+        this.shared = shared;
+        this.threshold = shared.threshold;
+        this.contextTakeover = shared.contextTakeover;
+        this.maxMessageSize = shared.maxMessageSize;
+        this.resetDeflaterPerMessage = !contextTakeover;
+    }
+
+    // -------------------------------------------协商-------------------------------------------
+
+    @Override
+    public String getProvidedExtensionAsClient() {
+        // 不保留上下文时告诉服务端，服务端的解压可以不保存窗口
+        return contextTakeover ? EXTENSION_NAME : EXTENSION_NAME + "; " + CLIENT_NO_CONTEXT_TAKEOVER;
+    }
+
+    @Override
+    public synchronized boolean acceptProvidedExtensionAsClient(String inputExtensionHeader) {
+        String[] params = findOffer(inputExtensionHeader);
+        if (params == null) {
+            return false;
+        }
+        boolean serverNoContextTakeover = false;
+        boolean clientNoContextTakeover = false;
+        for (int i = 1; i < params.length; i++) {
+            String name = paramName(params[i]);
+            if (SERVER_NO_CONTEXT_TAKEOVER.equals(name)) {
+                serverNoContextTakeover = true;
+            } else if (CLIENT_NO_CONTEXT_TAKEOVER.equals(name)) {
+                clientNoContextTakeover = true;
+            } else if (SERVER_MAX_WINDOW_BITS.equals(name)) {
+                // 15位窗口的 Inflater 可以解压任何更小窗口的数据
+            } else if (CLIENT_MAX_WINDOW_BITS.equals(name)) {
+                if (!"15".equals(paramValue(params[i]))) {
+                    return false;// 没有请求过，而且 Deflater 做不到更小的窗口
+                }
+            } else {
+                return false;
+            }
+        }
+        resetInflaterPerMessage = serverNoContextTakeover;
+        resetDeflaterPerMessage = clientNoContextTakeover || !contextTakeover;
+        return true;
+    }
+
+    @Override
+    public synchronized boolean acceptProvidedExtensionAsServer(String inputExtensionHeader) {
+        String[] params = findOffer(inputExtensionHeader);
+        if (params == null) {
+            return false;
+        }
+        boolean serverNoContextTakeover = false;
+        boolean clientNoContextTakeover = false;
+        for (int i = 1; i < params.length; i++) {
+            String name = paramName(params[i]);
+            if (SERVER_NO_CONTEXT_TAKEOVER.equals(name)) {
+                serverNoContextTakeover = true;
+            } else if (CLIENT_NO_CONTEXT_TAKEOVER.equals(name)) {
+                clientNoContextTakeover = true;
+            } else if (SERVER_MAX_WINDOW_BITS.equals(name)) {
+                if (!"15".equals(paramValue(params[i]))) {
+                    return false;
+                }
+            } else if (!CLIENT_MAX_WINDOW_BITS.equals(name)) {
+                return false;
+            }
+        }
+        peerRequestedNoContextTakeover = serverNoContextTakeover;
+        resetDeflaterPerMessage = serverNoContextTakeover || !contextTakeover;
+        resetInflaterPerMessage = clientNoContextTakeover;
+        return true;
+    }
+
+    @Override
+    public synchronized String getProvidedExtensionAsServer() {
+        StringBuilder builder = new StringBuilder(EXTENSION_NAME);
+        if (peerRequestedNoContextTakeover || !contextTakeover) {
+            builder.append("; ").append(SERVER_NO_CONTEXT_TAKEOVER);
+        }
+        if (resetInflaterPerMessage) {
+            builder.append("; ").append(CLIENT_NO_CONTEXT_TAKEOVER);
+        }
+        return builder.toString();
+    }
+
+    /**
+     * @return 对方同意的 permessage-deflate 参数（第0个是扩展名），没有时返回null
+     */
+    private static String[] findOffer(String header) {
+        if (header == null) {
+            return null;
+        }
+        for (String extension : header.split(",")) {
+            String[] params = extension.split(";");
+            if (EXTENSION_NAME.equals(params[0].trim())) {
+                return params;
+            }
+        }
+        return null;
+    }
+
+    private static String paramName(String param) {
+        int index = param.indexOf('=');
+        return (index < 0 ? param : param.substring(0, index)).trim();
+    }
+
+    private static String paramValue(String param) {
+        int index = param.indexOf('=');
+        return index < 0 ? null : param.substring(index + 1).trim().replace("\"", "");
+    }
+
+    // -------------------------------------------编解码-------------------------------------------
+
+    @Override
+    public void isFrameValid(Framedata inputFrame) throws InvalidDataException {
+        super.isFrameValid(inputFrame);
+        // RSV1 只能出现在消息的第一帧
+        if (inputFrame.getOpcode() == Opcode.CONTINUOUS && inputFrame.isRSV1()) {
+            throw new InvalidFrameException("RSV1 set on continuation frame");
+        }
+    }
+
+    @Override
+    public synchronized void encodeFrame(Framedata frame) {
+        // 只压缩完整的单帧文本/二进制消息，控制帧和分片发送的消息原样发送
+        if (!(frame instanceof DataFrame) || frame.getOpcode() == Opcode.CONTINUOUS || !frame.isFin()) {
+            return;
+        }
+        ByteBuffer payload = frame.getPayloadData();
+        int rawSize = payload.remaining();
+        shared.rawBytesOut.addAndGet(rawSize);
+        if (rawSize < threshold) {
+            shared.skippedCount.incrementAndGet();
+            shared.wireBytesOut.addAndGet(rawSize);
+            return;
+        }
+        long start = System.nanoTime();
+        int length = deflate(payload);
+        shared.deflateNanos.addAndGet(System.nanoTime() - start);
+        if (length >= rawSize) {
+            // 压缩没有收益，发原文；对方没见过这段数据，压缩上下文也要丢掉
+            deflater.reset();
+            shared.skippedCount.incrementAndGet();
+            shared.wireBytesOut.addAndGet(rawSize);
+            return;
+        }
+        ByteBuffer compressed = ByteBuffer.allocate(length);
+        compressed.put(scratch, 0, length);
+        compressed.flip();
+        FramedataImpl1 impl = (FramedataImpl1) frame;
+        impl.setPayload(compressed);
+        impl.setRSV1(true);
+        shared.compressedCount.incrementAndGet();
+        shared.wireBytesOut.addAndGet(length);
+    }
+
+    /**
+     * 压缩到 scratch，返回去掉末尾 00 00 ff ff 之后的长度
+     */
+    private int deflate(ByteBuffer payload) {
+        if (deflater == null) {
+            deflater = shared.obtainDeflater();
+        }
+        byte[] input;
+        int offset;
+        int length = payload.remaining();
+        if (payload.hasArray()) {
+            input = payload.array();
+            offset = payload.arrayOffset() + payload.position();
+        } else {
+            input = new byte[length];
+            payload.duplicate().get(input);
+            offset = 0;
+        }
+        deflater.setInput(input, offset, length);
+        int total = 0;
+        if (resetDeflaterPerMessage) {
+            deflater.finish();
+            while (!deflater.finished()) {
+                total += deflater.deflate(ensureScratch(total), total, scratch.length - total);
+            }
+            deflater.reset();
+            return total;// BFINAL 块结尾，没有 00 00 ff ff，接收方补上的尾巴会被忽略
+        }
+        do {
+            // 输出写满时还有剩余，扩大缓冲区继续
+            total += syncFlush(ensureScratch(total), total, scratch.length - total);
+        } while (total == scratch.length);
+        // SYNC_FLUSH 的输出总是以空 stored 块 00 00 ff ff 结尾
+        return total - TAIL.length;
+    }
+
+    /**
+     * 只在保留上下文时调用，Android API 19 起支持
+     */
+    private int syncFlush(byte[] output, int offset, int length) {
+        return deflater.deflate(output, offset, length, Deflater.SYNC_FLUSH);
+    }
+
+    @Override
+    public synchronized void decodeFrame(Framedata inputFrame) throws InvalidDataException {
+        if (!(inputFrame instanceof DataFrame)) {
+            return;
+        }
+        if (inputFrame.getOpcode() != Opcode.CONTINUOUS) {
+            inflatingMessage = inputFrame.isRSV1();
+            inflatedSize = 0;
+        }
+        ByteBuffer payload = inputFrame.getPayloadData();
+        int wireSize = payload.remaining();
+        shared.wireBytesIn.addAndGet(wireSize);
+        if (!inflatingMessage) {
+            shared.rawBytesIn.addAndGet(wireSize);
+            return;
+        }
+        long start = System.nanoTime();
+        if (inflater == null) {
+            inflater = shared.obtainInflater();
+        }
+        byte[] input = new byte[wireSize];
+        payload.duplicate().get(input);
+        int length;
+        try {
+            length = inflate(input, 0);
+            if (inputFrame.isFin()) {
+                length = inflate(TAIL, length);
+                inflatingMessage = false;
+                if (resetInflaterPerMessage || inflater.finished()) {
+                    inflater.reset();
+                }
+            }
+        } catch (DataFormatException e) {
+            throw new InvalidDataException(CloseFrame.PROTOCOL_ERROR, e);
+        } finally {
+            shared.inflateNanos.addAndGet(System.nanoTime() - start);
+        }
+        shared.rawBytesIn.addAndGet(length);
+        ByteBuffer inflated = ByteBuffer.allocate(length);
+        inflated.put(scratch, 0, length);
+        inflated.flip();
+        FramedataImpl1 impl = (FramedataImpl1) inputFrame;
+        impl.setPayload(inflated);
+        impl.setRSV1(false);
+    }
+
+    /**
+     * 解压到 scratch 的 offset 之后，返回 scratch 中的总长度
+     */
+    private int inflate(byte[] input, int offset) throws DataFormatException, LimitExceededException {
+        if (inflater.finished()) {
+            return offset;// 对方用 BFINAL 结束了这条消息，后面的尾巴不用再解
+        }
+        inflater.setInput(input);
+        int total = offset;
+        while (true) {
+            int n = inflater.inflate(ensureScratch(total), total, scratch.length - total);
+            total += n;
+            inflatedSize += n;
+            if (inflatedSize > maxMessageSize) {
+                throw new LimitExceededException("inflated message too big", maxMessageSize);
+            }
+            if (n == 0 && (inflater.needsInput() || inflater.finished())) {
+                return total;
+            }
+            if (n == 0 && inflater.needsDictionary()) {
+                throw new DataFormatException("preset dictionary not supported");
+            }
+        }
+    }
+
+    private byte[] ensureScratch(int used) {
+        if (used == scratch.length) {
+            byte[] bigger = new byte[scratch.length * 2];
+            System.arraycopy(scratch, 0, bigger, 0, used);
+            scratch = bigger;
+        }
+        return scratch;
+    }
+
+    /**
+     * 连接断开后调用，压缩上下文和协商结果都作废，Deflater/Inflater 还回池里留给下一个连接
+     */
+    @Override
+    public synchronized void reset() {
+        if (deflater != null) {
+            shared.recycle(deflater);
+            deflater = null;
+        }
+        if (inflater != null) {
+            shared.recycle(inflater);
+            inflater = null;
+        }
+        inflatingMessage = false;
+        inflatedSize = 0;
+        resetDeflaterPerMessage = !contextTakeover;
+        resetInflaterPerMessage = false;
+        peerRequestedNoContextTakeover = false;
+    }
+
+    @Override
+    public IExtension copyInstance() {
+        return new PerMessageDeflateExtension(shared);
+    }
+
+    /**
+     * 结束池里空闲的 Deflater/Inflater，释放 zlib 的本地内存。
+     * 之后仍可以继续使用，需要时重新分配；正在使用的连接断开后还回来的照常进池
+     */
+    public void releasePooled() {
+        shared.endPooled();
+    }
+
+    int getPooledDeflaterCount() {
+        synchronized (shared) {
+            return shared.deflaterPool.size();
+        }
+    }
+
+    int getPooledInflaterCount() {
+        synchronized (shared) {
+            return shared.inflaterPool.size();
+        }
+    }
+
+    // -------------------------------------------统计-------------------------------------------
+
+    /**
+     * 发送的消息压缩前的总字节数
+     */
+    public long getRawBytesOut() {
+        return shared.rawBytesOut.get();
+    }
+
+    /**
+     * 发送的消息实际写出的总字节数（不含帧头）
+     */
+    public long getWireBytesOut() {
+        return shared.wireBytesOut.get();
+    }
+
+    public long getRawBytesIn() {
+        return shared.rawBytesIn.get();
+    }
+
+    public long getWireBytesIn() {
+        return shared.wireBytesIn.get();
+    }
+
+    /**
+     * 收发两个方向省下的字节数
+     */
+    public long getBytesSaved() {
+        return shared.rawBytesOut.get() - shared.wireBytesOut.get() + shared.rawBytesIn.get() - shared.wireBytesIn.get();
+    }
+
+    public long getDeflateNanos() {
+        return shared.deflateNanos.get();
+    }
+
+    public long getInflateNanos() {
+        return shared.inflateNanos.get();
+    }
+
+    public long getCompressedCount() {
+        return shared.compressedCount.get();
+    }
+
+    /**
+     * 太小或压缩没有收益而按原文发送的消息数
+     */
+    public long getSkippedCount() {
+        return shared.skippedCount.get();
+    }
+
+    @Override
+    public String toString() {
+        return "PerMessageDeflateExtension";
+    }
+}
@@ -0,0 +1,98 @@
+package com.jh.websocketclient.websocket;
+
+import com.jh.websocketclient.util.LatencyHistogram;
+
+/**
+ * ping/pong 存活检测
+ * <p>
+ * 每次心跳发一个 ping，pongTimeout 内没有收到 pong 就判定连接已死（半开的TCP连接 isClosed() 检测不出来），
+ * 收到 pong 时记录往返时延。时间统一用 System.nanoTime()，由调用者传入，方便测试。
+ */
+public class PingMonitor {
+
+    private final long pongTimeoutNanos;
+    private final LatencyHistogram rttHistogram = new LatencyHistogram();
+
+    private boolean awaitingPong;
+    private long pingSentAt;
+    private long lastRtt = -1;
+
+    private long pingCount;
+    private long pongCount;
+    private long timeoutCount;
+
+    /**
+     * @param pongTimeoutMillis 发出 ping 后等待 pong 的最长时间
+     */
+    public PingMonitor(long pongTimeoutMillis) {
+        this.pongTimeoutNanos = pongTimeoutMillis * 1000000L;
+    }
+
+    /**
+     * 上一个 ping 还没有回应时不再发新的
+     */
+    public synchronized boolean shouldPing() {
+        return !awaitingPong;
+    }
+
+    public synchronized void onPingSent(long nowNanos) {
+        awaitingPong = true;
+        pingSentAt = nowNanos;
+        pingCount++;
+    }
+
+    public synchronized void onPong(long nowNanos) {
+        if (!awaitingPong) {
+            return;// 服务器主动发的 pong，不计时
+        }
+        awaitingPong = false;
+        lastRtt = nowNanos - pingSentAt;
+        rttHistogram.record(lastRtt);
+        pongCount++;
+    }
+
+    /**
+     * @return false 表示 pong 超时，连接已死
+     */
+    public synchronized boolean checkAlive(long nowNanos) {
+        if (awaitingPong && nowNanos - pingSentAt >= pongTimeoutNanos) {
+            awaitingPong = false;
+            timeoutCount++;
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * 连接重建后调用，丢弃上一个连接上未完成的 ping
+     */
+    public synchronized void reset() {
+        awaitingPong = false;
+    }
+
+    /**
+     * 往返时延分布（纳秒）
+     */
+    public LatencyHistogram getRttHistogram() {
+        return rttHistogram;
+    }
+
+    /**
+     * 最近一次往返时延（纳秒），还没有时返回-1
+     */
+    public synchronized long getLastRtt() {
+        return lastRtt;
+    }
+
+    public synchronized long getPingCount() {
+        return pingCount;
+    }
+
+    public synchronized long getPongCount() {
+        return pongCount;
+    }
+
+    public synchronized long getTimeoutCount() {
+        return timeoutCount;
+    }
+}
@@ -0,0 +1,75 @@
+package com.jh.websocketclient.websocket;
+
+import java.util.Random;
+
+/**
+ * 重连退避策略
+ * <p>
+ * 指数退避 + 去相关抖动（decorrelated jitter）：delay = min(maxDelay, random(baseDelay, lastDelay * 3))，
+ * lastDelay 从 baseDelay 开始，第一次重连就在 [baseDelay, 3 * baseDelay) 里随机，
+ * 服务端重启时大量设备同时断线，重连时间从第一次起就被打散。
+ * 连续失败超过 maxAttempts 次后熔断，等待 [circuitOpenTime, 1.5 * circuitOpenTime) 里的随机时间再试一次，
+ * 同时熔断的设备也不会同时恢复；成功后 reset() 恢复。
+ */
+public class ReconnectPolicy {
+
+    private final long baseDelay;
+    private final long maxDelay;
+    private final int maxAttempts;
+    private final long circuitOpenTime;
+    private final Random random;
+
+    private long lastDelay;// 上一次的等待时间，还没有失败过时是 baseDelay
+    private int failures;
+
+    /**
+     * @param baseDelay       第一次重连的最小等待时间(ms)
+     * @param maxDelay        单次等待的上限(ms)
+     * @param maxAttempts     熔断前最多连续重连的次数
+     * @param circuitOpenTime 熔断后最少等待的时间(ms)
+     */
+    public ReconnectPolicy(long baseDelay, long maxDelay, int maxAttempts, long circuitOpenTime, Random random) {
+        if (baseDelay <= 0 || maxDelay < baseDelay || maxAttempts <= 0) {
+            throw new IllegalArgumentException("invalid reconnect policy");
+        }
+        this.baseDelay = baseDelay;
+        this.maxDelay = maxDelay;
+        this.maxAttempts = maxAttempts;
+        this.circuitOpenTime = circuitOpenTime;
+        this.random = random;
+        this.lastDelay = baseDelay;
+    }
+
+    /**
+     * 记录一次失败，返回下一次重连前的等待时间
+     */
+    public synchronized long nextDelay() {
+        failures++;
+        if (failures > maxAttempts) {
+            return circuitOpenTime + (long) (random.nextDouble() * (circuitOpenTime / 2));
+        }
+        long upper = Math.min(maxDelay, lastDelay * 3);
+        long delay = baseDelay + (long) (random.nextDouble() * (upper - baseDelay));
+        lastDelay = Math.min(maxDelay, delay);
+        return lastDelay;
+    }
+
+    /**
+     * 是否已熔断（nextDelay 返回的是熔断等待时间）
+     */
+    public synchronized boolean isCircuitOpen() {
+        return failures > maxAttempts;
+    }
+
+    /**
+     * 连接成功后调用
+     */
+    public synchronized void reset() {
+        failures = 0;
+        lastDelay = baseDelay;
+    }
+
+    public synchronized int getFailures() {
+        return failures;
+    }
+}
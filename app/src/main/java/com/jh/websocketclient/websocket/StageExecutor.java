@@ -0,0 +1,89 @@
+package com.jh.websocketclient.websocket;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 单线程、有界队列的处理阶段
+ * <p>
+ * 任务按提交顺序执行；队列满时提交方阻塞等待，而不是丢弃或在提交线程上执行（会打乱顺序）。
+ * 提交方是读线程时，阻塞会停止读取 socket，由TCP流控把压力传回服务器。
+ */
+public class StageExecutor implements Executor {
+
+    private final StageStats stats;
+    private final ThreadPoolExecutor executor;
+    private final AtomicLong blockedCount = new AtomicLong();
+
+    /**
+     * @param capacity 最多排队的任务数
+     */
+    public StageExecutor(final String name, int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be > 0");
+        }
+        this.stats = new StageStats(name);
+        this.executor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(capacity), new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, name);
+                thread.setDaemon(true);
+                return thread;
+            }
+        }, new RejectedExecutionHandler() {
+            @Override
+            public void rejectedExecution(Runnable r, ThreadPoolExecutor executor) {
+                if (executor.isShutdown()) {
+                    throw new RejectedExecutionException(name + " is shut down");
+                }
+                blockedCount.incrementAndGet();
+                try {
+                    executor.getQueue().put(r);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new RejectedExecutionException(e);
+                }
+            }
+        });
+    }
+
+    /**
+     * 任意线程调用，队列满时阻塞
+     */
+    @Override
+    public void execute(Runnable task) {
+        Runnable wrapped = stats.wrap(task);
+        try {
+            executor.execute(wrapped);
+        } catch (RejectedExecutionException e) {
+            stats.onCancelled(1);
+            throw e;
+        }
+    }
+
+    public StageStats getStats() {
+        return stats;
+    }
+
+    /**
+     * 队列满导致提交方阻塞的次数
+     */
+    public long getBlockedCount() {
+        return blockedCount.get();
+    }
+
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        return executor.awaitTermination(timeout, unit);
+    }
+}
@@ -0,0 +1,141 @@
+package com.jh.websocketclient.websocket;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 一个处理阶段（线程）的排队统计
+ * <p>
+ * 队列深度 = 已提交 - 已完成；等待时间是任务从提交（定时任务从到期）到开始执行的时间，
+ * 执行时间是任务本身占用这个线程的时间。任意线程都可以记录和读取。
+ */
+public class StageStats {
+
+    private final String name;
+
+    private final AtomicLong submittedCount = new AtomicLong();
+    private final AtomicLong completedCount = new AtomicLong();
+    private final AtomicLong maxQueueDepth = new AtomicLong();
+    private final AtomicLong taskCount = new AtomicLong();
+    private final AtomicLong totalWaitNanos = new AtomicLong();
+    private final AtomicLong maxWaitNanos = new AtomicLong();
+    private final AtomicLong totalRunNanos = new AtomicLong();
+    private final AtomicLong maxRunNanos = new AtomicLong();
+
+    public StageStats(String name) {
+        this.name = name;
+    }
+
+    /**
+     * 提交了 count 个待处理的项
+     */
+    public void onSubmitted(int count) {
+        long depth = submittedCount.addAndGet(count) - completedCount.get();
+        updateMax(maxQueueDepth, depth);
+    }
+
+    /**
+     * 一次执行处理完 count 个项
+     *
+     * @param waitNanos 其中最早的一项等待的时间
+     * @param runNanos  这次执行的时间
+     */
+    public void onCompleted(int count, long waitNanos, long runNanos) {
+        completedCount.addAndGet(count);
+        taskCount.incrementAndGet();
+        totalWaitNanos.addAndGet(waitNanos);
+        updateMax(maxWaitNanos, waitNanos);
+        totalRunNanos.addAndGet(runNanos);
+        updateMax(maxRunNanos, runNanos);
+    }
+
+    /**
+     * 包装一个马上提交的任务
+     */
+    public Runnable wrap(Runnable task) {
+        return wrap(task, 0);
+    }
+
+    /**
+     * 包装一个 delayMillis 后执行的任务，等待时间从到期时算起
+     */
+    public Runnable wrap(final Runnable task, long delayMillis) {
+        final long dueAt = System.nanoTime() + delayMillis * 1000000L;
+        onSubmitted(1);
+        return new Runnable() {
+            @Override
+            public void run() {
+                long start = System.nanoTime();
+                try {
+                    task.run();
+                } finally {
+                    long end = System.nanoTime();
+                    onCompleted(1, Math.max(0, start - dueAt), end - start);
+                }
+            }
+        };
+    }
+
+    /**
+     * 提交了但被取消、不会执行的任务
+     */
+    public void onCancelled(int count) {
+        completedCount.addAndGet(count);
+    }
+
+    private static void updateMax(AtomicLong max, long value) {
+        long current;
+        while (value > (current = max.get())) {
+            if (max.compareAndSet(current, value)) {
+                return;
+            }
+        }
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * 当前排队和正在执行的项数
+     */
+    public long getQueueDepth() {
+        return Math.max(0, submittedCount.get() - completedCount.get());
+    }
+
+    public long getMaxQueueDepth() {
+        return maxQueueDepth.get();
+    }
+
+    public long getSubmittedCount() {
+        return submittedCount.get();
+    }
+
+    public long getCompletedCount() {
+        return completedCount.get();
+    }
+
+    public long getAverageWaitNanos() {
+        long tasks = taskCount.get();
+        return tasks == 0 ? 0 : totalWaitNanos.get() / tasks;
+    }
+
+    public long getMaxWaitNanos() {
+        return maxWaitNanos.get();
+    }
+
+    public long getAverageRunNanos() {
+        long tasks = taskCount.get();
+        return tasks == 0 ? 0 : totalRunNanos.get() / tasks;
+    }
+
+    public long getMaxRunNanos() {
+        return maxRunNanos.get();
+    }
+
+    public String report() {
+        return name + ": depth=" + getQueueDepth() + " maxDepth=" + getMaxQueueDepth()
+                + " submitted=" + getSubmittedCount()
+                + " waitAvg=" + getAverageWaitNanos() / 1000 + "us waitMax=" + getMaxWaitNanos() / 1000
+                + "us runAvg=" + getAverageRunNanos() / 1000 + "us runMax=" + getMaxRunNanos() / 1000 + "us";
+    }
+}
@@ -0,0 +1,202 @@
+package com.jh.websocketclient.websocket;
+
+import com.jh.websocketclient.codec.BinaryCodec;
+import com.jh.websocketclient.codec.Envelope;
+import com.jh.websocketclient.codec.EnvelopeAssembler;
+import com.jh.websocketclient.codec.JsonCodec;
+import com.jh.websocketclient.codec.MessageCodec;
+
+import org.java_websocket.WebSocket;
+import org.java_websocket.WebSocketImpl;
+import org.java_websocket.client.WebSocketClient;
+import org.java_websocket.framing.Framedata;
+import org.java_websocket.framing.TextFrame;
+import org.java_websocket.handshake.ServerHandshake;
+import org.java_websocket.protocols.IProtocol;
+import org.java_websocket.protocols.Protocol;
+
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 一次连接（会话）
+ * <p>
+ * WebSocketClient 用过之后不能再 connect，每次连接或重连都创建一个新的会话，
+ * 由 ConnectionManager 替换掉旧的。和这次连接绑定的状态都放在这里：
+ * 压缩上下文、协商出的消息编码、正在拼接的分块消息。
+ * 回调全部转给 Callback，并带上会话本身，调用方可以忽略已经被替换掉的会话的回调。
+ */
+class WebSocketSession extends WebSocketClient {
+
+    interface Callback {
+        void onOpen(WebSocketSession session, ServerHandshake handshake);
+
+        void onMessage(WebSocketSession session, String message);
+
+        void onMessage(WebSocketSession session, ByteBuffer bytes);
+
+        void onClose(WebSocketSession session, int code, String reason, boolean remote);
+
+        void onError(WebSocketSession session, Exception ex);
+
+        void onPong(WebSocketSession session);
+
+        /**
+         * 发出了数据
+         */
+        void onSent(WebSocketSession session);
+    }
+
+    private final Callback callback;
+    // 保留压缩上下文时，压缩顺序必须和写出顺序一致，发送加锁串行
+    private final Object sendLock = new Object();
+    // 分块发送的大消息在分发线程上拼回
+    private final EnvelopeAssembler assembler;
+
+    // 这次连接协商出的消息编码，onOpen 时确定
+    private volatile MessageCodec wireCodec = JsonCodec.getInstance();
+    // 同一次断线 onError、onClose 都会回调，地址的失败只记一次
+    private final AtomicBoolean failed = new AtomicBoolean();
+    // 发起连接的时间(ns)，用来统计握手耗时
+    private volatile long connectStartedAt;
+
+    /**
+     * @param compression    permessage-deflate，服务端不支持时握手后自动不启用；传门面里模板的副本，共享 Deflater/Inflater 池和统计
+     * @param connectTimeout TCP连接超时(ms)，0表示使用系统默认
+     * @param wireListener   统计收发的字节数和帧数，可以为null
+     */
+    WebSocketSession(URI uri, PerMessageDeflateExtension compression, int maxMessageSize, int maxPendingChunks,
+                     int connectTimeout, ChatDraft.WireListener wireListener, Callback callback) {
+        super(uri, new ChatDraft(compression, Arrays.<IProtocol>asList(
+                new Protocol(BinaryCodec.PROTOCOL), new Protocol("")), maxMessageSize, wireListener),
+                null, connectTimeout);
+        this.callback = callback;
+        this.assembler = new EnvelopeAssembler(maxPendingChunks, maxMessageSize);
+        // 关闭库自带的连接检测，改用 PingMonitor
+        setConnectionLostTimeout(0);
+    }
+
+    @Override
+    public void connect() {
+        connectStartedAt = System.nanoTime();
+        super.connect();
+    }
+
+    @Override
+    public void onOpen(ServerHandshake handshakedata) {
+        // 服务器选中的子协议决定消息编码，不选时用JSON文本
+        String protocol = handshakedata.getFieldValue("Sec-WebSocket-Protocol");
+        wireCodec = BinaryCodec.PROTOCOL.equals(protocol) ? BinaryCodec.getInstance() : JsonCodec.getInstance();
+        callback.onOpen(this, handshakedata);
+    }
+
+    @Override
+    public void onMessage(String message) {
+        callback.onMessage(this, message);
+    }
+
+    @Override
+    public void onMessage(ByteBuffer bytes) {
+        callback.onMessage(this, bytes);
+    }
+
+    @Override
+    public void onClose(int code, String reason, boolean remote) {
+        callback.onClose(this, code, reason, remote);
+    }
+
+    @Override
+    public void onError(Exception ex) {
+        callback.onError(this, ex);
+    }
+
+    @Override
+    public void onWebsocketPong(WebSocket conn, Framedata f) {
+        callback.onPong(this);
+    }
+
+    // 发出的数据也算连接活跃
+    @Override
+    public void send(String text) {
+        synchronized (sendLock) {
+            super.send(text);
+        }
+        callback.onSent(this);
+    }
+
+    @Override
+    public void send(ByteBuffer bytes) {
+        synchronized (sendLock) {
+            super.send(bytes);
+        }
+        callback.onSent(this);
+    }
+
+    @Override
+    public void send(byte[] data) {
+        synchronized (sendLock) {
+            super.send(data);
+        }
+        callback.onSent(this);
+    }
+
+    /**
+     * 按这次连接协商出的编码发送
+     */
+    void sendEnvelope(Envelope envelope) {
+        MessageCodec codec = wireCodec;
+        byte[] bytes = codec.encode(envelope);
+        if (codec.isBinary()) {
+            send(ByteBuffer.wrap(bytes));
+            return;
+        }
+        // 编码结果已经是 UTF-8，直接作为文本帧发出，不再转回 String
+        TextFrame frame = new TextFrame();
+        frame.setPayload(ByteBuffer.wrap(bytes));
+        frame.setFin(true);
+        writeFrame(frame);
+    }
+
+    void writeFrame(Framedata frame) {
+        synchronized (sendLock) {
+            sendFrame(frame);
+        }
+        callback.onSent(this);
+    }
+
+    /**
+     * 库的写队列里还没写出的帧数
+     */
+    int getBufferedFrames() {
+        return ((WebSocketImpl) getConnection()).outQueue.size();
+    }
+
+    /**
+     * 标记这次连接已失败
+     *
+     * @return 是否第一次标记
+     */
+    boolean markFailed() {
+        return failed.compareAndSet(false, true);
+    }
+
+    /**
+     * 从发起连接到现在的时间(ns)，在 onOpen 里就是握手耗时（含TCP连接）
+     */
+    long getConnectElapsed() {
+        return System.nanoTime() - connectStartedAt;
+    }
+
+    MessageCodec getWireCodec() {
+        return wireCodec;
+    }
+
+    /**
+     * 只在分发线程上使用
+     */
+    EnvelopeAssembler getAssembler() {
+        return assembler;
+    }
+}
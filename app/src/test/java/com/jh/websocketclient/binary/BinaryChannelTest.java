@@ -0,0 +1,123 @@
+package com.jh.websocketclient.binary;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * 收：每个监听者拿到同一块数据的只读视图，不拷贝；发：缓冲区发完、失败、未连接时都还回池里
+ */
+public class BinaryChannelTest {
+
+    private static class FakeSender implements BinaryChannel.Sender {
+        boolean open = true;
+        boolean fail;
+        final List<ByteBuffer> sent = new ArrayList<>();
+        final List<Runnable> pending = new ArrayList<>();
+
+        @Override
+        public boolean isOpen() {
+            return open;
+        }
+
+        @Override
+        public void send(ByteBuffer bytes, Runnable onComplete) {
+            if (fail) {
+                throw new IllegalStateException("not connected");
+            }
+            sent.add(bytes);
+            pending.add(onComplete);
+        }
+
+        void completeAll() {
+            for (Runnable runnable : pending) {
+                runnable.run();
+            }
+            pending.clear();
+        }
+    }
+
+    @Test
+    public void listenersShareReadOnlyViewsWithoutCopy() {
+        BinaryChannel channel = new BinaryChannel(new FakeSender(), new BufferPool(1024, 4096, 2));
+        final ByteBuffer source = ByteBuffer.wrap(new byte[]{1, 2, 3, 4, 5});
+        source.position(1);
+        final List<ByteBuffer> views = new ArrayList<>();
+        BinaryChannel.OnBinaryMessageListener listener = new BinaryChannel.OnBinaryMessageListener() {
+            @Override
+            public void onBinaryMessage(ByteBuffer payload) {
+                assertTrue(payload.isReadOnly());
+                assertEquals(4, payload.remaining());
+                // 第一个监听者读完，不影响第二个监听者的 position
+                while (payload.hasRemaining()) {
+                    payload.get();
+                }
+                views.add(payload);
+            }
+        };
+        channel.addListener(listener);
+        channel.addListener(new BinaryChannel.OnBinaryMessageListener() {
+            @Override
+            public void onBinaryMessage(ByteBuffer payload) {
+                assertEquals(4, payload.remaining());
+                assertEquals(2, payload.get(payload.position()));
+                views.add(payload);
+            }
+        });
+
+        channel.dispatch(source);
+
+        assertEquals(2, views.size());
+        assertEquals(1, source.position());// 调用方的 position 不变
+        // 视图和原数据是同一块内存
+        source.put(1, (byte) 42);
+        assertEquals(42, views.get(0).get(1));
+        assertEquals(42, views.get(1).get(1));
+        assertEquals(1, channel.getReceivedCount());
+        assertEquals(4, channel.getReceivedBytes());
+    }
+
+    @Test
+    public void bufferReturnsToPoolAfterSend() {
+        FakeSender sender = new FakeSender();
+        BufferPool pool = new BufferPool(1024, 4096, 2);
+        BinaryChannel channel = new BinaryChannel(sender, pool);
+
+        ByteBuffer buffer = channel.obtainBuffer(100);
+        buffer.put(new byte[100]);
+        buffer.flip();
+        assertTrue(channel.send(buffer));
+        assertSame(buffer, sender.sent.get(0));
+        // 还没写出之前不能还回去
+        assertNotSame(buffer, channel.obtainBuffer(100));
+
+        sender.completeAll();
+        assertSame(buffer, channel.obtainBuffer(100));
+        assertEquals(1, channel.getSentCount());
+        assertEquals(100, channel.getSentBytes());
+    }
+
+    @Test
+    public void bufferReturnsToPoolWhenNotSent() {
+        FakeSender sender = new FakeSender();
+        BinaryChannel channel = new BinaryChannel(sender, new BufferPool(1024, 4096, 2));
+
+        sender.open = false;
+        ByteBuffer closed = channel.obtainBuffer(10);
+        assertFalse(channel.send(closed));
+        assertSame(closed, channel.obtainBuffer(10));
+
+        sender.open = true;
+        sender.fail = true;
+        ByteBuffer failed = channel.obtainBuffer(10);
+        assertFalse(channel.send(failed));
+        assertSame(failed, channel.obtainBuffer(10));
+
+        assertEquals(0, channel.getSentCount());
+        assertTrue(sender.sent.isEmpty());
+    }
+}
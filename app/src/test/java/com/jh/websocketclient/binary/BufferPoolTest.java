@@ -0,0 +1,89 @@
+package com.jh.websocketclient.binary;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.*;
+
+/**
+ * 按2的幂分档、回收复用、每档上限和不回收的缓冲区
+ */
+public class BufferPoolTest {
+
+    @Test
+    public void roundsUpToSizeClass() {
+        BufferPool pool = new BufferPool(1000, 5000, 2);
+
+        ByteBuffer small = pool.acquire(10);
+        assertEquals(1024, small.capacity());
+        assertEquals(0, small.position());
+        assertEquals(10, small.limit());
+
+        assertEquals(1024, pool.acquire(1024).capacity());
+        assertEquals(2048, pool.acquire(1025).capacity());
+        assertEquals(8192, pool.acquire(5000).capacity());
+
+        // 超过最大一档的按实际大小分配
+        ByteBuffer big = pool.acquire(8193);
+        assertEquals(8193, big.capacity());
+        assertEquals(5, pool.getMissCount());
+        assertEquals(0, pool.getHitCount());
+    }
+
+    @Test
+    public void releasedBufferIsReusedAndCleared() {
+        BufferPool pool = new BufferPool(1024, 64 * 1024, 2);
+        ByteBuffer buffer = pool.acquire(3000);
+        buffer.put(new byte[100]);
+        buffer.flip();
+        pool.release(buffer);
+
+        // 同一档的请求拿到同一块，position/limit 重新设置
+        ByteBuffer reused = pool.acquire(2500);
+        assertSame(buffer, reused);
+        assertEquals(0, reused.position());
+        assertEquals(2500, reused.limit());
+        assertEquals(1, pool.getHitCount());
+
+        // 别的档不受影响
+        assertNotSame(buffer, pool.acquire(1000));
+    }
+
+    @Test
+    public void keepsAtMostMaxPerClass() {
+        BufferPool pool = new BufferPool(1024, 4096, 2);
+        ByteBuffer a = pool.acquire(1024);
+        ByteBuffer b = pool.acquire(1024);
+        ByteBuffer c = pool.acquire(1024);
+        pool.release(a);
+        pool.release(b);
+        pool.release(c);// 超过上限，丢弃
+
+        assertSame(a, pool.acquire(1024));
+        assertSame(b, pool.acquire(1024));
+        ByteBuffer fresh = pool.acquire(1024);
+        assertNotSame(c, fresh);
+        assertEquals(2, pool.getHitCount());
+    }
+
+    @Test
+    public void ignoresBuffersItDidNotAllocate() {
+        BufferPool pool = new BufferPool(1024, 4096, 4);
+        ByteBuffer oversized = pool.acquire(10000);
+        pool.release(oversized);
+        pool.release(ByteBuffer.allocate(3000));// 不是2的幂
+        pool.release(ByteBuffer.allocate(2048).asReadOnlyBuffer());
+        pool.release(ByteBuffer.allocate(512));// 小于最小一档
+
+        assertNotSame(oversized, pool.acquire(10000));
+        ByteBuffer buffer = pool.acquire(2048);
+        assertFalse(buffer.isReadOnly());
+        assertEquals(0, pool.getHitCount());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsInvalidSizes() {
+        new BufferPool(4096, 1024, 4);
+    }
+}
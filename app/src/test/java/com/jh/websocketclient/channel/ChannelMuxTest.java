@@ -0,0 +1,267 @@
+package com.jh.websocketclient.channel;
+
+import com.jh.websocketclient.codec.BinaryCodec;
+import com.jh.websocketclient.codec.CodecException;
+import com.jh.websocketclient.codec.Envelope;
+import com.jh.websocketclient.queue.TrafficClass;
+
+import org.java_websocket.WebSocketImpl;
+import org.java_websocket.client.WebSocketClient;
+import org.java_websocket.handshake.ServerHandshake;
+import org.junit.After;
+import org.junit.Test;
+
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * 调度和流控用假的 Transport 测，订阅和回显对接本地服务器替身
+ */
+public class ChannelMuxTest {
+
+    private static final long WINDOW = 64 * 1024;
+    private static final long QUANTUM = 16 * 1024;
+
+    private ChannelMux mux;
+    private LocalMuxServer server;
+    private WebSocketClient client;
+
+    @After
+    public void tearDown() throws Exception {
+        if (mux != null) {
+            mux.shutdown();
+        }
+        if (client != null) {
+            client.closeBlocking();
+        }
+        if (server != null) {
+            server.stop(1000);
+        }
+    }
+
+    @Test
+    public void bulkChannelDoesNotStarveChat() throws Exception {
+        RecordingTransport transport = new RecordingTransport();
+        mux = new ChannelMux(transport, WINDOW, QUANTUM, 1024 * 1024);
+        LogicalChannel bulk = mux.open("bulk", null);
+        LogicalChannel chat = mux.open("chat", null);
+        String block = repeat('x', 8 * 1024);
+        for (int i = 0; i < 7; i++) {
+            assertTrue(bulk.send(block));
+        }
+        assertTrue(chat.send("hi"));
+        mux.onConnected();
+        transport.writable = true;
+
+        List<String> order = new ArrayList<>();
+        for (int i = 0; i < 2 + 8; i++) {
+            Envelope envelope = transport.sent.poll(5, TimeUnit.SECONDS);
+            assertNotNull(envelope);
+            if (envelope.getType() == Envelope.TYPE_CHAT) {
+                order.add(envelope.getChannel());
+            }
+        }
+        // 每轮 bulk 最多发 QUANTUM 字节（两条），然后轮到 chat
+        assertEquals("chat", order.get(2));
+    }
+
+    @Test
+    public void channelPausesWithoutCredit() throws Exception {
+        RecordingTransport transport = new RecordingTransport();
+        transport.writable = true;
+        mux = new ChannelMux(transport, 10 * 1024, QUANTUM, 1024 * 1024);
+        LogicalChannel slow = mux.open("slow", null);
+        LogicalChannel other = mux.open("other", null);
+        mux.onConnected();
+        String block = repeat('y', 4 * 1024);
+        for (int i = 0; i < 3; i++) {
+            assertTrue(slow.send(block));
+        }
+        assertFalse("larger than the window", slow.send(repeat('z', 11 * 1024)));
+
+        assertEquals(2, countData(transport, "slow", 2));
+        assertNull(transport.sent.poll(100, TimeUnit.MILLISECONDS));
+        assertEquals(2 * 1024, slow.getSendWindow());
+
+        // 被暂停的频道不影响其他频道
+        assertTrue(other.send("ping"));
+        assertEquals(1, countData(transport, "other", 1));
+
+        mux.onEnvelope(new Envelope(Envelope.TYPE_CREDIT, "slow", 0, 4 * 1024, null, 0, null));
+        assertEquals(1, countData(transport, "slow", 1));
+        assertEquals(0, slow.getQueuedBytes());
+    }
+
+    @Test
+    public void creditsPeerAfterHalfWindow() throws Exception {
+        RecordingTransport transport = new RecordingTransport();
+        transport.writable = true;
+        mux = new ChannelMux(transport, 8 * 1024, QUANTUM, 1024 * 1024);
+        final List<String> delivered = new ArrayList<>();
+        mux.open("feed", new LogicalChannel.OnChannelMessageListener() {
+            @Override
+            public void onChannelMessage(LogicalChannel channel, Envelope envelope) {
+                delivered.add(envelope.getContent());
+            }
+        });
+        mux.onConnected();
+        assertEquals(Envelope.TYPE_SUBSCRIBE, transport.sent.poll(5, TimeUnit.SECONDS).getType());
+
+        String block = repeat('f', 3 * 1024);
+        assertTrue(mux.onEnvelope(new Envelope(Envelope.TYPE_CHAT, "feed", 0, 0, null, 0, block)));
+        assertNull(transport.sent.poll(100, TimeUnit.MILLISECONDS));
+        mux.onEnvelope(new Envelope(Envelope.TYPE_CHAT, "feed", 0, 0, null, 0, block));
+        Envelope credit = transport.sent.poll(5, TimeUnit.SECONDS);
+        assertEquals(Envelope.TYPE_CREDIT, credit.getType());
+        assertEquals(6 * 1024, credit.getSeq());
+        assertEquals(2, delivered.size());
+
+        // 默认聊天流不归频道处理
+        assertFalse(mux.onEnvelope(Envelope.chat(1, 1, "plain")));
+    }
+
+    @Test
+    public void subscribeEchoAndUnsubscribeAgainstLocalServer() throws Exception {
+        server = new LocalMuxServer();
+        server.start();
+        assertTrue(server.started.await(5, TimeUnit.SECONDS));
+
+        final BlockingQueue<Envelope> rooms = new LinkedBlockingQueue<>();
+        final BlockingQueue<Envelope> presence = new LinkedBlockingQueue<>();
+        client = new WebSocketClient(URI.create("ws://127.0.0.1:" + server.getPort())) {
+            @Override
+            public void onOpen(ServerHandshake handshake) {
+            }
+
+            @Override
+            public void onMessage(String message) {
+            }
+
+            @Override
+            public void onMessage(ByteBuffer bytes) {
+                try {
+                    mux.onEnvelope(BinaryCodec.getInstance().decode(bytes));
+                } catch (CodecException e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+
+            @Override
+            public void onClose(int code, String reason, boolean remote) {
+                mux.onDisconnected();
+            }
+
+            @Override
+            public void onError(Exception ex) {
+                ex.printStackTrace();
+            }
+        };
+        mux = new ChannelMux(new ChannelMux.Transport() {
+            @Override
+            public boolean isOpen() {
+                return client.isOpen();
+            }
+
+            @Override
+            public boolean isWritable() {
+                return ((WebSocketImpl) client.getConnection()).outQueue.size() < 4;
+            }
+
+            @Override
+            public void send(Envelope envelope, TrafficClass trafficClass) {
+                client.send(BinaryCodec.getInstance().encode(envelope));
+            }
+        }, WINDOW, QUANTUM, 1024 * 1024);
+        LogicalChannel room = mux.open("room/1", new QueueListener(rooms));
+        LogicalChannel status = mux.open("presence", new QueueListener(presence));
+        assertTrue(client.connectBlocking(5, TimeUnit.SECONDS));
+        mux.onConnected();
+        awaitType(server.received, Envelope.TYPE_SUBSCRIBE);
+        awaitType(server.received, Envelope.TYPE_SUBSCRIBE);
+
+        assertTrue(room.send("hello room"));
+        assertEquals("hello room", rooms.poll(5, TimeUnit.SECONDS).getContent());
+        assertTrue(server.push("presence", "user7 online"));
+        assertEquals("user7 online", presence.poll(5, TimeUnit.SECONDS).getContent());
+        assertTrue(rooms.isEmpty());
+
+        status.close();
+        awaitType(server.received, Envelope.TYPE_UNSUBSCRIBE);
+        assertFalse(server.push("presence", "user7 offline"));
+        assertFalse(status.send("after close"));
+        assertNull(mux.getChannel("presence"));
+        assertEquals(WINDOW, room.getSendWindow());// 回显时服务器还回了额度
+    }
+
+    private static void awaitType(BlockingQueue<Envelope> queue, int type) throws InterruptedException {
+        while (true) {
+            Envelope envelope = queue.poll(5, TimeUnit.SECONDS);
+            assertNotNull(envelope);
+            if (envelope.getType() == type) {
+                return;
+            }
+        }
+    }
+
+    private static int countData(RecordingTransport transport, String channel, int expected) throws InterruptedException {
+        int count = 0;
+        while (count < expected) {
+            Envelope envelope = transport.sent.poll(5, TimeUnit.SECONDS);
+            if (envelope == null) {
+                break;
+            }
+            if (envelope.getType() == Envelope.TYPE_CHAT && channel.equals(envelope.getChannel())) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private static String repeat(char c, int count) {
+        StringBuilder builder = new StringBuilder(count);
+        for (int i = 0; i < count; i++) {
+            builder.append(c);
+        }
+        return builder.toString();
+    }
+
+    private static class RecordingTransport implements ChannelMux.Transport {
+        final BlockingQueue<Envelope> sent = new LinkedBlockingQueue<>();
+        volatile boolean writable;
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+
+        @Override
+        public boolean isWritable() {
+            return writable;
+        }
+
+        @Override
+        public void send(Envelope envelope, TrafficClass trafficClass) {
+            sent.add(envelope);
+        }
+    }
+
+    private static class QueueListener implements LogicalChannel.OnChannelMessageListener {
+        private final BlockingQueue<Envelope> queue;
+
+        QueueListener(BlockingQueue<Envelope> queue) {
+            this.queue = queue;
+        }
+
+        @Override
+        public void onChannelMessage(LogicalChannel channel, Envelope envelope) {
+            queue.add(envelope);
+        }
+    }
+}
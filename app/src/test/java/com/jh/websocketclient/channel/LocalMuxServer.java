@@ -0,0 +1,108 @@
+package com.jh.websocketclient.channel;
+
+import com.jh.websocketclient.codec.BinaryCodec;
+import com.jh.websocketclient.codec.CodecException;
+import com.jh.websocketclient.codec.Envelope;
+
+import org.java_websocket.WebSocket;
+import org.java_websocket.handshake.ClientHandshake;
+import org.java_websocket.server.WebSocketServer;
+
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * 本地的多路复用服务器替身：记录订阅，按频道回显聊天消息，收到数据后追加额度
+ */
+class LocalMuxServer extends WebSocketServer {
+
+    final CountDownLatch started = new CountDownLatch(1);
+    final BlockingQueue<Envelope> received = new LinkedBlockingQueue<>();
+    // 频道 -> 给客户端的剩余额度，没有订阅的频道不在里面
+    final Map<String, Long> subscriptions = new HashMap<>();
+
+    LocalMuxServer() {
+        super(new InetSocketAddress("127.0.0.1", 0));
+        setReuseAddr(true);
+    }
+
+    /**
+     * 向订阅了 channel 的客户端推送
+     */
+    synchronized boolean push(String channel, String content) {
+        Long window = subscriptions.get(channel);
+        int bytes = BinaryCodec.utf8Length(content);
+        if (window == null || window < bytes) {
+            return false;
+        }
+        subscriptions.put(channel, window - bytes);
+        broadcast(BinaryCodec.getInstance().encode(
+                new Envelope(Envelope.TYPE_CHAT, channel, 0, 0, "server", System.currentTimeMillis(), content)));
+        return true;
+    }
+
+    @Override
+    public void onMessage(WebSocket conn, ByteBuffer message) {
+        Envelope envelope;
+        try {
+            envelope = BinaryCodec.getInstance().decode(message);
+        } catch (CodecException e) {
+            throw new IllegalStateException(e);
+        }
+        synchronized (this) {
+            String channel = envelope.getChannel();
+            switch (envelope.getType()) {
+                case Envelope.TYPE_SUBSCRIBE:
+                    subscriptions.put(channel, envelope.getSeq());
+                    break;
+                case Envelope.TYPE_UNSUBSCRIBE:
+                    subscriptions.remove(channel);
+                    break;
+                case Envelope.TYPE_CREDIT:
+                    Long window = subscriptions.get(channel);
+                    if (window != null) {
+                        subscriptions.put(channel, window + envelope.getSeq());
+                    }
+                    break;
+                case Envelope.TYPE_CHAT:
+                    if (subscriptions.containsKey(channel)) {
+                        // 回显，并把这条消息的额度还给客户端
+                        conn.send(BinaryCodec.getInstance().encode(envelope));
+                        conn.send(BinaryCodec.getInstance().encode(new Envelope(Envelope.TYPE_CREDIT, channel, 0,
+                                BinaryCodec.utf8Length(envelope.getContent()), null, 0, null)));
+                    }
+                    break;
+                default:
+                    break;
+            }
+        }
+        received.add(envelope);
+    }
+
+    @Override
+    public void onMessage(WebSocket conn, String message) {
+    }
+
+    @Override
+    public void onOpen(WebSocket conn, ClientHandshake handshake) {
+    }
+
+    @Override
+    public void onClose(WebSocket conn, int code, String reason, boolean remote) {
+    }
+
+    @Override
+    public void onError(WebSocket conn, Exception ex) {
+        ex.printStackTrace();
+    }
+
+    @Override
+    public void onStart() {
+        started.countDown();
+    }
+}
@@ -0,0 +1,84 @@
+package com.jh.websocketclient.codec;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.*;
+
+/**
+ * 两种编码的往返、兼容旧格式和跳过未知字段
+ */
+public class MessageCodecTest {
+
+    private static final Envelope FULL = new Envelope(Envelope.TYPE_CHAT, "room/1", 1234567890123L, 42, "user7",
+            1540000000000L, "你好 \"hello\"\n\\ 😀   end");
+
+    @Test
+    public void binaryRoundTrip() throws Exception {
+        BinaryCodec codec = BinaryCodec.getInstance();
+        byte[] bytes = codec.encode(FULL);
+        assertTrue(BinaryCodec.isEnvelope(ByteBuffer.wrap(bytes)));
+        assertEquals(FULL, codec.decode(ByteBuffer.wrap(bytes)));
+        // 只读视图（分片拼接后交给 onMessage 的就是只读的）
+        assertEquals(FULL, codec.decode(ByteBuffer.wrap(bytes).asReadOnlyBuffer()));
+    }
+
+    @Test
+    public void binaryDecodeKeepsPosition() throws Exception {
+        byte[] bytes = BinaryCodec.getInstance().encode(FULL);
+        ByteBuffer buffer = ByteBuffer.allocate(bytes.length + 3);
+        buffer.put((byte) 9).put(bytes).flip();
+        buffer.position(1);
+        assertEquals(FULL, BinaryCodec.getInstance().decode(buffer));
+        assertEquals(1, buffer.position());
+    }
+
+    @Test
+    public void binarySkipsUnknownFields() throws Exception {
+        byte[] known = BinaryCodec.getInstance().encode(Envelope.chat(5, 6, "hi"));
+        // 追加 字段15(varint) 字段16(bytes) 字段17(fixed32)
+        byte[] extra = {(byte) (15 << 3), (byte) 0x96, 0x01, (byte) 0x80, 0x01, 3, 'a', 'b', 'c', (byte) 0x8D, 0x01, 1, 2, 3, 4};
+        ByteBuffer buffer = ByteBuffer.allocate(known.length + extra.length);
+        buffer.put(known).put(extra).flip();
+        assertEquals(Envelope.chat(5, 6, "hi"), BinaryCodec.getInstance().decode(buffer));
+    }
+
+    @Test(expected = CodecException.class)
+    public void binaryRejectsTruncated() throws Exception {
+        byte[] bytes = BinaryCodec.getInstance().encode(FULL);
+        BinaryCodec.getInstance().decode(ByteBuffer.wrap(bytes, 0, bytes.length - 3));
+    }
+
+    @Test
+    public void binaryUtf8MatchesJdk() throws Exception {
+        String content = "aé中😀\ud800x";// 含孤立的代理项
+        byte[] bytes = BinaryCodec.getInstance().encode(Envelope.chat(1, 1, content));
+        String expected = new String(content.getBytes("UTF-8"), "UTF-8");
+        assertEquals(expected, BinaryCodec.getInstance().decode(ByteBuffer.wrap(bytes)).getContent());
+    }
+
+    @Test
+    public void jsonRoundTrip() throws Exception {
+        JsonCodec codec = JsonCodec.getInstance();
+        assertEquals(FULL, codec.decode(codec.encodeToString(FULL)));
+        assertEquals(FULL, codec.decode(ByteBuffer.wrap(codec.encode(FULL))));
+    }
+
+    @Test
+    public void jsonSkipsUnknownValues() throws Exception {
+        String json = "{ \"ext\": {\"a\": [1, {\"b\": \"}]\"}], \"c\": null}, \"type\" : 1, \"flag\": true,"
+                + " \"time\": 99, \"n\": -1.5e3, \"content\": \"x\\u0041\\/\", \"from\": null, \"i\\\"d\": 3 }";
+        Envelope envelope = JsonCodec.getInstance().decode(json);
+        assertEquals(Envelope.TYPE_CHAT, envelope.getType());
+        assertEquals(99, envelope.getTime());
+        assertEquals("xA/", envelope.getContent());
+        assertNull(envelope.getSender());
+        assertEquals(0, envelope.getId());
+    }
+
+    @Test(expected = CodecException.class)
+    public void jsonRejectsMalformed() throws Exception {
+        JsonCodec.getInstance().decode("{\"content\":\"abc\"");
+    }
+}
@@ -0,0 +1,94 @@
+package com.jh.websocketclient.metrics;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * 抽样、分段耗时汇总和导出
+ */
+public class MessageTracerTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static MessageTrace traceThroughAllStages(MessageTracer tracer, long id) throws InterruptedException {
+        MessageTrace trace = tracer.start();
+        assertNotNull(trace);
+        for (int stage = MessageTrace.DEQUEUED; stage <= MessageTrace.RENDERED; stage++) {
+            Thread.sleep(1);
+            trace.stamp(stage);
+        }
+        trace.setMessage(id, trace.getReceivedAt() - 20);
+        tracer.complete(trace);
+        return trace;
+    }
+
+    @Test
+    public void samplesEveryNthMessage() {
+        MessageTracer tracer = new MessageTracer(new MetricsRegistry(), 10, 16);
+        int sampled = 0;
+        for (int i = 0; i < 25; i++) {
+            if (tracer.start() != null) {
+                sampled++;
+            }
+        }
+        assertEquals(3, sampled);
+
+        tracer.setSampleInterval(0);
+        for (int i = 0; i < 100; i++) {
+            assertNull(tracer.start());
+        }
+    }
+
+    @Test
+    public void completedTracesFeedStageHistograms() throws Exception {
+        MetricsRegistry registry = new MetricsRegistry();
+        MessageTracer tracer = new MessageTracer(registry, 1, 16);
+        traceThroughAllStages(tracer, 1);
+        traceThroughAllStages(tracer, 2);
+        // 中途被丢弃的不调用 complete
+        tracer.start().stamp(MessageTrace.DEQUEUED);
+
+        MetricsSnapshot snapshot = registry.snapshot(0);
+        for (String stage : new String[]{"queue", "decode", "persist", "dispatch", "render"}) {
+            MetricsSnapshot.Histogram histogram = snapshot.getHistogram("trace." + stage + "_ns");
+            assertEquals(stage, 2, histogram.count);
+            assertTrue(stage, histogram.p50 >= 1000000);
+        }
+        assertTrue(snapshot.getHistogram("trace.total_ns").p50 >= 5000000);
+        assertEquals(20, snapshot.getHistogram("trace.network_ms").max, 3);
+        assertEquals(2, tracer.getCompletedCount());
+    }
+
+    @Test
+    public void dumpsMostRecentTracesAsCsv() throws Exception {
+        MessageTracer tracer = new MessageTracer(new MetricsRegistry(), 1, 2);
+        traceThroughAllStages(tracer, 101);
+        traceThroughAllStages(tracer, 102);
+        traceThroughAllStages(tracer, 103);
+
+        File file = new File(folder.getRoot(), "traces/trace.csv");
+        assertEquals(2, tracer.dump(file));
+
+        List<String> lines = Files.readAllLines(file.toPath(), Charset.forName("UTF-8"));
+        assertEquals(3, lines.size());
+        assertEquals("message_id,server_time,received_at,network_ms,queue_us,decode_us,persist_us,dispatch_us,"
+                + "render_us,total_us", lines.get(0));
+        assertTrue(lines.get(1).startsWith("102,"));
+        assertTrue(lines.get(2).startsWith("103,"));
+        String[] columns = lines.get(2).split(",");
+        assertEquals(10, columns.length);
+        assertEquals("20", columns[3]);
+        for (int i = 4; i < columns.length; i++) {
+            assertTrue(columns[i], Long.parseLong(columns[i]) >= 1000);
+        }
+    }
+}
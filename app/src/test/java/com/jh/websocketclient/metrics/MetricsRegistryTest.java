@@ -0,0 +1,121 @@
+package com.jh.websocketclient.metrics;
+
+import com.jh.websocketclient.util.LatencyHistogram;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * 分段计数、快照和监听
+ */
+public class MetricsRegistryTest {
+
+    @Test
+    public void stripedCounterSumsConcurrentAdds() throws Exception {
+        final StripedCounter counter = new StripedCounter(4);
+        final int threads = 8;
+        final int adds = 10000;
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(threads);
+        for (int t = 0; t < threads; t++) {
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                        for (int i = 0; i < adds; i++) {
+                            counter.increment();
+                        }
+                        counter.add(5);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            }).start();
+        }
+        start.countDown();
+        assertTrue(done.await(30, TimeUnit.SECONDS));
+
+        assertEquals(threads * (adds + 5L), counter.sum());
+    }
+
+    @Test
+    public void snapshotReadsCountersGaugesAndHistograms() {
+        MetricsRegistry registry = new MetricsRegistry();
+        StripedCounter frames = registry.counter("frames.in");
+        assertSame(frames, registry.counter("frames.in"));
+        final long[] depth = {3};
+        registry.gauge("send_queue.pending", new MetricsRegistry.Gauge() {
+            @Override
+            public long get() {
+                return depth[0];
+            }
+        });
+        LatencyHistogram rtt = new LatencyHistogram();
+        registry.register("ping_rtt_ns", rtt);
+
+        frames.add(10);
+        rtt.record(1000);
+        rtt.record(2000);
+        MetricsSnapshot first = registry.snapshot(1);
+
+        frames.add(5);
+        depth[0] = 0;
+        MetricsSnapshot second = registry.snapshot(2);
+
+        // 快照创建后不再变化
+        assertEquals(10, first.getValue("frames.in"));
+        assertEquals(3, first.getValue("send_queue.pending"));
+        assertEquals(15, second.getValue("frames.in"));
+        assertEquals(0, second.getValue("send_queue.pending"));
+        assertEquals(5, second.delta(first, "frames.in"));
+        assertEquals(0, second.getValue("missing"));
+        assertEquals(Arrays.asList("frames.in", "send_queue.pending"), new ArrayList<>(second.getValues().keySet()));
+
+        MetricsSnapshot.Histogram summary = second.getHistogram("ping_rtt_ns");
+        assertEquals(2, summary.count);
+        assertEquals(2000, summary.max);
+        assertTrue(summary.p50 >= 1000 && summary.p99 >= 2000);
+        assertTrue(second.toString().contains("frames.in=15"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsNameRegisteredAsOtherKind() {
+        MetricsRegistry registry = new MetricsRegistry();
+        registry.counter("handshake_ns");
+        registry.histogram("handshake_ns");
+    }
+
+    @Test
+    public void publishNotifiesListeners() {
+        MetricsRegistry registry = new MetricsRegistry();
+        registry.counter("reconnect.total").increment();
+        final List<MetricsSnapshot> received = new ArrayList<>();
+        MetricsRegistry.Listener listener = new MetricsRegistry.Listener() {
+            @Override
+            public void onSnapshot(MetricsSnapshot snapshot) {
+                received.add(snapshot);
+            }
+        };
+        assertNull(registry.getLastSnapshot());
+
+        registry.addListener(listener);
+        MetricsSnapshot published = registry.publish(100);
+        registry.removeListener(listener);
+        registry.publish(200);
+
+        assertEquals(1, received.size());
+        assertSame(published, received.get(0));
+        assertEquals(1, published.getValue("reconnect.total"));
+        assertEquals(200, registry.getLastSnapshot().getTimestamp());
+    }
+}
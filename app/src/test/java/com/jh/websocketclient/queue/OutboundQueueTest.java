@@ -0,0 +1,137 @@
+package com.jh.websocketclient.queue;
+
+import com.jh.websocketclient.codec.Envelope;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * 确认窗口、重连重发和日志恢复，发送用假的 Sender 记录
+ */
+public class OutboundQueueTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void windowLimitsUnackedMessages() throws Exception {
+        RecordingSender sender = new RecordingSender();
+        OutboundQueue queue = newQueue(folder.getRoot(), sender, 2);
+        queue.onConnected(true);
+        for (int i = 1; i <= 5; i++) {
+            assertTrue(queue.offer(Envelope.chat(i, 1, "m" + i)));
+        }
+
+        assertEquals(1, sender.next().getId());
+        assertEquals(2, sender.next().getId());
+        assertNull(sender.sent.poll(200, TimeUnit.MILLISECONDS));// 窗口已满
+        assertEquals(2, queue.getInFlightCount());
+        assertEquals(5, queue.getPendingCount());
+
+        assertTrue(queue.onAck(1, 100));
+        assertFalse(queue.onAck(1, 100));// 重复确认
+        assertEquals(3, sender.next().getId());
+        assertEquals(1, queue.getAckedCount());
+        assertEquals(1, queue.getAckLatency().getCount());
+
+        // 调大窗口后剩下的立即发出
+        queue.setWindowSize(8);
+        assertEquals(4, sender.next().getId());
+        assertEquals(5, sender.next().getId());
+    }
+
+    @Test
+    public void unackedAreRetransmittedAfterReconnectAndKeptInLog() throws Exception {
+        RecordingSender sender = new RecordingSender();
+        OutboundQueue queue = newQueue(folder.getRoot(), sender, 8);
+        final long[] ackedId = new long[1];
+        queue.setOnAckListener(new OutboundQueue.OnAckListener() {
+            @Override
+            public void onAcked(Envelope envelope, long serverSeq) {
+                ackedId[0] = envelope.getId();
+            }
+        });
+        queue.onConnected(true);
+        for (int i = 1; i <= 3; i++) {
+            queue.offer(Envelope.chat(i, 1, "m" + i));
+        }
+        for (int i = 1; i <= 3; i++) {
+            assertEquals(i, sender.next().getId());
+        }
+        assertTrue(queue.onAck(1, 0));
+        assertEquals(1, ackedId[0]);
+
+        // 断线重连：2和3不知道是否送达，按原顺序重发
+        queue.onConnected(true);
+        assertEquals(2, sender.next().getId());
+        assertEquals(3, sender.next().getId());
+        assertEquals(2, queue.getRetransmitCount());
+        assertEquals(2, queue.getPendingCount());
+
+        // 进程重启后从日志恢复的只有未确认的消息
+        RecordingSender restarted = new RecordingSender();
+        OutboundQueue restored = newQueue(folder.getRoot(), restarted, 8);
+        restored.onConnected(false);
+        assertEquals(2, restarted.next().getId());
+        assertEquals(3, restarted.next().getId());
+        assertNull(restarted.sent.poll(200, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void withoutAckMessagesAreDeliveredOnSend() throws Exception {
+        RecordingSender sender = new RecordingSender();
+        OutboundQueue queue = newQueue(folder.getRoot(), sender, 1);
+        queue.onConnected(false);
+        for (int i = 1; i <= 3; i++) {
+            queue.offer(Envelope.chat(i, 1, "m" + i));
+        }
+        for (int i = 1; i <= 3; i++) {
+            assertEquals(i, sender.next().getId());
+        }
+        assertEquals(0, queue.getInFlightCount());
+        assertFalse(queue.onAck(3, 0));
+        // send 返回后工作线程才截断日志，等截断完再模拟重启
+        File log = new File(folder.getRoot(), "frames.log");
+        for (int i = 0; i < 200 && log.length() > 0; i++) {
+            Thread.sleep(10);
+        }
+        assertEquals(0, log.length());
+
+        RecordingSender restarted = new RecordingSender();
+        newQueue(folder.getRoot(), restarted, 1).onConnected(false);
+        assertNull(restarted.sent.poll(200, TimeUnit.MILLISECONDS));
+    }
+
+    private static OutboundQueue newQueue(File dir, RecordingSender sender, int window) {
+        return new OutboundQueue(dir, sender, 100, 1024 * 1024, 10, 64 * 1024, window);
+    }
+
+    private static class RecordingSender implements OutboundQueue.Sender {
+
+        final BlockingQueue<Envelope> sent = new LinkedBlockingQueue<>();
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+
+        @Override
+        public void send(Envelope envelope) {
+            sent.add(envelope);
+        }
+
+        Envelope next() throws InterruptedException {
+            Envelope envelope = sent.poll(2, TimeUnit.SECONDS);
+            assertNotNull("nothing sent", envelope);
+            return envelope;
+        }
+    }
+}
@@ -0,0 +1,193 @@
+package com.jh.websocketclient.queue;
+
+import com.jh.websocketclient.codec.Envelope;
+import com.jh.websocketclient.codec.EnvelopeAssembler;
+
+import org.java_websocket.enums.Opcode;
+import org.java_websocket.framing.Framedata;
+import org.java_websocket.framing.PingFrame;
+import org.junit.After;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * 优先级、拆块和断线处理，写出用假的 Writer 记录顺序
+ */
+public class OutboundSchedulerTest {
+
+    private static final int CHUNK = 16 * 1024;
+
+    private final RecordingWriter writer = new RecordingWriter();
+    private final OutboundScheduler scheduler = new OutboundScheduler(writer, CHUNK, 4);
+
+    @After
+    public void tearDown() {
+        scheduler.shutdown();
+    }
+
+    @Test
+    public void interactiveGoesAheadOfQueuedBulk() throws Exception {
+        for (int i = 0; i < 10; i++) {
+            scheduler.submit(TrafficClass.BULK, Envelope.chat(i + 1, 1, repeat('b', CHUNK)));
+        }
+        scheduler.submit(TrafficClass.INTERACTIVE, Envelope.chat(100, 1, "hello"));
+        scheduler.submitControl(new PingFrame());
+        writer.open = true;
+        scheduler.onConnected();
+
+        assertEquals(Opcode.PING, ((Framedata) writer.next()).getOpcode());
+        assertEquals(100, ((Envelope) writer.next()).getId());
+        for (int i = 0; i < 10; i++) {
+            assertEquals(i + 1, ((Envelope) writer.next()).getId());
+        }
+        assertEquals(1, scheduler.getQueueLatency(TrafficClass.INTERACTIVE).getCount());
+        assertEquals(10, scheduler.getSentCount(TrafficClass.BULK));
+        assertTrue(scheduler.report().contains("interactive: n=1"));
+    }
+
+    @Test
+    public void bulkEnvelopeIsChunkedAndChatInterleaves() throws Exception {
+        final String big = repeat('x', 2 * CHUNK + 100);
+        writer.open = true;
+        writer.onFirstWrite = new Runnable() {
+            @Override
+            public void run() {
+                scheduler.submit(TrafficClass.INTERACTIVE, Envelope.chat(7, 1, "typed"));
+            }
+        };
+        scheduler.submit(TrafficClass.BULK, Envelope.chat(1, 1, big));
+
+        Envelope first = (Envelope) writer.next();
+        assertEquals(0, first.getPart());
+        assertEquals(3, first.getParts());
+        assertEquals("typed", ((Envelope) writer.next()).getContent());
+
+        EnvelopeAssembler assembler = new EnvelopeAssembler(4, 1024 * 1024);
+        assertNull(assembler.offer(first));
+        assertNull(assembler.offer((Envelope) writer.next()));
+        Envelope whole = assembler.offer((Envelope) writer.next());
+        assertEquals(big, whole.getContent());
+        assertFalse(whole.isChunk());
+    }
+
+    @Test
+    public void onlyControlFramesInterleaveWithFragments() throws Exception {
+        ByteBuffer payload = ByteBuffer.allocate(2 * CHUNK + 1);
+        final CountDownLatch completed = new CountDownLatch(1);
+        writer.open = true;
+        writer.onFirstWrite = new Runnable() {
+            @Override
+            public void run() {
+                scheduler.submit(TrafficClass.INTERACTIVE, Envelope.chat(7, 1, "typed"));
+                scheduler.submitControl(new PingFrame());
+            }
+        };
+        scheduler.submitMessage(TrafficClass.BULK, payload, true, new Runnable() {
+            @Override
+            public void run() {
+                completed.countDown();
+            }
+        });
+
+        Framedata first = (Framedata) writer.next();
+        assertEquals(Opcode.BINARY, first.getOpcode());
+        assertFalse(first.isFin());
+        assertEquals(Opcode.PING, ((Framedata) writer.next()).getOpcode());
+        assertEquals(Opcode.CONTINUOUS, ((Framedata) writer.next()).getOpcode());
+        Framedata last = (Framedata) writer.next();
+        assertTrue(last.isFin());
+        assertEquals(1, last.getPayloadData().remaining());
+        assertTrue(completed.await(5, TimeUnit.SECONDS));
+        // 数据消息等分片消息写完
+        assertEquals("typed", ((Envelope) writer.next()).getContent());
+    }
+
+    @Test
+    public void disconnectDropsFramesAndPartialChunksButKeepsEnvelopes() throws Exception {
+        final CountDownLatch dropped = new CountDownLatch(1);
+        writer.open = true;
+        writer.onFirstWrite = new Runnable() {
+            @Override
+            public void run() {
+                writer.open = false;// 写完第一块后断开
+            }
+        };
+        scheduler.submit(TrafficClass.BULK, Envelope.chat(1, 1, repeat('x', 3 * CHUNK)));
+        assertEquals(0, ((Envelope) writer.next()).getPart());
+        scheduler.submit(TrafficClass.BULK, Envelope.chat(2, 1, "small bulk"));
+        scheduler.submit(TrafficClass.INTERACTIVE, Envelope.chat(3, 1, "chat"));
+        scheduler.submitMessage(TrafficClass.BULK, ByteBuffer.allocate(10), true, new Runnable() {
+            @Override
+            public void run() {
+                dropped.countDown();
+            }
+        });
+
+        scheduler.onDisconnected();
+        assertTrue(dropped.await(5, TimeUnit.SECONDS));
+        assertEquals(3, scheduler.getDroppedCount());// 剩下的两块 + 二进制消息
+
+        writer.open = true;
+        scheduler.onConnected();
+        assertEquals(3, ((Envelope) writer.next()).getId());
+        assertEquals(2, ((Envelope) writer.next()).getId());
+        assertNull(writer.written.poll(100, TimeUnit.MILLISECONDS));
+    }
+
+    private static String repeat(char c, int count) {
+        StringBuilder builder = new StringBuilder(count);
+        for (int i = 0; i < count; i++) {
+            builder.append(c);
+        }
+        return builder.toString();
+    }
+
+    private static class RecordingWriter implements OutboundScheduler.Writer {
+        final BlockingQueue<Object> written = new LinkedBlockingQueue<>();
+        volatile boolean open;
+        volatile Runnable onFirstWrite;
+
+        Object next() throws InterruptedException {
+            Object item = written.poll(5, TimeUnit.SECONDS);
+            assertNotNull(item);
+            return item;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return open;
+        }
+
+        @Override
+        public int getBufferedFrames() {
+            return 0;
+        }
+
+        @Override
+        public void write(Envelope envelope) {
+            record(envelope);
+        }
+
+        @Override
+        public void write(Framedata frame) {
+            record(frame);
+        }
+
+        private void record(Object item) {
+            // 先回调再记录，测试线程看到第一条时回调已经完成
+            Runnable callback = onFirstWrite;
+            if (callback != null) {
+                onFirstWrite = null;
+                callback.run();
+            }
+            written.add(item);
+        }
+    }
+}
@@ -0,0 +1,219 @@
+package com.jh.websocketclient.store;
+
+import com.jh.websocketclient.codec.BinaryCodec;
+import com.jh.websocketclient.codec.CodecException;
+import com.jh.websocketclient.codec.Envelope;
+
+import org.java_websocket.client.WebSocketClient;
+import org.java_websocket.handshake.ServerHandshake;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * 对接本地的补齐服务器替身，断线期间产生不同数量的消息，检查只补齐缺少的部分且不重复
+ */
+public class DeltaSyncTest {
+
+    private static final int BATCH = 50;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private ReplayServer server;
+    private SyncClient client;
+    // 读线程上抛出的异常，库只会交给 onError，不记下来测试看不到
+    private final List<Exception> clientErrors = new CopyOnWriteArrayList<>();
+    private File cursorFile;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new ReplayServer();
+        server.start();
+        assertTrue(server.started.await(5, TimeUnit.SECONDS));
+        cursorFile = new File(folder.getRoot(), "sync.cursor");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (client != null) {
+            client.closeBlocking();
+        }
+        server.stop(1000);
+        if (!clientErrors.isEmpty()) {
+            throw new AssertionError("exception on the client read thread", clientErrors.get(0));
+        }
+    }
+
+    @Test
+    public void replaysOnlyTheGap() throws Exception {
+        server.append(10);
+        // 第一次连接没有游标，不拉历史，只收实时消息
+        RecordingSink sink = new RecordingSink();
+        DeltaSync sync = new DeltaSync(new SyncCursor(cursorFile), sink, BATCH);
+        connect(sync);
+        server.append(5);
+        awaitApplied(sink, 5);
+        assertEquals(15, sync.getCursor());
+        assertFalse(sink.replayedBatch);
+        disconnect();
+
+        long expectedCursor = 15;
+        for (int gap : new int[]{0, 1, BATCH, 137, 5000}) {
+            server.append(gap);
+            // 每次重连都重新读游标文件，相当于进程重启
+            sink = new RecordingSink();
+            sync = new DeltaSync(new SyncCursor(cursorFile), sink, BATCH);
+            connect(sync);
+            assertEquals(Long.valueOf(expectedCursor), server.syncRequests.poll(5, TimeUnit.SECONDS));
+            awaitSynced(sync, 1);
+
+            assertEquals(gap, sink.ids.size());
+            for (int i = 0; i < gap; i++) {
+                assertEquals(1000000 + expectedCursor + 1 + i, (long) sink.ids.get(i));
+            }
+            assertEquals((gap + BATCH - 1) / BATCH, sink.batches);
+            assertEquals(gap, sync.getLastGap());
+            expectedCursor += gap;
+            assertEquals(expectedCursor, sync.getCursor());
+            disconnect();
+        }
+    }
+
+    @Test
+    public void interruptedReplayResumesWithoutDuplicates() throws Exception {
+        RecordingSink sink = new RecordingSink();
+        DeltaSync sync = new DeltaSync(new SyncCursor(cursorFile), sink, BATCH);
+        connect(sync);
+        server.append(1);
+        awaitApplied(sink, 1);
+        disconnect();
+
+        server.append(500);
+        server.overlap = 20;
+        server.dropAfter = 200;
+        server.liveAt = 100;
+        connect(sync);
+        for (int i = 0; i < 100 && !client.isClosed(); i++) {
+            Thread.sleep(50);
+        }
+        assertTrue("server should drop the connection", client.isClosed());
+        assertTrue(server.closed.tryAcquire(5, TimeUnit.SECONDS));
+        assertEquals(1, sync.getCursor());// 补齐没有完成，游标不动
+        int appliedBeforeDrop = sink.ids.size();
+        assertTrue(appliedBeforeDrop > 0);
+
+        connect(sync);
+        awaitSynced(sync, 1);
+        // 最初的1条实时消息 + 500条补齐 + 1条插在中间的实时消息，每条恰好一次
+        assertEquals(server.head(), sync.getCursor());
+        assertEquals(502, sink.ids.size());
+        assertEquals(502, new HashSet<>(sink.ids).size());
+        assertTrue(sync.getDuplicateCount() >= appliedBeforeDrop);
+    }
+
+    private void connect(DeltaSync sync) throws Exception {
+        client = new SyncClient(new URI("ws://127.0.0.1:" + server.getPort()), sync, clientErrors);
+        assertTrue(client.connectBlocking(5, TimeUnit.SECONDS));
+        // 等服务端也认为连上了，之后产生的消息会实时推送
+        assertTrue(server.opened.tryAcquire(5, TimeUnit.SECONDS));
+    }
+
+    private void disconnect() throws Exception {
+        client.closeBlocking();
+        assertTrue(server.closed.tryAcquire(5, TimeUnit.SECONDS));
+    }
+
+    private static void awaitSynced(DeltaSync sync, long count) throws InterruptedException {
+        for (int i = 0; i < 200 && sync.getSyncCount() < count; i++) {
+            Thread.sleep(25);
+        }
+        assertEquals(count, sync.getSyncCount());
+    }
+
+    private static void awaitApplied(RecordingSink sink, int count) throws InterruptedException {
+        for (int i = 0; i < 200 && sink.ids.size() < count; i++) {
+            Thread.sleep(25);
+        }
+        assertEquals(count, sink.ids.size());
+    }
+
+    private static class RecordingSink implements DeltaSync.Sink {
+
+        final List<Long> ids = Collections.synchronizedList(new ArrayList<Long>());
+        volatile int batches;
+        volatile boolean replayedBatch;
+
+        @Override
+        public void apply(List<Envelope> batch, boolean replayed) {
+            assertTrue(batch.size() <= BATCH);
+            for (Envelope envelope : batch) {
+                ids.add(envelope.getId());
+            }
+            if (replayed) {
+                batches++;
+                replayedBatch = true;
+            }
+        }
+    }
+
+    /**
+     * 按 MyWebSocketClient 的顺序调用 DeltaSync
+     */
+    private static class SyncClient extends WebSocketClient {
+
+        private final DeltaSync sync;
+        private final List<Exception> errors;
+
+        SyncClient(URI uri, DeltaSync sync, List<Exception> errors) {
+            super(uri);
+            this.sync = sync;
+            this.errors = errors;
+        }
+
+        @Override
+        public void onOpen(ServerHandshake handshake) {
+            Envelope request = sync.onConnected();
+            if (request != null) {
+                send(BinaryCodec.getInstance().encode(request));
+            }
+        }
+
+        @Override
+        public void onMessage(ByteBuffer bytes) {
+            try {
+                sync.onEnvelope(BinaryCodec.getInstance().decode(bytes));
+            } catch (CodecException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        @Override
+        public void onMessage(String message) {
+        }
+
+        @Override
+        public void onClose(int code, String reason, boolean remote) {
+            sync.onDisconnected();
+        }
+
+        @Override
+        public void onError(Exception ex) {
+            errors.add(ex);
+        }
+    }
+}
@@ -0,0 +1,128 @@
+package com.jh.websocketclient.store;
+
+import com.jh.websocketclient.codec.BinaryCodec;
+import com.jh.websocketclient.codec.CodecException;
+import com.jh.websocketclient.codec.Envelope;
+
+import org.java_websocket.WebSocket;
+import org.java_websocket.handshake.ClientHandshake;
+import org.java_websocket.server.WebSocketServer;
+
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+
+/**
+ * 本地的补齐服务器替身：保存全部历史（第 i 条的序号是 i+1），连接上时实时推送新消息，
+ * 收到 TYPE_SYNC 后按序号顺序重放游标之后的消息，最后发 TYPE_SYNC_DONE
+ * <p>
+ * overlap、dropAfter、liveAt 用来模拟重复推送、补齐中途断开和实时消息插在补齐中间。
+ */
+class ReplayServer extends WebSocketServer {
+
+    final CountDownLatch started = new CountDownLatch(1);
+    final BlockingQueue<Long> syncRequests = new LinkedBlockingQueue<>();
+    final Semaphore opened = new Semaphore(0);
+    final Semaphore closed = new Semaphore(0);
+
+    private final List<Envelope> history = new ArrayList<>();
+    private WebSocket live;
+
+    int overlap;// 重放时从游标之前多少条开始
+    int dropAfter = -1;// 重放到第几条时断开连接，只生效一次
+    int liveAt = -1;// 重放到第几条时插入一条实时消息，只生效一次
+
+    ReplayServer() {
+        super(new InetSocketAddress("127.0.0.1", 0));
+        setReuseAddr(true);
+    }
+
+    /**
+     * 产生 count 条新消息，有连接时实时推送
+     */
+    synchronized void append(int count) {
+        for (int i = 0; i < count; i++) {
+            Envelope envelope = newMessage();
+            if (live != null && live.isOpen()) {
+                live.send(BinaryCodec.getInstance().encode(envelope));
+            }
+        }
+    }
+
+    synchronized long head() {
+        return history.size();
+    }
+
+    private Envelope newMessage() {
+        long seq = history.size() + 1;
+        Envelope envelope = new Envelope(Envelope.TYPE_CHAT, null, 1000000 + seq, seq, "server",
+                System.currentTimeMillis(), "m" + seq);
+        history.add(envelope);
+        return envelope;
+    }
+
+    @Override
+    public synchronized void onMessage(WebSocket conn, ByteBuffer message) {
+        Envelope request;
+        try {
+            request = BinaryCodec.getInstance().decode(message);
+        } catch (CodecException e) {
+            throw new IllegalStateException(e);
+        }
+        if (request.getType() != Envelope.TYPE_SYNC) {
+            return;
+        }
+        syncRequests.add(request.getSeq());
+        int from = (int) Math.max(0, request.getSeq() - overlap);
+        int sent = 0;
+        for (int i = from; i < history.size(); i++) {
+            if (sent == dropAfter) {
+                dropAfter = -1;
+                conn.close();
+                return;
+            }
+            if (sent == liveAt) {
+                liveAt = -1;
+                newMessage();// 加在末尾，稍后随重放一起发出
+                conn.send(BinaryCodec.getInstance().encode(history.get(history.size() - 1)));
+            }
+            conn.send(BinaryCodec.getInstance().encode(history.get(i)));
+            sent++;
+        }
+        conn.send(BinaryCodec.getInstance().encode(
+                new Envelope(Envelope.TYPE_SYNC_DONE, null, 0, history.size(), null, 0, null)));
+    }
+
+    @Override
+    public void onMessage(WebSocket conn, String message) {
+    }
+
+    @Override
+    public synchronized void onOpen(WebSocket conn, ClientHandshake handshake) {
+        live = conn;
+        opened.release();
+    }
+
+    @Override
+    public synchronized void onClose(WebSocket conn, int code, String reason, boolean remote) {
+        if (live == conn) {
+            live = null;
+        }
+        closed.release();
+    }
+
+    @Override
+    public void onError(WebSocket conn, Exception ex) {
+        ex.printStackTrace();
+    }
+
+    @Override
+    public void onStart() {
+        started.countDown();
+    }
+}
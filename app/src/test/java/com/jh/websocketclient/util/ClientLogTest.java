@@ -0,0 +1,137 @@
+package com.jh.websocketclient.util;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * 级别过滤、延迟格式化、截断、抽样和缓冲区满时丢弃
+ */
+public class ClientLogTest {
+
+    private static class RecordingSink implements ClientLog.Sink {
+        final List<String> lines = Collections.synchronizedList(new ArrayList<String>());
+        final List<Thread> threads = Collections.synchronizedList(new ArrayList<Thread>());
+
+        @Override
+        public void write(int level, String tag, String message, Throwable error) {
+            lines.add(level + "/" + tag + ": " + message + (error == null ? "" : " " + error.getMessage()));
+            threads.add(Thread.currentThread());
+        }
+    }
+
+    private static class CountingArg {
+        final AtomicInteger formatted = new AtomicInteger();
+
+        @Override
+        public String toString() {
+            formatted.incrementAndGet();
+            return "arg";
+        }
+    }
+
+    @After
+    public void tearDown() {
+        ClientLog.install(new RecordingSink(), ClientLog.NONE, 16, 16);
+    }
+
+    @Test
+    public void formatsOnWriterThreadAndTruncates() throws Exception {
+        RecordingSink sink = new RecordingSink();
+        ClientLog.install(sink, ClientLog.DEBUG, 64, 8);
+        ClientLog log = ClientLog.get("T");
+
+        log.d("a={} b={} c={}", 1, "xy", null);
+        log.d("payload {}", "0123456789abcdef");
+        log.e("no args {}");
+        log.e("failed", new IllegalStateException("boom"));
+        log.w("only {} used", "one", "two");
+        assertTrue(ClientLog.flush(5000));
+
+        assertEquals(Arrays.asList(
+                "3/T: a=1 b=xy c=null",
+                "3/T: payload 01234567...(16 chars)",
+                "6/T: no args {}",
+                "6/T: failed boom",
+                "5/T: only one used"), sink.lines);
+        for (Thread thread : sink.threads) {
+            assertEquals("ws-log", thread.getName());
+        }
+        assertEquals(5, ClientLog.getWrittenCount());
+    }
+
+    @Test
+    public void levelGateSkipsFormatting() throws Exception {
+        RecordingSink sink = new RecordingSink();
+        ClientLog.install(sink, ClientLog.WARN, 64, 64);
+        ClientLog log = ClientLog.get("T");
+        CountingArg arg = new CountingArg();
+
+        assertFalse(log.isDebug());
+        for (int i = 0; i < 1000; i++) {
+            log.d("frame {}", arg);
+        }
+        log.w("warn {}", arg);
+        assertTrue(ClientLog.flush(5000));
+
+        assertEquals(1, arg.formatted.get());
+        assertEquals(Collections.singletonList("5/T: warn arg"), sink.lines);
+    }
+
+    @Test
+    public void sampledLogsEveryNth() throws Exception {
+        RecordingSink sink = new RecordingSink();
+        ClientLog.install(sink, ClientLog.DEBUG, 64, 64);
+        ClientLog.Sampled frames = ClientLog.get("T").sampled(10);
+
+        for (int i = 0; i < 25; i++) {
+            frames.d("frame {} every {}", i);
+        }
+        assertTrue(ClientLog.flush(5000));
+
+        assertEquals(Arrays.asList("3/T: frame 0 every 10", "3/T: frame 10 every 10", "3/T: frame 20 every 10"),
+                sink.lines);
+        assertEquals(25, frames.getCount());
+    }
+
+    @Test
+    public void dropsWhenWriterFallsBehind() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicInteger written = new AtomicInteger();
+        ClientLog.install(new ClientLog.Sink() {
+            @Override
+            public void write(int level, String tag, String message, Throwable error) {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                written.incrementAndGet();
+            }
+        }, ClientLog.DEBUG, 16, 64);
+        ClientLog log = ClientLog.get("T");
+
+        // 写线程卡住时调用方不阻塞，超出缓冲区的丢弃
+        long start = System.nanoTime();
+        for (int i = 0; i < 1000; i++) {
+            log.d("line {}", i);
+        }
+        assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(1));
+        release.countDown();
+        assertTrue(ClientLog.flush(5000));
+
+        assertEquals(1000, written.get() + ClientLog.getDroppedCount());
+        // 写线程最多取走一批，缓冲区里最多留16条
+        assertTrue("written " + written.get(), written.get() <= 16 + 64);
+        assertTrue(ClientLog.getDroppedCount() > 0);
+    }
+}
@@ -0,0 +1,92 @@
+package com.jh.websocketclient.util;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * 精确集合、布隆过滤器的两代轮换和误判率
+ */
+public class SeenIdFilterTest {
+
+    private static final long WINDOW = 60 * 1000;
+
+    @Test
+    public void recentDuplicatesAreExact() {
+        SeenIdFilter filter = new SeenIdFilter(128, 1024, 24, WINDOW);
+        for (long id = 1; id <= 100; id++) {
+            assertTrue(filter.add(id, 0));
+        }
+        for (long id = 1; id <= 100; id++) {
+            assertFalse(filter.add(id, 0));
+        }
+        assertTrue(filter.add(0, 0));// 没有id的消息不去重
+        assertTrue(filter.add(0, 0));
+        assertEquals(100, filter.getAddedCount());
+        assertEquals(100, filter.getExactDuplicateCount());
+        assertEquals(0, filter.getProbableDuplicateCount());
+    }
+
+    @Test
+    public void evictedIdsAreStillRecognized() {
+        SeenIdFilter filter = new SeenIdFilter(16, 1024, 24, WINDOW);
+        for (long id = 1; id <= 500; id++) {
+            assertTrue(filter.add(id, 0));
+        }
+        // 只有最近16个在精确集合里，更早的由布隆过滤器识别
+        for (long id = 1; id <= 500; id++) {
+            assertFalse(filter.add(id, 0));
+        }
+        assertEquals(16, filter.getExactDuplicateCount());
+        assertEquals(484, filter.getProbableDuplicateCount());
+    }
+
+    @Test
+    public void memoryIsBoundedAndOldGenerationsAreForgotten() {
+        SeenIdFilter filter = new SeenIdFilter(16, 256, 24, WINDOW);
+        long memory = filter.getMemoryBytes();
+        for (long id = 1; id <= 100000; id++) {
+            filter.add(id, 0);
+        }
+        assertEquals(memory, filter.getMemoryBytes());
+        assertTrue(filter.getRotationCount() > 100);
+        // 远早于最近两代的id已经忘掉
+        assertTrue(filter.add(1, 0));
+        assertFalse(filter.add(100000, 0));
+    }
+
+    @Test
+    public void generationsRotateByTime() {
+        SeenIdFilter filter = new SeenIdFilter(4, 1024, 24, WINDOW);
+        for (long id = 1; id <= 20; id++) {
+            filter.add(id, 0);
+        }
+        assertFalse(filter.add(1, WINDOW));// 上一代还在
+        filter.add(1000, 2 * WINDOW);
+        assertTrue(filter.add(1, 2 * WINDOW));// 两个窗口之后忘掉
+        assertFalse(filter.add(20, 2 * WINDOW));// 精确集合不按时间过期
+    }
+
+    @Test
+    public void falsePositiveRateMatchesEstimate() {
+        SeenIdFilter filter = new SeenIdFilter(1024, 64 * 1024, 8, Long.MAX_VALUE / 4);
+        Random random = new Random(42);
+        for (int i = 0; i < 64 * 1024 + 1024 - 1; i++) {
+            filter.add(random.nextLong() | 1, 0);
+        }
+        double estimate = filter.getEstimatedFalsePositiveRate();
+        int falsePositives = 0;
+        int probes = 200000;
+        for (int i = 0; i < probes; i++) {
+            if (!filter.add(random.nextLong() | 1, 0)) {
+                falsePositives++;
+            }
+        }
+        double observed = (double) falsePositives / probes;
+        // 8位每个id，理论误判率约2%
+        assertTrue("estimate " + estimate, estimate > 0.001 && estimate < 0.05);
+        assertTrue("observed " + observed + " estimate " + estimate, observed < estimate * 3 + 0.001);
+    }
+}
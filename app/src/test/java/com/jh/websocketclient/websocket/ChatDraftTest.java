@@ -0,0 +1,155 @@
+package com.jh.websocketclient.websocket;
+
+import org.java_websocket.WebSocketImpl;
+import org.java_websocket.client.WebSocketClient;
+import org.java_websocket.exceptions.InvalidDataException;
+import org.java_websocket.exceptions.LimitExceededException;
+import org.java_websocket.framing.BinaryFrame;
+import org.java_websocket.framing.ContinuousFrame;
+import org.java_websocket.framing.DataFrame;
+import org.java_websocket.framing.TextFrame;
+import org.java_websocket.handshake.ServerHandshake;
+import org.java_websocket.protocols.IProtocol;
+import org.java_websocket.protocols.Protocol;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * 分片的二进制消息拼接到复用的缓冲区里，交给 onMessage 的是只读视图
+ */
+public class ChatDraftTest {
+
+    private static final int MAX_MESSAGE_SIZE = 256 * 1024;
+
+    private ChatDraft draft;
+    private WebSocketImpl connection;
+    // 回调时拿到的视图，和回调时拷贝出的内容
+    private final List<ByteBuffer> views = new ArrayList<>();
+    private final List<byte[]> contents = new ArrayList<>();
+    private final List<String> texts = new ArrayList<>();
+
+    @Before
+    public void setUp() {
+        draft = new ChatDraft(new PerMessageDeflateExtension(128, true, MAX_MESSAGE_SIZE),
+                Collections.<IProtocol>singletonList(new Protocol("")), MAX_MESSAGE_SIZE);
+        // 只用它的 WebSocketImpl 把消息转回 onMessage，不连接
+        WebSocketClient client = new WebSocketClient(URI.create("ws://localhost:1"), draft) {
+            @Override
+            public void onOpen(ServerHandshake handshakedata) {
+            }
+
+            @Override
+            public void onMessage(String message) {
+                texts.add(message);
+            }
+
+            @Override
+            public void onMessage(ByteBuffer bytes) {
+                views.add(bytes);
+                byte[] copy = new byte[bytes.remaining()];
+                bytes.duplicate().get(copy);
+                contents.add(copy);
+            }
+
+            @Override
+            public void onClose(int code, String reason, boolean remote) {
+            }
+
+            @Override
+            public void onError(Exception ex) {
+            }
+        };
+        connection = (WebSocketImpl) client.getConnection();
+    }
+
+    private static byte[] bytes(int length, int seed) {
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            bytes[i] = (byte) (i * 31 + seed);
+        }
+        return bytes;
+    }
+
+    private static DataFrame frame(DataFrame frame, byte[] payload, int from, int to, boolean fin) {
+        frame.setPayload(ByteBuffer.wrap(Arrays.copyOfRange(payload, from, to)));
+        frame.setFin(fin);
+        return frame;
+    }
+
+    private void sendFragmented(byte[] message, int fragments) throws InvalidDataException {
+        int step = message.length / fragments;
+        for (int i = 0; i < fragments; i++) {
+            int from = i * step;
+            int to = i == fragments - 1 ? message.length : from + step;
+            DataFrame frame = i == 0 ? new BinaryFrame() : new ContinuousFrame();
+            draft.processFrame(connection, frame(frame, message, from, to, i == fragments - 1));
+        }
+    }
+
+    @Test
+    public void reassemblesFragmentsIntoReusedBuffer() throws Exception {
+        byte[] first = bytes(3000, 1);
+        byte[] second = bytes(2000, 7);
+
+        sendFragmented(first, 3);
+        sendFragmented(second, 4);
+
+        assertEquals(2, contents.size());
+        assertArrayEquals(first, contents.get(0));
+        assertArrayEquals(second, contents.get(1));
+        assertTrue(views.get(0).isReadOnly());
+        // 第一条的视图已经被第二条覆盖：数据只在回调期间有效
+        assertEquals(second[0], views.get(0).get(0));
+    }
+
+    @Test
+    public void growsBeyondInitialCapacity() throws Exception {
+        byte[] big = bytes(200 * 1024, 3);
+        sendFragmented(big, 10);
+        byte[] small = bytes(100, 5);
+        sendFragmented(small, 2);
+
+        assertArrayEquals(big, contents.get(0));
+        assertArrayEquals(small, contents.get(1));
+    }
+
+    @Test
+    public void unfragmentedMessagesGoThroughLibrary() throws Exception {
+        byte[] single = bytes(500, 9);
+        draft.processFrame(connection, frame(new BinaryFrame(), single, 0, single.length, true));
+        TextFrame text = new TextFrame();
+        text.setPayload(ByteBuffer.wrap("你好".getBytes("UTF-8")));
+        text.setFin(true);
+        draft.processFrame(connection, text);
+
+        assertArrayEquals(single, contents.get(0));
+        assertEquals(Collections.singletonList("你好"), texts);
+    }
+
+    @Test(expected = LimitExceededException.class)
+    public void rejectsMessagesOverMaxSize() throws Exception {
+        sendFragmented(bytes(MAX_MESSAGE_SIZE + 1, 0), 4);
+    }
+
+    @Test
+    public void rejectsNewMessageBeforePreviousCompletes() throws Exception {
+        byte[] message = bytes(1000, 2);
+        draft.processFrame(connection, frame(new BinaryFrame(), message, 0, 500, false));
+        try {
+            draft.processFrame(connection, frame(new BinaryFrame(), message, 500, 1000, true));
+            fail("expected protocol error");
+        } catch (InvalidDataException e) {
+            assertFalse(e instanceof LimitExceededException);
+        }
+        assertTrue(contents.isEmpty());
+    }
+}
@@ -0,0 +1,202 @@
+package com.jh.websocketclient.websocket;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import static org.junit.Assert.*;
+
+/**
+ * 多个发送线程和连接、断开线程同时运行
+ */
+public class ConnectionManagerTest {
+
+    private static class FakeConnection {
+        final AtomicInteger disposeCount = new AtomicInteger();
+        final AtomicLong sent = new AtomicLong();
+
+        void send() {
+            if (disposeCount.get() > 0) {
+                throw new IllegalStateException("closed");
+            }
+            sent.incrementAndGet();
+        }
+    }
+
+    private static class FakeFactory implements ConnectionManager.Disposer<FakeConnection> {
+        final List<FakeConnection> created = new CopyOnWriteArrayList<>();
+
+        FakeConnection create() {
+            FakeConnection connection = new FakeConnection();
+            created.add(connection);
+            return connection;
+        }
+
+        @Override
+        public void dispose(FakeConnection connection) {
+            connection.disposeCount.incrementAndGet();
+        }
+    }
+
+    @Test
+    public void replaceOnlySucceedsFromExpected() {
+        FakeFactory factory = new FakeFactory();
+        ConnectionManager<FakeConnection> manager = new ConnectionManager<>(factory);
+
+        FakeConnection first = factory.create();
+        assertTrue(manager.replace(null, first));
+        assertTrue(manager.isCurrent(first));
+        // 别人已经换过了，带来的连接直接释放
+        FakeConnection late = factory.create();
+        assertFalse(manager.replace(null, late));
+        assertEquals(1, late.disposeCount.get());
+        assertEquals(1, manager.getLostRaceCount());
+
+        FakeConnection second = factory.create();
+        assertTrue(manager.replace(first, second));
+        assertEquals(1, first.disposeCount.get());
+        assertFalse(manager.isCurrent(first));
+
+        assertSame(second, manager.clear());
+        assertNull(manager.get());
+        assertEquals(1, second.disposeCount.get());
+        assertNull(manager.clear());
+        assertEquals(2, manager.getReplacedCount());
+        assertEquals(3, manager.getDisposedCount());
+    }
+
+    @Test
+    public void sendersRacingConnectAndClose() throws Exception {
+        final FakeFactory factory = new FakeFactory();
+        final ConnectionManager<FakeConnection> manager = new ConnectionManager<>(factory);
+        final int senders = 16;
+        final int connectors = 4;
+        final int closers = 2;
+        final long runMillis = 1000;
+
+        final AtomicBoolean stop = new AtomicBoolean();
+        final AtomicLong sendAttempts = new AtomicLong();
+        final AtomicLong sentCount = new AtomicLong();
+        final AtomicLong rejectedCount = new AtomicLong();
+        final AtomicLong noConnectionCount = new AtomicLong();
+        final AtomicLong replaced = new AtomicLong();
+        final AtomicLong replaceCalls = new AtomicLong();
+        final List<Throwable> errors = Collections.synchronizedList(new ArrayList<Throwable>());
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(senders + connectors + closers);
+
+        for (int i = 0; i < senders; i++) {
+            new Thread(new Worker(start, done, stop, errors) {
+                @Override
+                void step() {
+                    sendAttempts.incrementAndGet();
+                    FakeConnection connection = manager.get();
+                    if (connection == null) {
+                        noConnectionCount.incrementAndGet();
+                        Thread.yield();
+                        return;
+                    }
+                    try {
+                        connection.send();
+                        sentCount.incrementAndGet();
+                    } catch (IllegalStateException e) {
+                        // 读到之后被替换关闭，和库抛出未连接异常一样
+                        rejectedCount.incrementAndGet();
+                    }
+                }
+            }).start();
+        }
+        for (int i = 0; i < connectors; i++) {
+            new Thread(new Worker(start, done, stop, errors) {
+                @Override
+                void step() {
+                    replaceCalls.incrementAndGet();
+                    if (manager.replace(manager.get(), factory.create())) {
+                        replaced.incrementAndGet();
+                    }
+                }
+            }).start();
+        }
+        for (int i = 0; i < closers; i++) {
+            new Thread(new Worker(start, done, stop, errors) {
+                @Override
+                void step() {
+                    manager.clear();
+                    LockSupport.parkNanos(1000000);
+                }
+            }).start();
+        }
+
+        start.countDown();
+        // 至少跑 runMillis，并且成功发出足够多的消息（单核机器上发送线程可能很久才轮到）
+        long deadline = System.currentTimeMillis() + 20 * runMillis;
+        Thread.sleep(runMillis);
+        while (sentCount.get() < 10000 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        stop.set(true);
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        assertTrue(errors.toString(), errors.isEmpty());
+
+        // 每个连接要么是最后留下的当前连接，要么正好被释放一次
+        FakeConnection last = manager.get();
+        long sentTotal = 0;
+        for (FakeConnection connection : factory.created) {
+            sentTotal += connection.sent.get();
+            if (connection == last) {
+                assertEquals(0, connection.disposeCount.get());
+            } else {
+                assertEquals(1, connection.disposeCount.get());
+            }
+        }
+        assertEquals(factory.created.size(), manager.getReplacedCount() + manager.getLostRaceCount());
+        assertEquals(factory.created.size(), manager.getDisposedCount() + (last != null ? 1 : 0));
+        assertEquals(replaced.get(), manager.getReplacedCount());
+        assertEquals(replaceCalls.get(), replaced.get() + manager.getLostRaceCount());
+        // 发送成功的都记在某一个连接上
+        assertEquals(sentCount.get(), sentTotal);
+        assertTrue(sentCount.get() >= 10000);
+        // 每次发送要么成功，要么被拒绝，要么没有连接
+        assertEquals(sendAttempts.get(), sentCount.get() + rejectedCount.get() + noConnectionCount.get());
+        assertTrue(replaced.get() > 0);
+    }
+
+    private abstract static class Worker implements Runnable {
+        private final CountDownLatch start;
+        private final CountDownLatch done;
+        private final AtomicBoolean stop;
+        private final List<Throwable> errors;
+
+        Worker(CountDownLatch start, CountDownLatch done, AtomicBoolean stop, List<Throwable> errors) {
+            this.start = start;
+            this.done = done;
+            this.stop = stop;
+            this.errors = errors;
+        }
+
+        abstract void step();
+
+        @Override
+        public void run() {
+            try {
+                start.await();
+                while (!stop.get()) {
+                    step();
+                }
+            } catch (Throwable t) {
+                errors.add(t);
+            } finally {
+                done.countDown();
+            }
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package com.jh.websocketclient.websocket;
+
+import com.jh.websocketclient.event.ConnectionState;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * 状态切换的通知、条件切换和转换次数
+ */
+public class ConnectionStateMachineTest {
+
+    private final List<String> changes = new ArrayList<>();
+    private ConnectionStateMachine machine;
+
+    @Before
+    public void setUp() {
+        machine = new ConnectionStateMachine(new ConnectionStateMachine.OnStateChangedListener() {
+            @Override
+            public void onStateChanged(ConnectionState from, ConnectionState to) {
+                changes.add(from + "->" + to);
+            }
+        });
+    }
+
+    @Test
+    public void startsClosedAndNotifiesChanges() {
+        assertEquals(ConnectionState.CLOSED, machine.getState());
+
+        machine.moveTo(ConnectionState.CONNECTING);
+        machine.moveTo(ConnectionState.CONNECTING);// 状态没变，不通知
+        machine.moveTo(ConnectionState.OPEN);
+
+        assertEquals(ConnectionState.OPEN, machine.getState());
+        assertEquals(Arrays.asList("CLOSED->CONNECTING", "CONNECTING->OPEN"), changes);
+    }
+
+    @Test
+    public void conditionalMoveOnlyFromExpectedState() {
+        assertTrue(machine.moveTo(ConnectionState.CLOSED, ConnectionState.CONNECTING));
+        // 已经在连接中，重复的 toConnect 不再切换
+        assertFalse(machine.moveTo(ConnectionState.CLOSED, ConnectionState.CONNECTING));
+        // 目标状态和当前状态相同也算失败
+        assertFalse(machine.moveTo(ConnectionState.CONNECTING, ConnectionState.CONNECTING));
+
+        assertEquals(ConnectionState.CONNECTING, machine.getState());
+        assertEquals(Arrays.asList("CLOSED->CONNECTING"), changes);
+    }
+
+    @Test
+    public void countsTransitions() {
+        for (int i = 0; i < 3; i++) {
+            machine.moveTo(ConnectionState.CONNECTING);
+            machine.moveTo(ConnectionState.WAITING_RECONNECT);
+        }
+        machine.moveTo(ConnectionState.CIRCUIT_OPEN);
+        machine.moveTo(ConnectionState.CONNECTING);
+        machine.moveTo(ConnectionState.OPEN);
+
+        assertEquals(1, machine.getTransitionCount(ConnectionState.CLOSED, ConnectionState.CONNECTING));
+        assertEquals(2, machine.getTransitionCount(ConnectionState.WAITING_RECONNECT, ConnectionState.CONNECTING));
+        assertEquals(1, machine.getTransitionCount(ConnectionState.CIRCUIT_OPEN, ConnectionState.CONNECTING));
+        assertEquals(4, machine.getEnterCount(ConnectionState.CONNECTING));
+        assertEquals(3, machine.getEnterCount(ConnectionState.WAITING_RECONNECT));
+        assertEquals(1, machine.getEnterCount(ConnectionState.OPEN));
+        assertEquals(0, machine.getEnterCount(ConnectionState.CLOSED));
+        assertEquals(9, changes.size());
+    }
+}
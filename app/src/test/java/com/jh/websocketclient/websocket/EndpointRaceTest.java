@@ -0,0 +1,181 @@
+package com.jh.websocketclient.websocket;
+
+import org.java_websocket.client.WebSocketClient;
+import org.java_websocket.handshake.ServerHandshake;
+import org.junit.After;
+import org.junit.Test;
+
+import java.net.URI;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+/**
+ * 本地多个网关，单独放慢或停掉其中一个，看连接选到哪个地址
+ */
+public class EndpointRaceTest {
+
+    private static final long COOL_DOWN = 60 * 1000;
+    private static final long TIMEOUT = 5000;
+
+    private LocalGatewayCluster cluster;
+    private final List<RaceClient> clients = new CopyOnWriteArrayList<>();
+
+    private static class RaceClient extends WebSocketClient {
+        final EndpointRace<RaceClient> race;
+        final CountDownLatch closed = new CountDownLatch(1);
+
+        RaceClient(URI uri, EndpointRace<RaceClient> race) {
+            super(uri);
+            this.race = race;
+            setConnectionLostTimeout(0);
+        }
+
+        @Override
+        public void onOpen(ServerHandshake handshakedata) {
+            if (!race.onOpened(this)) {
+                close();
+            }
+        }
+
+        @Override
+        public void onMessage(String message) {
+        }
+
+        @Override
+        public void onClose(int code, String reason, boolean remote) {
+            race.onFailed(this);
+            closed.countDown();
+        }
+
+        @Override
+        public void onError(Exception ex) {
+            race.onFailed(this);
+        }
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        for (RaceClient client : clients) {
+            client.closeConnection(1000, "test done");
+        }
+        if (cluster != null) {
+            cluster.shutdown();
+        }
+    }
+
+    private RaceClient race(EndpointSelector selector, List<URI> candidates, long staggerDelay)
+            throws InterruptedException {
+        final AtomicReference<EndpointRace<RaceClient>> holder = new AtomicReference<>();
+        EndpointRace<RaceClient> race = new EndpointRace<>(new EndpointRace.Connector<RaceClient>() {
+            @Override
+            public RaceClient create(URI endpoint) {
+                RaceClient client = new RaceClient(endpoint, holder.get());
+                clients.add(client);
+                return client;
+            }
+
+            @Override
+            public void start(RaceClient connection) {
+                connection.connect();
+            }
+
+            @Override
+            public void abort(RaceClient connection) {
+                connection.close();
+            }
+        }, selector, KeepAliveScheduler.SYSTEM_CLOCK, staggerDelay, TIMEOUT);
+        holder.set(race);
+        return race.run(candidates);
+    }
+
+    private EndpointSelector selector() {
+        return new EndpointSelector(KeepAliveScheduler.SYSTEM_CLOCK, cluster.uris(), COOL_DOWN, 4 * COOL_DOWN);
+    }
+
+    @Test
+    public void slowGatewayLosesToNextOne() throws Exception {
+        cluster = new LocalGatewayCluster(2);
+        cluster.get(0).handshakeDelay = 1500;
+        EndpointSelector selector = selector();
+
+        long start = System.currentTimeMillis();
+        RaceClient winner = race(selector, selector.candidates(2), 100);
+        long elapsed = System.currentTimeMillis() - start;
+
+        assertNotNull(winner);
+        assertEquals(cluster.get(1).uri(), winner.getURI());
+        assertTrue("elapsed " + elapsed, elapsed < 1500);
+        // 慢的地址没有连上，也不算失败
+        assertEquals(0, selector.getConsecutiveFailures(cluster.get(0).uri()));
+        assertTrue(selector.getLatency(cluster.get(1).uri()) >= 0);
+        // 下一轮先连握手快的
+        assertEquals(cluster.get(1).uri(), selector.candidates(2).get(0));
+    }
+
+    @Test
+    public void deadGatewayMovesOnWithoutWaiting() throws Exception {
+        cluster = new LocalGatewayCluster(3);
+        cluster.get(0).kill();
+        EndpointSelector selector = selector();
+
+        // 错开时间很长，第一个地址连接被拒后不等它，立即连下一个
+        long start = System.currentTimeMillis();
+        RaceClient winner = race(selector, selector.candidates(3), 3000);
+        long elapsed = System.currentTimeMillis() - start;
+
+        assertNotNull(winner);
+        assertEquals(cluster.get(1).uri(), winner.getURI());
+        assertTrue("elapsed " + elapsed, elapsed < 3000);
+        assertFalse(selector.isAvailable(cluster.get(0).uri()));
+        assertEquals(1, selector.getConsecutiveFailures(cluster.get(0).uri()));
+        // 冷却中的地址排在最后
+        List<URI> next = selector.candidates(3);
+        assertEquals(cluster.get(0).uri(), next.get(2));
+    }
+
+    @Test
+    public void establishedGatewayDiesFailsOverToAnother() throws Exception {
+        cluster = new LocalGatewayCluster(2);
+        EndpointSelector selector = selector();
+
+        RaceClient first = race(selector, selector.candidates(2), 500);
+        assertNotNull(first);
+        URI firstUri = first.getURI();
+        LocalGatewayCluster.Gateway dying = firstUri.equals(cluster.get(0).uri()) ? cluster.get(0) : cluster.get(1);
+
+        dying.kill();
+        assertTrue(first.closed.await(5, TimeUnit.SECONDS));
+        // 胜出的连接断开由调用方记失败
+        assertFalse(first.race.onFailed(first));
+        selector.onFailed(firstUri);
+        assertTrue(selector.hasAvailableAlternative(firstUri));
+
+        RaceClient second = race(selector, selector.candidates(2), 500);
+        assertNotNull(second);
+        assertNotEquals(firstUri, second.getURI());
+        assertTrue(second.isOpen());
+    }
+
+    @Test
+    public void allGatewaysDownGivesUpEarly() throws Exception {
+        cluster = new LocalGatewayCluster(2);
+        cluster.get(0).kill();
+        cluster.get(1).kill();
+        EndpointSelector selector = selector();
+
+        long start = System.currentTimeMillis();
+        assertNull(race(selector, selector.candidates(2), 1000));
+        long elapsed = System.currentTimeMillis() - start;
+
+        // 全部连接被拒就结束，不等到超时
+        assertTrue("elapsed " + elapsed, elapsed < TIMEOUT);
+        assertFalse(selector.report(), selector.hasAvailableAlternative(null));
+        assertEquals(1, selector.getConsecutiveFailures(cluster.get(0).uri()));
+        assertEquals(1, selector.getConsecutiveFailures(cluster.get(1).uri()));
+    }
+}
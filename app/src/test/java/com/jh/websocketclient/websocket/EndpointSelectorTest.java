@@ -0,0 +1,83 @@
+package com.jh.websocketclient.websocket;
+
+import org.junit.Test;
+
+import java.net.URI;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+/**
+ * 模拟时钟下的地址排序和冷却
+ */
+public class EndpointSelectorTest {
+
+    private static final URI A = URI.create("ws://a.example");
+    private static final URI B = URI.create("ws://b.example");
+    private static final URI C = URI.create("ws://c.example");
+
+    private static class FakeClock implements KeepAliveScheduler.Clock {
+        long now;
+
+        @Override
+        public long now() {
+            return now;
+        }
+    }
+
+    @Test
+    public void ordersByLatencyThenConfiguredOrder() {
+        FakeClock clock = new FakeClock();
+        EndpointSelector selector = new EndpointSelector(clock, Arrays.asList(A, B, C), 1000, 8000);
+        assertEquals(Arrays.asList(A, B, C), selector.candidates(3));
+
+        selector.onConnected(B, 50);
+        selector.onConnected(C, 20);
+        // 连上过的在前，没测过的按配置顺序排在后面
+        assertEquals(Arrays.asList(C, B, A), selector.candidates(3));
+        assertEquals(Arrays.asList(C, B), selector.candidates(2));
+
+        // 滑动平均：一次慢的握手不会马上换掉
+        selector.onConnected(C, 60);
+        assertEquals(32, selector.getLatency(C));
+        assertEquals(Arrays.asList(C, B, A), selector.candidates(3));
+    }
+
+    @Test
+    public void coolDownDoublesAndExpires() {
+        FakeClock clock = new FakeClock();
+        EndpointSelector selector = new EndpointSelector(clock, Arrays.asList(A, B), 1000, 3000);
+
+        selector.onFailed(A);
+        assertFalse(selector.isAvailable(A));
+        assertTrue(selector.hasAvailableAlternative(A));
+        assertEquals(Arrays.asList(B, A), selector.candidates(2));
+
+        selector.onFailed(B);
+        assertFalse(selector.hasAvailableAlternative(A));
+        // 都在冷却时先到期的在前
+        assertEquals(Arrays.asList(A, B), selector.candidates(2));
+
+        clock.now = 1000;
+        assertTrue(selector.isAvailable(A));
+        selector.onFailed(A);
+        clock.now = 2999;
+        assertFalse(selector.isAvailable(A));
+        clock.now = 3000;
+        assertTrue(selector.isAvailable(A));
+
+        // 第三次连续失败到上限
+        selector.onFailed(A);
+        assertEquals(3, selector.getConsecutiveFailures(A));
+        clock.now = 5999;
+        assertFalse(selector.isAvailable(A));
+        clock.now = 6000;
+        assertTrue(selector.isAvailable(A));
+
+        // 连上后清零
+        selector.onConnected(A, 10);
+        selector.onFailed(A);
+        clock.now = 7000;
+        assertTrue(selector.isAvailable(A));
+    }
+}
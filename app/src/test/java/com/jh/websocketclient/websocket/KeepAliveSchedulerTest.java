@@ -0,0 +1,99 @@
+package com.jh.websocketclient.websocket;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * 模拟时钟 + 模拟空闲超时的网关
+ */
+public class KeepAliveSchedulerTest {
+
+    private static final long MIN = 10 * 1000;
+    private static final long MAX = 280 * 1000;
+    private static final long STEP = 30 * 1000;
+
+    private static class FakeClock implements KeepAliveScheduler.Clock {
+        long now;
+
+        @Override
+        public long now() {
+            return now;
+        }
+    }
+
+    @Test
+    public void skipsHeartbeatWhileTrafficIsFlowing() {
+        FakeClock clock = new FakeClock();
+        KeepAliveScheduler scheduler = new KeepAliveScheduler(clock, MIN, MAX, STEP);
+
+        // 每5秒有一条消息，心跳定时器到点时都应该跳过
+        for (int i = 0; i < 100; i++) {
+            clock.now += 5000;
+            scheduler.onActivity();
+            if (i % 2 == 1) {
+                assertFalse(scheduler.onTimer());
+            }
+        }
+        assertEquals(0, scheduler.getSentCount());
+        assertEquals(50, scheduler.getSkippedCount());
+        assertEquals(MIN, scheduler.nextDelay());
+    }
+
+    @Test
+    public void probesUpToGatewayIdleTimeoutAndFallsBack() {
+        long gatewayIdleTimeout = 125 * 1000;// 网关空闲125秒回收连接
+        FakeClock clock = new FakeClock();
+        KeepAliveScheduler scheduler = new KeepAliveScheduler(clock, MIN, MAX, STEP);
+
+        for (int i = 0; i < 50; i++) {
+            clock.now += scheduler.nextDelay();
+            if (!scheduler.onTimer()) {
+                continue;
+            }
+            if (scheduler.getIdleTime() <= gatewayIdleTimeout) {
+                scheduler.onHeartbeatAcked();
+            } else {
+                scheduler.onHeartbeatFailed();
+            }
+        }
+
+        assertFalse(scheduler.isProbing());
+        assertEquals(1, scheduler.getFailedProbeCount());
+        assertTrue(scheduler.getInterval() <= gatewayIdleTimeout);
+        assertTrue(scheduler.getInterval() > gatewayIdleTimeout - STEP);
+        assertEquals(scheduler.getStableInterval(), scheduler.getInterval());
+    }
+
+    @Test
+    public void stopsAtMaxInterval() {
+        FakeClock clock = new FakeClock();
+        KeepAliveScheduler scheduler = new KeepAliveScheduler(clock, MIN, MAX, STEP);
+
+        for (int i = 0; i < 50; i++) {
+            clock.now += scheduler.nextDelay();
+            if (scheduler.onTimer()) {
+                scheduler.onHeartbeatAcked();
+            }
+        }
+        assertEquals(MAX, scheduler.getInterval());
+        assertEquals(0, scheduler.getFailedProbeCount());
+    }
+
+    @Test
+    public void failureAtStableIntervalHalvesIt() {
+        FakeClock clock = new FakeClock();
+        KeepAliveScheduler scheduler = new KeepAliveScheduler(clock, MIN, MAX, STEP);
+        for (int i = 0; i < 4; i++) {
+            clock.now += scheduler.nextDelay();
+            assertTrue(scheduler.onTimer());
+            scheduler.onHeartbeatAcked();
+        }
+        // 10s -> 40s -> 70s -> 100s -> 130s
+        assertEquals(130 * 1000, scheduler.getInterval());
+        scheduler.onHeartbeatFailed();
+        assertEquals(100 * 1000, scheduler.getInterval());
+        scheduler.onHeartbeatFailed();
+        assertEquals(50 * 1000, scheduler.getInterval());
+    }
+}
@@ -0,0 +1,126 @@
+package com.jh.websocketclient.websocket;
+
+import org.java_websocket.WebSocket;
+import org.java_websocket.drafts.Draft;
+import org.java_websocket.exceptions.InvalidDataException;
+import org.java_websocket.handshake.ClientHandshake;
+import org.java_websocket.handshake.ServerHandshakeBuilder;
+import org.java_websocket.server.WebSocketServer;
+
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 本地的多个网关替身：每个网关可以单独放慢握手或直接停掉
+ */
+class LocalGatewayCluster {
+
+    static class Gateway extends WebSocketServer {
+
+        final CountDownLatch started = new CountDownLatch(1);
+        final AtomicInteger opened = new AtomicInteger();
+        volatile long handshakeDelay;// 握手前等待的时间(ms)
+        private volatile URI uri;
+        private volatile boolean killed;
+
+        Gateway() {
+            super(new InetSocketAddress("127.0.0.1", 0));
+            setReuseAddr(true);
+        }
+
+        URI uri() {
+            return uri;
+        }
+
+        /**
+         * 停掉网关，已有的连接断开，新的连接被拒绝
+         */
+        void kill() throws InterruptedException {
+            if (!killed) {
+                killed = true;
+                stop(1000);
+            }
+        }
+
+        @Override
+        public ServerHandshakeBuilder onWebsocketHandshakeReceivedAsServer(WebSocket conn, Draft draft,
+                                                                           ClientHandshake request)
+                throws InvalidDataException {
+            long delay = handshakeDelay;
+            if (delay > 0) {
+                try {
+                    Thread.sleep(delay);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            return super.onWebsocketHandshakeReceivedAsServer(conn, draft, request);
+        }
+
+        @Override
+        public void onOpen(WebSocket conn, ClientHandshake handshake) {
+            opened.incrementAndGet();
+        }
+
+        @Override
+        public void onMessage(WebSocket conn, String message) {
+            conn.send(message);
+        }
+
+        @Override
+        public void onMessage(WebSocket conn, ByteBuffer message) {
+            conn.send(message);
+        }
+
+        @Override
+        public void onClose(WebSocket conn, int code, String reason, boolean remote) {
+        }
+
+        @Override
+        public void onError(WebSocket conn, Exception ex) {
+        }
+
+        @Override
+        public void onStart() {
+            uri = URI.create("ws://127.0.0.1:" + getPort());
+            started.countDown();
+        }
+    }
+
+    private final List<Gateway> gateways = new ArrayList<>();
+
+    LocalGatewayCluster(int size) throws InterruptedException {
+        for (int i = 0; i < size; i++) {
+            Gateway gateway = new Gateway();
+            gateway.start();
+            if (!gateway.started.await(5, TimeUnit.SECONDS)) {
+                throw new IllegalStateException("gateway " + i + " not started");
+            }
+            gateways.add(gateway);
+        }
+    }
+
+    Gateway get(int index) {
+        return gateways.get(index);
+    }
+
+    List<URI> uris() {
+        List<URI> uris = new ArrayList<>();
+        for (Gateway gateway : gateways) {
+            uris.add(gateway.uri());
+        }
+        return uris;
+    }
+
+    void shutdown() throws InterruptedException {
+        for (Gateway gateway : gateways) {
+            gateway.kill();
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package com.jh.websocketclient.websocket;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+/**
+ * 模拟时钟下的消息突发
+ */
+public class NotificationAggregatorTest {
+
+    private static final long WINDOW = 2000;
+    private static final long WAKE_UP_INTERVAL = 60 * 1000;
+
+    private static class FakeClock implements KeepAliveScheduler.Clock {
+        long now;
+
+        @Override
+        public long now() {
+            return now;
+        }
+    }
+
+    @Test
+    public void burstCollapsesIntoOneSummary() {
+        FakeClock clock = new FakeClock();
+        NotificationAggregator aggregator = new NotificationAggregator(clock, WINDOW, WAKE_UP_INTERVAL, 3);
+
+        // 500条消息只有第一条需要定时
+        int scheduled = 0;
+        for (int i = 0; i < 500; i++) {
+            if (aggregator.offer("m" + i)) {
+                scheduled++;
+            }
+        }
+        assertEquals(1, scheduled);
+
+        clock.now += WINDOW;
+        NotificationAggregator.Summary summary = aggregator.drain();
+        assertEquals(500, summary.getCount());
+        assertEquals(Arrays.asList("m497", "m498", "m499"), summary.getLines());
+        assertTrue(summary.isWakeUp());
+        assertNull(aggregator.drain());
+
+        assertEquals(1, aggregator.getPostedCount());
+        assertEquals(499, aggregator.getCoalescedCount());
+        assertEquals(1, aggregator.getWakeUpCount());
+    }
+
+    @Test
+    public void wakeUpIsThrottled() {
+        FakeClock clock = new FakeClock();
+        NotificationAggregator aggregator = new NotificationAggregator(clock, WINDOW, WAKE_UP_INTERVAL, 5);
+
+        // 每10秒一条消息，持续两分钟
+        int wakeUps = 0;
+        for (int i = 0; i < 12; i++) {
+            assertTrue(aggregator.offer("m" + i));
+            clock.now += WINDOW;
+            if (aggregator.drain().isWakeUp()) {
+                wakeUps++;
+            }
+            clock.now += 10 * 1000 - WINDOW;
+        }
+        assertEquals(12, aggregator.getPostedCount());
+        assertEquals(2, wakeUps);
+        assertEquals(10, aggregator.getWakeUpThrottledCount());
+    }
+
+    @Test
+    public void foregroundSuppressesNotifications() {
+        FakeClock clock = new FakeClock();
+        NotificationAggregator aggregator = new NotificationAggregator(clock, WINDOW, WAKE_UP_INTERVAL, 5);
+
+        assertTrue(aggregator.offer("a"));
+        assertFalse(aggregator.offer("b"));
+        // 窗口到点前回到前台，已经排队的汇总不再发出
+        aggregator.setForeground(true);
+        assertFalse(aggregator.offer("c"));
+        clock.now += WINDOW;
+        assertNull(aggregator.drain());
+
+        aggregator.setForeground(false);
+        assertTrue(aggregator.offer("d"));
+        clock.now += WINDOW;
+        NotificationAggregator.Summary summary = aggregator.drain();
+        assertEquals(1, summary.getCount());
+        assertEquals("d", summary.getLines().get(0));
+
+        assertEquals(3, aggregator.getForegroundSuppressedCount());
+        assertEquals(0, aggregator.getCoalescedCount());
+        assertEquals(1, aggregator.getPostedCount());
+        assertEquals(4, aggregator.getMessageCount());
+    }
+}
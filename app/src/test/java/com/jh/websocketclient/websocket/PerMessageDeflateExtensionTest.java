@@ -0,0 +1,177 @@
+package com.jh.websocketclient.websocket;
+
+import org.java_websocket.enums.HandshakeState;
+import org.java_websocket.enums.Role;
+import org.java_websocket.framing.Framedata;
+import org.java_websocket.framing.TextFrame;
+import org.java_websocket.handshake.ClientHandshakeBuilder;
+import org.java_websocket.handshake.HandshakeImpl1Client;
+import org.java_websocket.handshake.HandshakeImpl1Server;
+import org.java_websocket.protocols.IProtocol;
+import org.java_websocket.protocols.Protocol;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * 客户端、服务端两个 ChatDraft 在内存里握手，编码出的帧直接交给对方解析：
+ * 压缩往返、上下文保留、阈值以下不压缩、帧头 RSV1、Deflater/Inflater 回收复用
+ */
+public class PerMessageDeflateExtensionTest {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final int THRESHOLD = 128;
+    private static final int MAX_MESSAGE_SIZE = 1024 * 1024;
+    private static final int RSV1_BIT = 0x40;
+
+    private static final String CHAT = "{\"type\":1,\"id\":1540000000000,\"seq\":1,\"from\":\"user7\","
+            + "\"time\":1540000000000,\"content\":\"今天下午三点在三楼会议室开会，记得带上上周的周报和下周的排期\"}";
+
+    private static ChatDraft draft(PerMessageDeflateExtension extension) {
+        return new ChatDraft(extension, Collections.<IProtocol>singletonList(new Protocol("")), MAX_MESSAGE_SIZE);
+    }
+
+    private static void handshake(ChatDraft client, ChatDraft server) throws Exception {
+        client.setParseMode(Role.CLIENT);
+        server.setParseMode(Role.SERVER);
+        ClientHandshakeBuilder request = client.postProcessHandshakeRequestAsClient(new HandshakeImpl1Client());
+        request.setResourceDescriptor("/");
+        assertEquals(HandshakeState.MATCHED, server.acceptHandshakeAsServer(request));
+        HandshakeImpl1Server response = new HandshakeImpl1Server();
+        server.postProcessHandshakeResponseAsServer(request, response);
+        assertEquals(HandshakeState.MATCHED, client.acceptHandshakeAsClient(request, response));
+    }
+
+    /**
+     * 发一条文本消息，返回压缩后（或原文）的负载字节数
+     */
+    private static int roundTrip(ChatDraft sender, ChatDraft receiver, String text, boolean expectCompressed)
+            throws Exception {
+        Framedata frame = sender.createFrames(text, false).get(0);
+        ByteBuffer wire = sender.createBinaryFrame(frame);
+        assertEquals(expectCompressed, (wire.get(wire.position()) & RSV1_BIT) != 0);
+        assertEquals(expectCompressed, frame.isRSV1());
+        int payloadSize = payloadLength(wire);
+
+        List<Framedata> received = receiver.translateFrame(wire);
+        assertEquals(1, received.size());
+        assertFalse(received.get(0).isRSV1());
+        assertEquals(text, UTF_8.decode(received.get(0).getPayloadData()).toString());
+        return payloadSize;
+    }
+
+    /**
+     * 帧头里的负载长度，测试的消息都小于64KB
+     */
+    private static int payloadLength(ByteBuffer wire) {
+        int length = wire.get(wire.position() + 1) & 0x7f;
+        return length < 126 ? length : wire.getShort(wire.position() + 2) & 0xffff;
+    }
+
+    @Test
+    public void contextTakeoverShrinksRepeatedMessages() throws Exception {
+        PerMessageDeflateExtension clientExtension = new PerMessageDeflateExtension(THRESHOLD, true, MAX_MESSAGE_SIZE);
+        ChatDraft client = draft(clientExtension);
+        ChatDraft server = draft(new PerMessageDeflateExtension(THRESHOLD, true, MAX_MESSAGE_SIZE));
+        handshake(client, server);
+
+        int rawSize = CHAT.getBytes(UTF_8).length;
+        int first = roundTrip(client, server, CHAT, true);
+        int second = roundTrip(client, server, CHAT, true);
+        int third = roundTrip(client, server, CHAT, true);
+        assertTrue(first < rawSize);
+        // 后面的消息引用前面消息里的内容
+        assertTrue("first=" + first + " second=" + second, second * 3 < first);
+        assertTrue("first=" + first + " third=" + third, third * 3 < first);
+        // 服务端发回来的同样解得开
+        roundTrip(server, client, CHAT, true);
+        roundTrip(server, client, CHAT, true);
+
+        assertEquals(3, clientExtension.getCompressedCount());
+        assertEquals(3L * rawSize, clientExtension.getRawBytesOut());
+        assertEquals(first + second + third, clientExtension.getWireBytesOut());
+        assertTrue(clientExtension.getBytesSaved() > 0);
+    }
+
+    @Test
+    public void noContextTakeoverCompressesEachMessageAlone() throws Exception {
+        ChatDraft client = draft(new PerMessageDeflateExtension(THRESHOLD, false, MAX_MESSAGE_SIZE));
+        ChatDraft server = draft(new PerMessageDeflateExtension(THRESHOLD, true, MAX_MESSAGE_SIZE));
+        handshake(client, server);
+
+        int first = roundTrip(client, server, CHAT, true);
+        int second = roundTrip(client, server, CHAT, true);
+        assertTrue(first < CHAT.getBytes(UTF_8).length);
+        assertEquals(first, second);
+    }
+
+    @Test
+    public void smallMessagesGoOutUncompressed() throws Exception {
+        PerMessageDeflateExtension clientExtension = new PerMessageDeflateExtension(THRESHOLD, true, MAX_MESSAGE_SIZE);
+        ChatDraft client = draft(clientExtension);
+        ChatDraft server = draft(new PerMessageDeflateExtension(THRESHOLD, true, MAX_MESSAGE_SIZE));
+        handshake(client, server);
+
+        String small = "{\"type\":1,\"content\":\"好的\"}";
+        int size = roundTrip(client, server, small, false);
+        assertEquals(small.getBytes(UTF_8).length, size);
+        // 不压缩的消息不影响后面压缩的消息
+        roundTrip(client, server, CHAT, true);
+        roundTrip(client, server, small, false);
+
+        assertEquals(1, clientExtension.getCompressedCount());
+        assertEquals(2, clientExtension.getSkippedCount());
+    }
+
+    @Test
+    public void rsv1IsWrittenIntoFrameHeader() {
+        // 没有协商扩展时库不会置 RSV1，只看 ChatDraft 补写的帧头
+        ChatDraft draft = draft(new PerMessageDeflateExtension(THRESHOLD, true, MAX_MESSAGE_SIZE));
+        TextFrame frame = new TextFrame();
+        frame.setPayload(ByteBuffer.wrap(CHAT.getBytes(UTF_8)));
+        frame.setFin(true);
+
+        assertEquals(0x81, draft.createBinaryFrame(frame).get(0) & 0xff);
+        frame.setRSV1(true);
+        assertEquals(0xc1, draft.createBinaryFrame(frame).get(0) & 0xff);
+    }
+
+    @Test
+    public void resetRecyclesCodecsIntoSharedPool() throws Exception {
+        PerMessageDeflateExtension template = new PerMessageDeflateExtension(THRESHOLD, true, MAX_MESSAGE_SIZE);
+        ChatDraft client = draft((PerMessageDeflateExtension) template.copyInstance());
+        ChatDraft server = draft((PerMessageDeflateExtension) template.copyInstance());
+        handshake(client, server);
+        int first = roundTrip(client, server, CHAT, true);
+        roundTrip(client, server, CHAT, true);
+        roundTrip(server, client, CHAT, true);
+        assertEquals(0, template.getPooledDeflaterCount());
+
+        // 连接断开：两边各还回一对
+        client.reset();
+        server.reset();
+        assertEquals(2, template.getPooledDeflaterCount());
+        assertEquals(2, template.getPooledInflaterCount());
+
+        // 下一个连接从池里取，压缩上下文已经清空，第一条消息和全新的一样大
+        ChatDraft nextClient = draft((PerMessageDeflateExtension) template.copyInstance());
+        ChatDraft nextServer = draft((PerMessageDeflateExtension) template.copyInstance());
+        handshake(nextClient, nextServer);
+        assertEquals(first, roundTrip(nextClient, nextServer, CHAT, true));
+        assertEquals(1, template.getPooledDeflaterCount());
+        assertEquals(1, template.getPooledInflaterCount());
+        // 统计在副本之间共享
+        assertEquals(4, template.getCompressedCount());
+
+        template.releasePooled();
+        assertEquals(0, template.getPooledDeflaterCount());
+        assertEquals(0, template.getPooledInflaterCount());
+        // 释放之后还能继续用
+        assertTrue(roundTrip(nextClient, nextServer, CHAT, true) < first);
+    }
+}
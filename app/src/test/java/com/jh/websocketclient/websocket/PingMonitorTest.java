@@ -0,0 +1,162 @@
+package com.jh.websocketclient.websocket;
+
+import org.java_websocket.WebSocket;
+import org.java_websocket.client.WebSocketClient;
+import org.java_websocket.framing.Framedata;
+import org.java_websocket.handshake.ClientHandshake;
+import org.java_websocket.handshake.ServerHandshake;
+import org.java_websocket.server.WebSocketServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * PingMonitor 对接本地服务器：正常回应 pong / 故意不回 pong
+ */
+public class PingMonitorTest {
+
+    private static final long PONG_TIMEOUT = 300;
+    private static final int PINGS = 50;
+
+    private LocalServer server;
+    private PingClient client;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new LocalServer();
+        server.start();
+        server.started.await(5, TimeUnit.SECONDS);
+        client = new PingClient(URI.create("ws://127.0.0.1:" + server.getPort()));
+        assertTrue(client.connectBlocking(5, TimeUnit.SECONDS));
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        client.closeBlocking();
+        server.stop(1000);
+    }
+
+    @Test
+    public void pongRecordsRoundTrip() throws Exception {
+        // 本机回环上 pong 到得很快，每一个都要计上，不能被当成没有发过 ping 的 pong 忽略
+        for (int i = 0; i < PINGS; i++) {
+            client.ping();
+            assertTrue(client.pongs.tryAcquire(5, TimeUnit.SECONDS));
+        }
+
+        PingMonitor monitor = client.monitor;
+        assertTrue(monitor.checkAlive(System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(PONG_TIMEOUT * 2)));
+        assertEquals(PINGS, monitor.getPingCount());
+        assertEquals(PINGS, monitor.getPongCount());
+        assertEquals(PINGS, monitor.getRttHistogram().getCount());
+        assertTrue(monitor.getLastRtt() > 0);
+        assertTrue(monitor.shouldPing());
+    }
+
+    @Test
+    public void silentServerIsDetectedAsDead() throws Exception {
+        server.answerPings = false;
+        client.ping();
+        assertFalse(client.monitor.shouldPing());
+        assertTrue(client.monitor.checkAlive(System.nanoTime()));
+
+        Thread.sleep(PONG_TIMEOUT + 100);
+
+        assertFalse(client.monitor.checkAlive(System.nanoTime()));
+        assertEquals(1, client.monitor.getTimeoutCount());
+        assertEquals(0, client.monitor.getPongCount());
+        // 连接本身仍然是打开的，只靠 isClosed() 检测不出来
+        assertTrue(client.isOpen());
+    }
+
+    private static class PingClient extends WebSocketClient {
+
+        final PingMonitor monitor = new PingMonitor(PONG_TIMEOUT);
+        final Semaphore pongs = new Semaphore(0);
+
+        PingClient(URI uri) {
+            super(uri);
+            setConnectionLostTimeout(0);
+        }
+
+        void ping() {
+            // 和 MyWebSocketClient 一样先记下再发
+            monitor.onPingSent(System.nanoTime());
+            sendPing();
+        }
+
+        @Override
+        public void onWebsocketPong(WebSocket conn, Framedata f) {
+            monitor.onPong(System.nanoTime());
+            pongs.release();
+        }
+
+        @Override
+        public void onOpen(ServerHandshake handshakedata) {
+        }
+
+        @Override
+        public void onMessage(String message) {
+        }
+
+        @Override
+        public void onClose(int code, String reason, boolean remote) {
+        }
+
+        @Override
+        public void onError(Exception ex) {
+        }
+    }
+
+    private static class LocalServer extends WebSocketServer {
+
+        final CountDownLatch started = new CountDownLatch(1);
+        volatile boolean answerPings = true;
+
+        LocalServer() {
+            super(new InetSocketAddress("127.0.0.1", 0));
+            setConnectionLostTimeout(0);
+        }
+
+        @Override
+        public void onWebsocketPing(WebSocket conn, Framedata f) {
+            if (answerPings) {
+                super.onWebsocketPing(conn, f);
+            }
+        }
+
+        @Override
+        public void onStart() {
+            started.countDown();
+        }
+
+        @Override
+        public void onOpen(WebSocket conn, ClientHandshake handshake) {
+        }
+
+        @Override
+        public void onClose(WebSocket conn, int code, String reason, boolean remote) {
+        }
+
+        @Override
+        public void onMessage(WebSocket conn, String message) {
+        }
+
+        @Override
+        public void onMessage(WebSocket conn, ByteBuffer message) {
+        }
+
+        @Override
+        public void onError(WebSocket conn, Exception ex) {
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package com.jh.websocketclient.websocket;
+
+import org.junit.Test;
+
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+/**
+ * 固定种子下的退避时间：第一次就打散、上限、熔断和熔断等待的抖动
+ */
+public class ReconnectPolicyTest {
+
+    private static final long BASE = 1000;
+    private static final long MAX = 60 * 1000;
+    private static final int MAX_ATTEMPTS = 10;
+    private static final long CIRCUIT_OPEN = 5 * 60 * 1000;
+
+    /**
+     * nextDouble 固定返回 value，用来核对公式
+     */
+    private static class FixedRandom extends Random {
+        final double value;
+
+        FixedRandom(double value) {
+            this.value = value;
+        }
+
+        @Override
+        public double nextDouble() {
+            return value;
+        }
+    }
+
+    private static ReconnectPolicy policy(Random random) {
+        return new ReconnectPolicy(BASE, MAX, MAX_ATTEMPTS, CIRCUIT_OPEN, random);
+    }
+
+    @Test
+    public void firstDelayIsSpreadAcrossClients() {
+        // 服务端重启时大量客户端同时断线，第一次重连不能都是 BASE
+        // 相邻的种子第一次 nextDouble 几乎一样，每个客户端的种子从另一个 Random 取
+        Random seeds = new Random(7);
+        Set<Long> firstDelays = new HashSet<>();
+        for (int client = 0; client < 100; client++) {
+            long delay = policy(new Random(seeds.nextLong())).nextDelay();
+            assertTrue(String.valueOf(delay), delay >= BASE && delay < 3 * BASE);
+            firstDelays.add(delay);
+        }
+        assertTrue(firstDelays.size() > 90);
+    }
+
+    @Test
+    public void delayGrowsFromLastDelayUpToMax() {
+        ReconnectPolicy policy = policy(new FixedRandom(0.5));
+        assertEquals(2000, policy.nextDelay());// [1000, 3000)
+        assertEquals(3500, policy.nextDelay());// [1000, 6000)
+        assertEquals(5750, policy.nextDelay());// [1000, 10500)
+
+        ReconnectPolicy seeded = policy(new Random(42));
+        for (int i = 0; i < MAX_ATTEMPTS; i++) {
+            long delay = seeded.nextDelay();
+            assertTrue(String.valueOf(delay), delay >= BASE && delay <= MAX);
+        }
+        assertFalse(seeded.isCircuitOpen());
+    }
+
+    @Test
+    public void circuitOpensAfterMaxAttemptsWithJitteredWait() {
+        Random seeds = new Random(11);
+        Set<Long> waits = new HashSet<>();
+        for (int client = 0; client < 50; client++) {
+            ReconnectPolicy policy = policy(new Random(seeds.nextLong()));
+            for (int i = 0; i < MAX_ATTEMPTS; i++) {
+                policy.nextDelay();
+            }
+            assertFalse(policy.isCircuitOpen());
+            long wait = policy.nextDelay();
+            assertTrue(policy.isCircuitOpen());
+            assertEquals(MAX_ATTEMPTS + 1, policy.getFailures());
+            assertTrue(String.valueOf(wait), wait >= CIRCUIT_OPEN && wait < CIRCUIT_OPEN * 3 / 2);
+            waits.add(wait);
+        }
+        // 同时熔断的客户端也不会同时恢复
+        assertTrue(waits.size() > 40);
+    }
+
+    @Test
+    public void resetStartsOverFromBaseDelay() {
+        ReconnectPolicy policy = policy(new FixedRandom(0.5));
+        for (int i = 0; i <= MAX_ATTEMPTS; i++) {
+            policy.nextDelay();
+        }
+        assertTrue(policy.isCircuitOpen());
+
+        policy.reset();
+        assertFalse(policy.isCircuitOpen());
+        assertEquals(0, policy.getFailures());
+        assertEquals(2000, policy.nextDelay());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsMaxBelowBase() {
+        new ReconnectPolicy(BASE, BASE - 1, MAX_ATTEMPTS, CIRCUIT_OPEN, new Random());
+    }
+}
@@ -0,0 +1,102 @@
+package com.jh.websocketclient.websocket;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * 顺序、队列满时阻塞提交方、深度和等待时间统计
+ */
+public class StageExecutorTest {
+
+    @Test
+    public void runsInSubmissionOrder() throws Exception {
+        StageExecutor executor = new StageExecutor("test-order", 16);
+        final List<Integer> seen = Collections.synchronizedList(new ArrayList<Integer>());
+        for (int i = 0; i < 10000; i++) {
+            final int n = i;
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    seen.add(n);
+                }
+            });
+        }
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+
+        assertEquals(10000, seen.size());
+        for (int i = 0; i < seen.size(); i++) {
+            assertEquals(i, (int) seen.get(i));
+        }
+        StageStats stats = executor.getStats();
+        assertEquals(10000, stats.getCompletedCount());
+        assertEquals(0, stats.getQueueDepth());
+        // 队列只有16个位置，加上正在执行的一个
+        assertTrue(stats.getMaxQueueDepth() <= 18);
+        assertTrue(executor.getBlockedCount() > 0);
+    }
+
+    @Test
+    public void blocksSubmitterWhenFull() throws Exception {
+        final StageExecutor executor = new StageExecutor("test-full", 2);
+        final CountDownLatch running = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        Runnable blocker = new Runnable() {
+            @Override
+            public void run() {
+                running.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+        Runnable noop = new Runnable() {
+            @Override
+            public void run() {
+            }
+        };
+        executor.execute(blocker);
+        executor.execute(noop);
+        executor.execute(noop);
+        // 单核机器上执行线程可能很晚才轮到，从 blocker 开始执行算起
+        assertTrue(running.await(5, TimeUnit.SECONDS));
+
+        // 一个在执行、两个在排队，第四个提交方要等
+        final CountDownLatch submitted = new CountDownLatch(1);
+        Thread submitter = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                    }
+                });
+                submitted.countDown();
+            }
+        });
+        submitter.start();
+        assertFalse(submitted.await(200, TimeUnit.MILLISECONDS));
+        assertEquals(4, executor.getStats().getQueueDepth());
+
+        release.countDown();
+        assertTrue(submitted.await(5, TimeUnit.SECONDS));
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+
+        StageStats stats = executor.getStats();
+        assertEquals(1, executor.getBlockedCount());
+        assertEquals(4, stats.getMaxQueueDepth());
+        // 排在 blocker 后面的任务至少等了200ms
+        assertTrue(stats.getMaxWaitNanos() >= TimeUnit.MILLISECONDS.toNanos(200));
+        assertTrue(stats.getMaxRunNanos() >= TimeUnit.MILLISECONDS.toNanos(200));
+    }
+}
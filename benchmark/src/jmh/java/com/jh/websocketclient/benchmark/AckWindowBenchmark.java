@@ -0,0 +1,147 @@
+package com.jh.websocketclient.benchmark;
+
+import com.jh.websocketclient.codec.CodecException;
+import com.jh.websocketclient.codec.Envelope;
+import com.jh.websocketclient.codec.JsonCodec;
+import com.jh.websocketclient.queue.OutboundQueue;
+
+import org.java_websocket.client.WebSocketClient;
+import org.java_websocket.framing.TextFrame;
+import org.java_websocket.handshake.ServerHandshake;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 要求确认时的发送吞吐：服务端延迟 rttMillis 回确认，比较不同的确认窗口
+ * <p>
+ * 窗口为1时每个往返只能发一条（发一条等一条），窗口够大时吞吐不再受往返时延限制。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class AckWindowBenchmark {
+
+    private static final int BATCH = 200;
+
+    @Param({"1", "32"})
+    public int window;
+
+    @Param({"0", "20"})
+    public long rttMillis;
+
+    private LoopbackServer server;
+    private WebSocketClient client;
+    private OutboundQueue queue;
+    private File queueDir;
+    private String payload;
+    private long nextId;
+    private final Semaphore acked = new Semaphore(0);
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        payload = Payloads.text(64);
+        nextId = System.currentTimeMillis() << 16;
+        server = new LoopbackServer();
+        server.enableAck(rttMillis);
+        server.startAndWait();
+        client = new WebSocketClient(new URI("ws://127.0.0.1:" + server.getPort())) {
+            @Override
+            public void onOpen(ServerHandshake handshake) {
+            }
+
+            @Override
+            public void onMessage(String message) {
+                try {
+                    Envelope envelope = JsonCodec.getInstance().decode(message);
+                    queue.onAck(envelope.getId(), envelope.getSeq());
+                } catch (CodecException e) {
+                    e.printStackTrace();
+                }
+            }
+
+            @Override
+            public void onClose(int code, String reason, boolean remote) {
+            }
+
+            @Override
+            public void onError(Exception ex) {
+                ex.printStackTrace();
+            }
+        };
+        client.setConnectionLostTimeout(0);
+        if (!client.connectBlocking(10, TimeUnit.SECONDS)) {
+            throw new IllegalStateException("connect failed");
+        }
+
+        queueDir = File.createTempFile("outbound", "");
+        if (!queueDir.delete() || !queueDir.mkdirs()) {
+            throw new IllegalStateException("cannot create " + queueDir);
+        }
+        queue = new OutboundQueue(queueDir, new OutboundQueue.Sender() {
+            @Override
+            public boolean isOpen() {
+                return client.isOpen();
+            }
+
+            @Override
+            public void send(Envelope envelope) {
+                TextFrame frame = new TextFrame();
+                frame.setPayload(ByteBuffer.wrap(JsonCodec.getInstance().encode(envelope)));
+                frame.setFin(true);
+                client.sendFrame(frame);
+            }
+        }, 1000, 1024 * 1024, 50, 64 * 1024, window);
+        queue.setOnAckListener(new OutboundQueue.OnAckListener() {
+            @Override
+            public void onAcked(Envelope envelope, long serverSeq) {
+                acked.release();
+            }
+        });
+        queue.onConnected(true);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        System.out.println();
+        System.out.println("window=" + window + " rtt=" + rttMillis + "ms " + queue.report());
+        client.closeBlocking();
+        server.stop(1000);
+        File[] files = queueDir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        queueDir.delete();
+    }
+
+    /**
+     * 一批消息全部收到确认
+     */
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public void sendAcked() throws InterruptedException {
+        for (int i = 0; i < BATCH; i++) {
+            // 每条消息的 id 不同，确认按 id 匹配
+            while (!queue.offer(Envelope.chat(++nextId, 0, payload))) {
+                Thread.yield();
+            }
+        }
+        acked.acquire(BATCH);
+    }
+}
@@ -0,0 +1,145 @@
+package com.jh.websocketclient.benchmark;
+
+import com.jh.websocketclient.binary.BinaryChannel;
+import com.jh.websocketclient.binary.BufferPool;
+import com.jh.websocketclient.websocket.ChatDraft;
+import com.jh.websocketclient.websocket.PerMessageDeflateExtension;
+
+import org.java_websocket.WebSocketImpl;
+import org.java_websocket.drafts.Draft;
+import org.java_websocket.drafts.Draft_6455;
+import org.java_websocket.framing.BinaryFrame;
+import org.java_websocket.framing.ContinuousFrame;
+import org.java_websocket.framing.DataFrame;
+import org.java_websocket.framing.Framedata;
+import org.java_websocket.protocols.IProtocol;
+import org.java_websocket.protocols.Protocol;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 二进制消息的收发
+ * <p>
+ * 收：服务端按 FRAGMENT_SIZE 分片发来的消息，ChatDraft（拼接到复用缓冲区）对比库自带的 Draft_6455；
+ * 发：从 BufferPool 取缓冲区对比每次新分配，之后都做一次带掩码的帧编码。
+ * 分配量用 -prof gc 查看（build.gradle 里默认打开）。
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class BinaryBenchmark {
+
+    private static final int FRAGMENT_SIZE = 16 * 1024;
+
+    @Param({"1024", "65536", "1048576"})
+    public int size;
+
+    private byte[] payload;
+    private ByteBuffer wire;// 服务端发出的所有分片，不带掩码
+
+    private WebSocketImpl pooledConnection;
+    private WebSocketImpl stockConnection;
+
+    private BinaryChannel channel;
+    private Draft_6455 encoder;
+    private long checksum;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        payload = new byte[size];
+        new Random(7).nextBytes(payload);
+        wire = encodeFragmented(payload);
+
+        channel = new BinaryChannel(new BinaryChannel.Sender() {
+            @Override
+            public boolean isOpen() {
+                return true;
+            }
+
+            @Override
+            public void send(ByteBuffer bytes, Runnable onComplete) {
+                // 与 WebSocketImpl.send 相同：拆帧、加掩码编码
+                for (Framedata frame : encoder.createFrames(bytes, true)) {
+                    checksum += encoder.createBinaryFrame(frame).remaining();
+                }
+                onComplete.run();
+            }
+        }, new BufferPool(1024, 1024 * 1024, 4));
+        channel.addListener(new BinaryChannel.OnBinaryMessageListener() {
+            @Override
+            public void onBinaryMessage(ByteBuffer payload) {
+                checksum += payload.get(payload.limit() - 1);
+            }
+        });
+        BinarySink sink = new BinarySink(channel);
+        pooledConnection = new WebSocketImpl(sink, new ChatDraft(
+                new PerMessageDeflateExtension(128, true, Integer.MAX_VALUE),
+                Collections.<IProtocol>singletonList(new Protocol("")), Integer.MAX_VALUE));
+        stockConnection = new WebSocketImpl(sink, new Draft_6455());
+        encoder = new Draft_6455();
+    }
+
+    private static ByteBuffer encodeFragmented(byte[] payload) {
+        Draft_6455 draft = new Draft_6455();
+        ByteBuffer out = ByteBuffer.allocate(payload.length + (payload.length / FRAGMENT_SIZE + 1) * 14);
+        for (int offset = 0; offset < payload.length; offset += FRAGMENT_SIZE) {
+            int length = Math.min(FRAGMENT_SIZE, payload.length - offset);
+            DataFrame frame = offset == 0 ? new BinaryFrame() : new ContinuousFrame();
+            frame.setFin(offset + length >= payload.length);
+            frame.setPayload(ByteBuffer.wrap(payload, offset, length));
+            out.put(draft.createBinaryFrame(frame));
+        }
+        out.flip();
+        return out;
+    }
+
+    private long receive(WebSocketImpl connection) throws Exception {
+        Draft draft = connection.getDraft();
+        List<Framedata> frames = draft.translateFrame(wire.duplicate());
+        for (Framedata frame : frames) {
+            draft.processFrame(connection, frame);
+        }
+        return checksum;
+    }
+
+    @Benchmark
+    public long receivePooled() throws Exception {
+        return receive(pooledConnection);
+    }
+
+    @Benchmark
+    public long receiveStock() throws Exception {
+        return receive(stockConnection);
+    }
+
+    @Benchmark
+    public long sendPooled() {
+        ByteBuffer buffer = channel.obtainBuffer(size);
+        buffer.put(payload);
+        buffer.flip();
+        channel.send(buffer);
+        return checksum;
+    }
+
+    @Benchmark
+    public long sendAllocated() {
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        buffer.put(payload);
+        buffer.flip();
+        channel.send(buffer);// 不是池里的大小，不会被回收
+        return checksum;
+    }
+}
@@ -0,0 +1,66 @@
+package com.jh.websocketclient.benchmark;
+
+import com.jh.websocketclient.binary.BinaryChannel;
+
+import org.java_websocket.WebSocket;
+import org.java_websocket.WebSocketAdapter;
+import org.java_websocket.handshake.Handshakedata;
+
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+
+/**
+ * 不经过 socket 的连接监听者，二进制消息交给 BinaryChannel，和 MyWebSocketClient.onMessage(ByteBuffer) 一致
+ */
+class BinarySink extends WebSocketAdapter {
+
+    private final BinaryChannel channel;
+
+    BinarySink(BinaryChannel channel) {
+        this.channel = channel;
+    }
+
+    @Override
+    public void onWebsocketMessage(WebSocket conn, ByteBuffer blob) {
+        channel.dispatch(blob);
+    }
+
+    @Override
+    public void onWebsocketMessage(WebSocket conn, String message) {
+    }
+
+    @Override
+    public void onWebsocketOpen(WebSocket conn, Handshakedata d) {
+    }
+
+    @Override
+    public void onWebsocketClose(WebSocket ws, int code, String reason, boolean remote) {
+    }
+
+    @Override
+    public void onWebsocketClosing(WebSocket ws, int code, String reason, boolean remote) {
+    }
+
+    @Override
+    public void onWebsocketCloseInitiated(WebSocket ws, int code, String reason) {
+    }
+
+    @Override
+    public void onWebsocketError(WebSocket conn, Exception ex) {
+        throw new IllegalStateException(ex);
+    }
+
+    @Override
+    public void onWriteDemand(WebSocket conn) {
+    }
+
+    @Override
+    public InetSocketAddress getLocalSocketAddress(WebSocket conn) {
+        return null;
+    }
+
+    @Override
+    public InetSocketAddress getRemoteSocketAddress(WebSocket conn) {
+        return null;
+    }
+}
@@ -0,0 +1,77 @@
+package com.jh.websocketclient.benchmark;
+
+import com.jh.websocketclient.codec.BinaryCodec;
+import com.jh.websocketclient.codec.CodecException;
+import com.jh.websocketclient.codec.Envelope;
+import com.jh.websocketclient.codec.JsonCodec;
+import com.jh.websocketclient.codec.MessageCodec;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 消息编解码：每条消息的编码、解码耗时和编码后的大小（Setup 时打印）
+ * <p>
+ * json 的 decode 和 onMessage(String) 一样直接解析 String。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class CodecBenchmark {
+
+    private static final int MESSAGES = 1024;
+
+    @Param({"binary", "json"})
+    public String codec;
+
+    private MessageCodec messageCodec;
+    private Envelope[] envelopes;
+    private ByteBuffer[] encoded;
+    private String[] encodedText;
+    private int index;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        messageCodec = "binary".equals(codec) ? BinaryCodec.getInstance() : JsonCodec.getInstance();
+        Random random = new Random(42);
+        envelopes = new Envelope[MESSAGES];
+        encoded = new ByteBuffer[MESSAGES];
+        encodedText = new String[MESSAGES];
+        long totalBytes = 0;
+        for (int i = 0; i < MESSAGES; i++) {
+            envelopes[i] = Payloads.chatEnvelope(random, i);
+            byte[] bytes = messageCodec.encode(envelopes[i]);
+            encoded[i] = ByteBuffer.wrap(bytes);
+            encodedText[i] = JsonCodec.getInstance().encodeToString(envelopes[i]);
+            totalBytes += bytes.length;
+        }
+        System.out.println();
+        System.out.println(codec + ": average encoded size " + totalBytes / MESSAGES + " bytes");
+    }
+
+    @Benchmark
+    public byte[] encode() {
+        index = (index + 1) & (MESSAGES - 1);
+        return messageCodec.encode(envelopes[index]);
+    }
+
+    @Benchmark
+    public Envelope decode() throws CodecException {
+        index = (index + 1) & (MESSAGES - 1);
+        if (messageCodec.isBinary()) {
+            return messageCodec.decode(encoded[index]);
+        }
+        return JsonCodec.getInstance().decode(encodedText[index]);
+    }
+}
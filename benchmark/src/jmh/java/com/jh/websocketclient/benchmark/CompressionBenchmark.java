@@ -0,0 +1,99 @@
+package com.jh.websocketclient.benchmark;
+
+import com.jh.websocketclient.websocket.PerMessageDeflateExtension;
+
+import org.java_websocket.framing.TextFrame;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * permessage-deflate 在聊天消息上的压缩率和吞吐
+ * <p>
+ * 压缩率在每轮结束时打印（wire/raw，越小越好）。
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class CompressionBenchmark {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final int MESSAGES = 1024;
+
+    @Param({"true", "false"})
+    public boolean contextTakeover;
+
+    @Param({"0", "128"})
+    public int threshold;
+
+    private PerMessageDeflateExtension client;
+    private PerMessageDeflateExtension server;
+    private byte[][] payloads;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        Random random = new Random(42);
+        payloads = new byte[MESSAGES][];
+        for (int i = 0; i < MESSAGES; i++) {
+            payloads[i] = Payloads.chatJson(random, i).getBytes(UTF_8);
+        }
+        client = new PerMessageDeflateExtension(threshold, contextTakeover, Integer.MAX_VALUE);
+        server = new PerMessageDeflateExtension(threshold, true, Integer.MAX_VALUE);
+        // 模拟握手协商
+        if (!server.acceptProvidedExtensionAsServer(client.getProvidedExtensionAsClient())
+                || !client.acceptProvidedExtensionAsClient(server.getProvidedExtensionAsServer())) {
+            throw new IllegalStateException("negotiation failed");
+        }
+    }
+
+    @TearDown(Level.Iteration)
+    public void printRatio() {
+        long raw = client.getRawBytesOut();
+        if (raw > 0) {
+            System.out.printf("%n  ratio=%.3f compressed=%d skipped=%d deflate=%dns/msg%n",
+                    (double) client.getWireBytesOut() / raw, client.getCompressedCount(), client.getSkippedCount(),
+                    client.getDeflateNanos() / Math.max(1, client.getCompressedCount()));
+        }
+    }
+
+    private TextFrame nextFrame() {
+        TextFrame frame = new TextFrame();
+        frame.setPayload(ByteBuffer.wrap(payloads[next]));
+        next = (next + 1) % MESSAGES;
+        return frame;
+    }
+
+    /**
+     * 发送方向：只压缩
+     */
+    @Benchmark
+    public ByteBuffer compress() {
+        TextFrame frame = nextFrame();
+        client.encodeFrame(frame);
+        return frame.getPayloadData();
+    }
+
+    /**
+     * 客户端压缩，服务端解压
+     */
+    @Benchmark
+    public ByteBuffer roundTrip() throws Exception {
+        TextFrame frame = nextFrame();
+        client.encodeFrame(frame);
+        server.decodeFrame(frame);
+        return frame.getPayloadData();
+    }
+}
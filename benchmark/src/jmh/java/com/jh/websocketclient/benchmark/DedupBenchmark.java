@@ -0,0 +1,100 @@
+package com.jh.websocketclient.benchmark;
+
+import com.jh.websocketclient.util.SeenIdFilter;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 收消息去重：1000万个id依次经过 SeenIdFilter（与 MyWebSocketClient 中的配置一致），
+ * 其中 duplicatePercent% 是最近收到过的id。结束时打印漏掉的重复数和实际误判率。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class DedupBenchmark {
+
+    private static final int IDS = 10 * 1000 * 1000;
+    private static final int RECENT = 10 * 1000;// 重复的id从最近这么多个里面挑（重传一般是刚收到过的消息）
+
+    @Param({"0", "10"})
+    public int duplicatePercent;
+
+    private long[] ids;
+    private boolean[] duplicate;// 第 i 个id是否是注入的重复
+    private int injectedDuplicates;
+    private SeenIdFilter filter;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        Random random = new Random(42);
+        ids = new long[IDS];
+        duplicate = new boolean[IDS];
+        long nextId = System.currentTimeMillis() << 16;
+        for (int i = 0; i < IDS; i++) {
+            if (i > 0 && random.nextInt(100) < duplicatePercent) {
+                ids[i] = ids[i - 1 - random.nextInt(Math.min(i, RECENT))];
+                duplicate[i] = true;
+                injectedDuplicates++;
+            } else {
+                ids[i] = nextId++;
+            }
+        }
+    }
+
+    @Setup(Level.Invocation)
+    public void newFilter() {
+        filter = newSeenIdFilter();
+    }
+
+    private static SeenIdFilter newSeenIdFilter() {
+        return new SeenIdFilter(4096, 32 * 1024, 24, 30 * 60 * 1000);
+    }
+
+    /**
+     * 不计时地再跑一遍，统计唯一id被误判为重复、以及超出记忆范围而漏掉的重复
+     */
+    @TearDown(Level.Trial)
+    public void printAccuracy() {
+        SeenIdFilter check = newSeenIdFilter();
+        long falsePositives = 0;
+        long missed = 0;
+        for (int i = 0; i < IDS; i++) {
+            boolean added = check.add(ids[i], 0);
+            if (!added && !duplicate[i]) {
+                falsePositives++;
+            } else if (added && duplicate[i]) {
+                missed++;
+            }
+        }
+        System.out.println();
+        System.out.println(check.report() + " 注入重复=" + injectedDuplicates + " 漏掉=" + missed
+                + " 误判=" + falsePositives + " 实际误判率=" + (double) falsePositives / (IDS - injectedDuplicates));
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(IDS)
+    public int addAll() {
+        SeenIdFilter f = filter;
+        long[] values = ids;
+        int count = 0;
+        for (int i = 0; i < values.length; i++) {
+            if (!f.add(values[i], 0)) {
+                count++;
+            }
+        }
+        return count;
+    }
+}
@@ -0,0 +1,213 @@
+package com.jh.websocketclient.benchmark;
+
+import com.jh.websocketclient.event.SocketMessageEvent;
+
+import org.greenrobot.eventbus.EventBus;
+import org.greenrobot.eventbus.Subscribe;
+import org.greenrobot.eventbus.ThreadMode;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 每条文本消息从读线程交给订阅者的开销，每次调用发 BATCH 条，等全部送达
+ * <p>
+ * posting：和 SocketEventBus 相同配置的 EventBus，ThreadMode.POSTING 在发送线程直接回调；
+ * async：同一个 EventBus 交给单个后台线程回调，和广播一样有一次线程切换；
+ * broadcast：原来的 sendBroadcast(Intent) 路径的 JVM 模型，Intent 按 Parcel 的格式写成 UTF-16 字节，
+ * 拷贝一次（Binder 事务），在接收线程上读回 extras 再回调。真实的广播还要经过 system_server
+ * 的两次 Binder 调用和 IntentFilter 匹配，这里的结果只是广播开销的下限。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class EventBusBenchmark {
+
+    private static final int BATCH = 256;
+    private static final int MESSAGES = 1024;
+    private static final String ACTION = "com.xch.servicecallback.content";
+    private static final String EXTRA = "message";
+
+    private final Semaphore delivered = new Semaphore(0);
+    private String[] messages;
+    private int next;
+    private long checksum;
+
+    private EventBus postingBus;
+    private EventBus asyncBus;
+    private ExecutorService asyncExecutor;
+    private Thread receiver;
+    private final LinkedBlockingQueue<byte[]> broadcasts = new LinkedBlockingQueue<>();
+
+    public class PostingSubscriber {
+        @Subscribe(threadMode = ThreadMode.POSTING)
+        public void onMessage(SocketMessageEvent event) {
+            deliver(event.message);
+        }
+    }
+
+    public class AsyncSubscriber {
+        @Subscribe(threadMode = ThreadMode.ASYNC)
+        public void onMessage(SocketMessageEvent event) {
+            deliver(event.message);
+        }
+    }
+
+    private void deliver(String message) {
+        checksum += message.length();
+        delivered.release();
+    }
+
+    private static EventBus newBus(ExecutorService executor) {
+        // 与 SocketEventBus 相同的配置
+        return EventBus.builder()
+                .eventInheritance(false)
+                .logNoSubscriberMessages(false)
+                .sendNoSubscriberEvent(false)
+                .executorService(executor)
+                .build();
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        Random random = new Random(3);
+        messages = new String[MESSAGES];
+        for (int i = 0; i < MESSAGES; i++) {
+            messages[i] = Payloads.chatJson(random, i);
+        }
+        asyncExecutor = Executors.newSingleThreadExecutor();
+        postingBus = newBus(asyncExecutor);
+        postingBus.register(new PostingSubscriber());
+        asyncBus = newBus(asyncExecutor);
+        asyncBus.register(new AsyncSubscriber());
+
+        receiver = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    while (true) {
+                        Map<String, Object> extras = unmarshal(broadcasts.take());
+                        deliver((String) extras.get(EXTRA));
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }, "broadcast-receiver");
+        receiver.setDaemon(true);
+        receiver.start();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        asyncExecutor.shutdownNow();
+        receiver.interrupt();
+    }
+
+    private String nextMessage() {
+        return messages[next++ & (MESSAGES - 1)];
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public long posting() throws InterruptedException {
+        for (int i = 0; i < BATCH; i++) {
+            postingBus.post(new SocketMessageEvent(nextMessage()));
+        }
+        delivered.acquire(BATCH);
+        return checksum;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public long async() throws InterruptedException {
+        for (int i = 0; i < BATCH; i++) {
+            asyncBus.post(new SocketMessageEvent(nextMessage()));
+        }
+        delivered.acquire(BATCH);
+        return checksum;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public long broadcast() throws InterruptedException {
+        for (int i = 0; i < BATCH; i++) {
+            byte[] parcel = marshal(ACTION, EXTRA, nextMessage());
+            // 发送方写进 Binder 缓冲区，接收方进程里再读出来
+            byte[] transaction = new byte[parcel.length];
+            System.arraycopy(parcel, 0, transaction, 0, parcel.length);
+            broadcasts.put(transaction);
+        }
+        delivered.acquire(BATCH);
+        return checksum;
+    }
+
+    /**
+     * Parcel.writeString 的格式：长度、UTF-16 字符、结尾的 0，按4字节对齐
+     */
+    private static byte[] marshal(String action, String key, String value) {
+        ByteBuffer parcel = ByteBuffer.allocate(sizeOf(action) + 4 + sizeOf(key) + 4 + sizeOf(value))
+                .order(ByteOrder.LITTLE_ENDIAN);
+        writeString(parcel, action);
+        parcel.putInt(1);// extras 里的条目数
+        writeString(parcel, key);
+        parcel.putInt(0);// VAL_STRING
+        writeString(parcel, value);
+        return parcel.array();
+    }
+
+    private static Map<String, Object> unmarshal(byte[] bytes) {
+        ByteBuffer parcel = ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN);
+        readString(parcel);// action，接收方按它匹配 IntentFilter
+        int count = parcel.getInt();
+        Map<String, Object> extras = new HashMap<>(count * 2);
+        for (int i = 0; i < count; i++) {
+            String key = readString(parcel);
+            parcel.getInt();
+            extras.put(key, readString(parcel));
+        }
+        return extras;
+    }
+
+    private static int sizeOf(String value) {
+        return 4 + ((value.length() + 1) * 2 + 3 & ~3);
+    }
+
+    private static void writeString(ByteBuffer parcel, String value) {
+        int start = parcel.position();
+        parcel.putInt(value.length());
+        for (int i = 0; i < value.length(); i++) {
+            parcel.putChar(value.charAt(i));
+        }
+        parcel.position(start + sizeOf(value));
+    }
+
+    private static String readString(ByteBuffer parcel) {
+        int start = parcel.position();
+        char[] chars = new char[parcel.getInt()];
+        for (int i = 0; i < chars.length; i++) {
+            chars[i] = parcel.getChar();
+        }
+        String value = new String(chars);
+        parcel.position(start + sizeOf(value));
+        return value;
+    }
+}
@@ -0,0 +1,184 @@
+package com.jh.websocketclient.benchmark;
+
+import com.jh.websocketclient.codec.BinaryCodec;
+import com.jh.websocketclient.codec.Envelope;
+import com.jh.websocketclient.codec.JsonCodec;
+
+import org.java_websocket.client.WebSocketClient;
+import org.java_websocket.drafts.Draft_6455;
+import org.java_websocket.enums.Opcode;
+import org.java_websocket.framing.Framedata;
+import org.java_websocket.handshake.ServerHandshake;
+import org.java_websocket.util.Charsetfunctions;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 收消息链路：服务端推送 -> 帧解析 -> ws-dispatch 上解码、去重、DeltaSync -> 创建 ChatMessage -> 分配序号入库 -> 分发缓冲区
+ * <p>
+ * 每条消息的 id 和序号都不同，不会被当作重复丢掉；每批消息在调用前编码好，编码不计入。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class InboundBenchmark {
+
+    private static final int BATCH = 1000;
+
+    @Param({"32", "1024"})
+    public int payloadSize;
+
+    @Param({"json", "binary"})
+    public String codec;
+
+    private LoopbackServer server;
+    private WebSocketClient client;
+    private InboundPipeline pipeline;
+    private File cursorFile;
+    private String content;
+    private long sent;
+
+    private Draft_6455 draft;
+    // 下一批：服务端推送的消息体，和同样内容编码好的帧
+    private final String[] texts = new String[BATCH];
+    private final ByteBuffer[] binaries = new ByteBuffer[BATCH];
+    private final ByteBuffer[] encodedFrames = new ByteBuffer[BATCH];
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        content = Payloads.text(payloadSize);
+        cursorFile = File.createTempFile("sync", ".cursor");
+        if (!cursorFile.delete()) {
+            throw new IllegalStateException("cannot delete " + cursorFile);
+        }
+        pipeline = new InboundPipeline(BATCH * 2, cursorFile);
+        server = new LoopbackServer();
+        server.startAndWait();
+        client = new WebSocketClient(new URI("ws://127.0.0.1:" + server.getPort())) {
+            @Override
+            public void onOpen(ServerHandshake handshake) {
+            }
+
+            @Override
+            public void onMessage(String message) {
+                pipeline.onMessage(message);
+            }
+
+            @Override
+            public void onMessage(ByteBuffer bytes) {
+                pipeline.onMessage(bytes);
+            }
+
+            @Override
+            public void onClose(int code, String reason, boolean remote) {
+            }
+
+            @Override
+            public void onError(Exception ex) {
+                ex.printStackTrace();
+            }
+        };
+        client.setConnectionLostTimeout(0);
+        if (!client.connectBlocking(10, TimeUnit.SECONDS)) {
+            throw new IllegalStateException("connect failed");
+        }
+
+        // 服务端发出的帧不带掩码，用一个未设置角色的 draft 编码
+        draft = new Draft_6455();
+    }
+
+    /**
+     * 编码下一批消息，id 和序号接着上一批
+     */
+    @Setup(Level.Invocation)
+    public void nextBatch() {
+        boolean binary = "binary".equals(codec);
+        for (int i = 0; i < BATCH; i++) {
+            sent++;
+            Envelope envelope = new Envelope(Envelope.TYPE_CHAT, null, 1000000 + sent, sent, "user1",
+                    1540000000000L + sent * 1500L, content);
+            Framedata frame;
+            if (binary) {
+                binaries[i] = ByteBuffer.wrap(BinaryCodec.getInstance().encode(envelope));
+                frame = draft.createFrames(binaries[i].duplicate(), false).get(0);
+            } else {
+                texts[i] = JsonCodec.getInstance().encodeToString(envelope);
+                frame = draft.createFrames(texts[i], false).get(0);
+            }
+            encodedFrames[i] = draft.createBinaryFrame(frame);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        client.closeBlocking();
+        server.stop(1000);
+        pipeline.close();
+        // 每条消息要么应用了，要么被去重误判丢掉（约百万分之一）
+        long applied = pipeline.getAppliedCount();
+        long duplicates = pipeline.getDuplicateCount();
+        System.out.println("applied " + applied + " of " + sent + ", false duplicates " + duplicates);
+        if (applied + duplicates != sent) {
+            throw new IllegalStateException("lost " + (sent - applied - duplicates) + " messages");
+        }
+        cursorFile.delete();
+    }
+
+    @TearDown(Level.Iteration)
+    public void drain() {
+        pipeline.drain();
+    }
+
+    /**
+     * 完整链路，经过本机 TCP
+     */
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public void receive() throws InterruptedException {
+        if ("binary".equals(codec)) {
+            for (int i = 0; i < BATCH; i++) {
+                server.push(binaries[i]);
+            }
+        } else {
+            for (int i = 0; i < BATCH; i++) {
+                server.push(texts[i]);
+            }
+        }
+        pipeline.awaitHandled(BATCH);
+        pipeline.drain();
+    }
+
+    /**
+     * 读线程上的帧解析加上分发线程上的处理，不经过网络
+     */
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public void decodeAndDispatch() throws Exception {
+        for (int i = 0; i < BATCH; i++) {
+            List<Framedata> frames = draft.translateFrame(encodedFrames[i]);
+            Framedata frame = frames.get(0);
+            if (frame.getOpcode() == Opcode.BINARY) {
+                pipeline.onMessage(frame.getPayloadData());
+            } else {
+                pipeline.onMessage(Charsetfunctions.stringUtf8(frame.getPayloadData()));
+            }
+        }
+        pipeline.awaitHandled(BATCH);
+        pipeline.drain();
+    }
+}
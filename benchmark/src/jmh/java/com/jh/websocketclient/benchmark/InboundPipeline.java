@@ -0,0 +1,213 @@
+package com.jh.websocketclient.benchmark;
+
+import com.jh.websocketclient.codec.BinaryCodec;
+import com.jh.websocketclient.codec.CodecException;
+import com.jh.websocketclient.codec.Envelope;
+import com.jh.websocketclient.codec.EnvelopeAssembler;
+import com.jh.websocketclient.codec.JsonCodec;
+import com.jh.websocketclient.modle.ChatMessage;
+import com.jh.websocketclient.store.DeltaSync;
+import com.jh.websocketclient.store.SyncCursor;
+import com.jh.websocketclient.util.SeenIdFilter;
+import com.jh.websocketclient.websocket.StageExecutor;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * MyWebSocketClient.onMessage 之后的收消息链路在JVM上的组装
+ * <p>
+ * 读线程只入队，ws-dispatch 线程上解码、拼接分块、按id去重、带序号的消息经过 DeltaSync 前移游标，
+ * 这些用的是应用里的类，参数和 MyWebSocketClient 相同。
+ * MessageStore（SQLite）和 MessageDispatcher（Choreographer）依赖 Android，
+ * 按它们在分发线程上的实际工作量复刻：加锁分配序号并放进待写批次，加锁放进有上限的分发缓冲区。
+ * 写库和UI刷新不在分发线程上，不计入。频道消息和回显确认对普通聊天消息只是一次查表，抽样的 MessageTrace 也省略。
+ * <p>
+ * 改动 MyWebSocketClient 的 handleText、handleBinary、handleEnvelope、applyMessages 时同步这里。
+ */
+class InboundPipeline {
+
+    // 与 MyWebSocketClient 相同
+    private static final int DISPATCH_QUEUE_SIZE = 1024;
+    private static final int SYNC_BATCH_SIZE = 100;
+    private static final int DEDUP_EXACT_IDS = 4096;
+    private static final int DEDUP_GENERATION_IDS = 32 * 1024;
+    private static final int DEDUP_BITS_PER_ID = 24;
+    private static final long DEDUP_WINDOW = 30 * 60 * 1000;
+    private static final int ASSEMBLER_MAX_PENDING = 16;
+    private static final int MAX_MESSAGE_SIZE = 4 * 1024 * 1024;
+
+    private final StageExecutor dispatchExecutor = new StageExecutor("ws-dispatch", DISPATCH_QUEUE_SIZE);
+    private final EnvelopeAssembler assembler = new EnvelopeAssembler(ASSEMBLER_MAX_PENDING, MAX_MESSAGE_SIZE);
+    private final SeenIdFilter seenIds = new SeenIdFilter(DEDUP_EXACT_IDS, DEDUP_GENERATION_IDS,
+            DEDUP_BITS_PER_ID, DEDUP_WINDOW);
+    private final SyncCursor cursor;
+    private final DeltaSync deltaSync;
+    // 分发线程每处理完一条释放一个许可，不管是应用、丢弃还是缓存
+    private final Semaphore handled = new Semaphore(0);
+
+    private final Object storeLock = new Object();
+    private List<ChatMessage> pendingWrites = new ArrayList<>();
+    private long lastSeq;
+
+    private final ArrayDeque<ChatMessage> buffer = new ArrayDeque<>();
+    private final int capacity;
+
+    /**
+     * @param capacity   分发缓冲区的上限
+     * @param cursorFile 补齐游标的文件，应当不存在：从来没有收到过带序号的消息，连上后不补齐
+     */
+    InboundPipeline(int capacity, File cursorFile) {
+        this.capacity = capacity;
+        this.cursor = new SyncCursor(cursorFile);
+        this.deltaSync = new DeltaSync(cursor, new DeltaSync.Sink() {
+            @Override
+            public void apply(List<Envelope> batch, boolean replayed) {
+                applyMessages(batch);
+            }
+        }, SYNC_BATCH_SIZE);
+        deltaSync.onConnected();
+    }
+
+    /**
+     * 读线程：与 MyWebSocketClient.onMessage(String) 相同，只入队
+     */
+    void onMessage(final String text) {
+        dispatchExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                handleText(text);
+            }
+        });
+    }
+
+    /**
+     * 读线程：与 MyWebSocketClient.onMessage(ByteBuffer) 相同，消息格式的拷贝一份交给分发线程
+     */
+    void onMessage(ByteBuffer bytes) {
+        if (!BinaryCodec.isEnvelope(bytes)) {
+            handled.release();
+            return;
+        }
+        final ByteBuffer copy = ByteBuffer.allocate(bytes.remaining());
+        copy.put(bytes.duplicate());
+        copy.flip();
+        dispatchExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                handleBinary(copy);
+            }
+        });
+    }
+
+    /**
+     * 等分发线程处理完 count 条消息
+     */
+    void awaitHandled(int count) throws InterruptedException {
+        handled.acquire(count);
+    }
+
+    private void handleText(String message) {
+        try {
+            Envelope envelope;
+            if (message.length() > 0 && message.charAt(0) == '{') {
+                try {
+                    envelope = JsonCodec.getInstance().decode(message);
+                } catch (CodecException e) {
+                    envelope = Envelope.chat(0, 0, message);
+                }
+            } else {
+                envelope = Envelope.chat(0, 0, message);
+            }
+            handleEnvelope(envelope);
+        } finally {
+            handled.release();
+        }
+    }
+
+    private void handleBinary(ByteBuffer bytes) {
+        try {
+            handleEnvelope(BinaryCodec.getInstance().decode(bytes.duplicate()));
+        } catch (CodecException e) {
+            throw new IllegalStateException(e);
+        } finally {
+            handled.release();
+        }
+    }
+
+    private void handleEnvelope(Envelope envelope) {
+        envelope = assembler.offer(envelope);
+        if (envelope == null) {
+            return;
+        }
+        if (!seenIds.add(envelope.getId(), System.currentTimeMillis())) {
+            return;
+        }
+        if (deltaSync.onEnvelope(envelope)) {
+            return;
+        }
+        applyMessages(Collections.singletonList(envelope));
+    }
+
+    private void applyMessages(List<Envelope> batch) {
+        for (Envelope envelope : batch) {
+            long time = envelope.getTime() != 0 ? envelope.getTime() : System.currentTimeMillis();
+            ChatMessage message = ChatMessage.received(envelope.getContent(), time);
+            if (envelope.getId() != 0) {
+                message.setId(envelope.getId());
+            }
+            synchronized (storeLock) {
+                message.setSeq(++lastSeq);
+                pendingWrites.add(message);
+            }
+            synchronized (buffer) {
+                if (buffer.size() < capacity) {
+                    buffer.addLast(message);
+                }
+            }
+        }
+    }
+
+    /**
+     * 代替写库线程和主线程取走数据，返回这次取走的消息数
+     */
+    int drain() {
+        List<ChatMessage> batch;
+        synchronized (storeLock) {
+            batch = pendingWrites;
+            pendingWrites = new ArrayList<>();
+        }
+        synchronized (buffer) {
+            buffer.clear();
+        }
+        return batch.size();
+    }
+
+    /**
+     * 应用过的消息数，包括分发缓冲区满被丢掉的
+     */
+    long getAppliedCount() {
+        synchronized (storeLock) {
+            return lastSeq;
+        }
+    }
+
+    /**
+     * 被当作重复丢掉的消息数，id 都不同时只有布隆过滤器的误判
+     */
+    long getDuplicateCount() {
+        return seenIds.getDuplicateCount();
+    }
+
+    void close() throws InterruptedException {
+        dispatchExecutor.shutdown();
+        dispatchExecutor.awaitTermination(10, TimeUnit.SECONDS);
+        cursor.close();
+    }
+}
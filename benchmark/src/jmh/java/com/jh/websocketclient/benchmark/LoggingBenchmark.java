@@ -0,0 +1,118 @@
+package com.jh.websocketclient.benchmark;
+
+import com.jh.websocketclient.codec.CodecException;
+import com.jh.websocketclient.codec.Envelope;
+import com.jh.websocketclient.codec.JsonCodec;
+import com.jh.websocketclient.util.ClientLog;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 每收到一帧的开销：解码一条聊天JSON，再按 mode 记日志
+ * <p>
+ * eager：原来的做法，拼接整条消息后在读线程上同步格式化、写出；
+ * off：门面关闭 DEBUG，只剩级别判断；
+ * async：每帧都记，格式化和写出在 ws-log 线程上；
+ * sampled：每100帧记一条。
+ * 写出用 PrettySink 模拟 PrettyFormatStrategy 的边框格式化，结束时打印写出和丢弃的条数。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class LoggingBenchmark {
+
+    private static final int MESSAGES = 1024;
+
+    @Param({"eager", "off", "async", "sampled"})
+    public String mode;
+
+    @Param({"64", "4096"})
+    public int contentLength;
+
+    private String[] frames;
+    private int next;
+    private PrettySink sink;
+    private ClientLog log;
+    private ClientLog.Sampled frameLog;
+
+    /**
+     * 模拟 PrettyFormatStrategy：按行切开，每行加上左边框，上下加横线
+     */
+    static final class PrettySink implements ClientLog.Sink {
+        private static final String TOP = "┌────────────────────────────────────────────────────────";
+        private static final String BOTTOM = "└────────────────────────────────────────────────────────";
+        private static final int CHUNK_SIZE = 4000;// logcat 单条上限
+
+        long written;
+        long chars;
+
+        @Override
+        public void write(int level, String tag, String message, Throwable error) {
+            StringBuilder sb = new StringBuilder(message.length() + 256);
+            sb.append(TOP).append('\n');
+            for (int start = 0; start < message.length(); start += CHUNK_SIZE) {
+                String chunk = message.substring(start, Math.min(message.length(), start + CHUNK_SIZE));
+                for (String line : chunk.split("\n")) {
+                    sb.append("│ ").append(line).append('\n');
+                }
+            }
+            sb.append(BOTTOM);
+            chars += sb.length();
+            written++;
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        Random random = new Random(42);
+        frames = new String[MESSAGES];
+        for (int i = 0; i < MESSAGES; i++) {
+            frames[i] = JsonCodec.getInstance().encodeToString(new Envelope(Envelope.TYPE_CHAT, null, 1000000 + i,
+                    i + 1, "user" + random.nextInt(20), 1540000000000L + i * 1500L, Payloads.text(contentLength)));
+        }
+        sink = new PrettySink();
+        int level = "off".equals(mode) ? ClientLog.WARN : ClientLog.DEBUG;
+        ClientLog.install(sink, level, 1024, 256);
+        log = ClientLog.get("MyWebSocketClient");
+        frameLog = log.sampled(100);
+    }
+
+    @TearDown(Level.Trial)
+    public void printCounts() throws InterruptedException {
+        ClientLog.flush(5000);
+        System.out.println();
+        System.out.println(mode + " content=" + contentLength + ": written=" + sink.written
+                + " dropped=" + ClientLog.getDroppedCount() + " chars=" + sink.chars);
+        ClientLog.install(sink, ClientLog.NONE, 16, 16);
+    }
+
+    @Benchmark
+    public Envelope frame() throws CodecException {
+        String message = frames[next++ & (MESSAGES - 1)];
+        switch (mode) {
+            case "eager":
+                sink.write(ClientLog.ERROR, "WebSocketTest", "MyWebSocketClient ->onMessage: 消息通道收到消息 = "
+                        + message, null);
+                break;
+            case "sampled":
+                frameLog.d("onMessage: 消息通道收到消息 = {}（每{}条记一条）", message);
+                break;
+            default:
+                log.d("onMessage: 消息通道收到消息 = {}", message);
+                break;
+        }
+        return JsonCodec.getInstance().decode(message);
+    }
+}
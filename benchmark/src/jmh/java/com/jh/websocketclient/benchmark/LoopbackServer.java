@@ -0,0 +1,114 @@
+package com.jh.websocketclient.benchmark;
+
+import com.jh.websocketclient.codec.CodecException;
+import com.jh.websocketclient.codec.Envelope;
+import com.jh.websocketclient.codec.JsonCodec;
+
+import org.java_websocket.WebSocket;
+import org.java_websocket.handshake.ClientHandshake;
+import org.java_websocket.server.WebSocketServer;
+
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 进程内的 WebSocket 服务端，代替真实的聊天服务器
+ * <p>
+ * 收到的每条消息释放一个 received 许可，基准测试据此等待一批消息真正到达服务端；
+ * 文本消息另外释放一个 receivedText 许可，用来在二进制数据中间单独等待文本消息。
+ * 调用 enableAck 后，收到的聊天消息在模拟的往返时延之后回一个确认。
+ */
+class LoopbackServer extends WebSocketServer {
+
+    final Semaphore received = new Semaphore(0);
+    final Semaphore receivedText = new Semaphore(0);
+    private final CountDownLatch started = new CountDownLatch(1);
+    private volatile WebSocket connection;
+    private volatile long ackDelayMillis = -1;// -1表示不确认
+    private final ScheduledExecutorService ackExecutor = Executors.newSingleThreadScheduledExecutor();
+
+    LoopbackServer() {
+        super(new InetSocketAddress("127.0.0.1", 0));
+        setReuseAddr(true);
+    }
+
+    void startAndWait() throws InterruptedException {
+        start();
+        if (!started.await(10, TimeUnit.SECONDS)) {
+            throw new IllegalStateException("server not started");
+        }
+    }
+
+    /**
+     * 收到聊天消息后延迟 delayMillis 回确认，模拟链路往返时延
+     */
+    void enableAck(long delayMillis) {
+        ackDelayMillis = delayMillis;
+    }
+
+    /**
+     * 向已连接的客户端推送一条消息
+     */
+    void push(String text) {
+        connection.send(text);
+    }
+
+    void push(ByteBuffer bytes) {
+        connection.send(bytes);
+    }
+
+    @Override
+    public void stop(int timeout) throws InterruptedException {
+        ackExecutor.shutdownNow();
+        super.stop(timeout);
+    }
+
+    @Override
+    public void onStart() {
+        started.countDown();
+    }
+
+    @Override
+    public void onOpen(WebSocket conn, ClientHandshake handshake) {
+        connection = conn;
+    }
+
+    @Override
+    public void onClose(WebSocket conn, int code, String reason, boolean remote) {
+    }
+
+    @Override
+    public void onMessage(final WebSocket conn, String message) {
+        receivedText.release();
+        received.release();
+        if (ackDelayMillis >= 0) {
+            try {
+                Envelope envelope = JsonCodec.getInstance().decode(message);
+                final String ack = JsonCodec.getInstance().encodeToString(Envelope.ack(envelope.getId(), 0));
+                ackExecutor.schedule(new Runnable() {
+                    @Override
+                    public void run() {
+                        conn.send(ack);
+                    }
+                }, ackDelayMillis, TimeUnit.MILLISECONDS);
+            } catch (CodecException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    @Override
+    public void onMessage(WebSocket conn, ByteBuffer message) {
+        received.release();
+    }
+
+    @Override
+    public void onError(WebSocket conn, Exception ex) {
+        ex.printStackTrace();
+    }
+}
@@ -0,0 +1,153 @@
+package com.jh.websocketclient.benchmark;
+
+import com.jh.websocketclient.modle.ChatMessage;
+import com.jh.websocketclient.util.TimeFormatter;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 消息对象的创建和列表绑定时的时间格式化
+ * <p>
+ * legacy 开头的是改之前的做法作为对照：时间存成字符串，每次绑定 Long.parseLong、
+ * new SimpleDateFormat、new Date；bind 系列在一段每条相隔1.5秒的历史里来回滚动绑定。
+ * 加 -prof gc 可以看到每次操作的分配量
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class MessageModelBenchmark {
+
+    private static final int HISTORY = 1024;
+
+    private final String content = Payloads.text(32);
+    private long time = System.currentTimeMillis();
+
+    private final ChatMessage[] history = new ChatMessage[HISTORY];
+    private final LegacyChatMessage[] legacyHistory = new LegacyChatMessage[HISTORY];
+    private int position;
+
+    /**
+     * 改之前的消息对象
+     */
+    static class LegacyChatMessage {
+        private String content;
+        private String time;
+        private int isMeSend;// 0是对方发送 1是自己发送
+        private int isRead;// 是否已读（0未读 1已读）
+
+        String getContent() {
+            return content;
+        }
+
+        void setContent(String content) {
+            this.content = content;
+        }
+
+        String getTime() {
+            return time;
+        }
+
+        void setTime(String time) {
+            this.time = time;
+        }
+
+        int getIsMeSend() {
+            return isMeSend;
+        }
+
+        void setIsMeSend(int isMeSend) {
+            this.isMeSend = isMeSend;
+        }
+
+        int getIsRead() {
+            return isRead;
+        }
+
+        void setIsRead(int isRead) {
+            this.isRead = isRead;
+        }
+    }
+
+    /**
+     * 改之前 Adapter_ChatMessage 里的格式化
+     */
+    private static String legacyFormatTime(String timeMillis) {
+        long timeMillisl = Long.parseLong(timeMillis);
+        SimpleDateFormat simpleDateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+        Date date = new Date(timeMillisl);
+        return simpleDateFormat.format(date);
+    }
+
+    private static LegacyChatMessage legacyReceived(String content, long time) {
+        LegacyChatMessage chatMessage = new LegacyChatMessage();
+        chatMessage.setContent(content);
+        chatMessage.setIsMeSend(0);
+        chatMessage.setIsRead(1);
+        chatMessage.setTime(time + "");
+        return chatMessage;
+    }
+
+    @Setup
+    public void setUp() {
+        for (int i = 0; i < HISTORY; i++) {
+            long messageTime = time + i * 1500L;
+            history[i] = ChatMessage.received(content, messageTime);
+            legacyHistory[i] = legacyReceived(content, messageTime);
+        }
+    }
+
+    @Benchmark
+    public LegacyChatMessage legacyCreate() {
+        return legacyReceived(content, time);
+    }
+
+    @Benchmark
+    public ChatMessage create() {
+        return ChatMessage.received(content, time);
+    }
+
+    /**
+     * 一次绑定：同一秒内的消息复用缓存的字符串
+     */
+    @Benchmark
+    public String createAndFormat() {
+        return ChatMessage.received(content, time).getFormattedTime();
+    }
+
+    /**
+     * 改之前的一次绑定：每次都重新解析和格式化
+     */
+    @Benchmark
+    public String legacyBind() {
+        LegacyChatMessage message = legacyHistory[position++ & (HISTORY - 1)];
+        return message.getIsMeSend() == 1 && message.getIsRead() == 0 ? null : legacyFormatTime(message.getTime());
+    }
+
+    /**
+     * 现在的一次绑定：每条消息第一次绑定时格式化，之后复用
+     */
+    @Benchmark
+    public String bind() {
+        ChatMessage message = history[position++ & (HISTORY - 1)];
+        return message.isMeSend() && !message.isRead() ? null : message.getFormattedTime();
+    }
+
+    /**
+     * 每次都跨秒，缓存不命中
+     */
+    @Benchmark
+    public String formatNewSecond() {
+        time += 1000;
+        return TimeFormatter.format(time);
+    }
+}
@@ -0,0 +1,72 @@
+package com.jh.websocketclient.benchmark;
+
+import com.jh.websocketclient.metrics.MetricsRegistry;
+import com.jh.websocketclient.metrics.StripedCounter;
+import com.jh.websocketclient.util.LatencyHistogram;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 每收到一帧记录指标的开销：帧数、字节数两个计数，加一次延时记录
+ * <p>
+ * 4个线程同时记录（读线程、分发线程、发送线程、主线程），
+ * atomic：所有线程共用 AtomicLong；striped：MetricsRegistry 里的 StripedCounter。
+ * gc 分析器的 alloc.rate.norm 应为 0。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Threads(4)
+public class MetricsBenchmark {
+
+    private static final int FRAME_BYTES = 512;
+
+    @Param({"atomic", "striped"})
+    public String mode;
+
+    private final AtomicLong atomicFrames = new AtomicLong();
+    private final AtomicLong atomicBytes = new AtomicLong();
+    private MetricsRegistry registry;
+    private StripedCounter frames;
+    private StripedCounter bytes;
+    private LatencyHistogram latency;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        registry = new MetricsRegistry();
+        frames = registry.counter("frames.in");
+        bytes = registry.counter("bytes.in");
+        latency = registry.histogram("dispatch_to_ui_ns");
+    }
+
+    @TearDown(Level.Trial)
+    public void printSnapshot() {
+        System.out.println();
+        System.out.println(mode + ": atomic=" + atomicFrames.get() + " " + registry.snapshot(System.currentTimeMillis()));
+    }
+
+    @Benchmark
+    public void frame() {
+        if ("atomic".equals(mode)) {
+            atomicFrames.incrementAndGet();
+            atomicBytes.addAndGet(FRAME_BYTES);
+        } else {
+            frames.increment();
+            bytes.add(FRAME_BYTES);
+        }
+        latency.record(FRAME_BYTES);
+    }
+}
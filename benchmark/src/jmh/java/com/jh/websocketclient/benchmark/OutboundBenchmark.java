@@ -0,0 +1,141 @@
+package com.jh.websocketclient.benchmark;
+
+import com.jh.websocketclient.codec.Envelope;
+import com.jh.websocketclient.codec.JsonCodec;
+import com.jh.websocketclient.queue.OutboundQueue;
+
+import org.java_websocket.client.WebSocketClient;
+import org.java_websocket.drafts.Draft_6455;
+import org.java_websocket.framing.Framedata;
+import org.java_websocket.framing.TextFrame;
+import org.java_websocket.handshake.ServerHandshake;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 发消息链路：WebSocketService.sendMsg -> OutboundQueue（追加日志、批量发送、确认）-> 帧编码 -> socket 写出
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class OutboundBenchmark {
+
+    private static final int BATCH = 1000;
+
+    @Param({"32", "1024"})
+    public int payloadSize;
+
+    private LoopbackServer server;
+    private WebSocketClient client;
+    private OutboundQueue queue;
+    private File queueDir;
+    private String payload;
+    private Envelope envelope;
+
+    private Draft_6455 draft;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        payload = Payloads.text(payloadSize);
+        envelope = Envelope.chat(System.currentTimeMillis() << 16, System.currentTimeMillis(), payload);
+        server = new LoopbackServer();
+        server.startAndWait();
+        client = new WebSocketClient(new URI("ws://127.0.0.1:" + server.getPort())) {
+            @Override
+            public void onOpen(ServerHandshake handshake) {
+            }
+
+            @Override
+            public void onMessage(String message) {
+            }
+
+            @Override
+            public void onClose(int code, String reason, boolean remote) {
+            }
+
+            @Override
+            public void onError(Exception ex) {
+                ex.printStackTrace();
+            }
+        };
+        client.setConnectionLostTimeout(0);
+        if (!client.connectBlocking(10, TimeUnit.SECONDS)) {
+            throw new IllegalStateException("connect failed");
+        }
+
+        queueDir = File.createTempFile("outbound", "");
+        if (!queueDir.delete() || !queueDir.mkdirs()) {
+            throw new IllegalStateException("cannot create " + queueDir);
+        }
+        // 与 MyWebSocketClient 中的配置一致
+        queue = new OutboundQueue(queueDir, new OutboundQueue.Sender() {
+            @Override
+            public boolean isOpen() {
+                return client.isOpen();
+            }
+
+            @Override
+            public void send(Envelope envelope) {
+                // 与 MyWebSocketClient.sendEnvelope 一致：未协商二进制编码时按JSON文本帧发送
+                TextFrame frame = new TextFrame();
+                frame.setPayload(ByteBuffer.wrap(JsonCodec.getInstance().encode(envelope)));
+                frame.setFin(true);
+                client.sendFrame(frame);
+            }
+        }, 1000, 1024 * 1024, 50, 64 * 1024, 32);
+
+        // 客户端发出的帧带掩码
+        draft = new Draft_6455();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        client.closeBlocking();
+        server.stop(1000);
+        File[] files = queueDir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        queueDir.delete();
+    }
+
+    /**
+     * 完整链路，等到服务端收齐一批消息
+     */
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public void send() throws InterruptedException {
+        for (int i = 0; i < BATCH; i++) {
+            while (!queue.offer(envelope)) {
+                Thread.yield();// 队列满，等工作线程发出去一些
+            }
+        }
+        server.received.acquire(BATCH);
+    }
+
+    /**
+     * 只有帧编码（含掩码），不经过队列和网络
+     */
+    @Benchmark
+    public ByteBuffer encodeFrame() {
+        List<Framedata> frames = draft.createFrames(payload, true);
+        return draft.createBinaryFrame(frames.get(0));
+    }
+}
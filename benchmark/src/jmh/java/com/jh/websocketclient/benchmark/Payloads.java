@@ -0,0 +1,63 @@
+package com.jh.websocketclient.benchmark;
+
+import com.jh.websocketclient.codec.Envelope;
+
+import java.util.Random;
+
+/**
+ * 测试用消息内容，中英文混合，接近真实聊天消息的 UTF-8 编码开销
+ */
+final class Payloads {
+
+    private static final String SAMPLE = "收到一条新消息 hello websocket ";
+
+    private Payloads() {
+    }
+
+    /**
+     * 聊天消息JSON，字段名固定，内容长度从几个字到几百字不等
+     */
+    static String chatJson(Random random, int index) {
+        int length = random.nextInt(4) == 0 ? 100 + random.nextInt(400) : 2 + random.nextInt(40);
+        return "{\"type\":\"chat\",\"msgId\":" + (1000000 + index)
+                + ",\"from\":\"user" + random.nextInt(20) + "\",\"to\":\"user" + random.nextInt(20)
+                + "\",\"time\":" + (1540000000000L + index * 1500L)
+                + ",\"content\":\"" + words(random, length) + "\"}";
+    }
+
+    /**
+     * 和 chatJson 相同分布的信封
+     */
+    static Envelope chatEnvelope(Random random, int index) {
+        int length = random.nextInt(4) == 0 ? 100 + random.nextInt(400) : 2 + random.nextInt(40);
+        return new Envelope(Envelope.TYPE_CHAT, null, 1000000 + index, index + 1, "user" + random.nextInt(20),
+                1540000000000L + index * 1500L, words(random, length));
+    }
+
+    private static final String[] WORDS = {"你好", "在吗", "好的", "收到", "明天", "下午", "开会", "项目", "进度",
+            "已经", "提交", "代码", "测试", "没问题", "谢谢", "哈哈", "ok", "thanks", "build", "release", "bug",
+            "fixed", "review", "😀", "。", "，", "？", " "};
+
+    /**
+     * 随机词拼成的内容，比重复的句子更接近真实消息的压缩率
+     */
+    private static String words(Random random, int length) {
+        StringBuilder builder = new StringBuilder(length + 8);
+        while (builder.length() < length) {
+            builder.append(WORDS[random.nextInt(WORDS.length)]);
+        }
+        return builder.toString();
+    }
+
+    /**
+     * @param length 字符数
+     */
+    static String text(int length) {
+        StringBuilder builder = new StringBuilder(length);
+        while (builder.length() < length) {
+            builder.append(SAMPLE);
+        }
+        builder.setLength(length);
+        return builder.toString();
+    }
+}
@@ -0,0 +1,150 @@
+package com.jh.websocketclient.benchmark;
+
+import com.jh.websocketclient.codec.Envelope;
+import com.jh.websocketclient.codec.JsonCodec;
+import com.jh.websocketclient.queue.OutboundScheduler;
+import com.jh.websocketclient.queue.TrafficClass;
+
+import org.java_websocket.WebSocketImpl;
+import org.java_websocket.client.WebSocketClient;
+import org.java_websocket.framing.Framedata;
+import org.java_websocket.framing.TextFrame;
+import org.java_websocket.handshake.ServerHandshake;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 后台持续发送大块二进制数据时，一条聊天消息从提交到服务端收到的时延
+ * <p>
+ * scheduled: 和 MyWebSocketClient 相同的配置，按优先级调度并拆块；
+ * fifo: 不拆块、不限制库的写队列，相当于所有数据直接 send，先进先出。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class SchedulerBenchmark {
+
+    private static final int BULK_SIZE = 256 * 1024;
+    private static final int BULK_IN_FLIGHT = 8;// 后台同时排队的二进制消息数
+
+    @Param({"scheduled", "fifo"})
+    public String mode;
+
+    private LoopbackServer server;
+    private WebSocketClient client;
+    private OutboundScheduler scheduler;
+    private Thread bulkThread;
+    private volatile boolean running;
+    private Envelope chat;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        server = new LoopbackServer();
+        server.startAndWait();
+        client = new WebSocketClient(new URI("ws://127.0.0.1:" + server.getPort())) {
+            @Override
+            public void onOpen(ServerHandshake handshake) {
+            }
+
+            @Override
+            public void onMessage(String message) {
+            }
+
+            @Override
+            public void onClose(int code, String reason, boolean remote) {
+            }
+
+            @Override
+            public void onError(Exception ex) {
+                ex.printStackTrace();
+            }
+        };
+        client.setConnectionLostTimeout(0);
+        if (!client.connectBlocking(10, TimeUnit.SECONDS)) {
+            throw new IllegalStateException("connect failed");
+        }
+
+        OutboundScheduler.Writer writer = new OutboundScheduler.Writer() {
+            @Override
+            public boolean isOpen() {
+                return client.isOpen();
+            }
+
+            @Override
+            public int getBufferedFrames() {
+                return ((WebSocketImpl) client.getConnection()).outQueue.size();
+            }
+
+            @Override
+            public void write(Envelope envelope) {
+                TextFrame frame = new TextFrame();
+                frame.setPayload(ByteBuffer.wrap(JsonCodec.getInstance().encode(envelope)));
+                frame.setFin(true);
+                client.sendFrame(frame);
+            }
+
+            @Override
+            public void write(Framedata frame) {
+                client.sendFrame(frame);
+            }
+        };
+        scheduler = "scheduled".equals(mode)
+                ? new OutboundScheduler(writer, 16 * 1024, 4)
+                : new OutboundScheduler(writer, Integer.MAX_VALUE, Integer.MAX_VALUE);
+        scheduler.onConnected();
+
+        chat = Envelope.chat(1, System.currentTimeMillis(), Payloads.text(40));
+        final ByteBuffer bulk = ByteBuffer.allocate(BULK_SIZE);
+        final Semaphore inFlight = new Semaphore(BULK_IN_FLIGHT);
+        running = true;
+        bulkThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    while (running) {
+                        inFlight.acquire();
+                        scheduler.submitMessage(TrafficClass.BULK, bulk.duplicate(), true, new Runnable() {
+                            @Override
+                            public void run() {
+                                inFlight.release();
+                            }
+                        });
+                    }
+                } catch (InterruptedException ignored) {
+                }
+            }
+        }, "bulk-sender");
+        bulkThread.start();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        running = false;
+        bulkThread.interrupt();
+        bulkThread.join();
+        System.out.println();
+        System.out.println(mode + ": " + scheduler.report());
+        scheduler.shutdown();
+        client.closeBlocking();
+        server.stop(1000);
+    }
+
+    @Benchmark
+    public void chatUnderBulkLoad() throws InterruptedException {
+        scheduler.submit(TrafficClass.INTERACTIVE, chat);
+        server.receivedText.acquire();
+    }
+}
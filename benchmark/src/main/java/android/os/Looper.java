@@ -0,0 +1,15 @@
+package android.os;
+
+/**
+ * JVM 上运行基准测试时代替 android.os.Looper：EventBus 看到 android.util.Log 就会找主线程的 Looper，
+ * 这里返回 null，EventBus 按没有主线程处理
+ */
+public final class Looper {
+
+    private Looper() {
+    }
+
+    public static Looper getMainLooper() {
+        return null;
+    }
+}
@@ -0,0 +1,24 @@
+package android.util;
+
+/**
+ * JVM 上运行基准测试时代替 android.util.Log，只输出警告和错误
+ */
+public final class Log {
+
+    private Log() {
+    }
+
+    public static int d(String tag, String msg) {
+        return 0;
+    }
+
+    public static int w(String tag, String msg) {
+        System.err.println("W/" + tag + ": " + msg);
+        return 0;
+    }
+
+    public static int e(String tag, String msg, Throwable tr) {
+        System.err.println("E/" + tag + ": " + msg + " " + tr);
+        return 0;
+    }
+}